@@ -43,6 +43,9 @@ public class IpCameraBindingConstants {
     public static final String CONFIG_PORT = "PORT";
     public static final String CONFIG_ONVIF_PORT = "ONVIF_PORT";
     public static final String CONFIG_SERVER_PORT = "SERVER_PORT";
+    public static final String CONFIG_RTSP_SERVER_PORT = "RTSP_SERVER_PORT";
+    public static final String CONFIG_TLS_CERTIFICATE = "TLS_CERTIFICATE";
+    public static final String CONFIG_TLS_PRIVATE_KEY = "TLS_PRIVATE_KEY";
     public static final String CONFIG_USERNAME = "USERNAME";
     public static final String CONFIG_PASSWORD = "PASSWORD";
     public static final String CONFIG_ONVIF_PROFILE_NUMBER = "ONVIF_MEDIA_PROFILE";
@@ -59,9 +62,12 @@ public class IpCameraBindingConstants {
     public static final String CONFIG_FFMPEG_INPUT = "FFMPEG_INPUT";
     public static final String CONFIG_FFMPEG_OUTPUT = "FFMPEG_OUTPUT";
     public static final String CONFIG_FFMPEG_HLS_OUT_ARGUMENTS = "FFMPEG_HLS_OUT_ARGUMENTS";
+    public static final String CONFIG_HLS_MODE = "HLS_MODE";
+    public static final String CONFIG_HLS_PREWARM_ON_MOTION = "HLS_PREWARM_ON_MOTION";
     public static final String CONFIG_FFMPEG_GIF_OUT_ARGUMENTS = "FFMPEG_GIF_OUT_ARGUMENTS";
     public static final String CONFIG_GIF_PREROLL = "GIF_PREROLL";
     public static final String CONFIG_GIF_POSTROLL = "GIF_POSTROLL";
+    public static final String CONFIG_CAMERAS = "CAMERAS";
     public static final String CONFIG_FIRST_CAM = "FIRST_CAM";
     public static final String CONFIG_SECOND_CAM = "SECOND_CAM";
     public static final String CONFIG_THIRD_CAM = "THIRD_CAM";
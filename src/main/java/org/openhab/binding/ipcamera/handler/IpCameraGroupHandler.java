@@ -15,24 +15,28 @@ package org.openhab.binding.ipcamera.handler;
 
 import static org.openhab.binding.ipcamera.IpCameraBindingConstants.*;
 
-import java.io.IOException;
-import java.math.BigDecimal;
-import java.math.RoundingMode;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.net.NetworkInterface;
 import java.net.SocketException;
-import java.nio.file.Files;
-import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.Enumeration;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
 
 import org.eclipse.jdt.annotation.Nullable;
 import org.eclipse.smarthome.config.core.Configuration;
@@ -44,20 +48,26 @@ import org.eclipse.smarthome.core.thing.ThingStatus;
 import org.eclipse.smarthome.core.thing.ThingTypeUID;
 import org.eclipse.smarthome.core.thing.binding.BaseThingHandler;
 import org.eclipse.smarthome.core.types.Command;
+import org.openhab.binding.ipcamera.internal.CameraRegistry;
+import org.openhab.binding.ipcamera.internal.GroupPlaylist;
+import org.openhab.binding.ipcamera.internal.HlsPlaylist;
+import org.openhab.binding.ipcamera.internal.MosaicRenderer;
+import org.openhab.binding.ipcamera.internal.StreamServer;
 import org.openhab.binding.ipcamera.internal.StreamServerGroupHandler;
+import org.openhab.binding.ipcamera.internal.StreamServerInitializer;
+import org.openhab.binding.ipcamera.internal.StreamServerUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import io.netty.bootstrap.ServerBootstrap;
 import io.netty.channel.ChannelFuture;
-import io.netty.channel.ChannelInitializer;
+import io.netty.channel.ChannelHandlerContext;
 import io.netty.channel.EventLoopGroup;
+import io.netty.channel.group.ChannelGroup;
+import io.netty.channel.group.DefaultChannelGroup;
 import io.netty.channel.nio.NioEventLoopGroup;
-import io.netty.channel.socket.SocketChannel;
 import io.netty.channel.socket.nio.NioServerSocketChannel;
-import io.netty.handler.codec.http.HttpServerCodec;
-import io.netty.handler.stream.ChunkedWriteHandler;
-import io.netty.handler.timeout.IdleStateHandler;
+import io.netty.util.concurrent.GlobalEventExecutor;
 
 /**
  * The {@link IpCameraGroupHandler} is responsible for finding cameras that are part of this group and displaying a
@@ -66,13 +76,17 @@ import io.netty.handler.timeout.IdleStateHandler;
  * @author Matthew Skinner - Initial contribution
  */
 
-public class IpCameraGroupHandler extends BaseThingHandler {
+public class IpCameraGroupHandler extends BaseThingHandler implements CameraRegistry.Listener {
     private final Logger logger = LoggerFactory.getLogger(getClass());
     public static final Set<ThingTypeUID> SUPPORTED_THING_TYPES = new HashSet<ThingTypeUID>(
             Arrays.asList(THING_TYPE_GROUPDISPLAY));
     private Configuration config;
-    BigDecimal pollTimeInSeconds = new BigDecimal(2);
-    public ArrayList<IpCameraHandler> cameraOrder = new ArrayList<IpCameraHandler>(2);
+    double pollTimeInSeconds = 2;
+    public final List<IpCameraHandler> cameraOrder = new CopyOnWriteArrayList<IpCameraHandler>();
+    private volatile Map<String, Integer> members = new HashMap<String, Integer>();
+    // The cameras in cameraOrder by their place in the config, so the stream server can find one without a search.
+    private final Map<Integer, IpCameraHandler> membersByPosition = new ConcurrentHashMap<Integer, IpCameraHandler>();
+    private final CameraRegistry cameraRegistry;
     private EventLoopGroup serversLoopGroup = new NioEventLoopGroup();
     private final ScheduledExecutorService pollCameraGroup = Executors.newSingleThreadScheduledExecutor();
     private @Nullable ScheduledFuture<?> pollCameraGroupJob = null;
@@ -81,82 +95,162 @@ public class IpCameraGroupHandler extends BaseThingHandler {
     public String hostIp = "0.0.0.0";
     boolean motionChangesOrder = true;
     public int serverPort = 0;
-    public String playList = "";
-    String playingNow = "";
-    public int cameraIndex = 0;
+    // Read by other threads, read it once and look it up with getCamera as cameras can go offline at any time.
+    public volatile int cameraIndex = 0;
     public boolean hlsTurnedOn = false;
-    int entries = 0;
-    BigDecimal numberOfFiles = new BigDecimal(1);
-    int mediaSequence = 1;
+    public final GroupPlaylist groupPlaylist = new GroupPlaylist();
+    private final StreamServer sharedStreamServer;
+    // How often a new frame is sent to the mosaic.mjpeg streams, it is only encoded again if a snapshot changed.
+    private static final int MOSAIC_FRAME_MS = 1000;
+    private final MosaicRenderer mosaicRenderer;
+    final ChannelGroup mosaicChannelGroup = new DefaultChannelGroup(GlobalEventExecutor.INSTANCE);
+    private @Nullable ScheduledFuture<?> mosaicJob = null;
+    final ChannelGroup mjpegChannelGroup = new DefaultChannelGroup(GlobalEventExecutor.INSTANCE);
+    // The listener given to each camera while the group's ipcamera.mjpeg is being watched.
+    private final Map<IpCameraHandler, Consumer<byte[]>> frameForwarders = new HashMap<>();
 
-    public IpCameraGroupHandler(Thing thing) {
+    public IpCameraGroupHandler(Thing thing, StreamServer sharedStreamServer, Executor mosaicExecutor,
+            CameraRegistry cameraRegistry) {
         super(thing);
+        this.sharedStreamServer = sharedStreamServer;
+        this.cameraRegistry = cameraRegistry;
+        mosaicRenderer = new MosaicRenderer(mosaicExecutor);
     }
 
     public String getWhiteList() {
         return config.get(CONFIG_IP_WHITELIST).toString();
     }
 
-    public String getPlayList() {
-        return playList;
-    }
-
-    public String getOutputFolder(int index) {
-        IpCameraHandler handle = cameraOrder.get(index);
+    public String getOutputFolder(IpCameraHandler handle) {
         return (String) handle.config.get(CONFIG_FFMPEG_OUTPUT);
     }
 
-    private String readCamerasPlaylist(int cameraIndex) {
-        String camerasm3u8 = "";
-        IpCameraHandler handle = cameraOrder.get(cameraIndex);
+    /**
+     * @return the camera at this place in the order, or null if cameras have gone offline since the index was read.
+     */
+    public @Nullable IpCameraHandler getCamera(int index) {
         try {
-            String file = handle.config.get(CONFIG_FFMPEG_OUTPUT).toString() + "ipcamera.m3u8";
-            camerasm3u8 = new String(Files.readAllBytes(Paths.get(file)));
-        } catch (IOException e) {
-            logger.error("error occured:{}", e);
+            return cameraOrder.get(index);
+        } catch (IndexOutOfBoundsException e) {
+            return null;
         }
-        return camerasm3u8;
     }
 
-    String keepLast(String string, int numberToRetain) {
-        int start = string.length();
-        for (int loop = numberToRetain; loop > 0; loop--) {
-            start = string.lastIndexOf("#EXTINF:", start - 1);
+    /**
+     * @return the camera that is online and listed at this place in the group's config, or null.
+     */
+    public @Nullable IpCameraHandler getMember(int position) {
+        return membersByPosition.get(position);
+    }
+
+    public void setPlayList() {
+        IpCameraHandler camera = getCamera(cameraIndex);
+        if (camera == null) {
+            return;
         }
-        entries = entries + numberToRetain;
-        return string.substring(start);
+        String id = camera.getThing().getUID().getId();
+        Integer position = members.get(id);
+        HlsPlaylist playlist = camera.getHlsPlaylist();
+        if (position == null || playlist == null) {
+            logger.debug("Camera {} in the group has no HLS playlist yet.", id);
+            return;
+        }
+        // the place in the config does not change as cameras go on and offline, so the segment can always be found.
+        groupPlaylist.add(Integer.toString(position), playlist, pollTimeInSeconds);
     }
 
-    String removeFromStart(String string, int numberToRemove) {
-        int start = 0;
-        for (int loop = numberToRemove; loop > 0; loop--) {
-            start = string.indexOf("#EXTINF:", start + 1);
+    /**
+     * @return the group playlist ready to send, it is started straight away if no one had asked for it lately.
+     */
+    public byte[] getPlayList() {
+        if (groupPlaylist.isEmpty()) {
+            setPlayList();
         }
-        mediaSequence = mediaSequence + numberToRemove;
-        entries = entries - numberToRemove;
-        return playingNow.substring(start);
+        return groupPlaylist.getBytes();
     }
 
-    public void setPlayList() {
-        String m3u8File = readCamerasPlaylist(cameraIndex);
-        BigDecimal segmentLength = new BigDecimal(
-                m3u8File.substring(m3u8File.lastIndexOf("#EXTINF:") + 8, m3u8File.lastIndexOf(",")));
-        logger.debug("assmebling with segments that are {} seconds long", segmentLength);
-        numberOfFiles = pollTimeInSeconds.divide(segmentLength, 6, RoundingMode.HALF_UP);
-        logger.debug("Keeping the last {} files from the cameras playlist.", numberOfFiles.intValue());
-        if (numberOfFiles.intValue() < 1) {
-            numberOfFiles = new BigDecimal(1);
+    /**
+     * @return a JPEG of every camera in the group side by side, the cameras keep taking snapshots while it is used.
+     */
+    public CompletableFuture<byte[]> getMosaic() {
+        List<IpCameraHandler> cameras = new ArrayList<IpCameraHandler>(cameraOrder);
+        for (IpCameraHandler camera : cameras) {
+            camera.snapshotsWanted();
         }
-        m3u8File = keepLast(m3u8File, numberOfFiles.intValue());
-        m3u8File = m3u8File.replace("ipcamera", cameraIndex + "ipcamera"); // add index so we can then fetch output path
-        if (segmentLength.intValue() * entries > pollTimeInSeconds.intValue()) {
-            playingNow = removeFromStart(playingNow, numberOfFiles.intValue());
+        return mosaicRenderer.render(cameras);
+    }
+
+    public synchronized void setupMosaicStreaming(boolean start, ChannelHandlerContext ctx) {
+        if (start) {
+            StreamServerUtils.sendMjpegFirstPacket(ctx);
+            mosaicChannelGroup.add(ctx.channel());
+            if (mosaicJob == null) {
+                mosaicJob = pollCameraGroup.scheduleAtFixedRate(sendMosaicFrame, 0, MOSAIC_FRAME_MS,
+                        TimeUnit.MILLISECONDS);
+            }
+        } else {
+            mosaicChannelGroup.remove(ctx.channel());
+            if (mosaicChannelGroup.isEmpty() && mosaicJob != null) {
+                logger.debug("All mosaic streams have stopped.");
+                mosaicJob.cancel(false);
+                mosaicJob = null;
+            }
         }
-        playingNow = playingNow + "#EXT-X-DISCONTINUITY\n" + m3u8File;
-        playList = "#EXTM3U\n" + "#EXT-X-VERSION:3\n" + "#EXT-X-ALLOW-CACHE:NO\n" + "#EXT-X-TARGETDURATION:4\n"
-                + "#EXT-X-MEDIA-SEQUENCE:" + mediaSequence + "\n" + playingNow;
     }
 
+    /**
+     * The JPEGs the cameras already send are passed on whole, so the stream changes camera between frames and
+     * nothing is decoded or encoded again.
+     */
+    public synchronized void setupMjpegStreaming(boolean start, ChannelHandlerContext ctx) {
+        if (start) {
+            StreamServerUtils.sendMjpegFirstPacket(ctx);
+            mjpegChannelGroup.add(ctx.channel());
+            if (frameForwarders.isEmpty()) {
+                logger.debug("Starting the MJPEG streams of the cameras in the group.");
+                for (IpCameraHandler handler : cameraOrder) {
+                    forwardFrames(handler, true);
+                }
+            }
+        } else {
+            mjpegChannelGroup.remove(ctx.channel());
+            if (mjpegChannelGroup.isEmpty()) {
+                logger.debug("All group MJPEG streams have stopped.");
+                for (IpCameraHandler handler : new ArrayList<IpCameraHandler>(frameForwarders.keySet())) {
+                    forwardFrames(handler, false);
+                }
+            }
+        }
+    }
+
+    private synchronized void forwardFrames(IpCameraHandler handler, boolean start) {
+        if (start && !frameForwarders.containsKey(handler)) {
+            Consumer<byte[]> forwarder = jpg -> {
+                if (getCamera(cameraIndex) == handler) {
+                    StreamServerUtils.sendMjpegFrame(jpg, mjpegChannelGroup);
+                }
+            };
+            frameForwarders.put(handler, forwarder);
+            handler.addFrameListener(forwarder);
+        } else if (!start) {
+            Consumer<byte[]> forwarder = frameForwarders.remove(handler);
+            if (forwarder != null) {
+                handler.removeFrameListener(forwarder);
+            }
+        }
+    }
+
+    Runnable sendMosaicFrame = new Runnable() {
+        @Override
+        public void run() {
+            getMosaic().thenAccept(jpg -> {
+                if (jpg.length > 0) {
+                    StreamServerUtils.sendMjpegFrame(jpg, mosaicChannelGroup);
+                }
+            });
+        }
+    };
+
     private IpCameraGroupHandler getHandle() {
         return this;
     }
@@ -197,26 +291,12 @@ public class IpCameraGroupHandler extends BaseThingHandler {
                     serverBootstrap.channel(NioServerSocketChannel.class);
                     // IP "0.0.0.0" will bind the server to all network connections//
                     serverBootstrap.localAddress(new InetSocketAddress("0.0.0.0", serverPort));
-                    serverBootstrap.childHandler(new ChannelInitializer<SocketChannel>() {
-                        @Override
-                        protected void initChannel(SocketChannel socketChannel) throws Exception {
-                            socketChannel.pipeline().addLast("idleStateHandler", new IdleStateHandler(0, 25, 0));
-                            socketChannel.pipeline().addLast("HttpServerCodec", new HttpServerCodec());
-                            socketChannel.pipeline().addLast("ChunkedWriteHandler", new ChunkedWriteHandler());
-                            socketChannel.pipeline().addLast("streamServerHandler",
-                                    new StreamServerGroupHandler(getHandle()));
-                        }
-                    });
+                    serverBootstrap.childHandler(
+                            new StreamServerInitializer(() -> new StreamServerGroupHandler(getHandle()), null));
                     serverFuture = serverBootstrap.bind().sync();
                     serverFuture.await(4000);
                     logger.info("IpCamera file server for a group of cameras has started on port {} for all NIC's.",
                             serverPort);
-                    updateState(CHANNEL_STREAM_URL,
-                            new StringType("http://" + hostIp + ":" + serverPort + "/ipcamera.mjpeg"));
-                    updateState(CHANNEL_HLS_URL,
-                            new StringType("http://" + hostIp + ":" + serverPort + "/ipcamera.m3u8"));
-                    updateState(CHANNEL_IMAGE_URL,
-                            new StringType("http://" + hostIp + ":" + serverPort + "/ipcamera.jpg"));
                 } catch (Exception e) {
                     logger.error(
                             "Exception occured when starting the streaming server. Try changing the SERVER_PORT to another number: {}",
@@ -226,74 +306,131 @@ public class IpCameraGroupHandler extends BaseThingHandler {
         }
     }
 
-    void addCamera(String UniqueID) {
-        if (IpCameraHandler.listOfOnlineCameraUID.contains(UniqueID)) {
-            for (IpCameraHandler handler : IpCameraHandler.listOfOnlineCameraHandlers) {
-                if (handler.getThing().getUID().getId().equals(UniqueID)) {
-                    if (!cameraOrder.contains(handler)) {
-                        logger.info("Adding {} to a camera group.", UniqueID);
-                        if (hlsTurnedOn) {
-                            logger.info("Starting HLS for the new camera.");
-                            handler.handleCommand(handler.getThing().getChannel(CHANNEL_START_STREAM).getUID(),
-                                    OnOffType.valueOf("ON"));
-                        }
-                        cameraOrder.add(handler);
-                    }
-                }
-            }
+    private void updateStreamUrls() {
+        String url;
+        if (serverPort != -1) {
+            url = "http://" + hostIp + ":" + serverPort;
+        } else if (sharedStreamServer.isRunning()) {
+            url = "http://" + hostIp + ":" + sharedStreamServer.getPort() + StreamServer.ROUTE_PREFIX
+                    + getThing().getUID().getId();
+        } else {
+            return;
         }
+        updateState(CHANNEL_STREAM_URL, new StringType(url + "/ipcamera.mjpeg"));
+        updateState(CHANNEL_HLS_URL, new StringType(url + "/ipcamera.m3u8"));
+        updateState(CHANNEL_IMAGE_URL, new StringType(url + "/ipcamera.jpg"));
     }
 
-    // Event based. This is called as each camera comes online after the group handler is registered.
-    public void cameraOnline(String uid) {
-        logger.debug("New camera {} came online, checking if part of this group", uid);
-        if (config.get(CONFIG_FIRST_CAM).equals(uid)) {
-            addCamera(uid);
-        } else if (config.get(CONFIG_SECOND_CAM).equals(uid)) {
-            addCamera(uid);
-        } else if (config.get(CONFIG_THIRD_CAM).equals(uid)) {
-            addCamera(uid);
-        } else if (config.get(CONFIG_FORTH_CAM).equals(uid)) {
-            addCamera(uid);
+    /**
+     * @return the 'Unique ID' of each camera in the group, to its place in the order they are shown.
+     */
+    private Map<String, Integer> readMembers() {
+        List<String> ids = new ArrayList<String>();
+        Object cameras = config.get(CONFIG_CAMERAS);
+        if (cameras instanceof Collection) {
+            for (Object id : (Collection<?>) cameras) {
+                ids.add(id.toString());
+            }
+        } else if (cameras != null) {
+            ids.addAll(Arrays.asList(cameras.toString().split(",")));
+        }
+        // Groups made before the CAMERAS list still work.
+        for (String key : new String[] { CONFIG_FIRST_CAM, CONFIG_SECOND_CAM, CONFIG_THIRD_CAM, CONFIG_FORTH_CAM }) {
+            if (config.get(key) != null) {
+                ids.add(config.get(key).toString());
+            }
         }
+        Map<String, Integer> members = new HashMap<String, Integer>();
+        for (String id : ids) {
+            String trimmed = id.trim();
+            if (!trimmed.isEmpty() && !members.containsKey(trimmed)) {
+                members.put(trimmed, members.size());
+            }
+        }
+        return members;
     }
 
-    // Event based. This is called as each camera comes online after the group handler is registered.
-    public void cameraOffline(IpCameraHandler handle) {
-        if (cameraOrder.remove(handle)) {
-            logger.info("Camera {} is now offline, now removed from this group.", handle.getThing().getUID().getId());
+    private synchronized void addCamera(IpCameraHandler handler, int position) {
+        if (cameraOrder.contains(handler)) {
+            return;
+        }
+        logger.info("Adding {} to a camera group.", handler.getThing().getUID().getId());
+        if (hlsTurnedOn) {
+            logger.info("Starting HLS for the new camera.");
+            handler.handleCommand(handler.getThing().getChannel(CHANNEL_START_STREAM).getUID(),
+                    OnOffType.valueOf("ON"));
+        }
+        // keep the cameras in the order they are listed, no matter which comes online first.
+        int index = 0;
+        while (index < cameraOrder.size()
+                && members.getOrDefault(cameraOrder.get(index).getThing().getUID().getId(), 0) < position) {
+            index++;
+        }
+        cameraOrder.add(index, handler);
+        membersByPosition.put(position, handler);
+        if (!mjpegChannelGroup.isEmpty()) {
+            forwardFrames(handler, true);
         }
     }
 
-    boolean addIfOnline(String UniqueID) {
-        if (IpCameraHandler.listOfOnlineCameraUID.contains(UniqueID)) {
-            addCamera(UniqueID);
-            return true;
+    // Event based. This is called as each camera comes online, and for those already online when the group starts.
+    @Override
+    public void cameraOnline(IpCameraHandler handler) {
+        Integer position = members.get(handler.getThing().getUID().getId());
+        if (position != null) {
+            addCamera(handler, position);
         }
-        return false;
     }
 
-    void createCameraOrder() {
-        addIfOnline(config.get(CONFIG_FIRST_CAM).toString());
-        addIfOnline(config.get(CONFIG_SECOND_CAM).toString());
-        if (config.get(CONFIG_THIRD_CAM) != null) {
-            addIfOnline(config.get(CONFIG_THIRD_CAM).toString());
+    // Event based. This is called as each camera goes offline.
+    @Override
+    public void cameraOffline(IpCameraHandler handle) {
+        forwardFrames(handle, false);
+        membersByPosition.values().remove(handle);
+        if (cameraOrder.remove(handle)) {
+            logger.info("Camera {} is now offline, now removed from this group.", handle.getThing().getUID().getId());
         }
-        if (config.get(CONFIG_FORTH_CAM) != null) {
-            addIfOnline(config.get(CONFIG_FORTH_CAM).toString());
+    }
+
+    // Event based. Switches to a camera the moment its motion starts instead of waiting for the next poll.
+    @Override
+    public void motionChanged(IpCameraHandler handler, boolean motion) {
+        if (!motion || !motionChangesOrder || !members.containsKey(handler.getThing().getUID().getId())) {
+            return;
         }
-        // Cameras can now send events of when they go on and offline.
-        IpCameraHandler.listOfGroupHandlers.add(this);
+        // on the groups own thread so the switch can not happen in the middle of a poll.
+        pollCameraGroup.execute(() -> {
+            int index = cameraOrder.indexOf(handler);
+            int shownIndex = cameraIndex;
+            if (index < 0 || index == shownIndex) {
+                return;
+            }
+            IpCameraHandler shown = getCamera(shownIndex);
+            if (shown != null && shown.motionDetected) {
+                return;// the camera being shown has motion as well, so it is not cut short.
+            }
+            logger.debug("Motion started on {}, the group now shows it.", handler.getThing().getUID().getId());
+            cameraIndex = index;
+            // the MJPEG stream changes on its next frame, HLS gets this cameras newest segments straight away.
+            if (hlsTurnedOn && groupPlaylist.isWanted()) {
+                setPlayList();
+            }
+        });
     }
 
     int checkForMotion(int nextCamerasIndex) {
+        // a copy so a camera going offline part way through can not move the others.
+        List<IpCameraHandler> cameras = new ArrayList<IpCameraHandler>(cameraOrder);
+        if (nextCamerasIndex >= cameras.size()) {
+            return 0;
+        }
         int checked = 0;
-        for (int index = nextCamerasIndex; checked < cameraOrder.size(); checked++) {
-            if (cameraOrder.get(index).motionDetected) {
+        for (int index = nextCamerasIndex; checked < cameras.size(); checked++) {
+            if (cameras.get(index).motionDetected) {
                 logger.debug("Motion detected on a camera in a group and the display order has changed");
                 return index;
             }
-            if (++index >= cameraOrder.size()) {
+            if (++index >= cameras.size()) {
                 index = 0;
             }
         }
@@ -303,22 +440,25 @@ public class IpCameraGroupHandler extends BaseThingHandler {
     Runnable pollingCameraGroup = new Runnable() {
         @Override
         public void run() {
-
-            if (cameraOrder.isEmpty()) {
-                createCameraOrder();
-            }
-            if (++cameraIndex >= cameraOrder.size()) {
-                cameraIndex = 0;
-                if (mediaSequence > 2147000000) {
-                    mediaSequence = 0;
+            int index = cameraIndex;
+            IpCameraHandler shown = getCamera(index);
+            if (motionChangesOrder && shown != null && shown.motionDetected) {
+                logger.trace("The camera being shown still has motion, so the group stays on it.");
+            } else {
+                if (++index >= cameraOrder.size()) {
+                    index = 0;
                 }
+                if (motionChangesOrder) {
+                    index = checkForMotion(index);
+                }
+                cameraIndex = index;
             }
-            if (motionChangesOrder) {
-                cameraIndex = checkForMotion(cameraIndex);
-            }
-            if (hlsTurnedOn) {
+            if (hlsTurnedOn && groupPlaylist.isWanted()) {
                 logger.debug("Creating playlist");
                 setPlayList();
+            } else if (!groupPlaylist.isEmpty()) {
+                logger.debug("No one is watching the groups HLS stream, the playlist is no longer updated.");
+                groupPlaylist.clear();
             }
         }
     };
@@ -348,9 +488,8 @@ public class IpCameraGroupHandler extends BaseThingHandler {
         logger.debug("initialize() called for a group camera thing.");
         config = thing.getConfiguration();
         serverPort = Integer.parseInt(config.get(CONFIG_SERVER_PORT).toString());
-        pollTimeInSeconds = new BigDecimal(config.get(CONFIG_POLL_CAMERA_MS).toString());
+        pollTimeInSeconds = Integer.parseInt(config.get(CONFIG_POLL_CAMERA_MS).toString()) / 1000.0;
         motionChangesOrder = (boolean) config.get(CONFIG_MOTION_CHANGES_ORDER);
-        pollTimeInSeconds = pollTimeInSeconds.divide(new BigDecimal(1000), 1, RoundingMode.HALF_UP);
         if (serverPort == -1) {
             logger.warn("The SERVER_PORT = -1 which disables a lot of features. See readme for more info.");
         } else if (serverPort < 1025) {
@@ -358,9 +497,18 @@ public class IpCameraGroupHandler extends BaseThingHandler {
         }
         if (!"-1".contentEquals(config.get(CONFIG_SERVER_PORT).toString())) {
             startStreamServer(true);
+        } else if (sharedStreamServer.isRunning()) {
+            hostIp = getLocalIpAddress();
         } else {
             logger.warn("SERVER_PORT is -1 which disables all serving features of the camera group.");
         }
+        sharedStreamServer.addRoute(getThing().getUID().getAsString(), () -> new StreamServerGroupHandler(getHandle()));
+        sharedStreamServer.addRoute(getThing().getUID().getId(), () -> new StreamServerGroupHandler(getHandle()));
+        updateStreamUrls();
+        members = readMembers();
+        logger.debug("The group has {} cameras.", members.size());
+        // Cameras can now send events of when they go on and offline.
+        cameraRegistry.addListener(this);
         updateStatus(ThingStatus.ONLINE);
         pollCameraGroupJob = pollCameraGroup.scheduleAtFixedRate(pollingCameraGroup, 10000,
                 Integer.parseInt(config.get(CONFIG_POLL_CAMERA_MS).toString()), TimeUnit.MILLISECONDS);
@@ -370,11 +518,27 @@ public class IpCameraGroupHandler extends BaseThingHandler {
     public void dispose() {
         logger.info("dispose() called for a group thing.");
         startStreamServer(false);
-        IpCameraHandler.listOfGroupHandlers.remove(this);
+        sharedStreamServer.removeRoute(getThing().getUID().getAsString());
+        sharedStreamServer.removeRoute(getThing().getUID().getId());
+        cameraRegistry.removeListener(this);
         if (pollCameraGroupJob != null) {
             pollCameraGroupJob.cancel(true);
             pollCameraGroupJob = null;
         }
+        synchronized (this) {
+            if (mosaicJob != null) {
+                mosaicJob.cancel(true);
+                mosaicJob = null;
+            }
+        }
+        mosaicChannelGroup.close();
+        mjpegChannelGroup.close();
+        synchronized (this) {
+            for (IpCameraHandler handler : new ArrayList<IpCameraHandler>(frameForwarders.keySet())) {
+                forwardFrames(handler, false);
+            }
+        }
         cameraOrder.clear();
+        membersByPosition.clear();
     }
 }
@@ -26,6 +26,7 @@ import java.net.InetSocketAddress;
 import java.net.MalformedURLException;
 import java.net.NetworkInterface;
 import java.net.SocketException;
+import java.net.URISyntaxException;
 import java.net.URL;
 import java.net.URLEncoder;
 import java.nio.charset.StandardCharsets;
@@ -36,11 +37,14 @@ import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
 
 import org.eclipse.jdt.annotation.Nullable;
 import org.eclipse.smarthome.config.core.Configuration;
@@ -57,15 +61,34 @@ import org.eclipse.smarthome.core.thing.binding.BaseThingHandler;
 import org.eclipse.smarthome.core.types.Command;
 import org.eclipse.smarthome.core.types.State;
 import org.openhab.binding.ipcamera.internal.AmcrestHandler;
+import org.openhab.binding.ipcamera.internal.AnnexBReader;
+import org.openhab.binding.ipcamera.internal.CameraMetrics;
+import org.openhab.binding.ipcamera.internal.CameraRegistry;
 import org.openhab.binding.ipcamera.internal.DahuaHandler;
 import org.openhab.binding.ipcamera.internal.DoorBirdHandler;
+import org.openhab.binding.ipcamera.internal.EventStream;
 import org.openhab.binding.ipcamera.internal.Ffmpeg;
+import org.openhab.binding.ipcamera.internal.FfmpegSupervisor;
 import org.openhab.binding.ipcamera.internal.FoscamHandler;
 import org.openhab.binding.ipcamera.internal.HikvisionHandler;
+import org.openhab.binding.ipcamera.internal.HlsPlaylist;
 import org.openhab.binding.ipcamera.internal.HttpOnlyHandler;
 import org.openhab.binding.ipcamera.internal.InstarHandler;
+import org.openhab.binding.ipcamera.internal.LowLatencyHls;
+import org.openhab.binding.ipcamera.internal.MjpegFrameExtractor;
 import org.openhab.binding.ipcamera.internal.MyNettyAuthHandler;
+import org.openhab.binding.ipcamera.internal.PrometheusWriter;
+import org.openhab.binding.ipcamera.internal.RtspHandler;
+import org.openhab.binding.ipcamera.internal.RtspServer;
+import org.openhab.binding.ipcamera.internal.SdpInfo;
+import org.openhab.binding.ipcamera.internal.SegmentCache;
+import org.openhab.binding.ipcamera.internal.StateDispatcher;
+import org.openhab.binding.ipcamera.internal.StreamServer;
 import org.openhab.binding.ipcamera.internal.StreamServerHandler;
+import org.openhab.binding.ipcamera.internal.StreamServerInitializer;
+import org.openhab.binding.ipcamera.internal.StreamServerUtils;
+import org.openhab.binding.ipcamera.internal.TsSegmenter;
+import org.openhab.binding.ipcamera.internal.WebSocketStreamer;
 import org.openhab.binding.ipcamera.onvif.GetSnapshotUri;
 import org.openhab.binding.ipcamera.onvif.PTZRequest;
 import org.slf4j.Logger;
@@ -99,7 +122,6 @@ import io.netty.channel.socket.nio.NioServerSocketChannel;
 import io.netty.channel.socket.nio.NioSocketChannel;
 import io.netty.handler.codec.base64.Base64;
 import io.netty.handler.codec.http.DefaultFullHttpRequest;
-import io.netty.handler.codec.http.DefaultHttpResponse;
 import io.netty.handler.codec.http.FullHttpRequest;
 import io.netty.handler.codec.http.HttpClientCodec;
 import io.netty.handler.codec.http.HttpContent;
@@ -108,17 +130,17 @@ import io.netty.handler.codec.http.HttpHeaderValues;
 import io.netty.handler.codec.http.HttpMessage;
 import io.netty.handler.codec.http.HttpMethod;
 import io.netty.handler.codec.http.HttpResponse;
-import io.netty.handler.codec.http.HttpResponseStatus;
-import io.netty.handler.codec.http.HttpServerCodec;
 import io.netty.handler.codec.http.HttpVersion;
 import io.netty.handler.codec.http.LastHttpContent;
-import io.netty.handler.stream.ChunkedWriteHandler;
 import io.netty.handler.timeout.IdleState;
 import io.netty.handler.timeout.IdleStateEvent;
 import io.netty.handler.timeout.IdleStateHandler;
 import io.netty.util.CharsetUtil;
 import io.netty.util.ReferenceCountUtil;
+import io.netty.util.concurrent.EventExecutor;
+import io.netty.util.concurrent.EventExecutorGroup;
 import io.netty.util.concurrent.GlobalEventExecutor;
+import io.netty.util.concurrent.SingleThreadEventExecutor;
 
 /**
  * The {@link IpCameraHandler} is responsible for handling commands, which are
@@ -132,9 +154,6 @@ public class IpCameraHandler extends BaseThingHandler {
     public static final Set<ThingTypeUID> SUPPORTED_THING_TYPES = new HashSet<ThingTypeUID>(
             Arrays.asList(THING_TYPE_ONVIF, THING_TYPE_HTTPONLY, THING_TYPE_AMCREST, THING_TYPE_DAHUA,
                     THING_TYPE_INSTAR, THING_TYPE_FOSCAM, THING_TYPE_DOORBIRD, THING_TYPE_HIKVISION));
-    public static ArrayList<IpCameraHandler> listOfOnlineCameraHandlers = new ArrayList<IpCameraHandler>(1);
-    public static ArrayList<IpCameraGroupHandler> listOfGroupHandlers = new ArrayList<IpCameraGroupHandler>(0);
-    public static ArrayList<String> listOfOnlineCameraUID = new ArrayList<String>(1);
 
     public final Logger logger = LoggerFactory.getLogger(getClass());
     private final ScheduledExecutorService cameraConnection = Executors.newSingleThreadScheduledExecutor();
@@ -147,14 +166,52 @@ public class IpCameraHandler extends BaseThingHandler {
     public final ChannelGroup mjpegChannelGroup = new DefaultChannelGroup(GlobalEventExecutor.INSTANCE);
     final ChannelGroup snapshotMjpegChannelGroup = new DefaultChannelGroup(GlobalEventExecutor.INSTANCE);
     final ChannelGroup autoSnapshotMjpegChannelGroup = new DefaultChannelGroup(GlobalEventExecutor.INSTANCE);
+    // Sockets of /ipcamera.ws that want this cameras JPEGs, which may have been opened on another camera.
+    public final WebSocketStreamer webSocketStreamer = new WebSocketStreamer();
+    // Server-Sent Events at /events for alarms, snapshots and streams.
+    public final EventStream eventStream;
+    public final CameraMetrics metrics = new CameraMetrics();
+    // Channel updates from the Netty threads go through this, so a slow openHAB does not stop the cameras being read.
+    private final StateDispatcher stateDispatcher;
+    // Runs the brand handlers, which parse the replies and can send more requests, away from the IO threads. It is one
+    // thread of the shared group for every connection of this camera, so its brand handlers never run at once.
+    private final EventExecutor brandExecutor;
+    // Held while the alarms are changed, as the brand handlers, ffmpeg, ONVIF and other cameras of an NVR all do.
+    private final Object alarmLock = new Object();
+    private volatile long snapshotVersion = 0;
+    // Snapshots keep being fetched until this time, for a group that shows them without this camera knowing.
+    private volatile long snapshotsWantedUntil = 0;
+    // Waiting for the next snapshot, they are all answered by the one request to the camera.
+    private final List<CompletableFuture<byte[]>> snapshotWaiters = new ArrayList<CompletableFuture<byte[]>>();
+    private static final Set<String> ALARM_CHANNELS = new HashSet<String>(Arrays.asList(CHANNEL_MOTION_ALARM,
+            CHANNEL_LINE_CROSSING_ALARM, CHANNEL_FACE_DETECTED, CHANNEL_ITEM_LEFT, CHANNEL_ITEM_TAKEN,
+            CHANNEL_AUDIO_ALARM, CHANNEL_EXTERNAL_ALARM_INPUT, CHANNEL_EXTERNAL_ALARM_INPUT2, CHANNEL_PIR_ALARM,
+            CHANNEL_FIELD_DETECTION_ALARM, CHANNEL_PARKING_ALARM, CHANNEL_EXTERNAL_MOTION, CHANNEL_DOORBELL));
+    private final FfmpegSupervisor ffmpegSupervisor;
+    private final StreamServer sharedStreamServer;
+    private final CameraRegistry cameraRegistry;
     public @Nullable Ffmpeg ffmpegHLS = null;
     public @Nullable Ffmpeg ffmpegDASH = null;
     public @Nullable Ffmpeg ffmpegGIF = null;
     public @Nullable Ffmpeg ffmpegRtspHelper = null;
     public @Nullable Ffmpeg ffmpegMjpeg = null;
     public @Nullable Ffmpeg ffmpegSnapshot = null;
+    public final SegmentCache segmentCache = new SegmentCache(SegmentCache.DEFAULT_MAX_BYTES);
+    public @Nullable LowLatencyHls lowLatencyHls = null;
+    // With HLS_MODE INTERNAL this reads the H264 from ffmpeg, anything that needs the video can listen to it.
+    public @Nullable AnnexBReader annexBReader = null;
+    private @Nullable TsSegmenter tsSegmenter = null;
+    // The newest HLS playlist as segments, replaced each time ffmpeg or the segmenter changes it.
+    private volatile @Nullable HlsPlaylist hlsPlaylist = null;
+    private @Nullable RtspHandler rtspHandler = null;
+    private @Nullable RtspServer rtspServer = null;
+    public int rtspServerPort = -1;
+    public String hlsMode = "FFMPEG";
+    // How long a stream started by a motion alarm keeps running if no one watches it.
+    private static final int HLS_PREWARM_MS = 60000;
+    private boolean hlsPrewarmOnMotion = false;
     public boolean streamingAutoFps = false;
-    boolean motionDetected = false;
+    volatile boolean motionDetected = false;
 
     private @Nullable ScheduledFuture<?> cameraConnectionJob = null;
     private @Nullable ScheduledFuture<?> pollCameraJob = null;
@@ -184,9 +241,12 @@ public class IpCameraHandler extends BaseThingHandler {
     // Status can be -2=storing a reply, -1=closed, 0=closing (do not re-use
     // channel), 1=open, 2=open and ok to reuse
     public ArrayList<Byte> listOfChStatus = new ArrayList<Byte>(18);
+    // How many channels had each status from -1 to 2 when they were last cleaned, so /metrics does not need the lock.
+    private volatile int[] channelStatusCount = new int[4];
     public ArrayList<String> listOfReplies = new ArrayList<String>(18);
 
-    public @Nullable ArrayList<String> lowPriorityRequests = null;
+    // Brand handlers can remove a request the camera turns out not to support while the poll is reading it.
+    public @Nullable List<String> lowPriorityRequests = null;
     public ReentrantLock lock = new ReentrantLock();
 
     // basicAuth MUST remain private as it holds the password
@@ -198,16 +258,23 @@ public class IpCameraHandler extends BaseThingHandler {
     public int serverPort = 0;
     private @Nullable Object firstStreamedMsg = null;
     public byte[] currentSnapshot = new byte[] { (byte) 0x00 };
+    // Set when a snapshot is wanted and a live MJPEG stream is running, the next frame of the stream is used instead.
+    private volatile boolean liveFrameDue = false;
+    private volatile long lastLiveFrame = 0;
+    private final MjpegFrameExtractor mjpegFrameExtractor = new MjpegFrameExtractor();
+    // Given every JPEG of the MJPEG stream, such as a group that shows this camera in its own stream.
+    private final List<Consumer<byte[]>> frameListeners = new CopyOnWriteArrayList<Consumer<byte[]>>();
+    private int pollTime = 1000;
     private String rtspUri = "";
     public String ipAddress = "empty";
     public String updateImageEvents;
-    public boolean audioAlarmUpdateSnapshot = false;
-    boolean motionAlarmUpdateSnapshot = false;
+    volatile boolean audioAlarmUpdateSnapshot = false;
+    volatile boolean motionAlarmUpdateSnapshot = false;
     boolean isOnline = false; // Used so only 1 error is logged when a network issue occurs.
-    public boolean firstAudioAlarm = false;
-    boolean firstMotionAlarm = false;
-    boolean shortAudioAlarm = true; // used for when the alarm is less than the polling amount of time.
-    boolean shortMotionAlarm = true; // used for when the alarm is less than the polling amount of time.
+    private boolean firstAudioAlarm = false;
+    private boolean firstMotionAlarm = false;
+    volatile boolean shortAudioAlarm = true; // used for when the alarm is less than the polling amount of time.
+    volatile boolean shortMotionAlarm = true; // used for when the alarm is less than the polling amount of time.
     private OnvifManager onvifManager = new OnvifManager();
     private OnvifManager ptzManager = new OnvifManager(); // used so listener is in PTZ class.
     boolean movePTZ = false; // delay movements so all made at once
@@ -220,14 +287,29 @@ public class IpCameraHandler extends BaseThingHandler {
     public boolean audioAlarmEnabled = false;
     public boolean ffmpegSnapshotGeneration = false;
 
-    public IpCameraHandler(Thing thing) {
+    public IpCameraHandler(Thing thing, FfmpegSupervisor ffmpegSupervisor, StreamServer sharedStreamServer,
+            EventExecutorGroup brandExecutorGroup, CameraRegistry cameraRegistry) {
         super(thing);
+        this.ffmpegSupervisor = ffmpegSupervisor;
+        this.sharedStreamServer = sharedStreamServer;
+        this.brandExecutor = brandExecutorGroup.next();
+        this.cameraRegistry = cameraRegistry;
+        stateDispatcher = new StateDispatcher(scheduler, (channel, state) -> updateState(channel, state));
+        eventStream = new EventStream(thing.getUID().getId());
     }
 
     private IpCameraHandler getHandle() {
         return this;
     }
 
+    public CameraRegistry getCameraRegistry() {
+        return cameraRegistry;
+    }
+
+    public String getNvrChannel() {
+        return nvrChannel;
+    }
+
     // false clears the stored user/pass hash, true creates the hash
     public void setBasicAuth(boolean useBasic) {
         if (useBasic == false) {
@@ -306,6 +388,13 @@ public class IpCameraHandler extends BaseThingHandler {
                     break;
             }
         }
+        int[] statusCount = new int[4];
+        for (Byte status : listOfChStatus) {
+            if (status >= -1 && status <= 2) {
+                statusCount[status + 1]++;
+            }
+        }
+        channelStatusCount = statusCount;
         lock.unlock();
     }
 
@@ -457,27 +546,32 @@ public class IpCameraHandler extends BaseThingHandler {
 
                     switch (thing.getThingTypeUID().getId()) {
                         case "AMCREST":
-                            socketChannel.pipeline().addLast("amcrestHandler", new AmcrestHandler(getHandle()));
+                            socketChannel.pipeline().addLast(brandExecutor, "amcrestHandler",
+                                    new AmcrestHandler(getHandle()));
                             break;
                         case "DAHUA":
-                            socketChannel.pipeline().addLast("brandHandler", new DahuaHandler(getHandle(), nvrChannel));
+                            socketChannel.pipeline().addLast(brandExecutor, "brandHandler",
+                                    new DahuaHandler(getHandle(), nvrChannel));
                             break;
                         case "DOORBIRD":
-                            socketChannel.pipeline().addLast("brandHandler", new DoorBirdHandler(getHandle()));
+                            socketChannel.pipeline().addLast(brandExecutor, "brandHandler",
+                                    new DoorBirdHandler(getHandle()));
                             break;
                         case "FOSCAM":
-                            socketChannel.pipeline().addLast("brandHandler",
+                            socketChannel.pipeline().addLast(brandExecutor, "brandHandler",
                                     new FoscamHandler(getHandle(), username, password));
                             break;
                         case "HIKVISION":
-                            socketChannel.pipeline().addLast("brandHandler",
+                            socketChannel.pipeline().addLast(brandExecutor, "brandHandler",
                                     new HikvisionHandler(getHandle(), nvrChannel));
                             break;
                         case "INSTAR":
-                            socketChannel.pipeline().addLast("instarHandler", new InstarHandler(getHandle()));
+                            socketChannel.pipeline().addLast(brandExecutor, "instarHandler",
+                                    new InstarHandler(getHandle()));
                             break;
                         default:
-                            socketChannel.pipeline().addLast("brandHandler", new HttpOnlyHandler(getHandle()));
+                            socketChannel.pipeline().addLast(brandExecutor, "brandHandler",
+                                    new HttpOnlyHandler(getHandle()));
                             break;
                     }
                 }
@@ -562,8 +656,10 @@ public class IpCameraHandler extends BaseThingHandler {
         chFuture.awaitUninterruptibly();
 
         if (!chFuture.isSuccess()) {
+            metrics.connectFailures.increment();
             updateStatus(ThingStatus.OFFLINE, ThingStatusDetail.COMMUNICATION_ERROR,
                     "Connection Timeout: Check your IP and PORT are correct and the camera can be reached.");
+            metrics.reconnects.increment();
             restart();
             if (isOnline) {
                 logger.error("Can not connect with HTTP to the camera at {}:{} check your network for issues!",
@@ -576,6 +672,7 @@ public class IpCameraHandler extends BaseThingHandler {
             return false;
         }
 
+        metrics.connects.increment();
         ch = chFuture.channel();
         commonHandler = (CommonCameraHandler) ch.pipeline().get("commonHandler");
         authHandler = (MyNettyAuthHandler) ch.pipeline().get("authHandler");
@@ -622,13 +719,147 @@ public class IpCameraHandler extends BaseThingHandler {
         return true;
     }
 
+    /**
+     * A live frame source is a MJPEG stream that is being watched, either straight from the camera or made by ffmpeg.
+     * The source is only trusted while it keeps sending, so snapshots go back to the camera if it stalls.
+     */
+    public boolean isLiveFrameSourceActive() {
+        if (mjpegChannelGroup.isEmpty() && frameListeners.isEmpty()) {
+            return false;
+        }
+        return System.currentTimeMillis() - lastLiveFrame < pollTime * 2;
+    }
+
+    // Use this instead of sendHttpGET(snapshotUri) so the camera is not asked for a snapshot during live viewing.
+    public void requestSnapshot() {
+        if (isLiveFrameSourceActive()) {
+            liveFrameDue = true;
+        } else {
+            liveFrameDue = false;
+            metrics.snapshotRequested();
+            sendHttpGET(snapshotUri);
+        }
+    }
+
+    // Called with every frame ffmpeg creates for the MJPEG stream.
+    public void liveFrameReceived(byte[] jpg) {
+        lastLiveFrame = System.currentTimeMillis();
+        webSocketStreamer.sendFrame(jpg);
+        sendToFrameListeners(jpg);
+        if (liveFrameDue) {
+            liveFrameDue = false;
+            currentSnapshot = jpg;
+            processSnapshot();
+        }
+    }
+
+    // Called with the raw data of the cameras own MJPEG stream, only frames that are asked for get copied.
+    private void liveStreamReceived(ByteBuf data) {
+        lastLiveFrame = System.currentTimeMillis();
+        if (liveFrameDue || webSocketStreamer.hasClients() || !frameListeners.isEmpty()) {
+            byte[] jpg = mjpegFrameExtractor.add(data);
+            if (jpg != null) {
+                webSocketStreamer.sendFrame(jpg);
+                sendToFrameListeners(jpg);
+                if (liveFrameDue) {
+                    liveFrameDue = false;
+                    currentSnapshot = jpg;
+                    processSnapshot();
+                }
+            }
+        } else {
+            mjpegFrameExtractor.reset();
+        }
+    }
+
+    /**
+     * @return a number that goes up each time there is a new snapshot.
+     */
+    public long getSnapshotVersion() {
+        return snapshotVersion;
+    }
+
+    /**
+     * Keeps new snapshots coming for a few polls, it has to be called again for them to continue.
+     */
+    public void snapshotsWanted() {
+        snapshotsWantedUntil = System.currentTimeMillis() + pollTime * 3;
+    }
+
+    private void sendToFrameListeners(byte[] jpg) {
+        for (Consumer<byte[]> listener : frameListeners) {
+            listener.accept(jpg);
+        }
+    }
+
+    /**
+     * The listener is given each JPEG of this camera's MJPEG stream as it arrives, the stream is started if no one
+     * was watching it.
+     */
+    public void addFrameListener(Consumer<byte[]> listener) {
+        boolean startSource = mjpegChannelGroup.isEmpty() && frameListeners.isEmpty();
+        frameListeners.add(listener);
+        if (startSource) {
+            if (mjpegUri.equals("") || mjpegUri.equals("ffmpeg")) {
+                setupFfmpegFormat("MJPEG");
+            } else {
+                sendHttpGET(mjpegUri);
+            }
+        }
+    }
+
+    public void removeFrameListener(Consumer<byte[]> listener) {
+        if (frameListeners.remove(listener) && frameListeners.isEmpty() && mjpegChannelGroup.isEmpty()) {
+            stopMjpegSource();
+        }
+    }
+
+    /**
+     * @return the next snapshot the camera sends, only one request is made no matter how many are waiting for it. If
+     *         the camera has no snapshot URL or is offline, the future is already done with the last snapshot.
+     */
+    public CompletableFuture<byte[]> getNextSnapshot() {
+        CompletableFuture<byte[]> future = new CompletableFuture<byte[]>();
+        if (snapshotUri.isEmpty() || !isOnline) {
+            future.complete(currentSnapshot);
+            return future;
+        }
+        boolean request;
+        synchronized (snapshotWaiters) {
+            // any left from a request that the camera never answered have given up by now.
+            snapshotWaiters.removeIf(CompletableFuture::isDone);
+            request = snapshotWaiters.isEmpty();
+            snapshotWaiters.add(future);
+        }
+        if (request) {
+            requestSnapshot();
+        }
+        return future;
+    }
+
     public void processSnapshot() {
+        eventStream.snapshot(++snapshotVersion);
+        List<CompletableFuture<byte[]>> waiters = null;
+        synchronized (snapshotWaiters) {
+            if (!snapshotWaiters.isEmpty()) {
+                waiters = new ArrayList<CompletableFuture<byte[]>>(snapshotWaiters);
+                snapshotWaiters.clear();
+            }
+        }
+        if (waiters != null) {
+            for (CompletableFuture<byte[]> waiter : waiters) {
+                waiter.complete(currentSnapshot);
+            }
+        }
         if (updateImage) {
-            updateState(CHANNEL_IMAGE, new RawType(currentSnapshot, "image/jpeg"));
+            stateDispatcher.update(CHANNEL_IMAGE, new RawType(currentSnapshot, "image/jpeg"));
         }
         if (streamingSnapshotMjpeg) {
             sendMjpegFrame(currentSnapshot, snapshotMjpegChannelGroup);
         }
+        if (!isLiveFrameSourceActive()) {// live frames are already sent as they arrive
+            webSocketStreamer.sendFrame(currentSnapshot);
+        }
         if (streamingAutoFps) {
             if (updateCounter++ > 200) {
                 updateCounter = 1;
@@ -672,6 +903,9 @@ public class IpCameraHandler extends BaseThingHandler {
             HttpContent content = null;
             try {
                 logger.trace("{}", msg.toString());
+                if (msg instanceof HttpContent) {
+                    metrics.bytesIn.add(((HttpContent) msg).content().readableBytes());
+                }
                 if (msg instanceof HttpResponse) {
                     HttpResponse response = (HttpResponse) msg;
                     if (response.status().code() != 401) {
@@ -748,6 +982,8 @@ public class IpCameraHandler extends BaseThingHandler {
                     if (mjpegUri.contains(requestUrl)) {
                         // multiple MJPEG stream packets come back as this.
                         // logger.debug("Stream packets back from camera is :{}", msg);
+                        // Must read the frame before the group write releases the buffer.
+                        liveStreamReceived(((HttpContent) msg).content());
                         ReferenceCountUtil.retain(msg, 1);
                         streamToGroup(msg, mjpegChannelGroup, true);
                     } else {
@@ -767,6 +1003,7 @@ public class IpCameraHandler extends BaseThingHandler {
                             if (content instanceof LastHttpContent) {
                                 if (contentType.contains("image/jp") && bytesAlreadyRecieved != 0) {
                                     currentSnapshot = incomingJpeg;
+                                    metrics.snapshotReceived();
                                     processSnapshot();
                                     incomingJpeg = null;
                                     if (closeConnection) {
@@ -967,26 +1204,12 @@ public class IpCameraHandler extends BaseThingHandler {
                     serverBootstrap.channel(NioServerSocketChannel.class);
                     // IP "0.0.0.0" will bind the server to all network connections//
                     serverBootstrap.localAddress(new InetSocketAddress("0.0.0.0", serverPort));
-                    serverBootstrap.childHandler(new ChannelInitializer<SocketChannel>() {
-                        @Override
-                        protected void initChannel(SocketChannel socketChannel) throws Exception {
-                            socketChannel.pipeline().addLast("idleStateHandler", new IdleStateHandler(0, 25, 0));
-                            socketChannel.pipeline().addLast("HttpServerCodec", new HttpServerCodec());
-                            socketChannel.pipeline().addLast("ChunkedWriteHandler", new ChunkedWriteHandler());
-                            socketChannel.pipeline().addLast("streamServerHandler",
-                                    new StreamServerHandler(getHandle()));
-                        }
-                    });
+                    serverBootstrap.childHandler(
+                            new StreamServerInitializer(() -> new StreamServerHandler(getHandle()), null));
                     serverFuture = serverBootstrap.bind().sync();
                     serverFuture.await(4000);
                     logger.info("IpCamera file server for camera {} has started on port {} for all NIC's.", ipAddress,
                             serverPort);
-                    updateState(CHANNEL_STREAM_URL,
-                            new StringType("http://" + hostIp + ":" + serverPort + "/ipcamera.mjpeg"));
-                    updateState(CHANNEL_HLS_URL,
-                            new StringType("http://" + hostIp + ":" + serverPort + "/ipcamera.m3u8"));
-                    updateState(CHANNEL_IMAGE_URL,
-                            new StringType("http://" + hostIp + ":" + serverPort + "/ipcamera.jpg"));
                 } catch (Exception e) {
                     logger.error(
                             "Exception occured when starting the streaming server. Try changing the SERVER_PORT to another number: {}",
@@ -996,6 +1219,35 @@ public class IpCameraHandler extends BaseThingHandler {
         }
     }
 
+    /**
+     * True if the camera can be reached over HTTP, either on its own SERVER_PORT or through the bindings shared server.
+     */
+    public boolean hasStreamServer() {
+        return serverPort != -1 || sharedStreamServer.isRunning();
+    }
+
+    public int getStreamServerPort() {
+        return (serverPort != -1) ? serverPort : sharedStreamServer.getPort();
+    }
+
+    // The path that comes before ipcamera.m3u8 and the other files, which is empty on the cameras own port.
+    public String getStreamServerPath() {
+        return (serverPort != -1) ? "" : StreamServer.ROUTE_PREFIX + getThing().getUID().getId();
+    }
+
+    public String getStreamServerUrl(String host) {
+        return "http://" + host + ":" + getStreamServerPort() + getStreamServerPath();
+    }
+
+    private void updateStreamUrls() {
+        if (!hasStreamServer()) {
+            return;
+        }
+        updateState(CHANNEL_STREAM_URL, new StringType(getStreamServerUrl(hostIp) + "/ipcamera.mjpeg"));
+        updateState(CHANNEL_HLS_URL, new StringType(getStreamServerUrl(hostIp) + "/ipcamera.m3u8"));
+        updateState(CHANNEL_IMAGE_URL, new StringType(getStreamServerUrl(hostIp) + "/ipcamera.jpg"));
+    }
+
     public void setupSnapshotStreaming(boolean stream, ChannelHandlerContext ctx, boolean auto) {
         if (stream) {
             sendMjpegFirstPacket(ctx);
@@ -1003,19 +1255,23 @@ public class IpCameraHandler extends BaseThingHandler {
                 autoSnapshotMjpegChannelGroup.add(ctx.channel());
                 sendMjpegFrame(currentSnapshot, autoSnapshotMjpegChannelGroup);
                 streamingAutoFps = true;
+                eventStream.stream("autofps", true);
             } else {
                 snapshotMjpegChannelGroup.add(ctx.channel());
                 sendMjpegFrame(currentSnapshot, snapshotMjpegChannelGroup);
                 streamingSnapshotMjpeg = true;
+                eventStream.stream("snapshots", true);
             }
         } else {
             snapshotMjpegChannelGroup.remove(ctx.channel());
             autoSnapshotMjpegChannelGroup.remove(ctx.channel());
             if (snapshotMjpegChannelGroup.isEmpty()) {
                 streamingSnapshotMjpeg = false;
+                eventStream.stream("snapshots", false);
                 logger.debug("All Snapshot based MJPEG streams have stopped.");
             } else if (autoSnapshotMjpegChannelGroup.isEmpty()) {
                 streamingAutoFps = false;
+                eventStream.stream("autofps", false);
                 logger.debug("All AutoFps Snapshot based MJPEG streams have stopped.");
             }
         }
@@ -1026,6 +1282,9 @@ public class IpCameraHandler extends BaseThingHandler {
     public void setupMjpegStreaming(boolean start, ChannelHandlerContext ctx) {
         if (start) {
             if (mjpegChannelGroup.isEmpty()) {
+                eventStream.stream("mjpeg", true);
+            }
+            if (mjpegChannelGroup.isEmpty() && frameListeners.isEmpty()) {
                 mjpegChannelGroup.add(ctx.channel());
                 if (mjpegUri.equals("") || mjpegUri.equals("ffmpeg")) {
                     sendMjpegFirstPacket(ctx);
@@ -1043,52 +1302,34 @@ public class IpCameraHandler extends BaseThingHandler {
         } else {
             mjpegChannelGroup.remove(ctx.channel());
             if (mjpegChannelGroup.isEmpty()) {
-                logger.debug("All MJPEG streams have stopped, so closing the MJPEG source stream now.");
-                if (!mjpegUri.equals("")) {
-                    closeChannel(getTinyUrl(mjpegUri));
-                } else {
-                    ffmpegMjpeg.stopConverting();
+                eventStream.stream("mjpeg", false);
+                if (frameListeners.isEmpty()) {
+                    stopMjpegSource();
                 }
             }
         }
     }
 
+    private void stopMjpegSource() {
+        logger.debug("All MJPEG streams have stopped, so closing the MJPEG source stream now.");
+        lastLiveFrame = 0;
+        if (liveFrameDue) {
+            requestSnapshot();
+        }
+        if (!mjpegUri.equals("")) {
+            closeChannel(getTinyUrl(mjpegUri));
+        } else if (ffmpegMjpeg != null) {
+            ffmpegMjpeg.stopConverting();
+        }
+    }
+
     // sends direct to ctx so can be either snapshots.mjpeg or normal mjpeg stream
     public void sendMjpegFirstPacket(ChannelHandlerContext ctx) {
-        final String BOUNDARY = "thisMjpegStream";
-        String contentType = "multipart/x-mixed-replace; boundary=" + BOUNDARY;
-        HttpResponse response = new DefaultHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.OK);
-        response.headers().add(HttpHeaderNames.CONTENT_TYPE, contentType);
-        response.headers().set(HttpHeaderNames.CACHE_CONTROL, HttpHeaderValues.NO_CACHE);
-        // response.headers().set(HttpHeaderNames.CONNECTION, HttpHeaderValues.KEEP_ALIVE);
-        response.headers().set(HttpHeaderNames.CONNECTION, HttpHeaderValues.CLOSE);
-        // response.headers().add("Content-Range", "bytes 0-3979/3980"); // try bytes 0-3979/*
-        // response.headers().add("Server", "Apache/2");
-
-        // response.headers().add("Keep-Alive", "timeout=2, max=100");
-        // response.headers().add("Accept-Ranges", "bytes");
-        // response.headers().add("X-Content-Duration", "0.0"); // try 0.0 for live streams
-        // response.headers().add("Content-Duration", "0.0");
-
-        response.headers().add("Access-Control-Allow-Origin", "*");
-        response.headers().add("Access-Control-Expose-Headers", "*");
-        ctx.channel().writeAndFlush(response);
+        StreamServerUtils.sendMjpegFirstPacket(ctx);
     }
 
     public void sendMjpegFrame(byte[] jpg, ChannelGroup channelGroup) {
-        final String BOUNDARY = "thisMjpegStream";
-        ByteBuf imageByteBuf = Unpooled.copiedBuffer(jpg);
-        int length = imageByteBuf.readableBytes();
-        String header = "--" + BOUNDARY + "\r\n" + "content-type: image/jpeg" + "\r\n"
-        // + "Access-Control-Allow-Origin: *" + "\r\n" + "Access-Control-Expose-Headers: *" + "\r\n"
-        // + "Access-Control-Allow-Headers: Origin, X-Requested-With, Content-Type, Accept" + "\r\n"
-                + "content-length: " + length + "\r\n" // + "Content-Range: bytes 0-" + (length - 1) + "/*" + "\r\n"
-                + "\r\n";
-        ByteBuf headerBbuf = Unpooled.copiedBuffer(header, 0, header.length(), StandardCharsets.UTF_8);
-        ByteBuf footerBbuf = Unpooled.copiedBuffer("\r\n", 0, 2, StandardCharsets.UTF_8);
-        streamToGroup(headerBbuf, channelGroup, false);
-        streamToGroup(imageByteBuf, channelGroup, false);
-        streamToGroup(footerBbuf, channelGroup, true);
+        StreamServerUtils.sendMjpegFrame(jpg, channelGroup);
     }
 
     public void streamToGroup(Object msg, ChannelGroup channelGroup, boolean flush) {
@@ -1133,36 +1374,65 @@ public class IpCameraHandler extends BaseThingHandler {
             return;
         }
 
+        String ffmpegLocation = config.get(CONFIG_FFMPEG_LOCATION).toString();
         // Make sure the folder exists, if not create it.
         new File(ffmpegOutputFolder).mkdirs();
         switch (format) {
             case "HLS":
-                if (ffmpegHLS == null) {
+                if (ffmpegHLS == null && "LOW_LATENCY".equals(hlsMode)) {
+                    // Short fragments that always break on a key frame become the parts, ffmpeg writes them to stdout.
+                    inOptions = "-hide_banner -loglevel warning -fflags nobuffer -rtsp_transport tcp";
+                    if (!rtspUri.contains("rtsp")) {
+                        inOptions = "-hide_banner -loglevel warning -fflags nobuffer";
+                    }
+                    inOptions += getProbeOptions();
+                    LowLatencyHls localLowLatencyHls = new LowLatencyHls();
+                    ffmpegHLS = new Ffmpeg(this, ffmpegSupervisor, format, ffmpegLocation, inOptions, rtspUri,
+                            "-map 0:v:0 -map 0:a:0? -c:v copy -c:a aac -f mp4 -flush_packets 1 -movflags empty_moov+default_base_moof+frag_keyframe -frag_duration "
+                                    + (int) (LowLatencyHls.PART_TARGET_SECONDS * 1000000),
+                            "-", username, password);
+                    ffmpegHLS.setOutputListener(localLowLatencyHls);
+                    lowLatencyHls = localLowLatencyHls;
+                } else if (ffmpegHLS == null && "INTERNAL".equals(hlsMode)) {
+                    // ffmpeg only copies the H264 out of the stream, the segments are made in memory by the binding.
+                    inOptions = "-hide_banner -loglevel warning -rtsp_transport tcp";
+                    if (!rtspUri.contains("rtsp")) {
+                        inOptions = "-hide_banner -loglevel warning";
+                    }
+                    inOptions += getProbeOptions();
+                    AnnexBReader localAnnexBReader = new AnnexBReader();
+                    TsSegmenter localTsSegmenter = new TsSegmenter(segmentCache);
+                    localTsSegmenter.setPlaylistListener(playlist -> hlsPlaylist = playlist);
+                    localAnnexBReader.addListener(localTsSegmenter);
+                    ffmpegHLS = new Ffmpeg(this, ffmpegSupervisor, format, ffmpegLocation, inOptions, rtspUri,
+                            "-map 0:v:0 -an -c:v copy -f h264", "-", username, password);
+                    ffmpegHLS.setOutputListener(localAnnexBReader);
+                    tsSegmenter = localTsSegmenter;
+                    annexBReader = localAnnexBReader;
+                } else if (ffmpegHLS == null) {
+                    String outOptions = addStreamMap(config.get(CONFIG_FFMPEG_HLS_OUT_ARGUMENTS).toString(), true);
                     if (rtspUri.contains(":554")) {
-                        ffmpegHLS = new Ffmpeg(this, format, config.get(CONFIG_FFMPEG_LOCATION).toString(),
-                                "-hide_banner -loglevel panic -rtsp_transport tcp", rtspUri,
-                                config.get(CONFIG_FFMPEG_HLS_OUT_ARGUMENTS).toString(),
-                                ffmpegOutputFolder + "ipcamera.m3u8", username, password);
+                        ffmpegHLS = new Ffmpeg(this, ffmpegSupervisor, format, ffmpegLocation,
+                                "-hide_banner -loglevel panic -rtsp_transport tcp" + getProbeOptions(), rtspUri,
+                                outOptions, ffmpegOutputFolder + "ipcamera.m3u8", username, password);
                     } else {
-                        ffmpegHLS = new Ffmpeg(this, format, config.get(CONFIG_FFMPEG_LOCATION).toString(),
-                                "-hide_banner -loglevel panic", rtspUri,
-                                config.get(CONFIG_FFMPEG_HLS_OUT_ARGUMENTS).toString(),
+                        ffmpegHLS = new Ffmpeg(this, ffmpegSupervisor, format, ffmpegLocation,
+                                "-hide_banner -loglevel panic" + getProbeOptions(), rtspUri, outOptions,
                                 ffmpegOutputFolder + "ipcamera.m3u8", username, password);
                     }
                 }
                 if (!ffmpegHLS.getIsAlive()) {
                     ffmpegHLS.startConverting();
-                    ffmpegHLS.setKeepAlive(60);
                 }
                 break;
             case "DASH":
                 if (ffmpegDASH == null) {
                     if (rtspUri.contains(":554")) {
-                        ffmpegDASH = new Ffmpeg(this, format, config.get(CONFIG_FFMPEG_LOCATION).toString(),
+                        ffmpegDASH = new Ffmpeg(this, ffmpegSupervisor, format, ffmpegLocation,
                                 "-rtsp_transport tcp", rtspUri, "-strict -2 -c:a aac -vcodec copy -b:v 1000k -f dash",
                                 ffmpegOutputFolder + "ipcamera.mpd", username, password);
                     } else {
-                        ffmpegDASH = new Ffmpeg(this, format, config.get(CONFIG_FFMPEG_LOCATION).toString(), "",
+                        ffmpegDASH = new Ffmpeg(this, ffmpegSupervisor, format, ffmpegLocation, "",
                                 rtspUri, "-strict -2 -c:a aac -vcodec copy -b:v 1000k -f dash",
                                 ffmpegOutputFolder + "ipcamera.mpd", username, password);
                     }
@@ -1172,7 +1442,7 @@ public class IpCameraHandler extends BaseThingHandler {
             case "GIF":
                 if (ffmpegGIF == null) {
                     if (preroll > 0) {
-                        ffmpegGIF = new Ffmpeg(this, format, config.get(CONFIG_FFMPEG_LOCATION).toString(), "-y -r 1",
+                        ffmpegGIF = new Ffmpeg(this, ffmpegSupervisor, format, ffmpegLocation, "-y -r 1",
                                 ffmpegOutputFolder + "snapshot%d.jpg",
                                 "-frames:v " + (preroll + postroll) + " "
                                         + config.get(CONFIG_FFMPEG_GIF_OUT_ARGUMENTS).toString(),
@@ -1182,9 +1452,11 @@ public class IpCameraHandler extends BaseThingHandler {
                         if (!rtspUri.contains("rtsp")) {
                             inOptions = "-y -t " + postroll;
                         }
-                        ffmpegGIF = new Ffmpeg(this, format, config.get(CONFIG_FFMPEG_LOCATION).toString(), inOptions,
-                                rtspUri, config.get(CONFIG_FFMPEG_GIF_OUT_ARGUMENTS).toString(),
-                                ffmpegOutputFolder + "ipcamera.gif", username, password);
+                        String outOptions = addStreamMap(config.get(CONFIG_FFMPEG_GIF_OUT_ARGUMENTS).toString(),
+                                false);
+                        ffmpegGIF = new Ffmpeg(this, ffmpegSupervisor, format, ffmpegLocation,
+                                inOptions + getProbeOptions(), rtspUri, outOptions, ffmpegOutputFolder + "ipcamera.gif",
+                                username, password);
                     }
                 }
                 if (preroll > 0) {
@@ -1216,7 +1488,7 @@ public class IpCameraHandler extends BaseThingHandler {
                     filterOptions = filterOptions
                             .concat(" -vf select='gte(scene," + motionThreshold + ")',metadata=print");
                 }
-                ffmpegRtspHelper = new Ffmpeg(this, format, config.get(CONFIG_FFMPEG_LOCATION).toString(), inOptions,
+                ffmpegRtspHelper = new Ffmpeg(this, ffmpegSupervisor, format, ffmpegLocation, inOptions,
                         rtspUri, filterOptions, OutputOptions, username, password);
                 ffmpegRtspHelper.startConverting();
                 break;
@@ -1226,9 +1498,9 @@ public class IpCameraHandler extends BaseThingHandler {
                     if (!rtspUri.contains("rtsp")) {
                         inOptions = "";
                     }
-                    ffmpegMjpeg = new Ffmpeg(this, format, config.get(CONFIG_FFMPEG_LOCATION).toString(), inOptions,
-                            rtspUri, "-qscale:v 5 -r 6 -update 1", "http://127.0.0.1:" + serverPort + "/ipcamera.jpg",
-                            username, password);
+                    ffmpegMjpeg = new Ffmpeg(this, ffmpegSupervisor, format, ffmpegLocation,
+                            inOptions + getProbeOptions(), rtspUri, addStreamMap("-qscale:v 5 -r 6 -update 1", false),
+                            getStreamServerUrl("127.0.0.1") + "/ipcamera.jpg", username, password);
                 }
                 ffmpegMjpeg.startConverting();
                 break;
@@ -1239,48 +1511,219 @@ public class IpCameraHandler extends BaseThingHandler {
                     if (!rtspUri.contains("rtsp")) {
                         inOptions = "-threads 1 -skip_frame nokey";
                     }
-                    ffmpegSnapshot = new Ffmpeg(this, format, config.get(CONFIG_FFMPEG_LOCATION).toString(), inOptions,
-                            rtspUri, "-an -vsync vfr -update 1", "http://127.0.0.1:" + serverPort + "/snapshot.jpg",
-                            username, password);
+                    ffmpegSnapshot = new Ffmpeg(this, ffmpegSupervisor, format, ffmpegLocation,
+                            inOptions + getProbeOptions(), rtspUri, addStreamMap("-an -vsync vfr -update 1", false),
+                            getStreamServerUrl("127.0.0.1") + "/snapshot.jpg", username, password);
                 }
                 ffmpegSnapshot.startConverting();
                 break;
         }
     }
 
+    // The stream info from the cameras SDP, fetched once each time the camera comes online.
+    private @Nullable SdpInfo getCachedSdpInfo() {
+        RtspHandler localRtspHandler = rtspHandler;
+        return (localRtspHandler == null) ? null : localRtspHandler.getSdpInfo();
+    }
+
+    /**
+     * ffmpeg normally reads up to 5 seconds of the stream to work out what it contains before it outputs anything.
+     * When the SDP already gave the codec and the SPS/PPS that is not needed, so only a tiny probe is done.
+     */
+    private String getProbeOptions() {
+        SdpInfo sdpInfo = getCachedSdpInfo();
+        SdpInfo.Media video = (sdpInfo == null) ? null : sdpInfo.getVideo();
+        if (video == null || video.parameterSets.isEmpty() || !(video.isH264() || video.isH265())) {
+            return "";
+        }
+        logger.debug("Starting ffmpeg with a short probe as the stream is known to be {}", video);
+        return " -probesize 32768 -analyzeduration 500000";
+    }
+
+    /**
+     * Picks the streams by number so ffmpeg does not have to work out which are the best, or stall on ONVIF metadata.
+     * The map goes after the output options, as they can start with options for a second input. Options that already
+     * pick their streams, or that add an input such as the silent audio of -f lavfi -i aevalsrc=0, are left to ffmpeg
+     * so that input's stream is not dropped. So are filters, ffmpeg adds the output of a graph with no label by
+     * itself and a map would add the unfiltered video as a second stream, which the GIF muxer refuses.
+     */
+    private String addStreamMap(String outOptions, boolean withAudio) {
+        SdpInfo sdpInfo = getCachedSdpInfo();
+        if (sdpInfo == null || sdpInfo.getVideo() == null || outOptions.contains("-map ")
+                || outOptions.contains("-i ") || outOptions.contains("-filter_complex")
+                || outOptions.contains("-lavfi") || outOptions.contains("-vf")) {
+            return outOptions;
+        }
+        if (withAudio && sdpInfo.getAudio() != null) {
+            // optional, as the short probe can miss an audio track that the SDP lists.
+            return outOptions + " -map 0:v:0 -map 0:a:0?";
+        }
+        return outOptions + " -map 0:v:0";
+    }
+
+    /**
+     * The RTSP session used to read the cameras stream inside the binding instead of with ffmpeg. It is created the
+     * first time it is needed and is only available when FFMPEG_INPUT is a rtsp:// url.
+     */
+    public @Nullable RtspHandler getRtspHandler() {
+        if (rtspHandler == null && rtspUri.toLowerCase().startsWith("rtsp://")) {
+            try {
+                rtspHandler = new RtspHandler(mainEventLoopGroup, rtspUri, username, password);
+            } catch (URISyntaxException e) {
+                logger.warn("The FFMPEG_INPUT {} is not a valid RTSP url:{}", rtspUri, e.getMessage());
+            }
+        }
+        return rtspHandler;
+    }
+
+    public void startRtspServer(boolean start) {
+        RtspServer localServer = rtspServer;
+        if (!start) {
+            if (localServer != null) {
+                localServer.stop();
+                rtspServer = null;
+            }
+            return;
+        }
+        if (localServer != null || rtspServerPort == -1) {
+            return;
+        }
+        RtspHandler upstream = getRtspHandler();
+        if (upstream == null) {
+            logger.warn("The RTSP_SERVER_PORT needs FFMPEG_INPUT to be a rtsp:// url, the RTSP server is not started.");
+            return;
+        }
+        localServer = new RtspServer(this, upstream, rtspServerPort);
+        try {
+            localServer.start();
+            rtspServer = localServer;
+            logger.info("IpCamera RTSP server for camera {} has started, the stream is at rtsp://{}:{}/ipcamera",
+                    ipAddress, getLocalIpAddress(), rtspServerPort);
+        } catch (Exception e) {
+            logger.error(
+                    "Exception occured when starting the RTSP server. Try changing the RTSP_SERVER_PORT to another number: {}",
+                    e.toString());
+        }
+    }
+
+    // Called when the HLS stream stops so the files of the old stream are not served again.
+    public void hlsStopped() {
+        segmentCache.clear();
+        hlsPlaylist = null;
+        if (tsSegmenter != null) {
+            tsSegmenter.clear();
+        }
+        setChannelState(CHANNEL_START_STREAM, OnOffType.valueOf("OFF"));
+    }
+
+    // Called by the ffmpeg supervisor each time ffmpeg rewrites its output file.
+    public void ffmpegOutputUpdated(String format) {
+        if ("HLS".equals(format)) {
+            try {
+                hlsPlaylist = HlsPlaylist.parse(segmentCache.refreshHlsPlaylist(ffmpegOutputFolder, "ipcamera.m3u8"));
+            } catch (IOException e) {
+                logger.debug("Could not cache the HLS files:{}", e.toString());
+            }
+        }
+    }
+
+    /**
+     * @return the newest HLS playlist of this camera, or null if HLS is not running.
+     */
+    public @Nullable HlsPlaylist getHlsPlaylist() {
+        return hlsPlaylist;
+    }
+
     public void noMotionDetected(String thisAlarmsChannel) {
         setChannelState(thisAlarmsChannel, OnOffType.valueOf("OFF"));
-        firstMotionAlarm = false;
-        motionAlarmUpdateSnapshot = false;
-        motionDetected = false;
+        boolean changed;
+        synchronized (alarmLock) {
+            firstMotionAlarm = false;
+            motionAlarmUpdateSnapshot = false;
+            changed = motionDetected;
+            motionDetected = false;
+        }
+        if (changed) {
+            cameraRegistry.motionChanged(this, false);
+        }
+    }
+
+    /**
+     * Starts HLS before anyone asks for it, so a viewer who opens the stream after a motion or doorbell notification
+     * sees video straight away.
+     */
+    public void prewarmHls() {
+        if (!hlsPrewarmOnMotion || !hasStreamServer()) {
+            return;
+        }
+        // setupFfmpegFormat can sleep while ffmpeg starts, so keep it off the thread that reported the alarm.
+        scheduler.execute(() -> {
+            setupFfmpegFormat("HLS");
+            if (ffmpegHLS != null) {
+                ffmpegHLS.holdFor(HLS_PREWARM_MS);
+            }
+        });
     }
 
     public void motionDetected(String thisAlarmsChannel) {
-        updateState(CHANNEL_LAST_MOTION_TYPE, new StringType(thisAlarmsChannel));
-        updateState(thisAlarmsChannel, OnOffType.valueOf("ON"));
-        motionDetected = true;
-        if (updateImageEvents.contains("2")) {
-            if (!firstMotionAlarm) {
-                sendHttpGET(snapshotUri);
+        stateDispatcher.update(CHANNEL_LAST_MOTION_TYPE, new StringType(thisAlarmsChannel));
+        stateDispatcher.update(thisAlarmsChannel, OnOffType.valueOf("ON"));
+        eventStream.alarm(thisAlarmsChannel, true);
+        boolean started;
+        boolean snapshot = false;
+        synchronized (alarmLock) {
+            started = !motionDetected;
+            motionDetected = true;
+            if (updateImageEvents.contains("2")) {
+                snapshot = !firstMotionAlarm;
                 firstMotionAlarm = true;
+            } else if (updateImageEvents.contains("4")) { // During Motion Alarms
+                motionAlarmUpdateSnapshot = true;
+                shortMotionAlarm = true; // used for when the alarm is less than the polling amount of time.
             }
-        } else if (updateImageEvents.contains("4")) { // During Motion Alarms
-            motionAlarmUpdateSnapshot = true;
-            shortMotionAlarm = true; // used for when the alarm is less than the polling amount of time.
+        }
+        // outside the lock, as these can send requests and tell the groups.
+        if (started) {
+            prewarmHls();
+            cameraRegistry.motionChanged(this, true);
+        }
+        if (snapshot) {
+            requestSnapshot();
         }
     }
 
     public void audioDetected() {
-        updateState(CHANNEL_AUDIO_ALARM, OnOffType.valueOf("ON"));
-        if (updateImageEvents.contains("3")) {
-            if (!firstAudioAlarm) {
-                sendHttpGET(snapshotUri);
+        stateDispatcher.update(CHANNEL_AUDIO_ALARM, OnOffType.valueOf("ON"));
+        eventStream.alarm(CHANNEL_AUDIO_ALARM, true);
+        boolean snapshot = false;
+        synchronized (alarmLock) {
+            if (updateImageEvents.contains("3")) {
+                snapshot = !firstAudioAlarm;
                 firstAudioAlarm = true;
+            } else if (updateImageEvents.contains("5")) {// During audio alarms
+                audioAlarmUpdateSnapshot = true;
+                shortAudioAlarm = true; // used for when the alarm is less than the polling amount of time.
             }
-        } else if (updateImageEvents.contains("5")) {// During audio alarms
-            audioAlarmUpdateSnapshot = true;
-            shortAudioAlarm = true; // used for when the alarm is less than the polling amount of time.
         }
+        if (snapshot) {
+            requestSnapshot();
+        }
+    }
+
+    public void noAudioDetected() {
+        setChannelState(CHANNEL_AUDIO_ALARM, OnOffType.valueOf("OFF"));
+        synchronized (alarmLock) {
+            firstAudioAlarm = false;
+            audioAlarmUpdateSnapshot = false;
+        }
+    }
+
+    /**
+     * Runs an alarm for this camera on the thread of its brand handlers, for an NVR's event stream that another
+     * camera of the same NVR reads.
+     */
+    public void executeOnBrandThread(Runnable task) {
+        brandExecutor.execute(task);
     }
 
     public String returnValueFromString(String rawString, String searchedString) {
@@ -1359,7 +1802,9 @@ public class IpCameraHandler extends BaseThingHandler {
                 case CHANNEL_START_STREAM:
                     if ("ON".equals(command.toString())) {
                         setupFfmpegFormat("HLS");
-                        ffmpegHLS.setKeepAlive(-1);// will keep running till manually stopped.
+                        if (ffmpegHLS != null) {
+                            ffmpegHLS.setPinned(true);// will keep running till manually stopped.
+                        }
                     } else {
                         if (ffmpegHLS != null) {
                             ffmpegHLS.stopConverting();
@@ -1385,7 +1830,7 @@ public class IpCameraHandler extends BaseThingHandler {
                             setupFfmpegFormat("SNAPSHOT");
                         } else {
                             updateImage = true;
-                            sendHttpGET(snapshotUri);// Allows this to change Image FPS on demand
+                            requestSnapshot();// Allows this to change Image FPS on demand
                         }
                     } else {
                         if (ffmpegSnapshot != null) {
@@ -1430,49 +1875,49 @@ public class IpCameraHandler extends BaseThingHandler {
                 AmcrestHandler amcrestHandler = new AmcrestHandler(getHandle());
                 amcrestHandler.handleCommand(channelUID, command);
                 if (lowPriorityRequests == null) {
-                    lowPriorityRequests = amcrestHandler.getLowPriorityRequests();
+                    lowPriorityRequests = new CopyOnWriteArrayList<String>(amcrestHandler.getLowPriorityRequests());
                 }
                 break;
             case "DAHUA":
                 DahuaHandler dahuaHandler = new DahuaHandler(getHandle(), nvrChannel);
                 dahuaHandler.handleCommand(channelUID, command);
                 if (lowPriorityRequests == null) {
-                    lowPriorityRequests = dahuaHandler.getLowPriorityRequests();
+                    lowPriorityRequests = new CopyOnWriteArrayList<String>(dahuaHandler.getLowPriorityRequests());
                 }
                 break;
             case "DOORBIRD":
                 DoorBirdHandler doorBirdHandler = new DoorBirdHandler(getHandle());
                 doorBirdHandler.handleCommand(channelUID, command);
                 if (lowPriorityRequests == null) {
-                    lowPriorityRequests = doorBirdHandler.getLowPriorityRequests();
+                    lowPriorityRequests = new CopyOnWriteArrayList<String>(doorBirdHandler.getLowPriorityRequests());
                 }
                 break;
             case "HIKVISION":
                 HikvisionHandler hikvisionHandler = new HikvisionHandler(getHandle(), nvrChannel);
                 hikvisionHandler.handleCommand(channelUID, command);
                 if (lowPriorityRequests == null) {
-                    lowPriorityRequests = hikvisionHandler.getLowPriorityRequests();
+                    lowPriorityRequests = new CopyOnWriteArrayList<String>(hikvisionHandler.getLowPriorityRequests());
                 }
                 break;
             case "FOSCAM":
                 FoscamHandler foscamHandler = new FoscamHandler(getHandle(), username, password);
                 foscamHandler.handleCommand(channelUID, command);
                 if (lowPriorityRequests == null) {
-                    lowPriorityRequests = foscamHandler.getLowPriorityRequests();
+                    lowPriorityRequests = new CopyOnWriteArrayList<String>(foscamHandler.getLowPriorityRequests());
                 }
                 break;
             case "INSTAR":
                 InstarHandler instarHandler = new InstarHandler(getHandle());
                 instarHandler.handleCommand(channelUID, command);
                 if (lowPriorityRequests == null) {
-                    lowPriorityRequests = instarHandler.getLowPriorityRequests();
+                    lowPriorityRequests = new CopyOnWriteArrayList<String>(instarHandler.getLowPriorityRequests());
                 }
                 break;
             default:
                 HttpOnlyHandler defaultHandler = new HttpOnlyHandler(getHandle());
                 defaultHandler.handleCommand(channelUID, command);
                 if (lowPriorityRequests == null) {
-                    lowPriorityRequests = defaultHandler.getLowPriorityRequests();
+                    lowPriorityRequests = new CopyOnWriteArrayList<String>(defaultHandler.getLowPriorityRequests());
                 }
                 break;
         }
@@ -1486,8 +1931,16 @@ public class IpCameraHandler extends BaseThingHandler {
         }
     };
 
+    /**
+     * Safe to call from the Netty threads, the update is passed to openHAB by the {@link StateDispatcher}.
+     */
     public void setChannelState(String channelToUpdate, State valueOf) {
-        updateState(channelToUpdate, valueOf);
+        stateDispatcher.update(channelToUpdate, valueOf);
+        if (ALARM_CHANNELS.contains(channelToUpdate)) {
+            eventStream.alarm(channelToUpdate, OnOffType.ON.equals(valueOf));
+        } else if (CHANNEL_START_STREAM.equals(channelToUpdate)) {
+            eventStream.stream("hls", OnOffType.ON.equals(valueOf));
+        }
     }
 
     public String encodeSpecialChars(String text) {
@@ -1505,10 +1958,20 @@ public class IpCameraHandler extends BaseThingHandler {
         // Instar needs the host IP before thing can come online.
         if (!"-1".contentEquals(config.get(CONFIG_SERVER_PORT).toString())) {
             startStreamServer(true);
+        } else {
+            hostIp = getLocalIpAddress();
+        }
+        // The shared server finds the camera by its UID or just its ID, the handler is only made when it is asked for.
+        sharedStreamServer.addRoute(getThing().getUID().getAsString(), () -> new StreamServerHandler(getHandle()));
+        sharedStreamServer.addRoute(getThing().getUID().getId(), () -> new StreamServerHandler(getHandle()));
+        updateStreamUrls();
+        startRtspServer(true);
+        RtspHandler localRtspHandler = getRtspHandler();
+        if (localRtspHandler != null) {
+            // Only the SDP is fetched, so each ffmpeg that starts later already knows what the stream contains.
+            localRtspHandler.describe();
         }
         updateStatus(ThingStatus.ONLINE);
-        listOfOnlineCameraHandlers.add(this);
-        listOfOnlineCameraUID.add(getThing().getUID().getId());
         isOnline = true;
         cameraConnectionJob.cancel(false);
         cameraConnectionJob = null;
@@ -1519,11 +1982,8 @@ public class IpCameraHandler extends BaseThingHandler {
         if (!rtspUri.equals("")) {
             updateState(CHANNEL_RTSP_URL, new StringType(rtspUri));
         }
-        if (!listOfGroupHandlers.isEmpty()) {
-            for (IpCameraGroupHandler handle : listOfGroupHandlers) {
-                handle.cameraOnline(getThing().getUID().getId());
-            }
-        }
+        // groups and WebSockets can now find this camera.
+        cameraRegistry.cameraOnline(this);
     }
 
     Runnable pollingCameraConnection = new Runnable() {
@@ -1678,14 +2138,15 @@ public class IpCameraHandler extends BaseThingHandler {
         public void run() {
             // Snapshot should be first to keep consistent time between shots
             if (!snapshotUri.equals("")) {
-                if (updateImageEvents.contains("1") || updateImage) {
-                    sendHttpGET(snapshotUri);
+                if (updateImageEvents.contains("1") || updateImage || webSocketStreamer.hasClients()
+                        || System.currentTimeMillis() < snapshotsWantedUntil) {
+                    requestSnapshot();
                 } else if (audioAlarmUpdateSnapshot || shortAudioAlarm) {
-                    sendHttpGET(snapshotUri);
+                    requestSnapshot();
                     updateCounter = 5;
                     shortAudioAlarm = false;
                 } else if (motionAlarmUpdateSnapshot || shortMotionAlarm) {
-                    sendHttpGET(snapshotUri);
+                    requestSnapshot();
                     updateCounter = 5;
                     shortMotionAlarm = false;
                 }
@@ -1705,8 +2166,12 @@ public class IpCameraHandler extends BaseThingHandler {
                     sendHttpGET("/cgi-bin/eventManager.cgi?action=getEventIndexes&code=AudioMutation");
                     break;
                 case "DAHUA":
-                    // Check for alarms, channel for NVRs appears not to work at filtering.
-                    if (streamIsStopped("/cgi-bin/eventManager.cgi?action=attach&codes=[All]")) {
+                    // Check for alarms, one stream per NVR carries every channel and DahuaHandler passes them on.
+                    if (!DahuaHandler.ownsEventStream(getHandle())) {
+                        if (!streamIsStopped("/cgi-bin/eventManager.cgi?action=attach&codes=[All]")) {
+                            closeChannel("/cgi-bin/eventManager.cgi?action=attach&codes=[All]");
+                        }
+                    } else if (streamIsStopped("/cgi-bin/eventManager.cgi?action=attach&codes=[All]")) {
                         logger.warn("The alarm stream was not running for camera {}, re-starting it now", ipAddress);
                         sendHttpGET("/cgi-bin/eventManager.cgi?action=attach&codes=[All]");
                     }
@@ -1719,17 +2184,16 @@ public class IpCameraHandler extends BaseThingHandler {
                     }
                     break;
             }
-            if (lowPriorityRequests != null) {
-                if (!lowPriorityRequests.isEmpty()) {
-                    if (lowPriorityCounter >= lowPriorityRequests.size()) {
+            List<String> localLowPriorityRequests = lowPriorityRequests;
+            if (localLowPriorityRequests != null) {
+                String[] requests = localLowPriorityRequests.toArray(new String[0]);
+                if (requests.length > 0) {
+                    if (lowPriorityCounter >= requests.length) {
                         lowPriorityCounter = 0;
                     }
-                    sendHttpGET(lowPriorityRequests.get(lowPriorityCounter++));
+                    sendHttpGET(requests[lowPriorityCounter++]);
                 }
             }
-            if (ffmpegHLS != null) {
-                ffmpegHLS.checkKeepAlive();
-            }
             // Delay movements so when a rule changes all 3, a single movement is made.
             if (movePTZ) {
                 movePTZ = false;
@@ -1760,6 +2224,7 @@ public class IpCameraHandler extends BaseThingHandler {
         postroll = Integer.parseInt(config.get(CONFIG_GIF_POSTROLL).toString());
         updateImageEvents = config.get(CONFIG_IMAGE_UPDATE_EVENTS).toString();
         updateImage = (boolean) config.get(CONFIG_UPDATE_IMAGE);
+        pollTime = Integer.parseInt(config.get(CONFIG_POLL_CAMERA_MS).toString());
 
         snapshotUri = (config.get(CONFIG_SNAPSHOT_URL_OVERRIDE) == null) ? ""
                 : getCorrectUrlFormat(config.get(CONFIG_SNAPSHOT_URL_OVERRIDE).toString());
@@ -1774,13 +2239,22 @@ public class IpCameraHandler extends BaseThingHandler {
 
         serverPort = Integer.parseInt(config.get(CONFIG_SERVER_PORT).toString());
         if (serverPort == -1) {
-            logger.warn("The SERVER_PORT = -1 which disables a lot of features. See readme for more info.");
+            logger.warn(
+                    "The SERVER_PORT = -1 which disables a lot of features unless the binding has a SERVER_PORT set. See readme for more info.");
         } else if (serverPort < 1025) {
             logger.warn("The SERVER_PORT is <= 1024 and may cause permission errors under Linux, try a higher port.");
         }
 
         rtspUri = (config.get(CONFIG_FFMPEG_INPUT) == null) ? "" : config.get(CONFIG_FFMPEG_INPUT).toString();
 
+        rtspServerPort = (config.get(CONFIG_RTSP_SERVER_PORT) == null) ? -1
+                : Integer.parseInt(config.get(CONFIG_RTSP_SERVER_PORT).toString());
+
+        hlsMode = (config.get(CONFIG_HLS_MODE) == null) ? "FFMPEG" : config.get(CONFIG_HLS_MODE).toString();
+
+        hlsPrewarmOnMotion = (config.get(CONFIG_HLS_PREWARM_ON_MOTION) == null) ? false
+                : (boolean) config.get(CONFIG_HLS_PREWARM_ON_MOTION);
+
         ffmpegOutputFolder = (config.get(CONFIG_FFMPEG_OUTPUT) == null) ? ""
                 : config.get(CONFIG_FFMPEG_OUTPUT).toString();
 
@@ -1840,16 +2314,15 @@ public class IpCameraHandler extends BaseThingHandler {
     }
 
     private void restart() {
-        listOfOnlineCameraHandlers.remove(this);
-        listOfOnlineCameraUID.remove(getThing().getUID().getId());
+        metrics.snapshotFailed();
         // inform all group handlers that this camera has gone offline
-        for (IpCameraGroupHandler handle : listOfGroupHandlers) {
-            handle.cameraOffline(this);
-        }
+        cameraRegistry.cameraOffline(this);
         basicAuth = ""; // clear out stored password hash
         useDigestAuth = false;
         firstStreamedMsg = null;
         startStreamServer(false);
+        sharedStreamServer.removeRoute(getThing().getUID().getAsString());
+        sharedStreamServer.removeRoute(getThing().getUID().getId());
 
         if (pollCameraJob != null) {
             pollCameraJob.cancel(true);
@@ -1866,6 +2339,19 @@ public class IpCameraHandler extends BaseThingHandler {
             ffmpegHLS.stopConverting();
             ffmpegHLS = null;
         }
+        segmentCache.clear();
+        hlsPlaylist = null;
+        lowLatencyHls = null;
+        annexBReader = null;
+        tsSegmenter = null;
+        startRtspServer(false);
+        if (rtspHandler != null) {
+            rtspHandler.stop();
+            rtspHandler = null;
+        }
+        liveFrameDue = false;
+        lastLiveFrame = 0;
+        mjpegFrameExtractor.reset();
         if (ffmpegGIF != null) {
             ffmpegGIF.stopConverting();
             ffmpegGIF = null;
@@ -1893,6 +2379,7 @@ public class IpCameraHandler extends BaseThingHandler {
             listOfChannels.clear();
             listOfChStatus.clear();
             listOfReplies.clear();
+            channelStatusCount = new int[4];
         } finally {
             lock.unlock();
         }
@@ -1910,4 +2397,98 @@ public class IpCameraHandler extends BaseThingHandler {
     public String getWhiteList() {
         return config.get(CONFIG_IP_WHITELIST).toString();
     }
+
+    /**
+     * @param requestIP the address in brackets, the way it is written in the IP_WHITELIST.
+     */
+    public boolean isWhiteListed(String requestIP) {
+        // read from the thing as this is also asked before the camera has been initialized.
+        Object whiteList = getThing().getConfiguration().get(CONFIG_IP_WHITELIST);
+        if (whiteList == null) {
+            return false;
+        }
+        return whiteList.toString().contains(requestIP) || "DISABLE".equals(whiteList.toString());
+    }
+
+    /**
+     * Adds this cameras samples to a /metrics page. Only the gauges are worked out here, the counters are kept up to
+     * date by the code that talks to the camera.
+     */
+    public void writeMetrics(PrometheusWriter writer) {
+        String camera = PrometheusWriter.label("camera", getThing().getUID().getId());
+        writer.gauge("ipcamera_online", "1 if the camera is connected.", camera, isOnline ? 1 : 0);
+        writer.counter("ipcamera_connects_total", "New HTTP connections opened to the camera.", camera,
+                metrics.connects.sum());
+        writer.counter("ipcamera_connect_failures_total", "HTTP connections to the camera that failed to open.",
+                camera, metrics.connectFailures.sum());
+        writer.counter("ipcamera_reconnects_total", "Times the binding dropped and restarted the camera connection.",
+                camera, metrics.reconnects.sum());
+        writer.counter("ipcamera_unauthorized_total", "401 replies from the camera.", camera,
+                metrics.unauthorized.sum());
+        writer.counter("ipcamera_auth_retries_total", "Requests sent again with new Basic or Digest details.", camera,
+                metrics.authRetries.sum());
+        writer.counter("ipcamera_bytes_in_total", "Body bytes received from the camera over HTTP.", camera,
+                metrics.bytesIn.sum());
+        writer.counter("ipcamera_bytes_out_total", "Body bytes sent by the stream server for this camera.", camera,
+                metrics.bytesOut.sum());
+        metrics.writeSnapshotHistogram(writer, camera);
+        int[] statusCount = channelStatusCount;
+        String[] statusNames = { "closed", "closing", "sending", "open" };
+        for (int i = 0; i < statusNames.length; i++) {
+            writer.gauge("ipcamera_channels", "HTTP channels to the camera by status, as of the last poll.",
+                    camera + "," + PrometheusWriter.label("status", statusNames[i]), statusCount[i]);
+        }
+        Ffmpeg localHLS = ffmpegHLS;
+        RtspServer localRtspServer = rtspServer;
+        String[] streams = { "mjpeg", "snapshots", "autofps", "hls", "websocket", "events", "rtsp" };
+        int[] clients = { mjpegChannelGroup.size(), snapshotMjpegChannelGroup.size(),
+                autoSnapshotMjpegChannelGroup.size(), (localHLS == null) ? 0 : localHLS.getViewerCount(),
+                webSocketStreamer.getClientCount(), eventStream.getClientCount(),
+                (localRtspServer == null) ? 0 : localRtspServer.getClientCount() };
+        for (int i = 0; i < streams.length; i++) {
+            writer.gauge("ipcamera_clients", "Clients watching each kind of stream.",
+                    camera + "," + PrometheusWriter.label("stream", streams[i]), clients[i]);
+        }
+        writer.counter("ipcamera_websocket_dropped_frames_total", "Frames skipped for WebSockets that fell behind.",
+                camera, webSocketStreamer.getDroppedFrames());
+        writer.counter("ipcamera_rtsp_dropped_packets_total", "RTP packets skipped for RTSP clients that fell behind.",
+                camera, (localRtspServer == null) ? 0 : localRtspServer.getDroppedPackets());
+        for (Ffmpeg ffmpeg : new Ffmpeg[] { ffmpegHLS, ffmpegDASH, ffmpegGIF, ffmpegRtspHelper, ffmpegMjpeg,
+                ffmpegSnapshot }) {
+            if (ffmpeg == null) {
+                continue;
+            }
+            String labels = camera + "," + PrometheusWriter.label("format", ffmpeg.getFormat());
+            writer.gauge("ipcamera_ffmpeg_running", "1 if the ffmpeg process is wanted and running.", labels,
+                    ffmpeg.getIsAlive() && ffmpeg.getUptime() > 0 ? 1 : 0);
+            writer.counter("ipcamera_ffmpeg_restarts_total", "Times the ffmpeg process was restarted after stalling.",
+                    labels, ffmpeg.getRestarts());
+            writer.gauge("ipcamera_ffmpeg_uptime_seconds", "How long the current ffmpeg process has run.", labels,
+                    ffmpeg.getUptime() / 1000.0);
+        }
+        writer.gauge("ipcamera_dispatch_queue_depth", "Channel updates waiting to be passed to openHAB.", camera,
+                stateDispatcher.getQueueDepth());
+        writer.counter("ipcamera_dispatch_coalesced_total", "Channel updates replaced by a newer one before sending.",
+                camera, stateDispatcher.getCoalesced());
+        writer.counter("ipcamera_dispatch_dropped_total", "Channel updates dropped as too many were waiting.", camera,
+                stateDispatcher.getDropped());
+    }
+
+    /**
+     * @return the tasks waiting on the event loops that talk to the camera, which the shared /metrics adds up for
+     *         every camera.
+     */
+    public long getPendingTasks() {
+        return countPendingTasks(mainEventLoopGroup);
+    }
+
+    public static long countPendingTasks(EventExecutorGroup group) {
+        long pendingTasks = 0;
+        for (EventExecutor executor : group) {
+            if (executor instanceof SingleThreadEventExecutor) {
+                pendingTasks += ((SingleThreadEventExecutor) executor).pendingTasks();
+            }
+        }
+        return pendingTasks;
+    }
 }
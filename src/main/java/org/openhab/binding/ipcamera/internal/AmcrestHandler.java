@@ -18,6 +18,7 @@ import static org.openhab.binding.ipcamera.IpCameraBindingConstants.*;
 import java.io.UnsupportedEncodingException;
 import java.net.URLEncoder;
 import java.util.ArrayList;
+import java.util.function.BiConsumer;
 
 import org.eclipse.jdt.annotation.NonNullByDefault;
 import org.eclipse.jdt.annotation.Nullable;
@@ -43,6 +44,7 @@ import io.netty.util.ReferenceCountUtil;
 
 @NonNullByDefault
 public class AmcrestHandler extends ChannelDuplexHandler {
+    private static final EventMatcher<BiConsumer<AmcrestHandler, String>> REPLY_MATCHER = buildReplyMatcher();
     private String requestUrl = "Empty";
     IpCameraHandler ipCameraHandler;
 
@@ -54,6 +56,44 @@ public class AmcrestHandler extends ChannelDuplexHandler {
         requestUrl = url;
     }
 
+    private static EventMatcher<BiConsumer<AmcrestHandler, String>> buildReplyMatcher() {
+        return new EventMatcher.Builder<BiConsumer<AmcrestHandler, String>>()
+                .add("Error: No Events", (handler, content) -> handler.eventIndexesReceived(false))
+                .add("channels[0]=0", (handler, content) -> handler.eventIndexesReceived(true))
+                .add("table.MotionDetect[0].Enable=false", (handler, content) -> handler.ipCameraHandler
+                        .setChannelState(CHANNEL_ENABLE_MOTION_ALARM, OnOffType.valueOf("OFF")))
+                .add("table.MotionDetect[0].Enable=true", (handler, content) -> handler.ipCameraHandler
+                        .setChannelState(CHANNEL_ENABLE_MOTION_ALARM, OnOffType.valueOf("ON")))
+                // determine if the audio alarm is turned on or off.
+                .add("table.AudioDetect[0].MutationDetect=true", (handler, content) -> handler.ipCameraHandler
+                        .setChannelState(CHANNEL_ENABLE_AUDIO_ALARM, OnOffType.valueOf("ON")))
+                .add("table.AudioDetect[0].MutationDetect=false", (handler, content) -> handler.ipCameraHandler
+                        .setChannelState(CHANNEL_ENABLE_AUDIO_ALARM, OnOffType.valueOf("OFF")))
+                // Handle AudioMutationThreshold alarm
+                .add("table.AudioDetect[0].MutationThreold=", (handler, content) -> {
+                    String value = handler.ipCameraHandler.returnValueFromString(content,
+                            "table.AudioDetect[0].MutationThreold=");
+                    handler.ipCameraHandler.setChannelState(CHANNEL_THRESHOLD_AUDIO_ALARM, PercentType.valueOf(value));
+                }).build();
+    }
+
+    // getEventIndexes replies with an error when nothing is happening.
+    void eventIndexesReceived(boolean active) {
+        if ("/cgi-bin/eventManager.cgi?action=getEventIndexes&code=VideoMotion".equals(requestUrl)) {
+            if (active) {
+                ipCameraHandler.motionDetected(CHANNEL_MOTION_ALARM);
+            } else {
+                ipCameraHandler.noMotionDetected(CHANNEL_MOTION_ALARM);
+            }
+        } else if ("/cgi-bin/eventManager.cgi?action=getEventIndexes&code=AudioMutation".equals(requestUrl)) {
+            if (active) {
+                ipCameraHandler.audioDetected();
+            } else {
+                ipCameraHandler.noAudioDetected();
+            }
+        }
+    }
+
     // This handles the incoming http replies back from the camera.
     @Override
     public void channelRead(@Nullable ChannelHandlerContext ctx, @Nullable Object msg) throws Exception {
@@ -63,39 +103,9 @@ public class AmcrestHandler extends ChannelDuplexHandler {
             if (!content.isEmpty()) {
                 ipCameraHandler.logger.trace("HTTP Result back from camera is \t:{}:", content);
             }
-            if (content.contains("Error: No Events")) {
-                if ("/cgi-bin/eventManager.cgi?action=getEventIndexes&code=VideoMotion".equals(requestUrl)) {
-                    ipCameraHandler.noMotionDetected(CHANNEL_MOTION_ALARM);
-                } else if ("/cgi-bin/eventManager.cgi?action=getEventIndexes&code=AudioMutation".equals(requestUrl)) {
-                    ipCameraHandler.setChannelState(CHANNEL_AUDIO_ALARM, OnOffType.valueOf("OFF"));
-                    ipCameraHandler.firstAudioAlarm = false;
-                    ipCameraHandler.audioAlarmUpdateSnapshot = false;
-                }
-            } else if (content.contains("channels[0]=0")) {
-                if ("/cgi-bin/eventManager.cgi?action=getEventIndexes&code=VideoMotion".equals(requestUrl)) {
-                    ipCameraHandler.motionDetected(CHANNEL_MOTION_ALARM);
-                } else if ("/cgi-bin/eventManager.cgi?action=getEventIndexes&code=AudioMutation".equals(requestUrl)) {
-                    ipCameraHandler.audioDetected();
-                }
-            }
-
-            if (content.contains("table.MotionDetect[0].Enable=false")) {
-                ipCameraHandler.setChannelState(CHANNEL_ENABLE_MOTION_ALARM, OnOffType.valueOf("OFF"));
-            } else if (content.contains("table.MotionDetect[0].Enable=true")) {
-                ipCameraHandler.setChannelState(CHANNEL_ENABLE_MOTION_ALARM, OnOffType.valueOf("ON"));
+            for (BiConsumer<AmcrestHandler, String> action : REPLY_MATCHER.match(content)) {
+                action.accept(this, content);
             }
-            // determine if the audio alarm is turned on or off.
-            if (content.contains("table.AudioDetect[0].MutationDetect=true")) {
-                ipCameraHandler.setChannelState(CHANNEL_ENABLE_AUDIO_ALARM, OnOffType.valueOf("ON"));
-            } else if (content.contains("table.AudioDetect[0].MutationDetect=false")) {
-                ipCameraHandler.setChannelState(CHANNEL_ENABLE_AUDIO_ALARM, OnOffType.valueOf("OFF"));
-            }
-            // Handle AudioMutationThreshold alarm
-            if (content.contains("table.AudioDetect[0].MutationThreold=")) {
-                String value = ipCameraHandler.returnValueFromString(content, "table.AudioDetect[0].MutationThreold=");
-                ipCameraHandler.setChannelState(CHANNEL_THRESHOLD_AUDIO_ALARM, PercentType.valueOf(value));
-            }
-
         } finally {
             ReferenceCountUtil.release(msg);
             ctx.close();
@@ -0,0 +1,169 @@
+/**
+ * Copyright (c) 2010-2019 Contributors to the openHAB project
+ *
+ * See the NOTICE file(s) distributed with this work for additional
+ * information.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+
+package org.openhab.binding.ipcamera.internal;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.eclipse.jdt.annotation.NonNullByDefault;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The {@link AnnexBReader} class is responsible for reading a raw H264 stream in Annex B format, as ffmpeg writes with
+ * '-c:v copy -f h264 -', and handing each access unit to its listeners. A raw stream has no timestamps so they are
+ * made from the time each picture arrives, smoothed so the bursts from reading a pipe do not cause jerky video.
+ *
+ * @author Matthew Skinner - Initial contribution
+ */
+
+@NonNullByDefault
+public class AnnexBReader implements Ffmpeg.OutputListener {
+    private static final int MAX_NAL_BYTES = 8 * 1024 * 1024;
+    // If the made up timestamps drift this far from the real time they are reset to the real time.
+    private static final long MAX_DRIFT = 45000;
+    private final Logger logger = LoggerFactory.getLogger(getClass());
+    private final CopyOnWriteArrayList<RtpDepacketizer.AccessUnitListener> listOfListeners = new CopyOnWriteArrayList<>();
+    private byte[] buffer = new byte[256 * 1024];
+    private int bufferLength = 0;
+    // -1 until the first start code is found.
+    private int nalStart = -1;
+    private List<byte[]> accessUnit = new ArrayList<byte[]>(8);
+    private boolean hasPicture = false;
+    private boolean keyFrame = false;
+    private boolean started = false;
+    private long startTime = 0;
+    private long lastArrival = 0;
+    private long lastTimestamp = 0;
+    private double frameDuration = 3600;// 25 fps at 90kHz until the real rate is known.
+
+    public void addListener(RtpDepacketizer.AccessUnitListener listener) {
+        listOfListeners.addIfAbsent(listener);
+    }
+
+    public void removeListener(RtpDepacketizer.AccessUnitListener listener) {
+        listOfListeners.remove(listener);
+    }
+
+    @Override
+    public synchronized void ffmpegOutput(byte[] data, int length) {
+        if (bufferLength + length > buffer.length) {
+            buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, bufferLength + length));
+        }
+        System.arraycopy(data, 0, buffer, bufferLength, length);
+        // Start codes can be split over two reads, so look back over the last few bytes as well.
+        int searchFrom = Math.max(0, bufferLength - 3);
+        bufferLength += length;
+        for (int i = searchFrom; i + 2 < bufferLength; i++) {
+            if ((buffer[i + 2] & 0xFF) > 1) {
+                i += 2;// no start code can end in the next two bytes
+                continue;
+            }
+            if (buffer[i] == 0 && buffer[i + 1] == 0 && buffer[i + 2] == 1) {
+                if (nalStart >= 0) {
+                    addNalUnit(nalStart, i);
+                }
+                nalStart = i + 3;
+                i += 2;
+            }
+        }
+        // Keep the NAL that is not finished yet at the start of the buffer.
+        int keepFrom = (nalStart >= 0) ? nalStart : Math.max(0, bufferLength - 3);
+        if (nalStart >= 0 && bufferLength - nalStart > MAX_NAL_BYTES) {
+            logger.warn("A H264 NAL unit from ffmpeg was larger than {} bytes, it has been dropped.", MAX_NAL_BYTES);
+            nalStart = -1;
+            keepFrom = bufferLength;
+        }
+        System.arraycopy(buffer, keepFrom, buffer, 0, bufferLength - keepFrom);
+        bufferLength -= keepFrom;
+        if (nalStart >= 0) {
+            nalStart = 0;
+        }
+    }
+
+    private void addNalUnit(int start, int end) {
+        // A 4 byte start code leaves its first zero on the end of the previous NAL.
+        while (end > start && buffer[end - 1] == 0) {
+            end--;
+        }
+        if (end <= start) {
+            return;
+        }
+        int type = buffer[start] & 0x1F;
+        boolean isPicture = type >= 1 && type <= 5;
+        // first_mb_in_slice is 0 for the first slice of a picture, which is a single '1' bit in exp-Golomb.
+        boolean firstSlice = isPicture && end > start + 1 && (buffer[start + 1] & 0x80) != 0;
+        if (hasPicture && (type == 9 || type == 7 || type == 8 || type == 6 || firstSlice)) {
+            finishAccessUnit();
+        }
+        if (type == 9) {
+            return;// access unit delimiters are added again by whatever muxes the stream.
+        }
+        accessUnit.add(Arrays.copyOfRange(buffer, start, end));
+        if (isPicture) {
+            hasPicture = true;
+        }
+        if (type == 5) {
+            keyFrame = true;
+        }
+    }
+
+    private void finishAccessUnit() {
+        List<byte[]> finished = accessUnit;
+        boolean wasKeyFrame = keyFrame;
+        accessUnit = new ArrayList<byte[]>(8);
+        hasPicture = false;
+        keyFrame = false;
+        long timestamp = nextTimestamp();
+        for (RtpDepacketizer.AccessUnitListener listener : listOfListeners) {
+            listener.accessUnit(finished, timestamp, wasKeyFrame);
+        }
+    }
+
+    // Returns a 90kHz timestamp that starts at 0 and only ever goes forwards.
+    private long nextTimestamp() {
+        long now = System.nanoTime() / 100000 * 9;
+        if (!started) {
+            started = true;
+            startTime = now - lastTimestamp;
+            lastArrival = now;
+            return lastTimestamp;
+        }
+        frameDuration = frameDuration * 0.95 + (now - lastArrival) * 0.05;
+        lastArrival = now;
+        long timestamp = lastTimestamp + Math.max(1, Math.round(frameDuration));
+        long realTime = now - startTime;
+        if (Math.abs(timestamp - realTime) > MAX_DRIFT) {
+            timestamp = Math.max(lastTimestamp + 1, realTime);
+        }
+        lastTimestamp = timestamp;
+        return timestamp;
+    }
+
+    @Override
+    public synchronized void ffmpegStopped() {
+        bufferLength = 0;
+        nalStart = -1;
+        accessUnit = new ArrayList<byte[]>(8);
+        hasPicture = false;
+        keyFrame = false;
+        // carry on from the last timestamp so a restarted stream keeps going forwards.
+        if (started) {
+            started = false;
+            lastTimestamp += Math.round(frameDuration);
+        }
+    }
+}
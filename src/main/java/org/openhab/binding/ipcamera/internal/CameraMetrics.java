@@ -0,0 +1,127 @@
+/**
+ * Copyright (c) 2010-2019 Contributors to the openHAB project
+ *
+ * See the NOTICE file(s) distributed with this work for additional
+ * information.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+
+package org.openhab.binding.ipcamera.internal;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.eclipse.jdt.annotation.NonNullByDefault;
+import org.eclipse.jdt.annotation.Nullable;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufHolder;
+import io.netty.channel.ChannelHandler.Sharable;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelOutboundHandlerAdapter;
+import io.netty.channel.ChannelPromise;
+import io.netty.channel.FileRegion;
+import io.netty.handler.stream.ChunkedInput;
+
+/**
+ * The {@link CameraMetrics} class is responsible for the counters of one camera that are shown at /metrics. They are
+ * LongAdders so the threads that talk to the camera and serve the streams never wait on each other or on a scrape.
+ *
+ * @author Matthew Skinner - Initial contribution
+ */
+
+@NonNullByDefault
+public class CameraMetrics {
+    public static final String BYTES_OUT_HANDLER = "bytesOutCounter";
+    // Upper bounds in ms of the snapshot round trip histogram buckets, +Inf is added after these.
+    public static final long[] SNAPSHOT_BUCKETS_MS = { 50, 100, 250, 500, 1000, 2500, 5000, 10000 };
+    public final LongAdder connects = new LongAdder();
+    public final LongAdder connectFailures = new LongAdder();
+    public final LongAdder reconnects = new LongAdder();
+    public final LongAdder unauthorized = new LongAdder();
+    public final LongAdder authRetries = new LongAdder();
+    public final LongAdder bytesIn = new LongAdder();
+    public final LongAdder bytesOut = new LongAdder();
+    private final LongAdder[] snapshotBuckets = new LongAdder[SNAPSHOT_BUCKETS_MS.length + 1];
+    private final LongAdder snapshotMsSum = new LongAdder();
+    // A snapshot that has not arrived after this long is given up on, so the next request starts the time again.
+    private static final long SNAPSHOT_TIMEOUT_NS = TimeUnit.SECONDS.toNanos(30);
+    private volatile long snapshotRequestedAt = 0;
+    public final BytesOutCounter bytesOutCounter = new BytesOutCounter();
+
+    public CameraMetrics() {
+        for (int i = 0; i < snapshotBuckets.length; i++) {
+            snapshotBuckets[i] = new LongAdder();
+        }
+    }
+
+    /**
+     * Called when a snapshot is asked for, the time is kept from the first request that has not been answered yet
+     * unless that request failed or timed out.
+     */
+    public void snapshotRequested() {
+        long now = System.nanoTime();
+        long requestedAt = snapshotRequestedAt;
+        if (requestedAt == 0 || now - requestedAt > SNAPSHOT_TIMEOUT_NS) {
+            snapshotRequestedAt = now;
+        }
+    }
+
+    /**
+     * Called when the connection to the camera is dropped, any snapshot asked for is not going to arrive.
+     */
+    public void snapshotFailed() {
+        snapshotRequestedAt = 0;
+    }
+
+    public void snapshotReceived() {
+        long requestedAt = snapshotRequestedAt;
+        if (requestedAt == 0) {
+            return;
+        }
+        snapshotRequestedAt = 0;
+        long ms = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - requestedAt);
+        int bucket = 0;
+        while (bucket < SNAPSHOT_BUCKETS_MS.length && ms > SNAPSHOT_BUCKETS_MS[bucket]) {
+            bucket++;
+        }
+        snapshotBuckets[bucket].increment();
+        snapshotMsSum.add(ms);
+    }
+
+    public void writeSnapshotHistogram(PrometheusWriter writer, String labels) {
+        long[] counts = new long[snapshotBuckets.length];
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] = snapshotBuckets[i].sum();
+        }
+        writer.histogram("ipcamera_snapshot_seconds", "Time from asking the camera for a snapshot until it arrived.",
+                labels, SNAPSHOT_BUCKETS_MS, counts, snapshotMsSum.sum() / 1000.0);
+    }
+
+    /**
+     * Counts the body bytes the stream server sends for this camera. It sits just before the stream server handler,
+     * so it sees everything written by that handler and by the channel groups.
+     */
+    @Sharable
+    public class BytesOutCounter extends ChannelOutboundHandlerAdapter {
+        @Override
+        public void write(@Nullable ChannelHandlerContext ctx, @Nullable Object msg, @Nullable ChannelPromise promise)
+                throws Exception {
+            if (msg instanceof ByteBuf) {
+                bytesOut.add(((ByteBuf) msg).readableBytes());
+            } else if (msg instanceof ByteBufHolder) {
+                bytesOut.add(((ByteBufHolder) msg).content().readableBytes());
+            } else if (msg instanceof FileRegion) {
+                bytesOut.add(((FileRegion) msg).count());
+            } else if (msg instanceof ChunkedInput) {
+                bytesOut.add(Math.max(0, ((ChunkedInput<?>) msg).length()));
+            }
+            ctx.write(msg, promise);
+        }
+    }
+}
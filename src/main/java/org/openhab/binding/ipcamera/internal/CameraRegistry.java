@@ -0,0 +1,102 @@
+/**
+ * Copyright (c) 2010-2019 Contributors to the openHAB project
+ *
+ * See the NOTICE file(s) distributed with this work for additional
+ * information.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+
+package org.openhab.binding.ipcamera.internal;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.eclipse.jdt.annotation.NonNullByDefault;
+import org.eclipse.jdt.annotation.Nullable;
+import org.openhab.binding.ipcamera.handler.IpCameraHandler;
+
+/**
+ * The {@link CameraRegistry} class is responsible for knowing which cameras are online, found by the 'Unique ID' of
+ * their thing, and for telling groups and anything else that listens when a camera comes online or goes offline.
+ * One is shared by every handler the factory makes and it can be used from any thread.
+ *
+ * @author Matthew Skinner - Initial contribution
+ */
+
+@NonNullByDefault
+public class CameraRegistry {
+    private final Map<String, IpCameraHandler> onlineCameras = new ConcurrentHashMap<>();
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+
+    public interface Listener {
+        void cameraOnline(IpCameraHandler handler);
+
+        void cameraOffline(IpCameraHandler handler);
+
+        /**
+         * Called the moment a camera's motion alarm turns on or off, not each time the camera repeats it.
+         */
+        default void motionChanged(IpCameraHandler handler, boolean motion) {
+        }
+    }
+
+    /**
+     * The listener is told straight away about every camera that is already online.
+     */
+    public void addListener(Listener listener) {
+        listeners.add(listener);
+        for (IpCameraHandler handler : onlineCameras.values()) {
+            listener.cameraOnline(handler);
+        }
+    }
+
+    public void removeListener(Listener listener) {
+        listeners.remove(listener);
+    }
+
+    public void cameraOnline(IpCameraHandler handler) {
+        onlineCameras.put(handler.getThing().getUID().getId(), handler);
+        for (Listener listener : listeners) {
+            listener.cameraOnline(handler);
+        }
+    }
+
+    public void cameraOffline(IpCameraHandler handler) {
+        if (onlineCameras.remove(handler.getThing().getUID().getId(), handler)) {
+            for (Listener listener : listeners) {
+                listener.cameraOffline(handler);
+            }
+        }
+    }
+
+    public void motionChanged(IpCameraHandler handler, boolean motion) {
+        for (Listener listener : listeners) {
+            listener.motionChanged(handler, motion);
+        }
+    }
+
+    /**
+     * @param uid either the 'Unique ID' of the camera or its full thing UID such as ipcamera:DAHUA:001.
+     * @return the camera if it is online.
+     */
+    public @Nullable IpCameraHandler getOnlineCamera(String uid) {
+        int colon = uid.lastIndexOf(':');
+        IpCameraHandler handler = onlineCameras.get(uid.substring(colon + 1));
+        if (handler != null && colon >= 0 && !uid.equals(handler.getThing().getUID().getAsString())) {
+            return null;
+        }
+        return handler;
+    }
+
+    public Collection<IpCameraHandler> getOnlineCameras() {
+        return onlineCameras.values();
+    }
+}
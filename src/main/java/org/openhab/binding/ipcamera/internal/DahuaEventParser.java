@@ -0,0 +1,141 @@
+/**
+ * Copyright (c) 2010-2019 Contributors to the openHAB project
+ *
+ * See the NOTICE file(s) distributed with this work for additional
+ * information.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+
+package org.openhab.binding.ipcamera.internal;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.eclipse.jdt.annotation.NonNullByDefault;
+
+/**
+ * The {@link DahuaEventParser} class is responsible for reading the Code=VideoMotion;action=Start;index=0 lines that
+ * a Dahua camera or NVR sends on its eventManager.cgi attach stream. Each character is looked at once, the part of a
+ * line that a chunk cuts off is kept until the rest arrives, and anything that is not an event line such as the
+ * multipart headers or the JSON some events carry in their data is skipped. One is needed for each connection.
+ *
+ * @author Matthew Skinner - Initial contribution
+ */
+
+@NonNullByDefault
+public class DahuaEventParser {
+    // A line is less than 100 characters, this stops a stream with no line ends from using up the RAM.
+    private static final int MAX_LINE_LENGTH = 4096;
+    private final StringBuilder line = new StringBuilder(128);
+    private boolean skipLine = false;
+
+    public static class Event {
+        public final String code;
+        public final boolean start;
+        // Starts at 0, for an NVR this is the video channel minus one.
+        public final int index;
+
+        Event(String code, boolean start, int index) {
+            this.code = code;
+            this.start = start;
+            this.index = index;
+        }
+
+        @Override
+        public String toString() {
+            return code + (start ? " started" : " stopped") + " on index " + index;
+        }
+    }
+
+    /**
+     * @return every event whose line this chunk finished, often none.
+     */
+    public List<Event> feed(String chunk) {
+        List<Event> events = new ArrayList<>(1);
+        for (int i = 0; i < chunk.length(); i++) {
+            char c = chunk.charAt(i);
+            if (c == '\n' || c == '\r') {
+                if (!skipLine && line.length() > 0) {
+                    readLine(events);
+                }
+                line.setLength(0);
+                skipLine = false;
+            } else if (!skipLine) {
+                line.append(c);
+                // the first few characters tell if this can be an event line.
+                if (line.length() <= 5 && c != "Code=".charAt(line.length() - 1)) {
+                    skipLine = true;
+                } else if (line.length() > MAX_LINE_LENGTH) {
+                    skipLine = true;
+                }
+            }
+        }
+        return events;
+    }
+
+    /**
+     * Splits Code=X;action=Start;index=N;data={... into its values, others such as data are not needed.
+     */
+    private void readLine(List<Event> events) {
+        String code = "";
+        String action = "";
+        int index = -1;
+        int keyStart = 0;
+        int length = line.length();
+        while (keyStart < length) {
+            int keyEnd = keyStart;
+            while (keyEnd < length && line.charAt(keyEnd) != '=' && line.charAt(keyEnd) != ';') {
+                keyEnd++;
+            }
+            int valueEnd = keyEnd;
+            while (valueEnd < length && line.charAt(valueEnd) != ';') {
+                valueEnd++;
+            }
+            if (keyEnd < valueEnd) {
+                int valueStart = keyEnd + 1;
+                if (matches("Code", keyStart, keyEnd)) {
+                    code = line.substring(valueStart, valueEnd);
+                } else if (matches("action", keyStart, keyEnd)) {
+                    action = line.substring(valueStart, valueEnd);
+                } else if (matches("index", keyStart, keyEnd)) {
+                    index = parseIndex(valueStart, valueEnd);
+                } else if (matches("data", keyStart, keyEnd)) {
+                    break;// the JSON can have ; in it and is always last.
+                }
+            }
+            keyStart = valueEnd + 1;
+        }
+        if (!code.isEmpty() && index >= 0 && ("Start".equals(action) || "Stop".equals(action))) {
+            events.add(new Event(code, "Start".equals(action), index));
+        }
+    }
+
+    private boolean matches(String key, int start, int end) {
+        if (end - start != key.length()) {
+            return false;
+        }
+        for (int i = 0; i < key.length(); i++) {
+            if (line.charAt(start + i) != key.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private int parseIndex(int start, int end) {
+        int index = 0;
+        for (int i = start; i < end; i++) {
+            char digit = line.charAt(i);
+            if (digit < '0' || digit > '9' || index > 9999) {
+                return -1;
+            }
+            index = index * 10 + (digit - '0');
+        }
+        return (start < end) ? index : -1;
+    }
+}
@@ -18,6 +18,8 @@ import static org.openhab.binding.ipcamera.IpCameraBindingConstants.*;
 import java.io.UnsupportedEncodingException;
 import java.net.URLEncoder;
 import java.util.ArrayList;
+import java.util.Objects;
+import java.util.function.BiConsumer;
 
 import org.eclipse.jdt.annotation.NonNullByDefault;
 import org.eclipse.jdt.annotation.Nullable;
@@ -42,14 +44,37 @@ import io.netty.util.ReferenceCountUtil;
 
 @NonNullByDefault
 public class DahuaHandler extends ChannelDuplexHandler {
+    private static final EventMatcher<BiConsumer<DahuaHandler, String>> REPLY_MATCHER = buildReplyMatcher();
     IpCameraHandler ipCameraHandler;
     String nvrChannel;
+    // Each connection has its own handler, so this only ever sees the one attach stream.
+    private final DahuaEventParser eventParser = new DahuaEventParser();
 
     public DahuaHandler(IpCameraHandler handler, String nvrChannel) {
         ipCameraHandler = handler;
         this.nvrChannel = nvrChannel;
     }
 
+    private static EventMatcher<BiConsumer<DahuaHandler, String>> buildReplyMatcher() {
+        return new EventMatcher.Builder<BiConsumer<DahuaHandler, String>>()
+                // determine if the motion detection is turned on or off.
+                .add("table.MotionDetect[0].Enable=true", (handler, content) -> handler.ipCameraHandler
+                        .setChannelState(CHANNEL_ENABLE_MOTION_ALARM, OnOffType.valueOf("ON")))
+                .add("table.MotionDetect[0].Enable=false", (handler, content) -> handler.ipCameraHandler
+                        .setChannelState(CHANNEL_ENABLE_MOTION_ALARM, OnOffType.valueOf("OFF")))
+                // determine if the audio alarm is turned on or off.
+                .add("table.AudioDetect[0].MutationDetect=true", (handler, content) -> handler.ipCameraHandler
+                        .setChannelState(CHANNEL_ENABLE_AUDIO_ALARM, OnOffType.valueOf("ON")))
+                .add("table.AudioDetect[0].MutationDetect=false", (handler, content) -> handler.ipCameraHandler
+                        .setChannelState(CHANNEL_ENABLE_AUDIO_ALARM, OnOffType.valueOf("OFF")))
+                // Handle AudioMutationThreshold alarm
+                .add("table.AudioDetect[0].MutationThreold=", (handler, content) -> {
+                    String value = handler.ipCameraHandler.returnValueFromString(content,
+                            "table.AudioDetect[0].MutationThreold=");
+                    handler.ipCameraHandler.setChannelState(CHANNEL_THRESHOLD_AUDIO_ALARM, PercentType.valueOf(value));
+                }).build();
+    }
+
     // This handles the incoming http replies back from the camera.
     @Override
     public void channelRead(@Nullable ChannelHandlerContext ctx, @Nullable Object msg) throws Exception {
@@ -59,84 +84,11 @@ public class DahuaHandler extends ChannelDuplexHandler {
             if (!content.isEmpty()) {
                 ipCameraHandler.logger.trace("HTTP Result back from camera is \t:{}:", content);
             }
-            // determine if the motion detection is turned on or off.
-            if (content.contains("table.MotionDetect[0].Enable=true")) {
-                ipCameraHandler.setChannelState(CHANNEL_ENABLE_MOTION_ALARM, OnOffType.valueOf("ON"));
-            } else if (content.contains("table.MotionDetect[" + nvrChannel + "].Enable=false")) {
-                ipCameraHandler.setChannelState(CHANNEL_ENABLE_MOTION_ALARM, OnOffType.valueOf("OFF"));
-            }
-            // Handle motion alarm
-            if (content.contains("Code=VideoMotion;action=Start;index=0")) {
-                ipCameraHandler.motionDetected(CHANNEL_MOTION_ALARM);
-            } else if (content.contains("Code=VideoMotion;action=Stop;index=0")) {
-                ipCameraHandler.noMotionDetected(CHANNEL_MOTION_ALARM);
-            }
-            // Handle item taken alarm
-            if (content.contains("Code=TakenAwayDetection;action=Start;index=0")) {
-                ipCameraHandler.motionDetected(CHANNEL_ITEM_TAKEN);
-            } else if (content.contains("Code=TakenAwayDetection;action=Stop;index=0")) {
-                ipCameraHandler.noMotionDetected(CHANNEL_ITEM_TAKEN);
-            }
-            // Handle item left alarm
-            if (content.contains("Code=LeftDetection;action=Start;index=0")) {
-                ipCameraHandler.motionDetected(CHANNEL_ITEM_LEFT);
-            } else if (content.contains("Code=LeftDetection;action=Stop;index=0")) {
-                ipCameraHandler.noMotionDetected(CHANNEL_ITEM_LEFT);
-            }
-            // Handle CrossLineDetection alarm
-            if (content.contains("Code=CrossLineDetection;action=Start;index=0")) {
-                ipCameraHandler.motionDetected(CHANNEL_LINE_CROSSING_ALARM);
-            } else if (content.contains("Code=CrossLineDetection;action=Stop;index=0")) {
-                ipCameraHandler.noMotionDetected(CHANNEL_LINE_CROSSING_ALARM);
-            }
-            // determine if the audio alarm is turned on or off.
-            if (content.contains("table.AudioDetect[0].MutationDetect=true")) {
-                ipCameraHandler.setChannelState(CHANNEL_ENABLE_AUDIO_ALARM, OnOffType.valueOf("ON"));
-            } else if (content.contains("table.AudioDetect[0].MutationDetect=false")) {
-                ipCameraHandler.setChannelState(CHANNEL_ENABLE_AUDIO_ALARM, OnOffType.valueOf("OFF"));
-            }
-            // Handle AudioMutation alarm
-            if (content.contains("Code=AudioMutation;action=Start;index=0")) {
-                ipCameraHandler.audioDetected();
-            } else if (content.contains("Code=AudioMutation;action=Stop;index=0")) {
-                ipCameraHandler.setChannelState(CHANNEL_AUDIO_ALARM, OnOffType.valueOf("OFF"));
-                ipCameraHandler.firstAudioAlarm = false;
-                ipCameraHandler.audioAlarmUpdateSnapshot = false;
-            }
-            // Handle AudioMutationThreshold alarm
-            if (content.contains("table.AudioDetect[0].MutationThreold=")) {
-                String value = ipCameraHandler.returnValueFromString(content, "table.AudioDetect[0].MutationThreold=");
-                ipCameraHandler.setChannelState(CHANNEL_THRESHOLD_AUDIO_ALARM, PercentType.valueOf(value));
-            }
-            // Handle FaceDetection alarm
-            if (content.contains("Code=FaceDetection;action=Start;index=0")) {
-                ipCameraHandler.motionDetected(CHANNEL_FACE_DETECTED);
-            } else if (content.contains("Code=FaceDetection;action=Stop;index=0")) {
-                ipCameraHandler.noMotionDetected(CHANNEL_FACE_DETECTED);
-            }
-            // Handle ParkingDetection alarm
-            if (content.contains("Code=ParkingDetection;action=Start;index=0")) {
-                ipCameraHandler.motionDetected(CHANNEL_PARKING_ALARM);
-            } else if (content.contains("Code=ParkingDetection;action=Stop;index=0")) {
-                ipCameraHandler.noMotionDetected(CHANNEL_PARKING_ALARM);
+            for (BiConsumer<DahuaHandler, String> action : REPLY_MATCHER.match(content)) {
+                action.accept(this, content);
             }
-            // Handle CrossRegionDetection alarm
-            if (content.contains("Code=CrossRegionDetection;action=Start;index=0")) {
-                ipCameraHandler.motionDetected(CHANNEL_FIELD_DETECTION_ALARM);
-            } else if (content.contains("Code=CrossRegionDetection;action=Stop;index=0")) {
-                ipCameraHandler.noMotionDetected(CHANNEL_FIELD_DETECTION_ALARM);
-            }
-            // Handle External Input alarm
-            if (content.contains("Code=AlarmLocal;action=Start;index=0")) {
-                ipCameraHandler.setChannelState(CHANNEL_EXTERNAL_ALARM_INPUT, OnOffType.valueOf("ON"));
-            } else if (content.contains("Code=AlarmLocal;action=Stop;index=0")) {
-                ipCameraHandler.setChannelState(CHANNEL_EXTERNAL_ALARM_INPUT, OnOffType.valueOf("OFF"));
-            }
-            // Handle External Input alarm2
-            if (content.contains("Code=AlarmLocal;action=Start;index=1")) {
-                ipCameraHandler.setChannelState(CHANNEL_EXTERNAL_ALARM_INPUT2, OnOffType.valueOf("ON"));
-            } else if (content.contains("Code=AlarmLocal;action=Stop;index=1")) {
-                ipCameraHandler.setChannelState(CHANNEL_EXTERNAL_ALARM_INPUT2, OnOffType.valueOf("OFF"));
+            for (DahuaEventParser.Event event : eventParser.feed(content)) {
+                eventReceived(event);
             }
         } finally {
             ReferenceCountUtil.release(msg);
@@ -144,6 +96,124 @@ public class DahuaHandler extends ChannelDuplexHandler {
         }
     }
 
+    /**
+     * One attach stream carries the events of every channel of an NVR, each is passed on to the thing for its channel.
+     * Alarm inputs are numbered by the NVR and not by channel, so they stay with the thing that has the stream.
+     */
+    void eventReceived(DahuaEventParser.Event event) {
+        ipCameraHandler.logger.debug("Dahua event {}", event);
+        if ("AlarmLocal".equals(event.code)) {
+            if (event.index == 0) {
+                ipCameraHandler.setChannelState(CHANNEL_EXTERNAL_ALARM_INPUT,
+                        OnOffType.valueOf(event.start ? "ON" : "OFF"));
+            } else if (event.index == 1) {
+                ipCameraHandler.setChannelState(CHANNEL_EXTERNAL_ALARM_INPUT2,
+                        OnOffType.valueOf(event.start ? "ON" : "OFF"));
+            }
+            return;
+        }
+        IpCameraHandler camera = findCamera(event.index);
+        if (camera == null) {
+            return;
+        }
+        if (camera == ipCameraHandler) {
+            cameraEvent(camera, event);
+        } else {
+            // the other camera's alarms are changed on its own thread, as they are for its own replies.
+            camera.executeOnBrandThread(() -> cameraEvent(camera, event));
+        }
+    }
+
+    private void cameraEvent(IpCameraHandler camera, DahuaEventParser.Event event) {
+        switch (event.code) {
+            case "VideoMotion":
+                alarm(camera, CHANNEL_MOTION_ALARM, event.start);
+                break;
+            case "TakenAwayDetection":
+                alarm(camera, CHANNEL_ITEM_TAKEN, event.start);
+                break;
+            case "LeftDetection":
+                alarm(camera, CHANNEL_ITEM_LEFT, event.start);
+                break;
+            case "CrossLineDetection":
+                alarm(camera, CHANNEL_LINE_CROSSING_ALARM, event.start);
+                break;
+            case "FaceDetection":
+                alarm(camera, CHANNEL_FACE_DETECTED, event.start);
+                break;
+            case "ParkingDetection":
+                alarm(camera, CHANNEL_PARKING_ALARM, event.start);
+                break;
+            case "CrossRegionDetection":
+                alarm(camera, CHANNEL_FIELD_DETECTION_ALARM, event.start);
+                break;
+            case "AudioMutation":
+                if (event.start) {
+                    camera.audioDetected();
+                } else {
+                    camera.noAudioDetected();
+                }
+                break;
+        }
+    }
+
+    private void alarm(IpCameraHandler camera, String channel, boolean start) {
+        if (start) {
+            camera.motionDetected(channel);
+        } else {
+            camera.noMotionDetected(channel);
+        }
+    }
+
+    /**
+     * @return the online thing of the same NVR that uses this event index, or null if there is none.
+     */
+    private @Nullable IpCameraHandler findCamera(int index) {
+        if (index == getEventIndex(nvrChannel)) {
+            return ipCameraHandler;
+        }
+        for (IpCameraHandler handler : ipCameraHandler.getCameraRegistry().getOnlineCameras()) {
+            if (sameNvr(ipCameraHandler, handler) && index == getEventIndex(handler.getNvrChannel())) {
+                return handler;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Events count channels from 0 while the NVR_CHANNEL setting starts at 1, a camera on its own uses 0.
+     */
+    static int getEventIndex(String nvrChannel) {
+        try {
+            return Math.max(0, Integer.parseInt(nvrChannel.trim()) - 1);
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    static boolean sameNvr(IpCameraHandler first, IpCameraHandler second) {
+        return THING_TYPE_DAHUA.equals(second.getThing().getThingTypeUID()) && first.ipAddress.equals(second.ipAddress)
+                && Objects.equals(first.getThing().getConfiguration().get(CONFIG_PORT),
+                        second.getThing().getConfiguration().get(CONFIG_PORT));
+    }
+
+    /**
+     * Only one thing of each NVR opens the attach stream, the online one with the lowest channel.
+     */
+    public static boolean ownsEventStream(IpCameraHandler camera) {
+        int index = getEventIndex(camera.getNvrChannel());
+        for (IpCameraHandler handler : camera.getCameraRegistry().getOnlineCameras()) {
+            if (handler != camera && sameNvr(camera, handler)) {
+                int otherIndex = getEventIndex(handler.getNvrChannel());
+                if (otherIndex < index || (otherIndex == index && handler.getThing().getUID().getAsString()
+                        .compareTo(camera.getThing().getUID().getAsString()) < 0)) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
     public String encodeSpecialChars(String text) {
         String Processed = text;
         try {
@@ -0,0 +1,149 @@
+/**
+ * Copyright (c) 2010-2019 Contributors to the openHAB project
+ *
+ * See the NOTICE file(s) distributed with this work for additional
+ * information.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+
+package org.openhab.binding.ipcamera.internal;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.Random;
+
+import org.eclipse.jdt.annotation.NonNullByDefault;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The {@link DigestAuth} class is responsible for working out the DIGEST replies to a cameras WWW-Authenticate
+ * challenge. It is used for both HTTP and RTSP, as RTSP cameras use the same scheme with a different method name.
+ *
+ * @author Matthew Skinner - Initial contribution
+ */
+
+@NonNullByDefault
+public class DigestAuth {
+    private final Logger logger = LoggerFactory.getLogger(getClass());
+    private final Random random = new Random();
+    private final String username;
+    private final String password;
+    private byte ncCounter = 0;
+    String nonce = "", opaque = "", qop = "";
+    String realm = "";
+
+    public DigestAuth(String username, String password) {
+        this.username = username;
+        this.password = password;
+    }
+
+    static String calcMD5Hash(String toHash) {
+        try {
+            MessageDigest messageDigest = MessageDigest.getInstance("MD5");
+            byte[] array = messageDigest.digest(toHash.getBytes(StandardCharsets.UTF_8));
+            StringBuilder stringBuilder = new StringBuilder();
+            for (int i = 0; i < array.length; ++i) {
+                stringBuilder.append(Integer.toHexString((array[i] & 0xFF) | 0x100).substring(1, 3));
+            }
+            return stringBuilder.toString();
+        } catch (java.security.NoSuchAlgorithmException e) {
+            LoggerFactory.getLogger(DigestAuth.class).error("NoSuchAlgorithmException error when calculating MD5 hash");
+        }
+        return "";
+    }
+
+    static String searchString(String rawString, String searchedString) {
+        String result = "";
+        int index = 0;
+        index = rawString.indexOf(searchedString);
+        if (index != -1) // -1 means "not found"
+        {
+            result = rawString.substring(index + searchedString.length(), rawString.length());
+            index = result.indexOf(',');
+            if (index == -1) {
+                index = result.indexOf('"');
+                if (index == -1) {
+                    index = result.indexOf('}');
+                    if (index == -1) {
+                        return result;
+                    } else {
+                        return result.substring(0, index);
+                    }
+                } else {
+                    return result.substring(0, index);
+                }
+            } else {
+                result = result.substring(0, index);
+                index = result.indexOf('"');
+                if (index == -1) {
+                    return result;
+                } else {
+                    return result.substring(0, index);
+                }
+            }
+        }
+        return "";
+    }
+
+    /**
+     * Stores the realm and nonce of a Digest WWW-Authenticate header.
+     *
+     * @return false if the header did not contain a realm.
+     */
+    public boolean parseChallenge(String authenticate) {
+        realm = searchString(authenticate, "realm=\"");
+        if (realm.isEmpty()) {
+            logger.warn("Could not find a valid WWW-Authenticate response in :{}", authenticate);
+            return false;
+        }
+        nonce = searchString(authenticate, "nonce=\"");
+        opaque = searchString(authenticate, "opaque=\"");
+        qop = searchString(authenticate, "qop=\"");
+        ncCounter = 0;
+        String stale = searchString(authenticate, "stale=\"");
+        if (stale.equalsIgnoreCase("true")) {
+            logger.debug("Camera reported stale=true which normally means the NONCE has expired.");
+        }
+        return true;
+    }
+
+    public boolean hasChallenge() {
+        return !realm.isEmpty();
+    }
+
+    public boolean usesQop() {
+        return !qop.isEmpty();
+    }
+
+    /**
+     * Creates the value for an Authorization header without the leading "Digest ". The nonce is reused for each call
+     * so the NC is increased each time. Cameras that do not send a qop, which is common for RTSP, get the older
+     * RFC 2069 form without a cnonce or nc.
+     */
+    public String getDigestString(String method, String requestURI) {
+        String ha1 = calcMD5Hash(username + ":" + realm + ":" + password);
+        String ha2 = calcMD5Hash(method + ":" + requestURI);
+        if (qop.isEmpty()) {
+            String response = calcMD5Hash(ha1 + ":" + nonce + ":" + ha2);
+            String digestString = "username=\"" + username + "\", realm=\"" + realm + "\", nonce=\"" + nonce
+                    + "\", uri=\"" + requestURI + "\", response=\"" + response + "\"";
+            if (!opaque.isEmpty()) {
+                digestString += ", opaque=\"" + opaque + "\"";
+            }
+            return digestString;
+        }
+        String cnonce = Integer.toHexString(random.nextInt());
+        ncCounter = (ncCounter > 125) ? 1 : ++ncCounter;
+        String nc = String.format("%08X", ncCounter); // 8 digit hex number
+        String response = calcMD5Hash(ha1 + ":" + nonce + ":" + nc + ":" + cnonce + ":" + qop + ":" + ha2);
+        return "username=\"" + username + "\", realm=\"" + realm + "\", nonce=\"" + nonce + "\", uri=\""
+                + requestURI + "\", cnonce=\"" + cnonce + "\", nc=" + nc + ", qop=\"" + qop + "\", response=\""
+                + response + "\", opaque=\"" + opaque + "\"";
+    }
+}
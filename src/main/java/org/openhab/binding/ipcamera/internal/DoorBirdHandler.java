@@ -57,6 +57,7 @@ public class DoorBirdHandler extends ChannelDuplexHandler {
             }
             if (content.contains("doorbell:H")) {
                 ipCameraHandler.setChannelState(CHANNEL_DOORBELL, OnOffType.valueOf("ON"));
+                ipCameraHandler.prewarmHls();
             }
             if (content.contains("doorbell:L")) {
                 ipCameraHandler.setChannelState(CHANNEL_DOORBELL, OnOffType.valueOf("OFF"));
@@ -0,0 +1,155 @@
+/**
+ * Copyright (c) 2010-2019 Contributors to the openHAB project
+ *
+ * See the NOTICE file(s) distributed with this work for additional
+ * information.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+
+package org.openhab.binding.ipcamera.internal;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.eclipse.jdt.annotation.NonNullByDefault;
+import org.eclipse.jdt.annotation.Nullable;
+
+/**
+ * The {@link EventMatcher} class is responsible for finding which of a brand's patterns are in a reply from a camera.
+ * Patterns that start the same way, such as the on and off forms of a setting, are put together when it is built and
+ * their shared start is looked for with String.indexOf, which the JVM runs many characters at a time, so the reply is
+ * searched once for each group instead of once for each pattern. A brand handler builds its table once and shares it
+ * between every camera and connection. It can be used from any thread.
+ *
+ * @author Matthew Skinner - Initial contribution
+ */
+
+@NonNullByDefault
+public class EventMatcher<T> {
+    // A shorter shared start would be found too often in a reply to save anything over searching for each pattern.
+    static final int MIN_SHARED_START = 8;
+    private final List<T> actions;
+    private final String[] patterns;
+    // the start that each group of patterns shares.
+    private final String[] groupStarts;
+    // group to the ids of its patterns.
+    private final int[][] groups;
+
+    public static class Builder<T> {
+        private final List<String> patterns = new ArrayList<>();
+        private final List<T> actions = new ArrayList<>();
+
+        /**
+         * @param action is returned by {@link EventMatcher#match} when the pattern is found.
+         */
+        public Builder<T> add(String pattern, T action) {
+            if (pattern.isEmpty()) {
+                throw new IllegalArgumentException("An EventMatcher pattern can not be empty.");
+            }
+            patterns.add(pattern);
+            actions.add(action);
+            return this;
+        }
+
+        public EventMatcher<T> build() {
+            return new EventMatcher<>(patterns, actions);
+        }
+    }
+
+    private EventMatcher(List<String> patterns, List<T> actions) {
+        this.actions = Collections.unmodifiableList(new ArrayList<>(actions));
+        this.patterns = patterns.toArray(new String[0]);
+        List<String> starts = new ArrayList<>();
+        List<List<Integer>> members = new ArrayList<>();
+        for (int id = 0; id < this.patterns.length; id++) {
+            String pattern = this.patterns[id];
+            int group = 0;
+            int shared = 0;
+            for (; group < starts.size(); group++) {
+                shared = sharedLength(starts.get(group), pattern);
+                if (shared >= MIN_SHARED_START) {
+                    break;
+                }
+            }
+            if (group == starts.size()) {
+                starts.add(pattern);
+                members.add(new ArrayList<>(2));
+            } else {
+                starts.set(group, pattern.substring(0, shared));
+            }
+            members.get(group).add(id);
+        }
+        groupStarts = starts.toArray(new String[0]);
+        groups = new int[members.size()][];
+        for (int group = 0; group < groups.length; group++) {
+            List<Integer> ids = members.get(group);
+            groups[group] = new int[ids.size()];
+            for (int i = 0; i < ids.size(); i++) {
+                groups[group][i] = ids.get(i);
+            }
+        }
+    }
+
+    private static int sharedLength(String first, String second) {
+        int length = Math.min(first.length(), second.length());
+        int i = 0;
+        while (i < length && first.charAt(i) == second.charAt(i)) {
+            i++;
+        }
+        return i;
+    }
+
+    /**
+     * @return how many times each reply is searched, one for each group of patterns.
+     */
+    int getGroupCount() {
+        return groups.length;
+    }
+
+    /**
+     * @return the action of each pattern found in the text once, in the order they were added to the builder.
+     */
+    public List<T> match(CharSequence text) {
+        String reply = text.toString();
+        boolean @Nullable [] found = null;
+        int foundCount = 0;
+        for (int group = 0; group < groups.length; group++) {
+            String start = groupStarts[group];
+            int[] ids = groups[group];
+            int left = ids.length;
+            int at = reply.indexOf(start);
+            while (at >= 0) {
+                for (int id : ids) {
+                    if ((found == null || !found[id]) && reply.startsWith(patterns[id], at)) {
+                        if (found == null) {
+                            found = new boolean[patterns.length];
+                        }
+                        found[id] = true;
+                        foundCount++;
+                        left--;
+                    }
+                }
+                if (left == 0) {
+                    break;
+                }
+                at = reply.indexOf(start, at + 1);
+            }
+        }
+        if (found == null) {
+            return Collections.emptyList();
+        }
+        List<T> matched = new ArrayList<>(foundCount);
+        for (int id = 0; id < found.length; id++) {
+            if (found[id]) {
+                matched.add(actions.get(id));
+            }
+        }
+        return matched;
+    }
+}
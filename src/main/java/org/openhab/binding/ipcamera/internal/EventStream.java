@@ -0,0 +1,172 @@
+/**
+ * Copyright (c) 2010-2019 Contributors to the openHAB project
+ *
+ * See the NOTICE file(s) distributed with this work for additional
+ * information.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+
+package org.openhab.binding.ipcamera.internal;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.eclipse.jdt.annotation.NonNullByDefault;
+import org.eclipse.jdt.annotation.Nullable;
+
+import io.netty.buffer.Unpooled;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.group.ChannelGroup;
+import io.netty.channel.group.DefaultChannelGroup;
+import io.netty.handler.codec.http.DefaultHttpContent;
+import io.netty.handler.codec.http.DefaultHttpResponse;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpHeaderValues;
+import io.netty.handler.codec.http.HttpResponse;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.handler.codec.http.HttpUtil;
+import io.netty.handler.codec.http.HttpVersion;
+import io.netty.util.concurrent.GlobalEventExecutor;
+
+/**
+ * The {@link EventStream} class is responsible for the Server-Sent Events of one camera at /events. Alarms turning on
+ * and off, new snapshots and streams starting and stopping are sent as small JSON objects the moment they happen.
+ * The last {@link #REPLAY_SIZE} events are kept so a client that reconnects with a Last-Event-ID header gets what it
+ * missed, only the newest snapshot event is kept as the older ones are of no use.
+ *
+ * @author Matthew Skinner - Initial contribution
+ */
+
+@NonNullByDefault
+public class EventStream {
+    public static final int REPLAY_SIZE = 64;
+    // How long a browser waits before it reconnects, in ms.
+    private static final int RETRY_MS = 2000;
+    private final ChannelGroup channelGroup = new DefaultChannelGroup(GlobalEventExecutor.INSTANCE);
+    private final ArrayDeque<Event> replay = new ArrayDeque<>(REPLAY_SIZE);
+    // Alarm or stream name to its last state, so only changes are sent.
+    private final Map<String, Boolean> lastStates = new ConcurrentHashMap<>();
+    private final String cameraId;
+    private long lastId = 0;
+
+    private static class Event {
+        final long id;
+        final @Nullable String replaces;
+        final String text;
+
+        Event(long id, @Nullable String replaces, String text) {
+            this.id = id;
+            this.replaces = replaces;
+            this.text = text;
+        }
+    }
+
+    public EventStream(String cameraId) {
+        this.cameraId = cameraId;
+    }
+
+    public boolean hasClients() {
+        return !channelGroup.isEmpty();
+    }
+
+    public int getClientCount() {
+        return channelGroup.size();
+    }
+
+    public void alarm(String channel, boolean on) {
+        if (stateChanged(channel, on)) {
+            publish("alarm", null, "\"channel\":\"" + channel + "\",\"state\":\"" + (on ? "ON" : "OFF") + "\"");
+        }
+    }
+
+    /**
+     * @param stream the name of the stream, such as hls or mjpeg.
+     */
+    public void stream(String stream, boolean started) {
+        if (stateChanged("stream:" + stream, started)) {
+            publish("stream", null,
+                    "\"stream\":\"" + stream + "\",\"state\":\"" + (started ? "started" : "stopped") + "\"");
+        }
+    }
+
+    public void snapshot(long version) {
+        publish("snapshot", "snapshot", "\"version\":" + version);
+    }
+
+    private boolean stateChanged(String name, boolean state) {
+        Boolean last = lastStates.put(name, state);
+        return last == null ? state : last != state;
+    }
+
+    private synchronized void publish(String type, @Nullable String replaces, String fields) {
+        long id = ++lastId;
+        String text = "id: " + id + "\nevent: " + type + "\ndata: {\"camera\":\"" + cameraId + "\"," + fields
+                + ",\"time\":" + System.currentTimeMillis() + "}\n\n";
+        if (replaces != null) {
+            for (Iterator<Event> iterator = replay.iterator(); iterator.hasNext();) {
+                if (replaces.equals(iterator.next().replaces)) {
+                    iterator.remove();
+                }
+            }
+        }
+        if (replay.size() >= REPLAY_SIZE) {
+            replay.removeFirst();
+        }
+        replay.addLast(new Event(id, replaces, text));
+        if (!channelGroup.isEmpty()) {
+            // the group gives each channel its own duplicate of the one buffer.
+            channelGroup.writeAndFlush(new DefaultHttpContent(Unpooled.copiedBuffer(text, StandardCharsets.UTF_8)));
+        }
+    }
+
+    /**
+     * Starts the response and sends any events newer than lastEventId before the client is added, all while holding
+     * the lock so no event can be missed or sent twice.
+     */
+    public synchronized void addClient(ChannelHandlerContext ctx, @Nullable String lastEventId) {
+        HttpResponse response = new DefaultHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.OK);
+        response.headers().add(HttpHeaderNames.CONTENT_TYPE, "text/event-stream");
+        response.headers().set(HttpHeaderNames.CACHE_CONTROL, HttpHeaderValues.NO_CACHE);
+        response.headers().add("Access-Control-Allow-Origin", "*");
+        HttpUtil.setTransferEncodingChunked(response, true);
+        ctx.write(response);
+        StringBuilder text = new StringBuilder("retry: " + RETRY_MS + "\n\n");
+        if (lastEventId != null) {
+            long from;
+            try {
+                from = Long.parseLong(lastEventId.trim());
+            } catch (NumberFormatException e) {
+                from = lastId;
+            }
+            if (from > lastId) {
+                from = 0;// the binding restarted since then, so everything we have is new to the client.
+            }
+            for (Event event : replay) {
+                if (event.id > from) {
+                    text.append(event.text);
+                }
+            }
+        }
+        ctx.writeAndFlush(new DefaultHttpContent(Unpooled.copiedBuffer(text, StandardCharsets.UTF_8)));
+        channelGroup.add(ctx.channel());
+    }
+
+    public void removeClient(ChannelHandlerContext ctx) {
+        channelGroup.remove(ctx.channel());
+    }
+
+    /**
+     * A comment line that clients ignore, which stops proxies and the idle timeout closing a quiet connection.
+     */
+    public static void sendKeepAlive(ChannelHandlerContext ctx) {
+        ctx.writeAndFlush(new DefaultHttpContent(Unpooled.copiedBuffer(": ping\n\n", StandardCharsets.UTF_8)));
+    }
+}
@@ -15,10 +15,12 @@ package org.openhab.binding.ipcamera.internal;
 
 import static org.openhab.binding.ipcamera.IpCameraBindingConstants.*;
 
-import java.io.BufferedReader;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.concurrent.ScheduledFuture;
 
 import org.eclipse.jdt.annotation.NonNullByDefault;
 import org.eclipse.jdt.annotation.Nullable;
@@ -38,36 +40,102 @@ import org.slf4j.LoggerFactory;
 public class Ffmpeg {
     private final Logger logger = LoggerFactory.getLogger(getClass());
     private IpCameraHandler ipCameraHandler;
+    private FfmpegSupervisor supervisor;
     private @Nullable Process process = null;
     private String ffmpegCommand = "", format = "";
     private String[] commandArray;
-    private StreamRunning streamRunning = new StreamRunning();
-    private int keepAlive = 60;
-    boolean running = false;
+    private @Nullable File outputFile = null;
+    // A viewer that has made no request for this long has stopped watching.
+    public static final int VIEWER_TIMEOUT_MS = 10000;
+    // How long a stream keeps running after the last viewer has gone.
+    public static final int IDLE_GRACE_MS = 30000;
+    private HashMap<String, Long> viewers = new HashMap<String, Long>();
+    private boolean pinned = false;
+    private long holdUntil = 0, idleSince = 0;
+    private int countOfMotions = 0;
+    volatile boolean running = false;
+    // Bytes of stderr that have not yet formed a full line.
+    private StringBuilder partialLine = new StringBuilder();
+    private byte[] readBuffer = new byte[65536];
+    private long startedAt = 0;
+    // Written by the thread reading ffmpeg's output and read by the supervisor's stall check.
+    private volatile long lastProgress = 0, lastOutputModified = 0;
+    private int restarts = 0, restartAttempt = 0;
+    private @Nullable ScheduledFuture<?> restartJob = null;
+    private @Nullable OutputListener outputListener = null;
 
-    public void setKeepAlive(int seconds) {
-        if (seconds == -1) {
-            keepAlive = -1;
-        } else if (keepAlive != -1) {
-            keepAlive = seconds
-                    / (Integer.parseInt(ipCameraHandler.config.get(CONFIG_POLL_CAMERA_MS).toString()) / 1000);
-        }
+    /**
+     * Receives what ffmpeg writes to stdout when the output is set to "-".
+     */
+    public interface OutputListener {
+        void ffmpegOutput(byte[] data, int length);
+
+        /**
+         * Called each time a process exits, including when it is about to be restarted, and when it is stopped. The
+         * next process starts a new stream, so anything left over from this one must be dropped.
+         */
+        void ffmpegStopped();
     }
 
-    public void checkKeepAlive() {
-        if (keepAlive <= -1) {
-            return;
-        } else if (keepAlive == 0) {
-            stopConverting();
-        } else {
-            keepAlive--;
+    public void setOutputListener(@Nullable OutputListener outputListener) {
+        this.outputListener = outputListener;
+    }
+
+    /**
+     * Records a request from a viewer so the stream keeps running while anyone is watching.
+     *
+     * @param viewer identifies one client session, the IP address plus the User-Agent.
+     */
+    public synchronized void addViewer(String viewer) {
+        viewers.put(viewer, System.currentTimeMillis());
+        idleSince = 0;
+    }
+
+    public synchronized int getViewerCount() {
+        return viewers.size();
+    }
+
+    // When pinned ffmpeg keeps running with no viewers until it is stopped.
+    public synchronized void setPinned(boolean pinned) {
+        this.pinned = pinned;
+    }
+
+    // Keeps ffmpeg running for at least this long even with no viewers, used to start a stream before it is needed.
+    public synchronized void holdFor(long milliseconds) {
+        holdUntil = Math.max(holdUntil, System.currentTimeMillis() + milliseconds);
+    }
+
+    /**
+     * Called by the {@link FfmpegSupervisor} once a second to stop a HLS stream that no one has watched for the grace
+     * time.
+     */
+    void checkViewers(long now) {
+        synchronized (this) {
+            if (!running || !format.equals("HLS")) {
+                return;
+            }
+            viewers.values().removeIf(lastSeen -> now - lastSeen > VIEWER_TIMEOUT_MS);
+            if (!viewers.isEmpty() || pinned) {
+                idleSince = 0;
+                return;
+            }
+            if (idleSince == 0) {
+                idleSince = now;
+                logger.debug("HLS for camera {} has no viewers, it will stop in {} seconds.",
+                        ipCameraHandler.ipAddress, IDLE_GRACE_MS / 1000);
+            }
+            if (now - idleSince < IDLE_GRACE_MS || now < holdUntil) {
+                return;
+            }
         }
-        return;
+        stopConverting();
     }
 
-    public Ffmpeg(IpCameraHandler handle, String format, String ffmpegLocation, String inputArguments, String input,
-            String outArguments, String output, String username, String password) {
+    public Ffmpeg(IpCameraHandler handle, FfmpegSupervisor supervisor, String format, String ffmpegLocation,
+            String inputArguments, String input, String outArguments, String output, String username,
+            String password) {
         this.format = format;
+        this.supervisor = supervisor;
         ipCameraHandler = handle;
         String altInput = input;
         // Input can be snapshots not just rtsp or http
@@ -76,80 +144,217 @@ public class Ffmpeg {
             // will not work for https: but currently binding does not use https
             altInput = input.substring(0, 7) + credentials + input.substring(7);
         }
+        // Only outputs that are files can be watched for progress, ffmpeg may be quiet if loglevel is panic.
+        if (!output.contains("://") && !output.endsWith("-")) {
+            outputFile = new File(output);
+        }
         ffmpegCommand = ffmpegLocation + " " + inputArguments + " -i " + altInput + " " + outArguments + " " + output;
         commandArray = ffmpegCommand.trim().split("\\s+");
     }
 
-    @NonNullByDefault
-    private class StreamRunning extends Thread {
-        public int countOfMotions = 0;
-
-        @Override
-        public void run() {
-            try {
-                process = Runtime.getRuntime().exec(commandArray);
-                @SuppressWarnings("null")
-                InputStream errorStream = process.getErrorStream();
-                InputStreamReader errorStreamReader = new InputStreamReader(errorStream);
-                BufferedReader bufferedReader = new BufferedReader(errorStreamReader);
-                String line = null;
-                while ((line = bufferedReader.readLine()) != null) {
-                    if (format.equals("RTSPHELPER")) {
-                        logger.debug("{}", line);
-                        if (line.contains("lavfi.")) {
-                            if (countOfMotions == 3) {
-                                ipCameraHandler.motionDetected(CHANNEL_MOTION_ALARM);
-                            } else {
-                                countOfMotions++;
-                            }
-                        } else if (line.contains("speed=")) {
-                            if (countOfMotions > 0) {
-                                countOfMotions--;
-                                if (countOfMotions == 0) {
-                                    ipCameraHandler.noMotionDetected(CHANNEL_MOTION_ALARM);
-                                }
-                            }
-                        } else if (line.contains("silence_start")) {
-                            ipCameraHandler.setChannelState(CHANNEL_AUDIO_ALARM, OnOffType.valueOf("OFF"));
-                            ipCameraHandler.firstAudioAlarm = false;
-                            ipCameraHandler.audioAlarmUpdateSnapshot = false;
-                        } else if (line.contains("silence_end")) {
-                            ipCameraHandler.audioDetected();
+    // GIF jobs finish on their own, everything else should run until it is stopped.
+    private boolean isLongRunning() {
+        return !"GIF".equals(format);
+    }
+
+    private synchronized void launch() {
+        try {
+            process = Runtime.getRuntime().exec(commandArray);
+            startedAt = lastProgress = System.currentTimeMillis();
+            lastOutputModified = 0;
+            partialLine.setLength(0);
+            countOfMotions = 0;
+        } catch (IOException e) {
+            logger.error("Could not start ffmpeg:{}", e.toString());
+            process = null;
+            if (isLongRunning()) {
+                scheduleRestart();
+            } else {
+                running = false;
+                supervisor.unwatch(this);
+            }
+        }
+    }
+
+    private void processLine(String line) {
+        if (format.equals("RTSPHELPER")) {
+            logger.debug("{}", line);
+            if (line.contains("lavfi.")) {
+                if (countOfMotions == 3) {
+                    ipCameraHandler.motionDetected(CHANNEL_MOTION_ALARM);
+                } else {
+                    countOfMotions++;
+                }
+            } else if (line.contains("speed=")) {
+                if (countOfMotions > 0) {
+                    countOfMotions--;
+                    if (countOfMotions == 0) {
+                        ipCameraHandler.noMotionDetected(CHANNEL_MOTION_ALARM);
+                    }
+                }
+            } else if (line.contains("silence_start")) {
+                ipCameraHandler.noAudioDetected();
+            } else if (line.contains("silence_end")) {
+                ipCameraHandler.audioDetected();
+            }
+        } else {
+            logger.debug("{}", line);
+        }
+    }
+
+    /**
+     * Called by the {@link FfmpegSupervisor} to read whatever ffmpeg has written without blocking.
+     */
+    void pump() {
+        Process localProcess = process;
+        if (localProcess == null) {
+            return;
+        }
+        // Asked before reading, so the last lines ffmpeg wrote before it exited are read before it is handled.
+        boolean alive = localProcess.isAlive();
+        try {
+            drain(localProcess.getInputStream(), false);
+            drain(localProcess.getErrorStream(), true);
+        } catch (IOException e) {
+            logger.debug("Could not read the output from ffmpeg:{}", e.toString());
+        }
+        if (!alive && processExited(localProcess)) {
+            OutputListener localListener = outputListener;
+            if (localListener != null) {
+                localListener.ffmpegStopped();
+            }
+        }
+    }
+
+    private void drain(InputStream stream, boolean isErrorStream) throws IOException {
+        int available = stream.available();
+        while (available > 0) {
+            int length = stream.read(readBuffer, 0, Math.min(available, readBuffer.length));
+            if (length <= 0) {
+                return;
+            }
+            lastProgress = System.currentTimeMillis();
+            OutputListener localListener = outputListener;
+            if (!isErrorStream && localListener != null) {
+                localListener.ffmpegOutput(readBuffer, length);
+            } else if (isErrorStream) {
+                // ffmpeg ends its progress lines with \r so treat both as the end of a line.
+                String text = new String(readBuffer, 0, length, StandardCharsets.UTF_8);
+                for (int i = 0; i < text.length(); i++) {
+                    char c = text.charAt(i);
+                    if (c == '\n' || c == '\r') {
+                        if (partialLine.length() > 0) {
+                            processLine(partialLine.toString());
+                            partialLine.setLength(0);
                         }
                     } else {
-                        logger.debug("{}", line);
+                        partialLine.append(c);
                     }
                 }
-            } catch (IOException e) {
-                logger.error("{}", e.toString());
-            } finally {
-                if ("GIF".contentEquals(format)) {
-                    logger.debug("Animated GIF has been created and is ready for use.");
-                    try {
-                        // Without a small delay, Pushover sends no file 10% of time.
-                        Thread.sleep(500);
-                    } catch (InterruptedException e) {
+            }
+            available = stream.available();
+        }
+    }
 
-                    }
-                    ipCameraHandler.setChannelState(CHANNEL_UPDATE_GIF, OnOffType.valueOf("OFF"));
+    /**
+     * Called by the {@link FfmpegSupervisor} once a second to kill ffmpeg if it has stopped making progress.
+     */
+    void checkHealth(long now) {
+        Process localProcess = process;
+        if (localProcess == null || !localProcess.isAlive()) {
+            return;
+        }
+        File localOutputFile = outputFile;
+        if (localOutputFile != null) {
+            long modified = localOutputFile.lastModified();
+            if (modified != lastOutputModified) {
+                lastOutputModified = modified;
+                lastProgress = now;
+                if (running && modified != 0) {
+                    ipCameraHandler.ffmpegOutputUpdated(format);
                 }
             }
         }
+        if (running && now - lastProgress > FfmpegSupervisor.STALL_TIMEOUT_MS) {
+            logger.warn("ffmpeg {} for camera {} has made no progress for {} seconds, restarting it now.", format,
+                    ipCameraHandler.ipAddress, (now - lastProgress) / 1000);
+            lastProgress = now;
+            supervisor.terminate(localProcess);
+        }
+    }
+
+    /**
+     * @return false if the process had already been handled.
+     */
+    private synchronized boolean processExited(Process exited) {
+        if (process != exited) {
+            return false;
+        }
+        if (partialLine.length() > 0) {
+            processLine(partialLine.toString());
+            partialLine.setLength(0);
+        }
+        process = null;
+        if ("GIF".equals(format)) {
+            logger.debug("Animated GIF has been created and is ready for use.");
+            // Without a small delay, Pushover sends no file 10% of time.
+            supervisor.schedule(() -> {
+                ipCameraHandler.setChannelState(CHANNEL_UPDATE_GIF, OnOffType.valueOf("OFF"));
+            }, 500);
+        }
+        if (running && isLongRunning()) {
+            if (System.currentTimeMillis() - startedAt >= FfmpegSupervisor.STABLE_UPTIME_MS) {
+                restartAttempt = 0;
+            }
+            logger.warn("ffmpeg {} for camera {} exited with code {} after {} seconds.", format,
+                    ipCameraHandler.ipAddress, exited.exitValue(), getUptime() / 1000);
+            scheduleRestart();
+        } else {
+            running = false;
+            supervisor.unwatch(this);
+        }
+        return true;
+    }
+
+    private synchronized void scheduleRestart() {
+        if (!running) {
+            return;
+        }
+        long delay = FfmpegSupervisor.getRestartDelay(restartAttempt++);
+        logger.debug("ffmpeg {} for camera {} will be restarted in {}ms.", format, ipCameraHandler.ipAddress, delay);
+        restartJob = supervisor.schedule(() -> {
+            synchronized (this) {
+                if (running && process == null) {
+                    restarts++;
+                    logger.debug("Restarting ffmpeg {} for camera {}, this is restart number {}.", format,
+                            ipCameraHandler.ipAddress, restarts);
+                    launch();
+                }
+            }
+        }, delay);
     }
 
     public void startConverting() {
-        if (!streamRunning.isAlive()) {
-            streamRunning = new StreamRunning();
+        synchronized (this) {
+            if (running) {
+                return;
+            }
             logger.debug("Starting ffmpeg with this command now:{}", ffmpegCommand);
-            streamRunning.start();
             running = true;
-            if (format.equals("HLS")) {
-                ipCameraHandler.setChannelState(CHANNEL_START_STREAM, OnOffType.valueOf("ON"));
-            }
-            try {
-                Thread.sleep(4500);
-            } catch (InterruptedException e) {
-            }
+            restartAttempt = 0;
+            idleSince = System.currentTimeMillis();
+            supervisor.watch(this);
+            launch();
+        }
+        if (format.equals("HLS")) {
+            ipCameraHandler.setChannelState(CHANNEL_START_STREAM, OnOffType.valueOf("ON"));
+        }
+        if (outputListener != null) {
+            return; // Output is kept in memory and requests wait for it, so there are no files to wait for.
+        }
+        try {
+            Thread.sleep(4500);
+        } catch (InterruptedException e) {
         }
     }
 
@@ -157,21 +362,61 @@ public class Ffmpeg {
         return running;
     }
 
-    @SuppressWarnings("null")
+    /**
+     * @return how long in milliseconds the current ffmpeg process has been running, or 0 if it is not running.
+     */
+    public long getUptime() {
+        if (process == null) {
+            return 0;
+        }
+        return System.currentTimeMillis() - startedAt;
+    }
+
+    public int getRestarts() {
+        return restarts;
+    }
+
+    public String getFormat() {
+        return format;
+    }
+
+    public String getStatus() {
+        return ipCameraHandler.ipAddress + " " + format + " running=" + running + " uptime=" + getUptime() / 1000
+                + "s restarts=" + restarts + " viewers=" + getViewerCount();
+    }
+
     public void stopConverting() {
-        if (streamRunning.isAlive()) {
-            logger.debug("Stopping ffmpeg now");
+        Process localProcess;
+        synchronized (this) {
+            if (!running) {
+                return;
+            }
+            logger.debug("Stopping ffmpeg {} now, it was up for {} seconds and restarted {} times.", format,
+                    getUptime() / 1000, restarts);
             running = false;
-            if (process != null) {
-                process.destroy();
-                if (process.isAlive()) {
-                    process.destroyForcibly();
-                }
+            ScheduledFuture<?> localRestartJob = restartJob;
+            if (localRestartJob != null) {
+                localRestartJob.cancel(false);
+                restartJob = null;
             }
-            keepAlive = 60;
-            if (format.equals("HLS")) {
-                ipCameraHandler.setChannelState(CHANNEL_START_STREAM, OnOffType.valueOf("OFF"));
+            localProcess = process;
+            if (localProcess == null) {
+                supervisor.unwatch(this);
             }
+            viewers.clear();
+            pinned = false;
+            holdUntil = 0;
+        }
+        if (localProcess != null) {
+            // The supervisor keeps reading until the process exits, then stops watching it.
+            supervisor.terminate(localProcess);
+        }
+        OutputListener localListener = outputListener;
+        if (localListener != null) {
+            localListener.ffmpegStopped();
+        }
+        if (format.equals("HLS")) {
+            ipCameraHandler.hlsStopped();
         }
     }
 }
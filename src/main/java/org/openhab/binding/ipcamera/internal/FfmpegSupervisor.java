@@ -0,0 +1,140 @@
+/**
+ * Copyright (c) 2010-2019 Contributors to the openHAB project
+ *
+ * See the NOTICE file(s) distributed with this work for additional
+ * information.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+
+package org.openhab.binding.ipcamera.internal;
+
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.jdt.annotation.NonNullByDefault;
+import org.eclipse.jdt.annotation.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The {@link FfmpegSupervisor} class is responsible for owning every ffmpeg process the binding starts. A small
+ * shared pool reads the output of all processes without blocking, so no thread is created per process. Processes that
+ * stop making progress are killed and restarted with an exponential backoff.
+ *
+ * @author Matthew Skinner - Initial contribution
+ */
+
+@NonNullByDefault
+public class FfmpegSupervisor {
+    // No output and no change to the output file for this long means ffmpeg has hung.
+    public static final int STALL_TIMEOUT_MS = 20000;
+    // How long ffmpeg gets to exit after SIGTERM before it is sent SIGKILL.
+    public static final int TERMINATE_TIMEOUT_MS = 5000;
+    public static final int MIN_RESTART_DELAY_MS = 1000;
+    public static final int MAX_RESTART_DELAY_MS = 60000;
+    // A process that stays up this long is considered healthy and the backoff is reset.
+    public static final int STABLE_UPTIME_MS = 60000;
+    private static final int READ_INTERVAL_MS = 50;
+    private static final int HEALTH_INTERVAL_MS = 1000;
+
+    private final Logger logger = LoggerFactory.getLogger(getClass());
+    private final ScheduledExecutorService executor = Executors.newScheduledThreadPool(2);
+    private final CopyOnWriteArrayList<Ffmpeg> listOfProcesses = new CopyOnWriteArrayList<Ffmpeg>();
+    private final ScheduledFuture<?> readJob;
+    private final ScheduledFuture<?> healthJob;
+
+    public FfmpegSupervisor() {
+        readJob = executor.scheduleWithFixedDelay(() -> {
+            for (Ffmpeg ffmpeg : listOfProcesses) {
+                try {
+                    ffmpeg.pump();
+                } catch (RuntimeException e) {
+                    logger.warn("Reading the output of ffmpeg failed:{}", e.toString());
+                }
+            }
+        }, READ_INTERVAL_MS, READ_INTERVAL_MS, TimeUnit.MILLISECONDS);
+        healthJob = executor.scheduleWithFixedDelay(() -> {
+            long now = System.currentTimeMillis();
+            for (Ffmpeg ffmpeg : listOfProcesses) {
+                try {
+                    ffmpeg.checkHealth(now);
+                    ffmpeg.checkViewers(now);
+                } catch (RuntimeException e) {
+                    logger.warn("Checking the health of ffmpeg failed:{}", e.toString());
+                }
+            }
+        }, HEALTH_INTERVAL_MS, HEALTH_INTERVAL_MS, TimeUnit.MILLISECONDS);
+    }
+
+    void watch(Ffmpeg ffmpeg) {
+        listOfProcesses.addIfAbsent(ffmpeg);
+    }
+
+    void unwatch(Ffmpeg ffmpeg) {
+        listOfProcesses.remove(ffmpeg);
+    }
+
+    @Nullable
+    ScheduledFuture<?> schedule(Runnable task, long delayMs) {
+        if (executor.isShutdown()) {
+            return null;
+        }
+        return executor.schedule(task, delayMs, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Asks the process to exit with SIGTERM and sends SIGKILL if it is still running after TERMINATE_TIMEOUT_MS.
+     */
+    void terminate(Process process) {
+        process.destroy();
+        if (executor.isShutdown()) {
+            process.destroyForcibly();
+            return;
+        }
+        executor.schedule(() -> {
+            if (process.isAlive()) {
+                logger.warn("ffmpeg did not exit within {}ms of being asked to, killing it now.",
+                        TERMINATE_TIMEOUT_MS);
+                process.destroyForcibly();
+            }
+        }, TERMINATE_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+    }
+
+    static long getRestartDelay(int attempt) {
+        long delay = MIN_RESTART_DELAY_MS;
+        for (int i = 0; i < attempt && delay < MAX_RESTART_DELAY_MS; i++) {
+            delay *= 2;
+        }
+        return Math.min(delay, MAX_RESTART_DELAY_MS);
+    }
+
+    public int getProcessCount() {
+        return listOfProcesses.size();
+    }
+
+    public String getStatusReport() {
+        StringBuilder report = new StringBuilder();
+        for (Ffmpeg ffmpeg : listOfProcesses) {
+            report.append(ffmpeg.getStatus()).append("\n");
+        }
+        return report.toString();
+    }
+
+    public void shutdown() {
+        readJob.cancel(false);
+        healthJob.cancel(false);
+        for (Ffmpeg ffmpeg : listOfProcesses) {
+            ffmpeg.stopConverting();
+        }
+        listOfProcesses.clear();
+        executor.shutdown();
+    }
+}
@@ -16,6 +16,7 @@ package org.openhab.binding.ipcamera.internal;
 import static org.openhab.binding.ipcamera.IpCameraBindingConstants.*;
 
 import java.util.ArrayList;
+import java.util.function.BiConsumer;
 
 import org.eclipse.jdt.annotation.NonNullByDefault;
 import org.eclipse.jdt.annotation.Nullable;
@@ -40,6 +41,8 @@ import io.netty.util.ReferenceCountUtil;
 
 @NonNullByDefault
 public class FoscamHandler extends ChannelDuplexHandler {
+    private static final EventMatcher<BiConsumer<FoscamHandler, ChannelHandlerContext>> REPLY_MATCHER =
+            buildReplyMatcher();
     IpCameraHandler ipCameraHandler;
     String username, password;
 
@@ -49,6 +52,49 @@ public class FoscamHandler extends ChannelDuplexHandler {
         this.password = password;
     }
 
+    private static EventMatcher<BiConsumer<FoscamHandler, ChannelHandlerContext>> buildReplyMatcher() {
+        return new EventMatcher.Builder<BiConsumer<FoscamHandler, ChannelHandlerContext>>()
+                ////////////// Motion Alarm //////////////
+                .add("<motionDetectAlarm>0</motionDetectAlarm>", (handler, ctx) -> handler.ipCameraHandler
+                        .setChannelState(CHANNEL_ENABLE_MOTION_ALARM, OnOffType.valueOf("OFF")))
+                .add("<motionDetectAlarm>1</motionDetectAlarm>", (handler, ctx) -> {// Enabled but no alarm
+                    handler.ipCameraHandler.setChannelState(CHANNEL_ENABLE_MOTION_ALARM, OnOffType.valueOf("ON"));
+                    handler.ipCameraHandler.noMotionDetected(CHANNEL_MOTION_ALARM);
+                }).add("<motionDetectAlarm>2</motionDetectAlarm>", (handler, ctx) -> {// Enabled, alarm on
+                    handler.ipCameraHandler.setChannelState(CHANNEL_ENABLE_MOTION_ALARM, OnOffType.valueOf("ON"));
+                    handler.ipCameraHandler.motionDetected(CHANNEL_MOTION_ALARM);
+                })
+                ////////////// Sound Alarm //////////////
+                .add("<soundAlarm>0</soundAlarm>", (handler, ctx) -> {
+                    handler.ipCameraHandler.setChannelState(CHANNEL_ENABLE_AUDIO_ALARM, OnOffType.valueOf("OFF"));
+                    handler.ipCameraHandler.setChannelState(CHANNEL_AUDIO_ALARM, OnOffType.valueOf("OFF"));
+                }).add("<soundAlarm>1</soundAlarm>", (handler, ctx) -> {
+                    handler.ipCameraHandler.setChannelState(CHANNEL_ENABLE_AUDIO_ALARM, OnOffType.valueOf("ON"));
+                    handler.ipCameraHandler.noAudioDetected();
+                }).add("<soundAlarm>2</soundAlarm>", (handler, ctx) -> {
+                    handler.ipCameraHandler.setChannelState(CHANNEL_ENABLE_AUDIO_ALARM, OnOffType.valueOf("ON"));
+                    handler.ipCameraHandler.audioDetected();
+                })
+                ////////////// Sound Threshold //////////////
+                .add("<sensitivity>0</sensitivity>", (handler, ctx) -> handler.ipCameraHandler
+                        .setChannelState(CHANNEL_THRESHOLD_AUDIO_ALARM, PercentType.valueOf("0")))
+                .add("<sensitivity>1</sensitivity>", (handler, ctx) -> handler.ipCameraHandler
+                        .setChannelState(CHANNEL_THRESHOLD_AUDIO_ALARM, PercentType.valueOf("50")))
+                .add("<sensitivity>2</sensitivity>", (handler, ctx) -> handler.ipCameraHandler
+                        .setChannelState(CHANNEL_THRESHOLD_AUDIO_ALARM, PercentType.valueOf("100")))
+                //////////////// Infrared LED /////////////////////
+                .add("<infraLedState>0</infraLedState>", (handler, ctx) -> handler.ipCameraHandler
+                        .setChannelState(CHANNEL_ENABLE_LED, OnOffType.valueOf("OFF")))
+                .add("<infraLedState>1</infraLedState>", (handler, ctx) -> handler.ipCameraHandler
+                        .setChannelState(CHANNEL_ENABLE_LED, OnOffType.valueOf("ON")))
+                // added last so the channel is closed after the rest of the reply is used.
+                .add("</CGI_Result>", (handler, ctx) -> {
+                    ctx.close();
+                    handler.ipCameraHandler.logger
+                            .debug("End of FOSCAM handler reached, so closing the channel to the camera now");
+                }).build();
+    }
+
     // This handles the incoming http replies back from the camera.
     @Override
     public void channelRead(@Nullable ChannelHandlerContext ctx, @Nullable Object msg) throws Exception {
@@ -61,59 +107,9 @@ public class FoscamHandler extends ChannelDuplexHandler {
                 return;
             }
 
-            ////////////// Motion Alarm //////////////
-            if (content.contains("<motionDetectAlarm>")) {
-                if (content.contains("<motionDetectAlarm>0</motionDetectAlarm>")) {
-                    ipCameraHandler.setChannelState(CHANNEL_ENABLE_MOTION_ALARM, OnOffType.valueOf("OFF"));
-                } else if (content.contains("<motionDetectAlarm>1</motionDetectAlarm>")) { // Enabled but no alarm
-                    ipCameraHandler.setChannelState(CHANNEL_ENABLE_MOTION_ALARM, OnOffType.valueOf("ON"));
-                    ipCameraHandler.noMotionDetected(CHANNEL_MOTION_ALARM);
-                } else if (content.contains("<motionDetectAlarm>2</motionDetectAlarm>")) {// Enabled, alarm on
-                    ipCameraHandler.setChannelState(CHANNEL_ENABLE_MOTION_ALARM, OnOffType.valueOf("ON"));
-                    ipCameraHandler.motionDetected(CHANNEL_MOTION_ALARM);
-                }
-            }
-
-            ////////////// Sound Alarm //////////////
-            if (content.contains("<soundAlarm>0</soundAlarm>")) {
-                ipCameraHandler.setChannelState(CHANNEL_ENABLE_AUDIO_ALARM, OnOffType.valueOf("OFF"));
-                ipCameraHandler.setChannelState(CHANNEL_AUDIO_ALARM, OnOffType.valueOf("OFF"));
-            }
-            if (content.contains("<soundAlarm>1</soundAlarm>")) {
-                ipCameraHandler.setChannelState(CHANNEL_ENABLE_AUDIO_ALARM, OnOffType.valueOf("ON"));
-                ipCameraHandler.setChannelState(CHANNEL_AUDIO_ALARM, OnOffType.valueOf("OFF"));
-                ipCameraHandler.firstAudioAlarm = false;
-                ipCameraHandler.audioAlarmUpdateSnapshot = false;
-            }
-            if (content.contains("<soundAlarm>2</soundAlarm>")) {
-                ipCameraHandler.setChannelState(CHANNEL_ENABLE_AUDIO_ALARM, OnOffType.valueOf("ON"));
-                ipCameraHandler.audioDetected();
-            }
-
-            ////////////// Sound Threshold //////////////
-            if (content.contains("<sensitivity>0</sensitivity>")) {
-                ipCameraHandler.setChannelState(CHANNEL_THRESHOLD_AUDIO_ALARM, PercentType.valueOf("0"));
+            for (BiConsumer<FoscamHandler, ChannelHandlerContext> action : REPLY_MATCHER.match(content)) {
+                action.accept(this, ctx);
             }
-            if (content.contains("<sensitivity>1</sensitivity>")) {
-                ipCameraHandler.setChannelState(CHANNEL_THRESHOLD_AUDIO_ALARM, PercentType.valueOf("50"));
-            }
-            if (content.contains("<sensitivity>2</sensitivity>")) {
-                ipCameraHandler.setChannelState(CHANNEL_THRESHOLD_AUDIO_ALARM, PercentType.valueOf("100"));
-            }
-
-            //////////////// Infrared LED /////////////////////
-            if (content.contains("<infraLedState>0</infraLedState>")) {
-                ipCameraHandler.setChannelState(CHANNEL_ENABLE_LED, OnOffType.valueOf("OFF"));
-            }
-            if (content.contains("<infraLedState>1</infraLedState>")) {
-                ipCameraHandler.setChannelState(CHANNEL_ENABLE_LED, OnOffType.valueOf("ON"));
-            }
-
-            if (content.contains("</CGI_Result>")) {
-                ctx.close();
-                ipCameraHandler.logger.debug("End of FOSCAM handler reached, so closing the channel to the camera now");
-            }
-
         } finally {
             ReferenceCountUtil.release(msg);
             content = null;
@@ -0,0 +1,177 @@
+/**
+ * Copyright (c) 2010-2019 Contributors to the openHAB project
+ *
+ * See the NOTICE file(s) distributed with this work for additional
+ * information.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+
+package org.openhab.binding.ipcamera.internal;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import org.eclipse.jdt.annotation.NonNullByDefault;
+import org.eclipse.jdt.annotation.Nullable;
+
+/**
+ * The {@link GroupPlaylist} class is responsible for the HLS playlist of a group of cameras. It is a sliding window
+ * of segments taken from each camera's {@link HlsPlaylist} in turn, each segment's text is made once when it joins
+ * the window and the whole playlist is only encoded again after the window has changed. Nothing is added while no
+ * one has asked for the playlist for {@link #IDLE_MS}.
+ *
+ * @author Matthew Skinner - Initial contribution
+ */
+
+@NonNullByDefault
+public class GroupPlaylist {
+    public static final int MIN_SEGMENTS = 6;
+    public static final long IDLE_MS = 30000;
+    private final ArrayDeque<Entry> window = new ArrayDeque<>();
+    // camera prefix to the sequence of the newest segment of that camera that has been added.
+    private final Map<String, Long> lastAdded = new HashMap<>();
+    // camera prefix to the media sequence of that camera's playlist when it was last added from.
+    private final Map<String, Long> lastMediaSequence = new HashMap<>();
+    private long mediaSequence = 0;
+    private long discontinuitySequence = 0;
+    private int targetDuration = 1;
+    private int maxSegments = MIN_SEGMENTS;
+    private byte @Nullable [] encoded = null;
+    private volatile long lastRequest = 0;
+
+    private static class Entry {
+        final String prefix;
+        final long sequence;
+        final boolean discontinuity;
+        final String text;
+
+        Entry(String prefix, long sequence, boolean discontinuity, String text) {
+            this.prefix = prefix;
+            this.sequence = sequence;
+            this.discontinuity = discontinuity;
+            this.text = text;
+        }
+    }
+
+    /**
+     * @return true if the playlist was asked for recently enough that it is worth keeping up to date.
+     */
+    public boolean isWanted() {
+        return System.currentTimeMillis() - lastRequest < IDLE_MS;
+    }
+
+    public synchronized boolean isEmpty() {
+        return window.isEmpty();
+    }
+
+    /**
+     * Adds the newest segments of one camera that together last at least the given time, leaving out any that were
+     * added before. When the camera's numbers go backwards its ffmpeg has been restarted and counts from 0 again, so
+     * what was added before is forgotten and the new segments are marked as a discontinuity.
+     *
+     * @param prefix is put in front of each segment's name so the stream server knows which camera it belongs to. It
+     *            has to stay the same for a camera, as the segments already in the window keep it.
+     */
+    public synchronized void add(String prefix, HlsPlaylist playlist, double seconds) {
+        List<HlsPlaylist.Segment> segments = playlist.segments;
+        if (segments.isEmpty()) {
+            return;
+        }
+        Long added = lastAdded.get(prefix);
+        Long previousMediaSequence = lastMediaSequence.put(prefix, playlist.mediaSequence);
+        boolean restarted = false;
+        if (added != null && (segments.get(segments.size() - 1).sequence < added
+                || (previousMediaSequence != null && playlist.mediaSequence < previousMediaSequence))) {
+            lastAdded.remove(prefix);
+            added = null;
+            restarted = true;
+        }
+        int first = segments.size();
+        double total = 0;
+        while (first > 0 && (total < seconds || first == segments.size())) {
+            total += segments.get(--first).duration;
+        }
+        while (added != null && first < segments.size() && segments.get(first).sequence <= added) {
+            first++;
+        }
+        if (first >= segments.size()) {
+            return;
+        }
+        maxSegments = Math.max(MIN_SEGMENTS, (segments.size() - first) * 2);
+        targetDuration = Math.max(targetDuration, playlist.targetDuration);
+        @Nullable
+        Entry last = window.peekLast();
+        for (int i = first; i < segments.size(); i++) {
+            HlsPlaylist.Segment segment = segments.get(i);
+            // a different camera or a gap in the same camera's segments has to be marked for the player.
+            boolean discontinuity = last != null && (!last.prefix.equals(prefix)
+                    || last.sequence + 1 != segment.sequence || segment.discontinuity || (restarted && i == first));
+            targetDuration = Math.max(targetDuration, (int) Math.ceil(segment.duration));
+            String text = (discontinuity ? "#EXT-X-DISCONTINUITY\n" : "")
+                    + String.format(Locale.ROOT, "#EXTINF:%.3f,\n", segment.duration) + prefix + segment.uri + "\n";
+            last = new Entry(prefix, segment.sequence, discontinuity, text);
+            window.addLast(last);
+        }
+        lastAdded.put(prefix, segments.get(segments.size() - 1).sequence);
+        while (window.size() > maxSegments) {
+            removeFirst();
+        }
+        encoded = null;
+    }
+
+    private void removeFirst() {
+        window.removeFirst();
+        mediaSequence++;
+        Entry first = window.peekFirst();
+        if (first != null && first.discontinuity) {
+            // the tag now sits on the first segment where it means nothing, the count replaces it.
+            discontinuitySequence++;
+            window.removeFirst();
+            window.addFirst(new Entry(first.prefix, first.sequence, false,
+                    first.text.substring("#EXT-X-DISCONTINUITY\n".length())));
+        }
+    }
+
+    /**
+     * Empties the window, the sequence numbers keep going up so a player that was watching can carry on.
+     */
+    public synchronized void clear() {
+        while (!window.isEmpty()) {
+            removeFirst();
+        }
+        lastAdded.clear();
+        lastMediaSequence.clear();
+        encoded = null;
+    }
+
+    /**
+     * @return the playlist ready to send, which also marks it as wanted.
+     */
+    public synchronized byte[] getBytes() {
+        lastRequest = System.currentTimeMillis();
+        byte[] localEncoded = encoded;
+        if (localEncoded != null) {
+            return localEncoded;
+        }
+        StringBuilder playlist = new StringBuilder(160 + window.size() * 64);
+        playlist.append("#EXTM3U\n#EXT-X-VERSION:3\n#EXT-X-ALLOW-CACHE:NO\n");
+        playlist.append("#EXT-X-TARGETDURATION:").append(targetDuration).append("\n");
+        playlist.append("#EXT-X-MEDIA-SEQUENCE:").append(mediaSequence).append("\n");
+        playlist.append("#EXT-X-DISCONTINUITY-SEQUENCE:").append(discontinuitySequence).append("\n");
+        for (Entry entry : window) {
+            playlist.append(entry.text);
+        }
+        localEncoded = playlist.toString().getBytes(StandardCharsets.UTF_8);
+        encoded = localEncoded;
+        return localEncoded;
+    }
+}
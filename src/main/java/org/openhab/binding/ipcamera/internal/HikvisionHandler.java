@@ -16,6 +16,7 @@ package org.openhab.binding.ipcamera.internal;
 import static org.openhab.binding.ipcamera.IpCameraBindingConstants.*;
 
 import java.util.ArrayList;
+import java.util.List;
 
 import org.eclipse.jdt.annotation.NonNullByDefault;
 import org.eclipse.jdt.annotation.Nullable;
@@ -24,6 +25,7 @@ import org.eclipse.smarthome.core.thing.ChannelUID;
 import org.eclipse.smarthome.core.thing.binding.ThingHandler;
 import org.eclipse.smarthome.core.types.Command;
 import org.openhab.binding.ipcamera.handler.IpCameraHandler;
+import org.xmlpull.v1.XmlPullParserException;
 
 import io.netty.channel.ChannelDuplexHandler;
 import io.netty.channel.ChannelHandlerContext;
@@ -38,8 +40,11 @@ import io.netty.util.ReferenceCountUtil;
 
 @NonNullByDefault
 public class HikvisionHandler extends ChannelDuplexHandler {
+    private static final int DEBOUNCE = 3;
     IpCameraHandler ipCameraHandler;
     String nvrChannel;
+    // Each connection has its own handler, so this only ever sees one reply or the one alertStream.
+    private final IsapiParser alertParser = new IsapiParser();
     int lineCount, vmdCount, leftCount, takenCount, faceCount, pirCount, fieldCount = 0;
 
     public HikvisionHandler(ThingHandler handler, String nvrChannel) {
@@ -51,7 +56,6 @@ public class HikvisionHandler extends ChannelDuplexHandler {
     @Override
     public void channelRead(@Nullable ChannelHandlerContext ctx, @Nullable Object msg) throws Exception {
         String content = null;
-        int debounce = 3;
         try {
             content = msg.toString();
             if (!content.isEmpty()) {
@@ -59,154 +63,154 @@ public class HikvisionHandler extends ChannelDuplexHandler {
             } else {
                 return;
             }
+            boolean alertStream = alertParser.isInAlert();
+            try {
+                for (IsapiParser.Alert alert : alertParser.feed(content)) {
+                    alertStream = true;
+                    alertReceived(alert);
+                }
+            } catch (XmlPullParserException e) {
+                ipCameraHandler.logger.debug("Could not read an alert from the alertStream:{}", e.getMessage());
+                return;
+            }
+            if (alertStream || alertParser.isInAlert() || !IsapiParser.isXml(content)) {
+                return;
+            }
+            IsapiParser.Reply reply = IsapiParser.parseReply(content);
+            if (reply != null) {
+                replyReceived(reply, content);
+            }
+        } finally {
+            ReferenceCountUtil.release(msg);
+            content = null;
+        }
+    }
 
-            // Alarm checking goes in here//
-            if (content.contains("<EventNotificationAlert version=\"")) {
-                if (content.contains("hannelID>" + nvrChannel + "</")) {// some camera use c or <dynChannelID>
-
-                    if (content.contains("<eventType>linedetection</eventType>")) {
+    void alertReceived(IsapiParser.Alert alert) {
+        ipCameraHandler.logger.debug("Hikvision alert for {}", alert);
+        if (nvrChannel.equals(alert.channelID)) {
+            // cameras repeat an event while it lasts, inactive only means nothing is happening.
+            boolean active = !"inactive".equals(alert.eventState);
+            switch (alert.eventType) {
+                case "linedetection":
+                    if (active) {
                         ipCameraHandler.motionDetected(CHANNEL_LINE_CROSSING_ALARM);
-                        lineCount = debounce;
+                        lineCount = DEBOUNCE;
                     }
-                    if (content.contains("<eventType>fielddetection</eventType>")) {
+                    break;
+                case "fielddetection":
+                    if (active) {
                         ipCameraHandler.motionDetected(CHANNEL_FIELD_DETECTION_ALARM);
-                        fieldCount = debounce;
+                        fieldCount = DEBOUNCE;
                     }
-                    if (content.contains("<eventType>VMD</eventType>")) {
+                    break;
+                case "VMD":
+                    if (active) {
                         ipCameraHandler.motionDetected(CHANNEL_MOTION_ALARM);
-                        vmdCount = debounce;
+                        vmdCount = DEBOUNCE;
                     }
-                    if (content.contains("<eventType>facedetection</eventType>")) {
+                    break;
+                case "facedetection":
+                    if (active) {
                         ipCameraHandler.setChannelState(CHANNEL_FACE_DETECTED, OnOffType.valueOf("ON"));
-                        faceCount = debounce;
+                        faceCount = DEBOUNCE;
                     }
-                    if (content.contains("<eventType>unattendedBaggage</eventType>")) {
+                    break;
+                case "unattendedBaggage":
+                    if (active) {
                         ipCameraHandler.setChannelState(CHANNEL_ITEM_LEFT, OnOffType.valueOf("ON"));
-                        leftCount = debounce;
+                        leftCount = DEBOUNCE;
                     }
-                    if (content.contains("<eventType>attendedBaggage</eventType>")) {
+                    break;
+                case "attendedBaggage":
+                    if (active) {
                         ipCameraHandler.setChannelState(CHANNEL_ITEM_TAKEN, OnOffType.valueOf("ON"));
-                        takenCount = debounce;
+                        takenCount = DEBOUNCE;
                     }
-                    if (content.contains("<eventType>PIR</eventType>")) {
+                    break;
+                case "PIR":
+                    if (active) {
                         ipCameraHandler.motionDetected(CHANNEL_PIR_ALARM);
-                        pirCount = debounce;
-                    }
-                    if (content.contains("<eventType>videoloss</eventType>\r\n<eventState>inactive</eventState>")) {
-                        ipCameraHandler.noMotionDetected(CHANNEL_MOTION_ALARM);
-                        // ipCameraHandler.audioAlarmUpdateSnapshot = false;
-                        // ipCameraHandler.motionAlarmUpdateSnapshot = false;
-                        // ipCameraHandler.firstMotionAlarm = false;
-                        countDown();
-                        countDown();
+                        pirCount = DEBOUNCE;
                     }
-                } else if (content.contains("<channelID>0</channelID>")) {// NVR uses channel 0 to say all channels
-                    if (content.contains("<eventType>videoloss</eventType>\r\n<eventState>inactive</eventState>")) {
+                    break;
+                case "videoloss":
+                    if (!active) {
                         ipCameraHandler.noMotionDetected(CHANNEL_MOTION_ALARM);
-                        // ipCameraHandler.audioAlarmUpdateSnapshot = false;
-                        // ipCameraHandler.motionAlarmUpdateSnapshot = false;
-                        // ipCameraHandler.firstMotionAlarm = false;
                         countDown();
                         countDown();
                     }
-                }
+                    break;
+            }
+        } else if ("0".equals(alert.channelID)) {// NVR uses channel 0 to say all channels
+            if ("videoloss".equals(alert.eventType) && "inactive".equals(alert.eventState)) {
+                ipCameraHandler.noMotionDetected(CHANNEL_MOTION_ALARM);
+                countDown();
                 countDown();
             }
+        }
+        countDown();
+    }
 
+    void replyReceived(IsapiParser.Reply reply, String content) {
+        switch (reply.root) {
             // determine if the motion detection is turned on or off.
-            else if (content.contains("<MotionDetection version=\"2.0\" xmlns=\"")) {
-                ipCameraHandler.lock.lock();
-                try {
-                    byte indexInLists = (byte) ipCameraHandler.listOfRequests
-                            .indexOf("/ISAPI/System/Video/inputs/channels/" + nvrChannel + "01/motionDetection");
-                    if (indexInLists >= 0) {
-                        ipCameraHandler.logger.debug(
-                                "!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!! Storing new Motion reply {}",
-                                content);
-                        ipCameraHandler.listOfReplies.set(indexInLists, content);
-                    }
-                } finally {
-                    ipCameraHandler.lock.unlock();
-                }
-
-                if (content.contains("<enabled>true</enabled>")) {
-                    ipCameraHandler.setChannelState(CHANNEL_ENABLE_MOTION_ALARM, OnOffType.valueOf("ON"));
-                } else if (content.contains("<enabled>false</enabled>")) {
-                    ipCameraHandler.setChannelState(CHANNEL_ENABLE_MOTION_ALARM, OnOffType.valueOf("OFF"));
-                }
-            } else if (content.contains("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\r\n" + "<LineDetection>")) {
-                ipCameraHandler.lock.lock();
-                try {
-                    byte indexInLists = (byte) ipCameraHandler.listOfRequests
-                            .indexOf("/ISAPI/Smart/LineDetection/" + nvrChannel + "01");
-                    if (indexInLists >= 0) {
-                        ipCameraHandler.logger.debug(
-                                "!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!! Storing new Line Crossing reply {}",
-                                content);
-                        ipCameraHandler.listOfReplies.set(indexInLists, content);
-                    }
-                } finally {
-                    ipCameraHandler.lock.unlock();
-                }
-                if (content.contains("<enabled>true</enabled>")) {
-                    ipCameraHandler.setChannelState(CHANNEL_ENABLE_LINE_CROSSING_ALARM, OnOffType.valueOf("ON"));
-                } else if (content.contains("<enabled>false</enabled>")) {
-                    ipCameraHandler.setChannelState(CHANNEL_ENABLE_LINE_CROSSING_ALARM, OnOffType.valueOf("OFF"));
-                }
-            } else if (content.contains("<AudioDetection version=\"2.0\" xmlns=\"")) {
-                ipCameraHandler.lock.lock();
-                try {
-                    byte indexInLists = (byte) ipCameraHandler.listOfRequests
-                            .indexOf("/ISAPI/Smart/AudioDetection/channels/" + nvrChannel + "01");
-                    if (indexInLists >= 0) {
-                        ipCameraHandler.listOfReplies.set(indexInLists, content);
-                    }
-                } finally {
-                    ipCameraHandler.lock.unlock();
-                }
-                if (content.contains("<enabled>true</enabled>")) {
-                    ipCameraHandler.setChannelState(CHANNEL_ENABLE_AUDIO_ALARM, OnOffType.valueOf("ON"));
-                } else if (content.contains("<enabled>false</enabled>")) {
-                    ipCameraHandler.setChannelState(CHANNEL_ENABLE_AUDIO_ALARM, OnOffType.valueOf("OFF"));
-                }
-            }
+            case "MotionDetection":
+                storeReply("/ISAPI/System/Video/inputs/channels/" + nvrChannel + "01/motionDetection", content);
+                updateEnabled(CHANNEL_ENABLE_MOTION_ALARM, reply);
+                break;
+            case "LineDetection":
+                storeReply("/ISAPI/Smart/LineDetection/" + nvrChannel + "01", content);
+                updateEnabled(CHANNEL_ENABLE_LINE_CROSSING_ALARM, reply);
+                break;
+            case "AudioDetection":
+                storeReply("/ISAPI/Smart/AudioDetection/channels/" + nvrChannel + "01", content);
+                updateEnabled(CHANNEL_ENABLE_AUDIO_ALARM, reply);
+                break;
+            case "FieldDetection":
+                storeReply("/ISAPI/Smart/FieldDetection/" + nvrChannel + "01", content);
+                updateEnabled(CHANNEL_ENABLE_FIELD_DETECTION_ALARM, reply);
+                break;
             ////////////////// External Alarm Input ///////////////
-            else if (content.contains("<requestURL>/ISAPI/System/IO/inputs/" + nvrChannel + "/status</requestURL>")) {
+            case "ResponseStatus":
                 // Stops checking the external alarm if camera does not have feature.
-                if (content.contains("<statusString>Invalid Operation</statusString>")) {
-                    ipCameraHandler.lowPriorityRequests.remove(0);
+                List<String> lowPriorityRequests = ipCameraHandler.lowPriorityRequests;
+                if (("/ISAPI/System/IO/inputs/" + nvrChannel + "/status").equals(reply.get("requestURL"))
+                        && "Invalid Operation".equals(reply.get("statusString")) && lowPriorityRequests != null) {
+                    lowPriorityRequests.remove(reply.get("requestURL"));
                     ipCameraHandler.logger
                             .debug("Stopping checks for alarm inputs as camera appears to be missing this feature.");
                 }
-            } else if (content.contains("<IOPortStatus version=\"2.0\" xmlns=\"")) {
-                if (content.contains("<ioState>active</ioState>")) {
+                break;
+            case "IOPortStatus":
+                if ("active".equals(reply.get("ioState"))) {
                     ipCameraHandler.setChannelState(CHANNEL_EXTERNAL_ALARM_INPUT, OnOffType.valueOf("ON"));
-                } else if (content.contains("<ioState>inactive</ioState>")) {
+                } else if ("inactive".equals(reply.get("ioState"))) {
                     ipCameraHandler.setChannelState(CHANNEL_EXTERNAL_ALARM_INPUT, OnOffType.valueOf("OFF"));
                 }
-            } else if (content.contains("<FieldDetection version=\"2.0\" xmlns=\"")) {
-                ipCameraHandler.lock.lock();
-                try {
-                    byte indexInLists = (byte) ipCameraHandler.listOfRequests
-                            .indexOf("/ISAPI/Smart/FieldDetection/" + nvrChannel + "01");
-                    if (indexInLists >= 0) {
-                        ipCameraHandler.logger.debug(
-                                "!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!! Storing new FieldDetection reply {}",
-                                content);
-                        ipCameraHandler.listOfReplies.set(indexInLists, content);
-                    }
-                } finally {
-                    ipCameraHandler.lock.unlock();
-                }
-                if (content.contains("<enabled>true</enabled>")) {
-                    ipCameraHandler.setChannelState(CHANNEL_ENABLE_FIELD_DETECTION_ALARM, OnOffType.valueOf("ON"));
-                } else if (content.contains("<enabled>false</enabled>")) {
-                    ipCameraHandler.setChannelState(CHANNEL_ENABLE_FIELD_DETECTION_ALARM, OnOffType.valueOf("OFF"));
-                }
+                break;
+        }
+    }
+
+    // The reply is kept so hikChangeSetting can send it back with only the enabled setting changed.
+    void storeReply(String request, String content) {
+        ipCameraHandler.lock.lock();
+        try {
+            byte indexInLists = (byte) ipCameraHandler.listOfRequests.indexOf(request);
+            if (indexInLists >= 0) {
+                ipCameraHandler.logger.debug("Storing new reply for {}", request);
+                ipCameraHandler.listOfReplies.set(indexInLists, content);
             }
         } finally {
-            ReferenceCountUtil.release(msg);
-            content = null;
+            ipCameraHandler.lock.unlock();
+        }
+    }
+
+    void updateEnabled(String channel, IsapiParser.Reply reply) {
+        if ("true".equals(reply.get("enabled"))) {
+            ipCameraHandler.setChannelState(channel, OnOffType.valueOf("ON"));
+        } else if ("false".equals(reply.get("enabled"))) {
+            ipCameraHandler.setChannelState(channel, OnOffType.valueOf("OFF"));
         }
     }
 
@@ -334,7 +338,7 @@ public class HikvisionHandler extends ChannelDuplexHandler {
     // added here. Binding steps through the list.
     public ArrayList<String> getLowPriorityRequests() {
         ArrayList<String> lowPriorityRequests = new ArrayList<String>(1);
-        lowPriorityRequests.add("/ISAPI/System/IO/inputs/" + nvrChannel + "/status"); // must stay in element 0.
+        lowPriorityRequests.add("/ISAPI/System/IO/inputs/" + nvrChannel + "/status");
         return lowPriorityRequests;
     }
 }
@@ -0,0 +1,117 @@
+/**
+ * Copyright (c) 2010-2019 Contributors to the openHAB project
+ *
+ * See the NOTICE file(s) distributed with this work for additional
+ * information.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+
+package org.openhab.binding.ipcamera.internal;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+import org.eclipse.jdt.annotation.NonNullByDefault;
+import org.eclipse.jdt.annotation.Nullable;
+
+/**
+ * The {@link HlsPlaylist} class is responsible for holding a camera's HLS media playlist as its segments, so the
+ * group playlist can be built without reading and searching the playlist text again each time it changes. A new
+ * one is made each time the camera's playlist changes, they are never changed afterwards.
+ *
+ * @author Matthew Skinner - Initial contribution
+ */
+
+@NonNullByDefault
+public class HlsPlaylist {
+    public final int targetDuration;
+    public final long mediaSequence;
+    public final List<Segment> segments;
+
+    public static class Segment {
+        public final long sequence;
+        public final double duration;
+        public final String uri;
+        public final boolean discontinuity;
+
+        public Segment(long sequence, double duration, String uri, boolean discontinuity) {
+            this.sequence = sequence;
+            this.duration = duration;
+            this.uri = uri;
+            this.discontinuity = discontinuity;
+        }
+    }
+
+    public HlsPlaylist(int targetDuration, long mediaSequence, List<Segment> segments) {
+        this.targetDuration = targetDuration;
+        this.mediaSequence = mediaSequence;
+        this.segments = Collections.unmodifiableList(segments);
+    }
+
+    /**
+     * Reads a media playlist in one pass, tags this binding does not use are skipped.
+     */
+    public static HlsPlaylist parse(byte[] playlist) {
+        String text = new String(playlist, StandardCharsets.UTF_8);
+        int targetDuration = 1;
+        long mediaSequence = 0;
+        List<Segment> segments = new ArrayList<>();
+        double duration = 0;
+        boolean discontinuity = false;
+        int start = 0;
+        while (start < text.length()) {
+            int end = text.indexOf('\n', start);
+            if (end < 0) {
+                end = text.length();
+            }
+            String line = text.substring(start, end).trim();
+            start = end + 1;
+            try {
+                if (line.startsWith("#EXTINF:")) {
+                    int comma = line.indexOf(',');
+                    duration = Double.parseDouble(line.substring(8, comma > 0 ? comma : line.length()));
+                } else if (line.startsWith("#EXT-X-TARGETDURATION:")) {
+                    targetDuration = Integer.parseInt(line.substring(22));
+                } else if (line.startsWith("#EXT-X-MEDIA-SEQUENCE:")) {
+                    mediaSequence = Long.parseLong(line.substring(22));
+                } else if (line.equals("#EXT-X-DISCONTINUITY")) {
+                    discontinuity = true;
+                } else if (!line.isEmpty() && !line.startsWith("#")) {
+                    segments.add(new Segment(mediaSequence + segments.size(), duration, line, discontinuity));
+                    duration = 0;
+                    discontinuity = false;
+                }
+            } catch (NumberFormatException e) {
+                // ffmpeg is still writing the line, the next version of the playlist will have it.
+            }
+        }
+        return new HlsPlaylist(targetDuration, mediaSequence, segments);
+    }
+
+    public @Nullable Segment getLast() {
+        return segments.isEmpty() ? null : segments.get(segments.size() - 1);
+    }
+
+    public byte[] toBytes() {
+        StringBuilder playlist = new StringBuilder(128 + segments.size() * 48);
+        playlist.append("#EXTM3U\n#EXT-X-VERSION:3\n");
+        playlist.append("#EXT-X-TARGETDURATION:").append(targetDuration).append("\n");
+        playlist.append("#EXT-X-MEDIA-SEQUENCE:").append(mediaSequence).append("\n");
+        for (Segment segment : segments) {
+            if (segment.discontinuity) {
+                playlist.append("#EXT-X-DISCONTINUITY\n");
+            }
+            playlist.append(String.format(Locale.ROOT, "#EXTINF:%.3f,\n", segment.duration));
+            playlist.append(segment.uri).append("\n");
+        }
+        return playlist.toString().getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -106,9 +106,7 @@ public class InstarHandler extends ChannelDuplexHandler {
                         ipCameraHandler.setChannelState(CHANNEL_ENABLE_AUDIO_ALARM, OnOffType.valueOf("OFF"));
                     }
                     // Reset the Alarm, need to find better place to put this.
-                    ipCameraHandler.setChannelState(CHANNEL_AUDIO_ALARM, OnOffType.valueOf("OFF"));
-                    ipCameraHandler.firstAudioAlarm = false;
-                    ipCameraHandler.audioAlarmUpdateSnapshot = false;
+                    ipCameraHandler.noAudioDetected();
                     break;
                 case "param.cgi?cmd=getpirattr":// PIR Alarm
                     if (content.contains("var pir_enable=\"1\"")) {
@@ -148,12 +146,12 @@ public class InstarHandler extends ChannelDuplexHandler {
         if (command.toString() == "REFRESH") {
             switch (channelUID.getId()) {
                 case CHANNEL_MOTION_ALARM:
-                    if (ipCameraHandler.serverPort > 0) {
+                    if (ipCameraHandler.hasStreamServer()) {
                         ipCameraHandler.logger.info("Setting up the Alarm Server settings in the camera now");
                         ipCameraHandler.sendHttpGET(
                                 "/param.cgi?cmd=setmdalarm&-aname=server2&-switch=on&cmd=setalarmserverattr&-as_index=3&-as_server="
-                                        + ipCameraHandler.hostIp + "&-as_port=" + ipCameraHandler.serverPort
-                                        + "&-as_path=/instar&-as_queryattr1=&-as_queryval1=&-as_queryattr2=&-as_queryval2=&-as_queryattr3=&-as_queryval3=&-as_activequery=1&-as_auth=0&-as_query1=0&-as_query2=0&-as_query3=0");
+                                        + ipCameraHandler.hostIp + "&-as_port=" + ipCameraHandler.getStreamServerPort()
+                                        + "&-as_path=" + ipCameraHandler.getStreamServerPath() + "/instar&-as_queryattr1=&-as_queryval1=&-as_queryattr2=&-as_queryval2=&-as_queryattr3=&-as_queryval3=&-as_activequery=1&-as_auth=0&-as_query1=0&-as_query2=0&-as_query3=0");
                         return;
                     }
             }
@@ -13,6 +13,16 @@
 
 package org.openhab.binding.ipcamera.internal;
 
+import static org.openhab.binding.ipcamera.IpCameraBindingConstants.*;
+
+import java.io.File;
+import java.math.BigDecimal;
+import java.util.Dictionary;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
 import org.eclipse.jdt.annotation.NonNullByDefault;
 import org.eclipse.jdt.annotation.Nullable;
 import org.eclipse.smarthome.core.thing.Thing;
@@ -22,7 +32,15 @@ import org.eclipse.smarthome.core.thing.binding.ThingHandler;
 import org.eclipse.smarthome.core.thing.binding.ThingHandlerFactory;
 import org.openhab.binding.ipcamera.handler.IpCameraGroupHandler;
 import org.openhab.binding.ipcamera.handler.IpCameraHandler;
+import org.osgi.service.component.ComponentContext;
 import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.Modified;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import io.netty.handler.ssl.SslContext;
+import io.netty.util.concurrent.DefaultEventExecutorGroup;
+import io.netty.util.concurrent.EventExecutorGroup;
 
 /**
  * The {@link IpCameraHandlerFactory} is responsible for creating things and thing
@@ -33,6 +51,110 @@ import org.osgi.service.component.annotations.Component;
 @Component(service = ThingHandlerFactory.class, immediate = true, configurationPid = "binding.ipcamera")
 @NonNullByDefault
 public class IpCameraHandlerFactory extends BaseThingHandlerFactory {
+    private final Logger logger = LoggerFactory.getLogger(getClass());
+    // Owns every ffmpeg process started by any camera.
+    private final FfmpegSupervisor ffmpegSupervisor = new FfmpegSupervisor();
+    // The optional server that all cameras and groups share, set with the bindings own SERVER_PORT.
+    private final StreamServer streamServer = new StreamServer();
+    // Runs the brand handlers of every camera, so parsing replies never holds up the threads reading the cameras.
+    private final EventExecutorGroup brandExecutorGroup = new DefaultEventExecutorGroup(2);
+    // Decodes and joins the snapshots for the mosaics of every group.
+    private final ExecutorService mosaicExecutor = Executors.newFixedThreadPool(2);
+    // Which cameras are online, so groups and WebSockets can find them.
+    private final CameraRegistry cameraRegistry = new CameraRegistry();
+    // Every camera handler, online or not, so the shared /metrics can show cameras that fail to connect.
+    private final List<IpCameraHandler> cameraHandlers = new CopyOnWriteArrayList<IpCameraHandler>();
+    // The files the SslContext was made from, so a config change that leaves them alone does not restart the server.
+    private String sslSource = "";
+    private @Nullable SslContext sslContext;
+
+    public IpCameraHandlerFactory() {
+        streamServer.setCameraRegistry(cameraRegistry);
+        streamServer.setMetricsSource(requestIP -> {
+            PrometheusWriter writer = new PrometheusWriter();
+            boolean allowed = false;
+            // the same whitelist as each cameras own server, so a camera is only shown to those that can watch it.
+            for (IpCameraHandler handler : cameraHandlers) {
+                if (handler.isWhiteListed(requestIP)) {
+                    handler.writeMetrics(writer);
+                    allowed = true;
+                }
+            }
+            if (!allowed) {
+                return "";
+            }
+            writer.gauge("ipcamera_ffmpeg_processes", "ffmpeg processes watched by the binding.", "",
+                    ffmpegSupervisor.getProcessCount());
+            long pendingTasks = IpCameraHandler.countPendingTasks(brandExecutorGroup);
+            for (IpCameraHandler handler : cameraHandlers) {
+                pendingTasks += handler.getPendingTasks();
+            }
+            writer.gauge("ipcamera_event_loop_pending_tasks", "Tasks waiting on the event loops of the binding.", "",
+                    pendingTasks);
+            return writer.toString();
+        });
+    }
+
+    @Override
+    protected void activate(ComponentContext componentContext) {
+        super.activate(componentContext);
+        modified(componentContext);
+    }
+
+    @Modified
+    protected void modified(ComponentContext componentContext) {
+        Dictionary<String, Object> properties = componentContext.getProperties();
+        Object port = (properties == null) ? null : properties.get(CONFIG_SERVER_PORT);
+        int serverPort = -1;
+        if (port != null) {
+            try {
+                serverPort = new BigDecimal(port.toString()).intValue();
+            } catch (NumberFormatException e) {
+                logger.warn("The bindings SERVER_PORT of {} is not a number.", port);
+            }
+        }
+        try {
+            if (serverPort == -1) {
+                streamServer.stop();
+            } else {
+                streamServer.start(serverPort, getSslContext(properties));
+            }
+        } catch (Exception e) {
+            logger.error(
+                    "Exception occured when starting the shared streaming server. Try changing the bindings SERVER_PORT to another number: {}",
+                    e.toString());
+        }
+    }
+
+    // Only the shared server can use TLS, as a PEM certificate and private key are needed.
+    private @Nullable SslContext getSslContext(Dictionary<String, Object> properties) {
+        Object certificate = properties.get(CONFIG_TLS_CERTIFICATE);
+        Object privateKey = properties.get(CONFIG_TLS_PRIVATE_KEY);
+        if (certificate == null || privateKey == null || certificate.toString().isEmpty()
+                || privateKey.toString().isEmpty()) {
+            sslSource = "";
+            sslContext = null;
+            return null;
+        }
+        File certificateFile = new File(certificate.toString());
+        File privateKeyFile = new File(privateKey.toString());
+        // a renewed certificate has a new modified time, so it is still picked up.
+        String source = certificateFile.getAbsolutePath() + ":" + certificateFile.lastModified() + ":"
+                + privateKeyFile.getAbsolutePath() + ":" + privateKeyFile.lastModified();
+        if (source.equals(sslSource)) {
+            return sslContext;
+        }
+        sslSource = "";
+        sslContext = null;
+        try {
+            sslContext = StreamServerInitializer.createSslContext(certificateFile, privateKeyFile);
+            sslSource = source;
+        } catch (Exception e) {
+            logger.warn("Could not use the TLS_CERTIFICATE and TLS_PRIVATE_KEY, the shared server will not use TLS:{}",
+                    e.toString());
+        }
+        return sslContext;
+    }
 
     @Override
     public boolean supportsThingType(ThingTypeUID thingTypeUID) {
@@ -49,10 +171,27 @@ public class IpCameraHandlerFactory extends BaseThingHandlerFactory {
         ThingTypeUID thingTypeUID = thing.getThingTypeUID();
 
         if (IpCameraHandler.SUPPORTED_THING_TYPES.contains(thingTypeUID)) {
-            return new IpCameraHandler(thing);
+            IpCameraHandler handler = new IpCameraHandler(thing, ffmpegSupervisor, streamServer,
+                    brandExecutorGroup, cameraRegistry);
+            cameraHandlers.add(handler);
+            return handler;
         } else if (IpCameraGroupHandler.SUPPORTED_THING_TYPES.contains(thingTypeUID)) {
-            return new IpCameraGroupHandler(thing);
+            return new IpCameraGroupHandler(thing, streamServer, mosaicExecutor, cameraRegistry);
         }
         return null;
     }
+
+    @Override
+    protected void removeHandler(ThingHandler thingHandler) {
+        cameraHandlers.remove(thingHandler);
+    }
+
+    @Override
+    protected void deactivate(ComponentContext componentContext) {
+        super.deactivate(componentContext);
+        ffmpegSupervisor.shutdown();
+        streamServer.stop();
+        brandExecutorGroup.shutdownGracefully();
+        mosaicExecutor.shutdown();
+    }
 }
@@ -0,0 +1,250 @@
+/**
+ * Copyright (c) 2010-2019 Contributors to the openHAB project
+ *
+ * See the NOTICE file(s) distributed with this work for additional
+ * information.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+
+package org.openhab.binding.ipcamera.internal;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.eclipse.jdt.annotation.NonNullByDefault;
+import org.eclipse.jdt.annotation.Nullable;
+import org.kxml2.io.KXmlParser;
+import org.xmlpull.v1.XmlPullParser;
+import org.xmlpull.v1.XmlPullParserException;
+
+/**
+ * The {@link IsapiParser} class is responsible for reading the XML a Hikvision camera sends, with the kxml2 pull
+ * parser so that the layout and whitespace of the XML do not matter. The alertStream never ends, so what it sends is
+ * kept until a whole EventNotificationAlert has arrived, no matter how the chunks split it, and each alert is read
+ * in one pass straight from that buffer. One is needed for each connection to the camera.
+ *
+ * @author Matthew Skinner - Initial contribution
+ */
+
+@NonNullByDefault
+public class IsapiParser {
+    private static final String ALERT_START = "<EventNotificationAlert";
+    private static final String ALERT_END = "</EventNotificationAlert>";
+    // An alert is about 1kB, anything this large is not going to end.
+    private static final int MAX_ALERT_LENGTH = 64 * 1024;
+    private final StringBuilder pending = new StringBuilder(2048);
+    private boolean inAlert = false;
+    private int scanFrom = 0;
+
+    public static class Alert {
+        public final String channelID;
+        public final String eventType;
+        public final String eventState;
+        public final String dateTime;
+        public final List<String> regionIDs;
+
+        Alert(String channelID, String eventType, String eventState, String dateTime, List<String> regionIDs) {
+            this.channelID = channelID;
+            this.eventType = eventType;
+            this.eventState = eventState;
+            this.dateTime = dateTime;
+            this.regionIDs = Collections.unmodifiableList(regionIDs);
+        }
+
+        @Override
+        public String toString() {
+            return "channel " + channelID + " " + eventType + " " + eventState + " at " + dateTime + " regions "
+                    + regionIDs;
+        }
+    }
+
+    /**
+     * A reply to an ISAPI request, only the elements directly inside the root element are kept.
+     */
+    public static class Reply {
+        public final String root;
+        private final Map<String, String> values;
+
+        Reply(String root, Map<String, String> values) {
+            this.root = root;
+            this.values = values;
+        }
+
+        /**
+         * @return the text of the first element with this name inside the root, or "" if there is none.
+         */
+        public String get(String name) {
+            String value = values.get(name);
+            return (value == null) ? "" : value;
+        }
+    }
+
+    /**
+     * @return true while part of an alert is waiting for the rest of it to arrive.
+     */
+    public boolean isInAlert() {
+        return inAlert;
+    }
+
+    /**
+     * Takes the next piece of the alertStream, which can start or end anywhere, even in the middle of a tag.
+     *
+     * @return every alert that this piece finished, often none.
+     */
+    public List<Alert> feed(String chunk) throws XmlPullParserException, IOException {
+        pending.append(chunk);
+        List<Alert> alerts = new ArrayList<>(1);
+        while (true) {
+            if (!inAlert) {
+                int start = pending.indexOf(ALERT_START, scanFrom);
+                if (start < 0) {
+                    // only keep what could be the start of a tag that the next chunk finishes.
+                    pending.delete(0, Math.max(0, pending.length() - ALERT_START.length() + 1));
+                    scanFrom = 0;
+                    return alerts;
+                }
+                pending.delete(0, start);
+                inAlert = true;
+                scanFrom = ALERT_START.length();
+            }
+            int end = pending.indexOf(ALERT_END, scanFrom);
+            if (end < 0) {
+                scanFrom = Math.max(scanFrom, pending.length() - ALERT_END.length() + 1);
+                if (pending.length() > MAX_ALERT_LENGTH) {
+                    pending.setLength(0);
+                    inAlert = false;
+                    scanFrom = 0;
+                    throw new XmlPullParserException("An EventNotificationAlert was too large, it was dropped.");
+                }
+                return alerts;
+            }
+            end += ALERT_END.length();
+            inAlert = false;
+            scanFrom = end;
+            alerts.add(readAlert(newParser(new PendingReader(end))));
+        }
+    }
+
+    private static KXmlParser newParser(Reader reader) throws XmlPullParserException {
+        KXmlParser parser = new KXmlParser();
+        parser.setInput(reader);
+        return parser;
+    }
+
+    private static Alert readAlert(XmlPullParser parser) throws XmlPullParserException, IOException {
+        String channelID = "";
+        String eventType = "";
+        String eventState = "";
+        String dateTime = "";
+        List<String> regionIDs = new ArrayList<>(1);
+        String text = "";
+        for (int event = parser.next(); event != XmlPullParser.END_DOCUMENT; event = parser.next()) {
+            if (event == XmlPullParser.TEXT) {
+                text = parser.getText();
+            } else if (event == XmlPullParser.END_TAG) {
+                switch (parser.getName()) {
+                    case "channelID":
+                    case "dynChannelID":// some cameras and NVRs use dynChannelID.
+                        channelID = text.trim();
+                        break;
+                    case "eventType":
+                        eventType = text.trim();
+                        break;
+                    case "eventState":
+                        eventState = text.trim();
+                        break;
+                    case "dateTime":
+                        dateTime = text.trim();
+                        break;
+                    case "regionID":
+                        regionIDs.add(text.trim());
+                        break;
+                }
+                text = "";
+            } else if (event == XmlPullParser.START_TAG) {
+                text = "";
+            }
+        }
+        return new Alert(channelID, eventType, eventState, dateTime, regionIDs);
+    }
+
+    /**
+     * @return true if the first thing that is not whitespace is a tag.
+     */
+    public static boolean isXml(String text) {
+        for (int i = 0; i < text.length(); i++) {
+            if (!Character.isWhitespace(text.charAt(i))) {
+                return text.charAt(i) == '<';
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return the reply or null if it is not XML.
+     */
+    public static @Nullable Reply parseReply(String xml) {
+        try {
+            XmlPullParser parser = newParser(new StringReader(xml));
+            String root = "";
+            Map<String, String> values = new HashMap<>();
+            String text = "";
+            for (int event = parser.next(); event != XmlPullParser.END_DOCUMENT; event = parser.next()) {
+                if (event == XmlPullParser.START_TAG) {
+                    if (parser.getDepth() == 1) {
+                        root = parser.getName();
+                    }
+                    text = "";
+                } else if (event == XmlPullParser.TEXT) {
+                    text = parser.getText();
+                } else if (event == XmlPullParser.END_TAG) {
+                    if (parser.getDepth() == 2) {
+                        values.putIfAbsent(parser.getName(), text.trim());
+                    }
+                    text = "";
+                }
+            }
+            return root.isEmpty() ? null : new Reply(root, values);
+        } catch (XmlPullParserException | IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Reads the start of the pending text without copying it.
+     */
+    private class PendingReader extends Reader {
+        private final int end;
+        private int position = 0;
+
+        PendingReader(int end) {
+            this.end = end;
+        }
+
+        @Override
+        public int read(char @Nullable [] buffer, int offset, int length) {
+            if (buffer == null || position >= end) {
+                return -1;
+            }
+            int count = Math.min(length, end - position);
+            pending.getChars(position, position + count, buffer, offset);
+            position += count;
+            return count;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
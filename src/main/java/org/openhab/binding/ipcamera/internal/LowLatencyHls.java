@@ -0,0 +1,525 @@
+/**
+ * Copyright (c) 2010-2019 Contributors to the openHAB project
+ *
+ * See the NOTICE file(s) distributed with this work for additional
+ * information.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+
+package org.openhab.binding.ipcamera.internal;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.Locale;
+
+import org.eclipse.jdt.annotation.NonNullByDefault;
+import org.eclipse.jdt.annotation.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The {@link LowLatencyHls} class is responsible for turning the fragmented MP4 that ffmpeg writes to stdout into
+ * Low-Latency HLS. Each moof+mdat pair from ffmpeg becomes a partial segment, parts are grouped into segments that
+ * always start on a key frame, and requests can wait for a part that has not been created yet.
+ *
+ * @author Matthew Skinner - Initial contribution
+ */
+
+@NonNullByDefault
+public class LowLatencyHls implements Ffmpeg.OutputListener {
+    public static final double SEGMENT_TARGET_SECONDS = 2.0;
+    public static final double PART_TARGET_SECONDS = 0.5;
+    public static final String INIT_NAME = "llinit.mp4";
+    private static final int SEGMENTS_IN_PLAYLIST = 6;
+    // Older segments are listed without their parts to keep the playlist small.
+    private static final int SEGMENTS_WITH_PARTS = 3;
+    private static final int MAX_BOX_SIZE = 32 * 1024 * 1024;
+    private static final int FLAG_NON_SYNC_SAMPLE = 0x00010000;
+
+    private final Logger logger = LoggerFactory.getLogger(getClass());
+    private byte[] buffer = new byte[256 * 1024];
+    private int bufferLength = 0;
+    private byte @Nullable [] fileType = null;
+    private byte @Nullable [] init = null;
+    private byte @Nullable [] pendingMoof = null;
+    private int videoTrackId = 1;
+    private long timescale = 90000;
+    private long defaultSampleDuration = 0;
+    private int defaultSampleFlags = 0;
+    private LinkedList<Segment> segments = new LinkedList<Segment>();
+    private @Nullable Segment current = null;
+    private int nextMsn = 0;
+    private double maxSegmentDuration = SEGMENT_TARGET_SECONDS;
+    // Set while looking for the start of a box after a broken one, so the warning is only logged once.
+    private boolean resyncing = false;
+    private ArrayList<Waiter> waiters = new ArrayList<Waiter>();
+
+    private static class Part {
+        final byte[] data;
+        final double duration;
+        final boolean independent;
+
+        Part(byte[] data, double duration, boolean independent) {
+            this.data = data;
+            this.duration = duration;
+            this.independent = independent;
+        }
+    }
+
+    private static class Segment {
+        final int msn;
+        final ArrayList<Part> parts = new ArrayList<Part>();
+        double duration = 0;
+        byte @Nullable [] data = null;
+
+        Segment(int msn) {
+            this.msn = msn;
+        }
+
+        byte[] getData() {
+            byte[] localData = data;
+            if (localData == null) {
+                int length = 0;
+                for (Part part : parts) {
+                    length += part.data.length;
+                }
+                localData = new byte[length];
+                int offset = 0;
+                for (Part part : parts) {
+                    System.arraycopy(part.data, 0, localData, offset, part.data.length);
+                    offset += part.data.length;
+                }
+                data = localData;
+            }
+            return localData;
+        }
+    }
+
+    private static class Waiter {
+        final int msn;
+        final int part;
+        final Runnable action;
+
+        Waiter(int msn, int part, Runnable action) {
+            this.msn = msn;
+            this.part = part;
+            this.action = action;
+        }
+    }
+
+    @Override
+    public synchronized void ffmpegOutput(byte[] data, int length) {
+        if (bufferLength + length > buffer.length) {
+            buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, bufferLength + length));
+        }
+        System.arraycopy(data, 0, buffer, bufferLength, length);
+        bufferLength += length;
+        int position = 0;
+        while (bufferLength - position >= 8) {
+            long size = readUnsignedInt(buffer, position);
+            if (size == 1 && bufferLength - position >= 16) {
+                size = (readUnsignedInt(buffer, position + 8) << 32) | readUnsignedInt(buffer, position + 12);
+            } else if (size == 1) {
+                break;
+            }
+            if (size < 8 || size > MAX_BOX_SIZE || !isBoxType(buffer, position + 4)) {
+                if (!resyncing) {
+                    logger.warn("ffmpeg sent a MP4 box with an invalid header, skipping to the next moof or ftyp.");
+                    resyncing = true;
+                }
+                pendingMoof = null;
+                position = findResyncPoint(position + 1);
+                continue;
+            }
+            if (bufferLength - position < size) {
+                break;
+            }
+            resyncing = false;
+            processBox(new String(buffer, position + 4, 4, StandardCharsets.US_ASCII),
+                    Arrays.copyOfRange(buffer, position, position + (int) size));
+            position += size;
+        }
+        System.arraycopy(buffer, position, buffer, 0, bufferLength - position);
+        bufferLength -= position;
+    }
+
+    /**
+     * Finds the next moof or ftyp box, the only places a part or a new stream can start from. If there is none yet,
+     * the last 7 bytes are kept as they could be the start of a header that the next read finishes.
+     */
+    private int findResyncPoint(int from) {
+        for (int offset = from; offset + 8 <= bufferLength; offset++) {
+            long size = readUnsignedInt(buffer, offset);
+            if (size >= 8 && size <= MAX_BOX_SIZE && (matches(buffer, offset + 4, "moof")
+                    || matches(buffer, offset + 4, "ftyp"))) {
+                return offset;
+            }
+        }
+        return Math.max(from, bufferLength - 7);
+    }
+
+    @Override
+    public synchronized void ffmpegStopped() {
+        bufferLength = 0;
+        resyncing = false;
+        clear();
+    }
+
+    private void clear() {
+        fileType = null;
+        init = null;
+        pendingMoof = null;
+        segments.clear();
+        current = null;
+    }
+
+    private void processBox(String type, byte[] box) {
+        switch (type) {
+            case "ftyp":
+                // ffmpeg has been restarted so everything from before is no longer valid.
+                clear();
+                fileType = box;
+                break;
+            case "moov":
+                byte[] localFileType = fileType;
+                if (localFileType == null) {
+                    init = box;
+                } else {
+                    byte[] localInit = Arrays.copyOf(localFileType, localFileType.length + box.length);
+                    System.arraycopy(box, 0, localInit, localFileType.length, box.length);
+                    init = localInit;
+                }
+                parseMovie(box);
+                break;
+            case "moof":
+                pendingMoof = box;
+                break;
+            case "mdat":
+                byte[] moof = pendingMoof;
+                if (moof != null && init != null) {
+                    byte[] partData = Arrays.copyOf(moof, moof.length + box.length);
+                    System.arraycopy(box, 0, partData, moof.length, box.length);
+                    addPart(moof, partData);
+                }
+                pendingMoof = null;
+                break;
+        }
+    }
+
+    private void parseMovie(byte[] moov) {
+        HashMap<Integer, long[]> trackDefaults = new HashMap<Integer, long[]>();
+        for (int trak = 8; trak + 8 <= moov.length; trak += boxSize(moov, trak)) {
+            String type = boxType(moov, trak);
+            int end = trak + boxSize(moov, trak);
+            if ("trak".equals(type)) {
+                int tkhd = findBox(moov, trak + 8, end, "tkhd");
+                int mdia = findBox(moov, trak + 8, end, "mdia");
+                if (tkhd < 0 || mdia < 0) {
+                    continue;
+                }
+                int mdiaEnd = mdia + boxSize(moov, mdia);
+                int hdlr = findBox(moov, mdia + 8, mdiaEnd, "hdlr");
+                int mdhd = findBox(moov, mdia + 8, mdiaEnd, "mdhd");
+                if (hdlr >= 0 && mdhd >= 0 && "vide".equals(boxType(moov, hdlr + 12))) {
+                    // tkhd and mdhd have 64 bit times in version 1
+                    boolean tkhdV1 = moov[tkhd + 8] == 1;
+                    videoTrackId = (int) readUnsignedInt(moov, tkhd + (tkhdV1 ? 28 : 20));
+                    boolean mdhdV1 = moov[mdhd + 8] == 1;
+                    timescale = readUnsignedInt(moov, mdhd + (mdhdV1 ? 28 : 20));
+                }
+            } else if ("mvex".equals(type)) {
+                for (int trex = trak + 8; trex + 8 <= end; trex += boxSize(moov, trex)) {
+                    if ("trex".equals(boxType(moov, trex)) && trex + 32 <= moov.length) {
+                        trackDefaults.put((int) readUnsignedInt(moov, trex + 12), new long[] {
+                                readUnsignedInt(moov, trex + 20), readUnsignedInt(moov, trex + 28) });
+                    }
+                }
+            }
+        }
+        long[] defaults = trackDefaults.get(videoTrackId);
+        if (defaults != null) {
+            defaultSampleDuration = defaults[0];
+            defaultSampleFlags = (int) defaults[1];
+        }
+        if (timescale == 0) {
+            timescale = 90000;
+        }
+        logger.debug("Low latency HLS found video track {} with a timescale of {}.", videoTrackId, timescale);
+    }
+
+    private void addPart(byte[] moof, byte[] partData) {
+        long sampleDuration = 0;
+        boolean independent = false;
+        for (int traf = 8; traf + 8 <= moof.length; traf += boxSize(moof, traf)) {
+            if (!"traf".equals(boxType(moof, traf))) {
+                continue;
+            }
+            int end = traf + boxSize(moof, traf);
+            int tfhd = findBox(moof, traf + 8, end, "tfhd");
+            if (tfhd < 0 || readUnsignedInt(moof, tfhd + 12) != videoTrackId) {
+                continue;
+            }
+            int tfhdFlags = (int) readUnsignedInt(moof, tfhd + 8) & 0xFFFFFF;
+            int offset = tfhd + 16;
+            offset += (tfhdFlags & 0x01) != 0 ? 8 : 0;
+            offset += (tfhdFlags & 0x02) != 0 ? 4 : 0;
+            long trackSampleDuration = defaultSampleDuration;
+            if ((tfhdFlags & 0x08) != 0) {
+                trackSampleDuration = readUnsignedInt(moof, offset);
+                offset += 4;
+            }
+            offset += (tfhdFlags & 0x10) != 0 ? 4 : 0;
+            int trackSampleFlags = defaultSampleFlags;
+            if ((tfhdFlags & 0x20) != 0) {
+                trackSampleFlags = (int) readUnsignedInt(moof, offset);
+            }
+            boolean firstRun = true;
+            for (int trun = traf + 8; trun + 8 <= end; trun += boxSize(moof, trun)) {
+                if (!"trun".equals(boxType(moof, trun))) {
+                    continue;
+                }
+                int trunFlags = (int) readUnsignedInt(moof, trun + 8) & 0xFFFFFF;
+                long sampleCount = readUnsignedInt(moof, trun + 12);
+                int position = trun + 16;
+                position += (trunFlags & 0x01) != 0 ? 4 : 0;
+                int firstSampleFlags = trackSampleFlags;
+                if ((trunFlags & 0x04) != 0) {
+                    firstSampleFlags = (int) readUnsignedInt(moof, position);
+                    position += 4;
+                }
+                for (long sample = 0; sample < sampleCount && position <= moof.length; sample++) {
+                    if ((trunFlags & 0x100) != 0) {
+                        sampleDuration += readUnsignedInt(moof, position);
+                        position += 4;
+                    } else {
+                        sampleDuration += trackSampleDuration;
+                    }
+                    position += (trunFlags & 0x200) != 0 ? 4 : 0;
+                    if ((trunFlags & 0x400) != 0) {
+                        if (sample == 0 && (trunFlags & 0x04) == 0) {
+                            firstSampleFlags = (int) readUnsignedInt(moof, position);
+                        }
+                        position += 4;
+                    }
+                    position += (trunFlags & 0x800) != 0 ? 4 : 0;
+                }
+                if (firstRun) {
+                    independent = (firstSampleFlags & FLAG_NON_SYNC_SAMPLE) == 0;
+                    firstRun = false;
+                }
+            }
+        }
+        double duration = (double) sampleDuration / timescale;
+        Segment segment = current;
+        if (segment == null) {
+            if (!independent) {
+                return; // a segment must start with a key frame.
+            }
+            segment = current = new Segment(nextMsn++);
+        } else if (independent && segment.duration >= SEGMENT_TARGET_SECONDS - 0.1) {
+            segments.add(segment);
+            maxSegmentDuration = Math.max(maxSegmentDuration, segment.duration);
+            while (segments.size() > SEGMENTS_IN_PLAYLIST) {
+                segments.removeFirst();
+            }
+            segment = current = new Segment(nextMsn++);
+        }
+        segment.parts.add(new Part(partData, duration, independent));
+        segment.duration += duration;
+        Iterator<Waiter> iterator = waiters.iterator();
+        while (iterator.hasNext()) {
+            Waiter waiter = iterator.next();
+            if (isAvailable(waiter.msn, waiter.part)) {
+                iterator.remove();
+                waiter.action.run();
+            }
+        }
+    }
+
+    /**
+     * A msn of -1 asks if a playlist can be made, a part of -1 asks if the whole segment is finished.
+     */
+    public synchronized boolean isAvailable(int msn, int part) {
+        Segment segment = current;
+        if (init == null || segment == null) {
+            return false;
+        } else if (msn < 0) {
+            return true;
+        } else if (part < 0) {
+            return msn < segment.msn;
+        }
+        return msn < segment.msn || (msn == segment.msn && part < segment.parts.size());
+    }
+
+    /**
+     * Runs the action now if the part is available, or later once ffmpeg has created it.
+     *
+     * @return true if the action has already been run.
+     */
+    public synchronized boolean whenAvailable(int msn, int part, Runnable action) {
+        if (isAvailable(msn, part)) {
+            action.run();
+            return true;
+        }
+        waiters.add(new Waiter(msn, part, action));
+        return false;
+    }
+
+    public synchronized void removeWaiter(Runnable action) {
+        Iterator<Waiter> iterator = waiters.iterator();
+        while (iterator.hasNext()) {
+            if (iterator.next().action == action) {
+                iterator.remove();
+            }
+        }
+    }
+
+    public synchronized int getNextMsn() {
+        return nextMsn;
+    }
+
+    // How long a blocking request may wait, the spec asks for at least three target durations.
+    public long getBlockingTimeoutMs() {
+        return (long) (SEGMENT_TARGET_SECONDS * 3000);
+    }
+
+    public synchronized byte @Nullable [] getInit() {
+        return init;
+    }
+
+    private @Nullable Segment findSegment(int msn) {
+        Segment segment = current;
+        if (segment != null && segment.msn == msn) {
+            return segment;
+        }
+        for (Segment complete : segments) {
+            if (complete.msn == msn) {
+                return complete;
+            }
+        }
+        return null;
+    }
+
+    public synchronized byte @Nullable [] getSegment(int msn) {
+        Segment segment = findSegment(msn);
+        if (segment == null || segment == current) {
+            return null;
+        }
+        return segment.getData();
+    }
+
+    public synchronized byte @Nullable [] getPart(int msn, int part) {
+        Segment segment = findSegment(msn);
+        if (segment == null || part < 0 || part >= segment.parts.size()) {
+            return null;
+        }
+        return segment.parts.get(part).data;
+    }
+
+    public static String segmentName(int msn) {
+        return "llseg" + msn + ".m4s";
+    }
+
+    public static String partName(int msn, int part) {
+        return "llpart" + msn + "." + part + ".m4s";
+    }
+
+    private void appendParts(StringBuilder playlist, Segment segment) {
+        for (int index = 0; index < segment.parts.size(); index++) {
+            Part part = segment.parts.get(index);
+            playlist.append(String.format(Locale.ROOT, "#EXT-X-PART:DURATION=%.5f,URI=\"%s\"", part.duration,
+                    partName(segment.msn, index)));
+            if (part.independent) {
+                playlist.append(",INDEPENDENT=YES");
+            }
+            playlist.append("\n");
+        }
+    }
+
+    public synchronized @Nullable String getPlaylist() {
+        Segment segment = current;
+        if (init == null || segment == null) {
+            return null;
+        }
+        int firstMsn = segments.isEmpty() ? segment.msn : segments.getFirst().msn;
+        StringBuilder playlist = new StringBuilder(2048);
+        playlist.append("#EXTM3U\n#EXT-X-VERSION:9\n");
+        playlist.append("#EXT-X-TARGETDURATION:").append((int) Math.ceil(maxSegmentDuration)).append("\n");
+        // The part target must not change for the life of the playlist, so it is the one ffmpeg is asked for.
+        playlist.append(String.format(Locale.ROOT, "#EXT-X-PART-INF:PART-TARGET=%.5f\n", PART_TARGET_SECONDS));
+        playlist.append(String.format(Locale.ROOT, "#EXT-X-SERVER-CONTROL:CAN-BLOCK-RELOAD=YES,PART-HOLD-BACK=%.5f\n",
+                PART_TARGET_SECONDS * 3));
+        playlist.append("#EXT-X-MEDIA-SEQUENCE:").append(firstMsn).append("\n");
+        playlist.append("#EXT-X-MAP:URI=\"").append(INIT_NAME).append("\"\n");
+        int index = 0;
+        for (Segment complete : segments) {
+            if (segments.size() - index++ <= SEGMENTS_WITH_PARTS) {
+                appendParts(playlist, complete);
+            }
+            playlist.append(String.format(Locale.ROOT, "#EXTINF:%.5f,\n", complete.duration));
+            playlist.append(segmentName(complete.msn)).append("\n");
+        }
+        appendParts(playlist, segment);
+        playlist.append("#EXT-X-PRELOAD-HINT:TYPE=PART,URI=\"").append(partName(segment.msn, segment.parts.size()))
+                .append("\"\n");
+        return playlist.toString();
+    }
+
+    private static long readUnsignedInt(byte[] data, int offset) {
+        if (offset + 4 > data.length) {
+            return 0;
+        }
+        return ((data[offset] & 0xFFL) << 24) | ((data[offset + 1] & 0xFFL) << 16) | ((data[offset + 2] & 0xFFL) << 8)
+                | (data[offset + 3] & 0xFFL);
+    }
+
+    // A box type is four printable ASCII characters, anything else means the size before it was not a box header.
+    private static boolean isBoxType(byte[] data, int offset) {
+        for (int i = offset; i < offset + 4; i++) {
+            if (data[i] < 0x20 || data[i] > 0x7E) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean matches(byte[] data, int offset, String type) {
+        for (int i = 0; i < 4; i++) {
+            if (data[offset + i] != type.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static String boxType(byte[] data, int offset) {
+        if (offset + 8 > data.length) {
+            return "";
+        }
+        return new String(data, offset + 4, 4, StandardCharsets.US_ASCII);
+    }
+
+    private static int boxSize(byte[] data, int offset) {
+        long size = readUnsignedInt(data, offset);
+        // a broken size would loop forever, so jump to the end instead.
+        return size < 8 ? data.length : (int) Math.min(size, data.length);
+    }
+
+    private static int findBox(byte[] data, int start, int end, String type) {
+        for (int offset = start; offset + 8 <= end; offset += boxSize(data, offset)) {
+            if (type.equals(boxType(data, offset))) {
+                return offset;
+            }
+        }
+        return -1;
+    }
+}
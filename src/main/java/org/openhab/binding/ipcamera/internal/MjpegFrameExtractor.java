@@ -0,0 +1,160 @@
+/**
+ * Copyright (c) 2010-2019 Contributors to the openHAB project
+ *
+ * See the NOTICE file(s) distributed with this work for additional
+ * information.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+
+package org.openhab.binding.ipcamera.internal;
+
+import java.io.ByteArrayOutputStream;
+
+import org.eclipse.jdt.annotation.NonNullByDefault;
+import org.eclipse.jdt.annotation.Nullable;
+
+import io.netty.buffer.ByteBuf;
+
+/**
+ * The {@link MjpegFrameExtractor} class is responsible for pulling a single JPEG out of a cameras multipart MJPEG
+ * stream, by looking for the start (FFD8) and end (FFD9) markers of the picture. The segments in front of the picture
+ * data are skipped by their length, as an EXIF thumbnail in an APP1 segment has its own end marker. The multipart
+ * headers are skipped so it works no matter which boundary or headers a camera sends.
+ *
+ * @author Matthew Skinner - Initial contribution
+ */
+
+@NonNullByDefault
+public class MjpegFrameExtractor {
+    // A frame bigger than this means the markers were missed, so start looking for the next frame.
+    private static final int MAX_FRAME_BYTES = 8 * 1024 * 1024;
+    private static final int START_OF_SCAN = 0xDA;
+    // looking for the start of a picture.
+    private static final int SEARCHING = 0;
+    // expecting the next marker after a segment.
+    private static final int MARKER = 1;
+    private static final int LENGTH_HIGH = 2;
+    private static final int LENGTH_LOW = 3;
+    // skipping the rest of a segment.
+    private static final int SKIPPING = 4;
+    // reading the picture data, which has no length so its end marker is looked for.
+    private static final int SCAN = 5;
+    private final ByteArrayOutputStream frame = new ByteArrayOutputStream(256000);
+    private int state = SEARCHING;
+    private int previous = 0;
+    private int marker = 0;
+    private int skip = 0;
+
+    /**
+     * Reads the stream data without changing the buffers reader index.
+     *
+     * @return the newest full JPEG that ends inside this buffer, or null if the picture is not finished yet.
+     */
+    public byte @Nullable [] add(ByteBuf buf) {
+        byte @Nullable [] finished = null;
+        int end = buf.writerIndex();
+        int copyFrom = buf.readerIndex();
+        for (int i = buf.readerIndex(); i < end; i++) {
+            int value = buf.getByte(i) & 0xFF;
+            if (previous == 0xFF && value == 0xD8 && state != SKIPPING && state != LENGTH_LOW) {
+                // a new picture, any unfinished one before it was cut short.
+                state = MARKER;
+                frame.reset();
+                // the 0xFF may have been at the end of the last buffer.
+                frame.write(0xFF);
+                copyFrom = i;
+                previous = value;
+                continue;
+            }
+            switch (state) {
+                case MARKER:
+                    if (value != 0xFF) {
+                        if (previous != 0xFF) {
+                            // not a marker where one should be, so look for the next picture.
+                            state = SEARCHING;
+                        } else if (value == 0xD9) {
+                            copy(buf, copyFrom, i + 1);
+                            finished = frame.toByteArray();
+                            state = SEARCHING;
+                        } else if (value != 0x01 && (value < 0xD0 || value > 0xD7)) {
+                            // every marker but these few is followed by the length of its segment.
+                            marker = value;
+                            state = LENGTH_HIGH;
+                        }
+                    }
+                    break;
+                case LENGTH_HIGH:
+                    skip = value << 8;
+                    state = LENGTH_LOW;
+                    break;
+                case LENGTH_LOW:
+                    // the length includes its own two bytes.
+                    skip = (skip | value) - 2;
+                    if (skip < 0) {
+                        state = SEARCHING;
+                    } else if (skip == 0) {
+                        endSegment();
+                        value = 0;
+                    } else {
+                        state = SKIPPING;
+                    }
+                    break;
+                case SKIPPING:
+                    int skipped = Math.min(skip, end - i);
+                    i += skipped - 1;
+                    skip -= skipped;
+                    if (skip == 0) {
+                        endSegment();
+                    }
+                    // the last byte of a segment can be 0xFF without starting a marker.
+                    value = 0;
+                    break;
+                case SCAN:
+                    // 0xFF00 is a 0xFF in the data and 0xFFD0 to 0xFFD7 are restart markers.
+                    if (previous == 0xFF && value != 0xFF && value != 0x00 && (value < 0xD0 || value > 0xD7)) {
+                        if (value == 0xD9) {
+                            copy(buf, copyFrom, i + 1);
+                            finished = frame.toByteArray();
+                            state = SEARCHING;
+                        } else {
+                            // a progressive JPEG has more tables and scans after the first.
+                            marker = value;
+                            state = LENGTH_HIGH;
+                        }
+                    }
+                    break;
+                default:
+                    break;
+            }
+            previous = value;
+        }
+        if (state != SEARCHING) {
+            copy(buf, copyFrom, end);
+            if (frame.size() > MAX_FRAME_BYTES) {
+                reset();
+            }
+        }
+        return finished;
+    }
+
+    private void endSegment() {
+        state = (marker == START_OF_SCAN) ? SCAN : MARKER;
+    }
+
+    private void copy(ByteBuf buf, int from, int to) {
+        byte[] bytes = new byte[to - from];
+        buf.getBytes(from, bytes);
+        frame.write(bytes, 0, bytes.length);
+    }
+
+    public void reset() {
+        state = SEARCHING;
+        previous = 0;
+        frame.reset();
+    }
+}
@@ -0,0 +1,223 @@
+/**
+ * Copyright (c) 2010-2019 Contributors to the openHAB project
+ *
+ * See the NOTICE file(s) distributed with this work for additional
+ * information.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+
+package org.openhab.binding.ipcamera.internal;
+
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.ImageOutputStream;
+
+import org.eclipse.jdt.annotation.NonNullByDefault;
+import org.eclipse.jdt.annotation.Nullable;
+import org.openhab.binding.ipcamera.handler.IpCameraHandler;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The {@link MosaicRenderer} class is responsible for joining the latest snapshot of each camera in a group into one
+ * JPEG, laid out as a grid such as 2x2 or 3x2. Each snapshot is decoded straight to about the size of its tile by
+ * only reading every Nth pixel, and the tile is kept until that camera has a newer snapshot. The decoding and the
+ * encoding are done on the executor, and the mosaic is only encoded again when one of its tiles has changed.
+ *
+ * @author Matthew Skinner - Initial contribution
+ */
+
+@NonNullByDefault
+public class MosaicRenderer {
+    public static final int WIDTH = 1280;
+    public static final int HEIGHT = 720;
+    private static final float JPEG_QUALITY = 0.75f;
+    private final Logger logger = LoggerFactory.getLogger(getClass());
+    private final Executor executor;
+    // camera id to the tile made from its last snapshot.
+    private final Map<String, Tile> tiles = new ConcurrentHashMap<>();
+    private byte[] mosaic = new byte[0];
+    // the cameras and snapshot versions the mosaic was made from.
+    private String mosaicKey = "";
+    private @Nullable CompletableFuture<byte[]> rendering = null;
+    private String renderingKey = "";
+
+    private static class Tile {
+        final long version;
+        final int width;
+        final int height;
+        final @Nullable BufferedImage image;
+
+        Tile(long version, int width, int height, @Nullable BufferedImage image) {
+            this.version = version;
+            this.width = width;
+            this.height = height;
+            this.image = image;
+        }
+    }
+
+    public MosaicRenderer(Executor executor) {
+        this.executor = executor;
+    }
+
+    /**
+     * @return the mosaic of the cameras in the order given, straight away if none of them has a new snapshot.
+     */
+    public synchronized CompletableFuture<byte[]> render(List<IpCameraHandler> cameras) {
+        StringBuilder keyBuilder = new StringBuilder();
+        List<String> ids = new ArrayList<>(cameras.size());
+        List<Long> versions = new ArrayList<>(cameras.size());
+        for (IpCameraHandler camera : cameras) {
+            String id = camera.getThing().getUID().getId();
+            long version = camera.getSnapshotVersion();
+            ids.add(id);
+            versions.add(version);
+            keyBuilder.append(id).append(':').append(version).append(',');
+        }
+        String key = keyBuilder.toString();
+        CompletableFuture<byte[]> localRendering = rendering;
+        if (key.equals(mosaicKey)) {
+            return CompletableFuture.completedFuture(mosaic);
+        } else if (localRendering != null && key.equals(renderingKey)
+                && !localRendering.isCompletedExceptionally()) {
+            return localRendering;
+        }
+        int columns = Math.max(1, (int) Math.ceil(Math.sqrt(cameras.size())));
+        int rows = Math.max(1, (cameras.size() + columns - 1) / columns);
+        int tileWidth = WIDTH / columns;
+        int tileHeight = HEIGHT / rows;
+        List<CompletableFuture<Tile>> futures = new ArrayList<>(cameras.size());
+        for (int i = 0; i < cameras.size(); i++) {
+            Tile tile = tiles.get(ids.get(i));
+            long version = versions.get(i);
+            if (tile != null && tile.version == version && tile.width == tileWidth && tile.height == tileHeight) {
+                futures.add(CompletableFuture.completedFuture(tile));
+            } else {
+                String id = ids.get(i);
+                byte[] jpg = cameras.get(i).currentSnapshot;
+                futures.add(CompletableFuture.supplyAsync(() -> {
+                    Tile newTile = new Tile(version, tileWidth, tileHeight, decode(id, jpg, tileWidth, tileHeight));
+                    tiles.put(id, newTile);
+                    return newTile;
+                }, executor));
+            }
+        }
+        Set<String> members = new HashSet<>(ids);
+        for (Iterator<String> iterator = tiles.keySet().iterator(); iterator.hasNext();) {
+            if (!members.contains(iterator.next())) {
+                iterator.remove();
+            }
+        }
+        localRendering = CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[futures.size()]))
+                .thenApplyAsync(done -> {
+                    BufferedImage image = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_INT_RGB);
+                    Graphics2D graphics = image.createGraphics();
+                    for (int i = 0; i < futures.size(); i++) {
+                        BufferedImage tileImage = futures.get(i).join().image;
+                        if (tileImage != null) {
+                            int x = (i % columns) * tileWidth + (tileWidth - tileImage.getWidth()) / 2;
+                            int y = (i / columns) * tileHeight + (tileHeight - tileImage.getHeight()) / 2;
+                            graphics.drawImage(tileImage, x, y, null);
+                        }
+                    }
+                    graphics.dispose();
+                    byte[] jpg = encode(image);
+                    synchronized (this) {
+                        if (key.equals(renderingKey)) {// a newer mosaic is not replaced by an older one.
+                            mosaic = jpg;
+                            mosaicKey = key;
+                            rendering = null;
+                        }
+                    }
+                    return jpg;
+                }, executor);
+        rendering = localRendering;
+        renderingKey = key;
+        return localRendering;
+    }
+
+    /**
+     * Decodes a snapshot scaled to fit inside the tile, keeping its shape.
+     *
+     * @return the image or null if the snapshot could not be read.
+     */
+    private @Nullable BufferedImage decode(String id, byte[] jpg, int tileWidth, int tileHeight) {
+        if (jpg.length < 100) {
+            return null;// the camera has not sent a snapshot yet.
+        }
+        BufferedImage image;
+        try (ImageInputStream input = ImageIO.createImageInputStream(new ByteArrayInputStream(jpg))) {
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(input);
+            if (!readers.hasNext()) {
+                logger.debug("The snapshot of camera {} is not an image that can be shown in the mosaic.", id);
+                return null;
+            }
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(input, true, true);
+                int subsampling = Math.max(1,
+                        Math.min(reader.getWidth(0) / tileWidth, reader.getHeight(0) / tileHeight));
+                ImageReadParam param = reader.getDefaultReadParam();
+                param.setSourceSubsampling(subsampling, subsampling, 0, 0);
+                image = reader.read(0, param);
+            } finally {
+                reader.dispose();
+            }
+        } catch (IOException | RuntimeException e) {
+            logger.debug("Could not decode the snapshot of camera {} for the mosaic:{}", id, e.toString());
+            return null;
+        }
+        double scale = Math.min((double) tileWidth / image.getWidth(), (double) tileHeight / image.getHeight());
+        int width = Math.max(1, (int) (image.getWidth() * scale));
+        int height = Math.max(1, (int) (image.getHeight() * scale));
+        BufferedImage tile = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Graphics2D graphics = tile.createGraphics();
+        graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+        graphics.drawImage(image, 0, 0, width, height, null);
+        graphics.dispose();
+        return tile;
+    }
+
+    private byte[] encode(BufferedImage image) {
+        ByteArrayOutputStream jpg = new ByteArrayOutputStream(128 * 1024);
+        ImageWriter writer = ImageIO.getImageWritersByFormatName("jpeg").next();
+        try (ImageOutputStream output = ImageIO.createImageOutputStream(jpg)) {
+            ImageWriteParam param = writer.getDefaultWriteParam();
+            param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+            param.setCompressionQuality(JPEG_QUALITY);
+            writer.setOutput(output);
+            writer.write(null, new IIOImage(image, null, null), param);
+        } catch (IOException e) {
+            logger.warn("Could not encode the mosaic:{}", e.toString());
+        } finally {
+            writer.dispose();
+        }
+        return jpg.toByteArray();
+    }
+}
@@ -13,9 +13,6 @@
 
 package org.openhab.binding.ipcamera.internal;
 
-import java.security.MessageDigest;
-import java.util.Random;
-
 import org.eclipse.jdt.annotation.NonNullByDefault;
 import org.eclipse.jdt.annotation.Nullable;
 import org.eclipse.smarthome.core.thing.binding.ThingHandler;
@@ -39,24 +36,19 @@ public class MyNettyAuthHandler extends ChannelDuplexHandler {
 
     private Logger logger = LoggerFactory.getLogger(getClass());
     private IpCameraHandler myHandler;
-    private String username, password;
     private String httpMethod = "", httpUrl = "";
-    private byte ncCounter = 0;
-    String nonce = "", opaque = "", qop = "";
-    String realm = "";
+    private final DigestAuth digestAuth;
 
     public MyNettyAuthHandler(String user, String pass, String method, String url, ThingHandler handle) {
         myHandler = (IpCameraHandler) handle;
-        username = user;
-        password = pass;
+        digestAuth = new DigestAuth(user, pass);
         httpUrl = url;
         httpMethod = method;
     }
 
     public MyNettyAuthHandler(String user, String pass, ThingHandler handle) {
         myHandler = (IpCameraHandler) handle;
-        username = user;
-        password = pass;
+        digestAuth = new DigestAuth(user, pass);
     }
 
     public void setURL(String method, String url) {
@@ -65,56 +57,6 @@ public class MyNettyAuthHandler extends ChannelDuplexHandler {
         // logger.trace("MyNettyAuthHandler is now setup for \t{}:{}", method, url);
     }
 
-    private String calcMD5Hash(String toHash) {
-        try {
-            MessageDigest messageDigest = MessageDigest.getInstance("MD5");
-            byte[] array = messageDigest.digest(toHash.getBytes());
-            StringBuffer stringBuffer = new StringBuffer();
-            for (int i = 0; i < array.length; ++i) {
-                stringBuffer.append(Integer.toHexString((array[i] & 0xFF) | 0x100).substring(1, 3));
-            }
-            messageDigest = null;
-            array = null;
-            return stringBuffer.toString();
-        } catch (java.security.NoSuchAlgorithmException e) {
-            logger.error("NoSuchAlgorithmException error when calculating MD5 hash");
-        }
-        return "";
-    }
-
-    private String searchString(String rawString, String searchedString) {
-        String result = "";
-        int index = 0;
-        index = rawString.indexOf(searchedString);
-        if (index != -1) // -1 means "not found"
-        {
-            result = rawString.substring(index + searchedString.length(), rawString.length());
-            index = result.indexOf(',');
-            if (index == -1) {
-                index = result.indexOf('"');
-                if (index == -1) {
-                    index = result.indexOf('}');
-                    if (index == -1) {
-                        return result;
-                    } else {
-                        return result.substring(0, index);
-                    }
-                } else {
-                    return result.substring(0, index);
-                }
-            } else {
-                result = result.substring(0, index);
-                index = result.indexOf('"');
-                if (index == -1) {
-                    return result;
-                } else {
-                    return result.substring(0, index);
-                }
-            }
-        }
-        return "";
-    }
-
     // Method can be used a few ways. processAuth(null, string,string, false) to return the digest on demand, and
     // processAuth(challString, string,string, true) to auto send new packet
     // First run it should not have authenticate as null
@@ -127,54 +69,27 @@ public class MyNettyAuthHandler extends ChannelDuplexHandler {
                 }
                 logger.debug("Setting up the camera to use Basic Auth and resending last request with correct auth.");
                 myHandler.setBasicAuth(true);
+                myHandler.metrics.authRetries.increment();
                 myHandler.sendHttpRequest(httpMethod, requestURI, null);
                 return "Using Basic";
             }
 
             /////// Fresh Digest Authenticate method follows as Basic is already handled and returned ////////
-            realm = searchString(authenticate, "realm=\"");
-            if (realm == "") {
-                logger.warn("Could not find a valid WWW-Authenticate response in :{}", authenticate);
+            if (!digestAuth.parseChallenge(authenticate)) {
                 return "Error";
             }
-            nonce = searchString(authenticate, "nonce=\"");
-            opaque = searchString(authenticate, "opaque=\"");
-            qop = searchString(authenticate, "qop=\"");
-
-            if (!qop.isEmpty() && !realm.isEmpty()) {
+            if (digestAuth.usesQop()) {
                 myHandler.useDigestAuth = true;
             } else {
                 logger.warn(
                         "!!!! Something is wrong with the reply back from the camera. WWW-Authenticate header: qop:{}, realm:{}",
-                        qop, realm);
-            }
-
-            String stale = searchString(authenticate, "stale=\"");
-            if (stale == "") {
-            } else if (stale.equalsIgnoreCase("true")) {
-                logger.debug("Camera reported stale=true which normally means the NONCE has expired.");
+                        digestAuth.qop, digestAuth.realm);
             }
         }
 
-        // create the MD5 hashes
-        String ha1 = username + ":" + realm + ":" + password;
-        ha1 = calcMD5Hash(ha1);
-        Random random = new Random();
-        String cnonce = Integer.toHexString(random.nextInt());
-        random = null;
-        ncCounter = (ncCounter > 125) ? 1 : ++ncCounter;
-        String nc = String.format("%08X", ncCounter); // 8 digit hex number
-        String ha2 = httpMethod + ":" + requestURI;
-        ha2 = calcMD5Hash(ha2);
-
-        String response = ha1 + ":" + nonce + ":" + nc + ":" + cnonce + ":" + qop + ":" + ha2;
-        response = calcMD5Hash(response);
-
-        String digestString = "username=\"" + username + "\", realm=\"" + realm + "\", nonce=\"" + nonce + "\", uri=\""
-                + requestURI + "\", cnonce=\"" + cnonce + "\", nc=" + nc + ", qop=\"" + qop + "\", response=\""
-                + response + "\", opaque=\"" + opaque + "\"";
-
+        String digestString = digestAuth.getDigestString(httpMethod, requestURI);
         if (reSend) {
+            myHandler.metrics.authRetries.increment();
             myHandler.sendHttpRequest(httpMethod, requestURI, digestString);
             return "";
         }
@@ -188,6 +103,7 @@ public class MyNettyAuthHandler extends ChannelDuplexHandler {
         if (msg instanceof HttpResponse) {
             HttpResponse response = (HttpResponse) msg;
             if (response.status().code() == 401) {
+                myHandler.metrics.unauthorized.increment();
                 if (!response.headers().isEmpty()) {
                     for (CharSequence name : response.headers().names()) {
                         for (CharSequence value : response.headers().getAll(name)) {
@@ -250,7 +166,6 @@ public class MyNettyAuthHandler extends ChannelDuplexHandler {
          * logger = null;
          * myHandler = null;
          * username = password = httpMethod = httpUrl = null;
-         * nonce = opaque = qop = realm = null;
          */
     }
 }
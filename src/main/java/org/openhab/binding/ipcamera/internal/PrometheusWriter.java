@@ -0,0 +1,98 @@
+/**
+ * Copyright (c) 2010-2019 Contributors to the openHAB project
+ *
+ * See the NOTICE file(s) distributed with this work for additional
+ * information.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+
+package org.openhab.binding.ipcamera.internal;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.eclipse.jdt.annotation.NonNullByDefault;
+
+/**
+ * The {@link PrometheusWriter} class is responsible for building the text format that Prometheus scrapes. Samples can
+ * be added camera by camera in any order, and are grouped under their metric name with one HELP and TYPE line.
+ *
+ * @author Matthew Skinner - Initial contribution
+ */
+
+@NonNullByDefault
+public class PrometheusWriter {
+    public static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+    private final Map<String, StringBuilder> families = new LinkedHashMap<>();
+
+    /**
+     * @return a label such as camera="DoorCam" with the value escaped.
+     */
+    public static String label(String name, String value) {
+        return name + "=\"" + value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n") + "\"";
+    }
+
+    public void counter(String name, String help, String labels, long value) {
+        sample(family(name, help, "counter"), name, labels, Long.toString(value));
+    }
+
+    public void gauge(String name, String help, String labels, long value) {
+        sample(family(name, help, "gauge"), name, labels, Long.toString(value));
+    }
+
+    public void gauge(String name, String help, String labels, double value) {
+        sample(family(name, help, "gauge"), name, labels, Double.toString(value));
+    }
+
+    /**
+     * @param boundsMs the upper bound of each bucket in ms, they are written in seconds.
+     * @param counts how many fell in each bucket, not added up, with one more at the end for +Inf.
+     * @param sumSeconds the total of everything that was counted.
+     */
+    public void histogram(String name, String help, String labels, long[] boundsMs, long[] counts,
+            double sumSeconds) {
+        StringBuilder family = family(name, help, "histogram");
+        String separator = labels.isEmpty() ? "" : labels + ",";
+        long total = 0;
+        for (int i = 0; i < counts.length; i++) {
+            total += counts[i];
+            String bound = (i < boundsMs.length) ? Double.toString(boundsMs[i] / 1000.0) : "+Inf";
+            sample(family, name + "_bucket", separator + "le=\"" + bound + "\"", Long.toString(total));
+        }
+        sample(family, name + "_sum", labels, Double.toString(sumSeconds));
+        sample(family, name + "_count", labels, Long.toString(total));
+    }
+
+    private StringBuilder family(String name, String help, String type) {
+        StringBuilder family = families.get(name);
+        if (family == null) {
+            family = new StringBuilder();
+            family.append("# HELP ").append(name).append(' ').append(help).append('\n');
+            family.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+            families.put(name, family);
+        }
+        return family;
+    }
+
+    private void sample(StringBuilder family, String name, String labels, String value) {
+        family.append(name);
+        if (!labels.isEmpty()) {
+            family.append('{').append(labels).append('}');
+        }
+        family.append(' ').append(value).append('\n');
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder text = new StringBuilder();
+        for (StringBuilder family : families.values()) {
+            text.append(family);
+        }
+        return text.toString();
+    }
+}
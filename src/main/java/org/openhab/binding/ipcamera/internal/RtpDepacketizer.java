@@ -0,0 +1,276 @@
+/**
+ * Copyright (c) 2010-2019 Contributors to the openHAB project
+ *
+ * See the NOTICE file(s) distributed with this work for additional
+ * information.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+
+package org.openhab.binding.ipcamera.internal;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.eclipse.jdt.annotation.NonNullByDefault;
+import org.eclipse.jdt.annotation.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import io.netty.buffer.ByteBuf;
+
+/**
+ * The {@link RtpDepacketizer} class is responsible for turning the RTP packets of a H264 (RFC 6184) or H265
+ * (RFC 7798) stream back into NAL units, and grouping the NAL units of each picture into an access unit.
+ *
+ * @author Matthew Skinner - Initial contribution
+ */
+
+@NonNullByDefault
+public class RtpDepacketizer {
+    public static final byte[] START_CODE = new byte[] { 0, 0, 0, 1 };
+    private final Logger logger = LoggerFactory.getLogger(getClass());
+    private final boolean isH265;
+    private final AccessUnitListener listener;
+    private List<byte[]> nalUnits = new ArrayList<byte[]>(8);
+    private final ByteArrayOutputStream fragments = new ByteArrayOutputStream(128000);
+    private boolean inFragment = false;
+    private boolean keyFrame = false;
+    private long timestamp = -1;
+    private int lastSequence = -1;
+
+    public interface AccessUnitListener {
+        /**
+         * @param nalUnits the NAL units of one picture, without start codes.
+         * @param timestamp the RTP timestamp, normally at 90kHz.
+         * @param keyFrame true if the picture can be decoded without any earlier pictures.
+         */
+        void accessUnit(List<byte[]> nalUnits, long timestamp, boolean keyFrame);
+    }
+
+    public RtpDepacketizer(boolean isH265, AccessUnitListener listener) {
+        this.isH265 = isH265;
+        this.listener = listener;
+    }
+
+    /**
+     * Looks at the first NAL unit of a RTP packet to see if a decoder can start from it, without copying any data.
+     */
+    public static boolean startsKeyFrame(ByteBuf packet, boolean isH265) {
+        int start = packet.readerIndex();
+        int end = start + packet.readableBytes();
+        if (end - start < 14) {
+            return false;
+        }
+        int offset = start + 12 + (packet.getByte(start) & 0x0F) * 4;
+        if ((packet.getByte(start) & 0x10) != 0 && offset + 4 <= end) {
+            offset += 4 + packet.getUnsignedShort(offset + 2) * 4;
+        }
+        if (offset + 3 >= end) {
+            return false;
+        }
+        int header = packet.getByte(offset) & 0xFF;
+        if (isH265) {
+            int type = (header >> 1) & 0x3F;
+            if (type == 48 && offset + 4 < end) {// AP, check the first NAL inside it
+                type = (packet.getByte(offset + 4) >> 1) & 0x3F;
+            } else if (type == 49) {// FU, only the start of a fragmented NAL
+                int fuHeader = packet.getByte(offset + 2) & 0xFF;
+                type = ((fuHeader & 0x80) != 0) ? fuHeader & 0x3F : -1;
+            }
+            return (type >= 16 && type <= 21) || type == 32;// IRAP or VPS
+        }
+        int type = header & 0x1F;
+        if (type == 24) {// STAP-A
+            type = packet.getByte(offset + 3) & 0x1F;
+        } else if (type == 28) {// FU-A
+            int fuHeader = packet.getByte(offset + 1) & 0xFF;
+            type = ((fuHeader & 0x80) != 0) ? fuHeader & 0x1F : -1;
+        }
+        return type == 5 || type == 7;// IDR or SPS
+    }
+
+    /**
+     * @param packet a full RTP packet, the readerIndex is not changed.
+     */
+    public void rtpPacket(ByteBuf packet) {
+        int start = packet.readerIndex();
+        int length = packet.readableBytes();
+        if (length < 12 || (packet.getByte(start) & 0xC0) != 0x80) {
+            return;// not RTP version 2
+        }
+        int first = packet.getByte(start) & 0xFF;
+        boolean marker = (packet.getByte(start + 1) & 0x80) != 0;
+        int sequence = packet.getUnsignedShort(start + 2);
+        long packetTimestamp = packet.getUnsignedInt(start + 4);
+        int offset = start + 12 + (first & 0x0F) * 4;
+        if ((first & 0x10) != 0) {// header extension
+            if (offset + 4 > start + length) {
+                return;
+            }
+            offset += 4 + packet.getUnsignedShort(offset + 2) * 4;
+        }
+        int end = start + length;
+        if ((first & 0x20) != 0) {// padding
+            end -= packet.getByte(end - 1) & 0xFF;
+        }
+        if (offset >= end) {
+            return;
+        }
+        if (lastSequence >= 0 && sequence != ((lastSequence + 1) & 0xFFFF)) {
+            logger.trace("RTP packets were lost, expected {} and got {}", (lastSequence + 1) & 0xFFFF, sequence);
+            // the half built NAL is now missing a piece, so drop it.
+            inFragment = false;
+        }
+        lastSequence = sequence;
+        if (timestamp != packetTimestamp) {
+            finishAccessUnit();
+            timestamp = packetTimestamp;
+        }
+        if (isH265) {
+            readH265(packet, offset, end);
+        } else {
+            readH264(packet, offset, end);
+        }
+        if (marker) {
+            finishAccessUnit();
+        }
+    }
+
+    private void readH264(ByteBuf packet, int offset, int end) {
+        int header = packet.getByte(offset) & 0xFF;
+        int type = header & 0x1F;
+        if (type >= 1 && type <= 23) {
+            addNalUnit(copy(packet, offset, end));
+        } else if (type == 24) {// STAP-A
+            readAggregation(packet, offset + 1, end);
+        } else if (type == 28) {// FU-A
+            if (offset + 2 > end) {
+                return;
+            }
+            int fuHeader = packet.getByte(offset + 1) & 0xFF;
+            if ((fuHeader & 0x80) != 0) {
+                fragments.reset();
+                fragments.write((header & 0xE0) | (fuHeader & 0x1F));
+                inFragment = true;
+            }
+            appendFragment(packet, offset + 2, end, (fuHeader & 0x40) != 0);
+        }
+    }
+
+    private void readH265(ByteBuf packet, int offset, int end) {
+        if (offset + 2 > end) {
+            return;
+        }
+        int header = packet.getByte(offset) & 0xFF;
+        int type = (header >> 1) & 0x3F;
+        if (type < 48) {
+            addNalUnit(copy(packet, offset, end));
+        } else if (type == 48) {// AP
+            readAggregation(packet, offset + 2, end);
+        } else if (type == 49) {// FU
+            if (offset + 3 > end) {
+                return;
+            }
+            int fuHeader = packet.getByte(offset + 2) & 0xFF;
+            if ((fuHeader & 0x80) != 0) {
+                fragments.reset();
+                fragments.write((header & 0x81) | ((fuHeader & 0x3F) << 1));
+                fragments.write(packet.getByte(offset + 1));
+                inFragment = true;
+            }
+            appendFragment(packet, offset + 3, end, (fuHeader & 0x40) != 0);
+        }
+    }
+
+    private void readAggregation(ByteBuf packet, int offset, int end) {
+        while (offset + 2 <= end) {
+            int size = packet.getUnsignedShort(offset);
+            offset += 2;
+            if (size == 0 || offset + size > end) {
+                return;
+            }
+            addNalUnit(copy(packet, offset, offset + size));
+            offset += size;
+        }
+    }
+
+    private void appendFragment(ByteBuf packet, int offset, int end, boolean last) {
+        if (!inFragment) {
+            return;// waiting for the start of the next fragmented NAL
+        }
+        byte[] bytes = copy(packet, offset, end);
+        fragments.write(bytes, 0, bytes.length);
+        if (last) {
+            inFragment = false;
+            addNalUnit(fragments.toByteArray());
+        }
+    }
+
+    private byte[] copy(ByteBuf packet, int from, int to) {
+        byte[] bytes = new byte[to - from];
+        packet.getBytes(from, bytes);
+        return bytes;
+    }
+
+    private void addNalUnit(byte[] nalUnit) {
+        if (nalUnit.length == 0) {
+            return;
+        }
+        if (isKeyFrame(nalUnit, isH265)) {
+            keyFrame = true;
+        }
+        nalUnits.add(nalUnit);
+    }
+
+    public static boolean isKeyFrame(byte[] nalUnit, boolean isH265) {
+        if (isH265) {
+            int type = (nalUnit[0] >> 1) & 0x3F;
+            return type >= 16 && type <= 21;// IRAP pictures
+        }
+        return (nalUnit[0] & 0x1F) == 5;// IDR
+    }
+
+    private void finishAccessUnit() {
+        if (nalUnits.isEmpty()) {
+            return;
+        }
+        List<byte[]> finished = nalUnits;
+        nalUnits = new ArrayList<byte[]>(8);
+        boolean wasKeyFrame = keyFrame;
+        keyFrame = false;
+        listener.accessUnit(finished, timestamp, wasKeyFrame);
+    }
+
+    public void reset() {
+        nalUnits.clear();
+        fragments.reset();
+        inFragment = false;
+        keyFrame = false;
+        timestamp = -1;
+        lastSequence = -1;
+    }
+
+    /**
+     * Joins NAL units into the Annex B format that ffmpeg and most decoders read.
+     */
+    public static byte[] toAnnexB(List<byte[]> nalUnits, @Nullable List<byte[]> prefix) {
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        if (prefix != null) {
+            for (byte[] nalUnit : prefix) {
+                stream.write(START_CODE, 0, START_CODE.length);
+                stream.write(nalUnit, 0, nalUnit.length);
+            }
+        }
+        for (byte[] nalUnit : nalUnits) {
+            stream.write(START_CODE, 0, START_CODE.length);
+            stream.write(nalUnit, 0, nalUnit.length);
+        }
+        return stream.toByteArray();
+    }
+}
@@ -14,6 +14,15 @@
 package org.openhab.binding.ipcamera.internal;
 
 import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
 
 import org.eclipse.jdt.annotation.NonNullByDefault;
 import org.eclipse.jdt.annotation.Nullable;
@@ -21,167 +30,476 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import io.netty.bootstrap.Bootstrap;
+import io.netty.buffer.ByteBuf;
 import io.netty.channel.Channel;
 import io.netty.channel.ChannelDuplexHandler;
 import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelFutureListener;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.channel.ChannelInitializer;
 import io.netty.channel.ChannelOption;
 import io.netty.channel.EventLoopGroup;
-import io.netty.channel.nio.NioEventLoopGroup;
 import io.netty.channel.socket.SocketChannel;
 import io.netty.channel.socket.nio.NioSocketChannel;
-import io.netty.handler.codec.http.DefaultHttpRequest;
-import io.netty.handler.codec.http.HttpContent;
+import io.netty.handler.codec.http.DefaultFullHttpRequest;
+import io.netty.handler.codec.http.FullHttpResponse;
+import io.netty.handler.codec.http.HttpMethod;
+import io.netty.handler.codec.http.HttpObjectAggregator;
 import io.netty.handler.codec.http.HttpRequest;
 import io.netty.handler.codec.rtsp.RtspDecoder;
 import io.netty.handler.codec.rtsp.RtspEncoder;
 import io.netty.handler.codec.rtsp.RtspHeaderNames;
 import io.netty.handler.codec.rtsp.RtspMethods;
 import io.netty.handler.codec.rtsp.RtspVersions;
+import io.netty.handler.timeout.IdleState;
+import io.netty.handler.timeout.IdleStateEvent;
+import io.netty.handler.timeout.IdleStateHandler;
 import io.netty.util.CharsetUtil;
+import io.netty.util.ReferenceCountUtil;
 
 /**
- * The {@link Ffmpeg} is responsible for handling the ffmpeg conversions
- *
+ * The {@link RtspHandler} class is responsible for a RTSP session with a camera. It asks the camera what the stream
+ * contains, then plays it with the RTP packets interleaved on the same TCP connection so it works through NAT and
+ * firewalls. H264 and H265 video is turned back into access units so the binding can use the stream without ffmpeg.
  *
  * @author Matthew Skinner - Initial contribution
  */
 
-// Class is my custom implementation for RTSP with netty, aim is to ask stream what format it is and more
-// was working before it was moved into its own handler. WIP
-
 @NonNullByDefault
-public class RtspHandler extends ChannelDuplexHandler {
-    @Nullable
-    private Bootstrap rtspBootstrap;
-    private EventLoopGroup mainEventLoopGroup = new NioEventLoopGroup();
-    private String ipAddress = "todo";
-
+public class RtspHandler {
+    public static final int DEFAULT_RTSP_PORT = 554;
+    private static final int DEFAULT_SESSION_TIMEOUT = 60;
+    private static final int READ_IDLE_SECONDS = 20;
     private final Logger logger = LoggerFactory.getLogger(getClass());
+    private final EventLoopGroup eventLoopGroup;
+    private final CopyOnWriteArrayList<RtspListener> listOfListeners = new CopyOnWriteArrayList<RtspListener>();
+    private final DigestAuth digestAuth;
+    private final String url;
+    private final String host;
+    private final int port;
+    private String username = "";
+    private String password = "";
 
-    RtspHandler() {
-        // todo may need to pass in IP of camera plus a few others to make this code
-        // work again.
+    private enum State {
+        DISCONNECTED,
+        OPTIONS,
+        DESCRIBE,
+        SETUP,
+        PLAY,
+        PLAYING
     }
 
-    public HttpRequest getRTSPoptions(String rtspURL) {
-        HttpRequest request = new DefaultHttpRequest(RtspVersions.RTSP_1_0, RtspMethods.OPTIONS, rtspURL);
-        request.headers().add(RtspHeaderNames.CSEQ, "1");
-        return request;
+    private volatile State state = State.DISCONNECTED;
+    private @Nullable Channel channel;
+    private @Nullable Bootstrap rtspBootstrap;
+    private boolean describeOnly = false;
+    private int cseq = 0;
+    private String session = "";
+    private int sessionTimeout = DEFAULT_SESSION_TIMEOUT;
+    private boolean supportsGetParameter = false;
+    private String authScheme = "";
+    private boolean authRetried = false;
+    private HttpMethod lastMethod = RtspMethods.OPTIONS;
+    private String lastUri = "";
+    private @Nullable ScheduledFuture<?> keepAliveJob;
+    private volatile @Nullable SdpInfo sdpInfo;
+    private final List<SdpInfo.Media> listOfTracks = new ArrayList<SdpInfo.Media>(2);
+    private int setupIndex = 0;
+    private int videoChannel = -1;
+    private @Nullable RtpDepacketizer depacketizer;
+
+    public interface RtspListener {
+        void sdpReceived(SdpInfo sdpInfo);
+
+        /**
+         * Each RTP or RTCP packet, the buffer is only valid until this returns.
+         */
+        void rtpReceived(int channel, ByteBuf packet);
+
+        void accessUnitReceived(List<byte[]> nalUnits, long timestamp, boolean keyFrame);
+
+        void rtspStopped();
     }
 
-    public HttpRequest getRTSPdescribe(String rtspURL) {
-        HttpRequest request = new DefaultHttpRequest(RtspVersions.RTSP_1_0, RtspMethods.DESCRIBE, rtspURL);
-        request.headers().add(RtspHeaderNames.CSEQ, "2");
-        return request;
+    /**
+     * @param rtspUri the full RTSP url, any user and password inside the url are used before the ones given.
+     */
+    public RtspHandler(EventLoopGroup eventLoopGroup, String rtspUri, String username, String password)
+            throws URISyntaxException {
+        this.eventLoopGroup = eventLoopGroup;
+        URI uri = new URI(rtspUri);
+        host = (uri.getHost() == null) ? "" : uri.getHost();
+        port = (uri.getPort() == -1) ? DEFAULT_RTSP_PORT : uri.getPort();
+        String userInfo = uri.getUserInfo();
+        if (userInfo != null && userInfo.contains(":")) {
+            this.username = userInfo.substring(0, userInfo.indexOf(':'));
+            this.password = userInfo.substring(userInfo.indexOf(':') + 1);
+            url = rtspUri.replace(uri.getRawUserInfo() + "@", "");
+        } else {
+            this.username = username;
+            this.password = password;
+            url = rtspUri;
+        }
+        digestAuth = new DigestAuth(this.username, this.password);
     }
 
-    public HttpRequest getRTSPsetup(String rtspURL) {
-        HttpRequest request = new DefaultHttpRequest(RtspVersions.RTSP_1_0, RtspMethods.SETUP, rtspURL);
-        request.headers().add(RtspHeaderNames.CSEQ, "3");
-        request.headers().add(RtspHeaderNames.TRANSPORT, "RTP/AVP;unicast;client_port=5000-5001");
-        return request;
+    public void addListener(RtspListener listener) {
+        listOfListeners.addIfAbsent(listener);
     }
 
-    public HttpRequest getRTSPplay(String rtspURL) {
-        HttpRequest request = new DefaultHttpRequest(RtspVersions.RTSP_1_0, RtspMethods.PLAY, rtspURL);
-        request.headers().add(RtspHeaderNames.CSEQ, "4");
-        request.headers().add(RtspHeaderNames.SESSION, "12345678"); // need session number to match that of setup
-        return request;
+    public void removeListener(RtspListener listener) {
+        listOfListeners.remove(listener);
+    }
+
+    public @Nullable SdpInfo getSdpInfo() {
+        return sdpInfo;
+    }
+
+    public boolean isPlaying() {
+        return state == State.PLAYING;
     }
 
-    public void setupRTSP() {
+    public boolean isConnected() {
+        return state != State.DISCONNECTED;
+    }
 
-        if (rtspBootstrap == null) {
-            rtspBootstrap = new Bootstrap();
+    /**
+     * Connects and plays the stream, listeners get the SDP, the RTP packets and the access units.
+     */
+    public void start() {
+        connect(false);
+    }
 
-            rtspBootstrap.group(mainEventLoopGroup);
-            rtspBootstrap.channel(NioSocketChannel.class);
-            rtspBootstrap.option(ChannelOption.SO_KEEPALIVE, true);
-            rtspBootstrap.option(ChannelOption.CONNECT_TIMEOUT_MILLIS, 4500);
-            rtspBootstrap.option(ChannelOption.SO_SNDBUF, 1024 * 8);
-            rtspBootstrap.option(ChannelOption.SO_RCVBUF, 1024 * 1024);
-            rtspBootstrap.option(ChannelOption.TCP_NODELAY, true);
-            rtspBootstrap.handler(new ChannelInitializer<SocketChannel>() {
+    /**
+     * Only fetches the SDP of the stream, then closes the connection.
+     */
+    public void describe() {
+        connect(true);
+    }
 
+    private synchronized void connect(boolean onlyDescribe) {
+        if (state != State.DISCONNECTED) {
+            if (!onlyDescribe) {
+                // Turn a describe that is still running into a full session.
+                describeOnly = false;
+            }
+            return;
+        }
+        if (host.isEmpty()) {
+            logger.warn("The RTSP url {} does not contain a host, can not connect to it.", url);
+            return;
+        }
+        describeOnly = onlyDescribe;
+        state = State.OPTIONS;
+        Bootstrap bootstrap = rtspBootstrap;
+        if (bootstrap == null) {
+            bootstrap = new Bootstrap();
+            bootstrap.group(eventLoopGroup);
+            bootstrap.channel(NioSocketChannel.class);
+            bootstrap.option(ChannelOption.SO_KEEPALIVE, true);
+            bootstrap.option(ChannelOption.CONNECT_TIMEOUT_MILLIS, 4500);
+            bootstrap.option(ChannelOption.SO_SNDBUF, 1024 * 8);
+            bootstrap.option(ChannelOption.SO_RCVBUF, 1024 * 1024);
+            bootstrap.option(ChannelOption.TCP_NODELAY, true);
+            bootstrap.handler(new ChannelInitializer<SocketChannel>() {
                 @Override
                 public void initChannel(SocketChannel socketChannel) throws Exception {
-                    // socketChannel.pipeline().addLast("idleStateHandler", new IdleStateHandler(18,
-                    // 0, 0));
-                    socketChannel.pipeline().addLast("RtspDecoder", new RtspDecoder());
-                    socketChannel.pipeline().addLast("RtspEncoder", new RtspEncoder());
-                    socketChannel.pipeline().addLast("myRTSPHandler", new RtspHandler());
+                    socketChannel.pipeline().addLast("idleStateHandler", new IdleStateHandler(READ_IDLE_SECONDS, 0, 0));
+                    socketChannel.pipeline().addLast("interleavedDecoder", new RtspInterleavedDecoder());
+                    socketChannel.pipeline().addLast("rtspDecoder", new RtspDecoder());
+                    socketChannel.pipeline().addLast("rtspEncoder", new RtspEncoder());
+                    socketChannel.pipeline().addLast("aggregator", new HttpObjectAggregator(65536));
+                    socketChannel.pipeline().addLast("rtspClientHandler", new RtspClientHandler());
                 }
             });
+            rtspBootstrap = bootstrap;
         }
+        ChannelFuture chFuture = bootstrap.connect(new InetSocketAddress(host, port));
+        channel = chFuture.channel();
+        chFuture.addListener((ChannelFutureListener) future -> {
+            if (future.isSuccess()) {
+                sendRequest(RtspMethods.OPTIONS, url);
+            } else {
+                logger.debug("RTSP could not connect to {}:{}, {}", host, port, future.cause().toString());
+                stopped();
+            }
+        });
+    }
 
-        ChannelFuture chFuture = rtspBootstrap.connect(new InetSocketAddress(ipAddress, 554));
-        chFuture.awaitUninterruptibly(); // ChannelOption.CONNECT_TIMEOUT_MILLIS means this will not hang here
-        if (!chFuture.isSuccess()) {
-            logger.debug("!!!! RTSP could not open channel.");
+    /**
+     * Tells the camera the session is finished and closes the connection.
+     */
+    public void stop() {
+        Channel ch = channel;
+        if (ch == null) {
+            return;
         }
-        Channel ch = chFuture.channel();
-
-        ch.writeAndFlush(getRTSPoptions(
-                "rtsp://192.168.xx.xx:554/cam/realmonitor?channel=1&subtype=1&unicast=true&proto=Onvif/"));
-        // returns this:
-        // RTSP/1.0 200 OK
-        // CSeq: 1
-        // Server: Rtsp Server/3.0
-        // Public: OPTIONS, DESCRIBE, ANNOUNCE, SETUP, PLAY, RECORD, PAUSE, TEARDOWN,
-        // SET_PARAMETER, GET_PARAMETER
-
-        // ch.writeAndFlush(getRTSPdescribe(rtspUri));
-        // returns this:
-        // RTSP/1.0 200 OK
-        // CSeq: 2
-        // x-Accept-Dynamic-Rate: 1
-        // Content-Base:
-        // rtsp://192.168.xx.xx:554/cam/realmonitor?channel=1&subtype=1&unicast=true&proto=Onvif/
-        // Cache-Control: must-revalidate
-        // Content-Length: 582
-        // Content-Type: application/sdp
+        ch.eventLoop().execute(() -> {
+            if (ch.isActive() && !session.isEmpty()) {
+                sendRequest(RtspMethods.TEARDOWN, url);
+            }
+            ch.close();
+        });
+    }
 
-        // ch.writeAndFlush(getRTSPsetup(rtspUri));
-        // ch.writeAndFlush(getRTSPplay(rtspUri));
+    private HttpRequest createRequest(HttpMethod method, String uri) {
+        HttpRequest request = new DefaultFullHttpRequest(RtspVersions.RTSP_1_0, method, uri);
+        request.headers().set(RtspHeaderNames.CSEQ, ++cseq);
+        request.headers().set(RtspHeaderNames.USER_AGENT, "openHAB IpCamera");
+        if (!session.isEmpty()) {
+            request.headers().set(RtspHeaderNames.SESSION, session);
+        }
+        if (RtspMethods.DESCRIBE.equals(method)) {
+            request.headers().set(RtspHeaderNames.ACCEPT, "application/sdp");
+        } else if (RtspMethods.SETUP.equals(method)) {
+            request.headers().set(RtspHeaderNames.TRANSPORT,
+                    "RTP/AVP/TCP;unicast;interleaved=" + (setupIndex * 2) + "-" + (setupIndex * 2 + 1));
+        } else if (RtspMethods.PLAY.equals(method)) {
+            request.headers().set(RtspHeaderNames.RANGE, "npt=0.000-");
+        }
+        if ("Digest".equals(authScheme)) {
+            request.headers().set(RtspHeaderNames.AUTHORIZATION,
+                    "Digest " + digestAuth.getDigestString(method.name(), uri));
+        } else if ("Basic".equals(authScheme)) {
+            request.headers().set(RtspHeaderNames.AUTHORIZATION, "Basic " + Base64.getEncoder()
+                    .encodeToString((username + ":" + password).getBytes(StandardCharsets.UTF_8)));
+        }
+        return request;
+    }
 
-        // Cleanup
-        chFuture = null;
+    private void sendRequest(HttpMethod method, String uri) {
+        Channel ch = channel;
+        if (ch == null) {
+            return;
+        }
+        if (!RtspMethods.GET_PARAMETER.equals(method) && state != State.PLAYING) {
+            // remember it so it can be sent again with a password.
+            lastMethod = method;
+            lastUri = uri;
+        }
+        logger.trace("Sending RTSP {} {}", method, uri);
+        ch.writeAndFlush(createRequest(method, uri));
     }
 
-    @Override
-    public void channelRead(@Nullable ChannelHandlerContext ctx, @Nullable Object msg) throws Exception {
+    private void sendSetup() {
+        sendRequest(RtspMethods.SETUP, listOfTracks.get(setupIndex).control);
+    }
 
-        logger.info("{}", msg.toString());
+    private boolean handleUnauthorized(FullHttpResponse response) {
+        if (authRetried || username.isEmpty()) {
+            return false;
+        }
+        boolean playing = state == State.PLAYING;
+        for (String authenticate : response.headers().getAll(RtspHeaderNames.WWW_AUTHENTICATE)) {
+            if (authenticate.startsWith("Digest") && digestAuth.parseChallenge(authenticate)) {
+                authScheme = "Digest";
+            } else if (authenticate.startsWith("Basic") && authScheme.isEmpty()) {
+                authScheme = "Basic";
+            }
+        }
+        if (authScheme.isEmpty()) {
+            return false;
+        }
+        if (playing) {
+            // The nonce of a keep alive has expired, the next keep alive will use the new one.
+            return true;
+        }
+        authRetried = true;
+        sendRequest(lastMethod, lastUri);
+        return true;
+    }
 
-        if (msg instanceof HttpContent) {
-            HttpContent content = (HttpContent) msg;
-            String detail = content.content().toString(CharsetUtil.UTF_8);
-            logger.info("detail is {}", detail);
+    private void processResponse(FullHttpResponse response) {
+        int status = response.status().code();
+        if (status == 401 && handleUnauthorized(response)) {
+            return;
+        }
+        if (state == State.PLAYING) {
+            return;// keep alive replies
+        }
+        if (status != 200) {
+            logger.warn("Camera replied to the RTSP {} of {} with {}", lastMethod, url, response.status());
+            stop();
+            return;
+        }
+        authRetried = false;
+        switch (state) {
+            case OPTIONS:
+                String methods = response.headers().get(RtspHeaderNames.PUBLIC);
+                supportsGetParameter = methods != null && methods.contains("GET_PARAMETER");
+                state = State.DESCRIBE;
+                sendRequest(RtspMethods.DESCRIBE, url);
+                break;
+            case DESCRIBE:
+                String base = response.headers().get(RtspHeaderNames.CONTENT_BASE);
+                if (base == null) {
+                    base = response.headers().get(RtspHeaderNames.CONTENT_LOCATION);
+                }
+                SdpInfo sdp = SdpInfo.parse(response.content().toString(CharsetUtil.UTF_8),
+                        (base == null) ? url : base);
+                sdpInfo = sdp;
+                logger.debug("RTSP stream {} has the tracks {}", url, sdp.listOfMedia);
+                for (RtspListener listener : listOfListeners) {
+                    listener.sdpReceived(sdp);
+                }
+                listOfTracks.clear();
+                for (SdpInfo.Media media : sdp.listOfMedia) {
+                    if ("video".equals(media.type) || "audio".equals(media.type)) {
+                        listOfTracks.add(media);
+                    }
+                }
+                if (describeOnly || listOfTracks.isEmpty()) {
+                    stop();
+                    return;
+                }
+                state = State.SETUP;
+                setupIndex = 0;
+                sendSetup();
+                break;
+            case SETUP:
+                readSession(response.headers().get(RtspHeaderNames.SESSION));
+                SdpInfo.Media track = listOfTracks.get(setupIndex);
+                int interleaved = readInterleavedChannel(response.headers().get(RtspHeaderNames.TRANSPORT));
+                track.interleaved = interleaved;
+                if ("video".equals(track.type) && videoChannel < 0 && (track.isH264() || track.isH265())) {
+                    videoChannel = interleaved;
+                    depacketizer = new RtpDepacketizer(track.isH265(), (nalUnits, timestamp, keyFrame) -> {
+                        for (RtspListener listener : listOfListeners) {
+                            listener.accessUnitReceived(nalUnits, timestamp, keyFrame);
+                        }
+                    });
+                }
+                if (++setupIndex < listOfTracks.size()) {
+                    sendSetup();
+                } else {
+                    state = State.PLAY;
+                    sendRequest(RtspMethods.PLAY, url);
+                }
+                break;
+            case PLAY:
+                state = State.PLAYING;
+                logger.debug("RTSP stream {} is now playing.", url);
+                startKeepAlive();
+                break;
+            default:
+                break;
         }
     }
 
-    @Override
-    public void channelReadComplete(@Nullable ChannelHandlerContext ctx) {
+    // Session: 12345678;timeout=60
+    private void readSession(@Nullable String header) {
+        if (header == null) {
+            return;
+        }
+        String[] parts = header.split(";");
+        session = parts[0].trim();
+        for (String part : parts) {
+            String trimmed = part.trim();
+            if (trimmed.startsWith("timeout=")) {
+                try {
+                    sessionTimeout = Integer.parseInt(trimmed.substring(8).trim());
+                } catch (NumberFormatException e) {
+                    sessionTimeout = DEFAULT_SESSION_TIMEOUT;
+                }
+            }
+        }
     }
 
-    @Override
-    public void handlerAdded(@Nullable ChannelHandlerContext ctx) {
-        logger.debug("RTSP handler just created now");
+    // The camera may pick different channels to the ones asked for.
+    private int readInterleavedChannel(@Nullable String transport) {
+        int channel = setupIndex * 2;
+        if (transport != null) {
+            int index = transport.indexOf("interleaved=");
+            if (index >= 0) {
+                String value = transport.substring(index + 12);
+                int end = 0;
+                while (end < value.length() && Character.isDigit(value.charAt(end))) {
+                    end++;
+                }
+                if (end > 0) {
+                    channel = Integer.parseInt(value.substring(0, end));
+                }
+            }
+        }
+        return channel;
     }
 
-    @Override
-    public void handlerRemoved(@Nullable ChannelHandlerContext ctx) {
-        logger.debug("RTSP handler removed just now");
+    private void startKeepAlive() {
+        Channel ch = channel;
+        if (ch == null) {
+            return;
+        }
+        int period = Math.max(sessionTimeout / 2, 5);
+        keepAliveJob = ch.eventLoop().scheduleAtFixedRate(() -> {
+            sendRequest(supportsGetParameter ? RtspMethods.GET_PARAMETER : RtspMethods.OPTIONS, url);
+        }, period, period, TimeUnit.SECONDS);
     }
 
-    @Override
-    public void exceptionCaught(@Nullable ChannelHandlerContext ctx, @Nullable Throwable cause) {
+    private synchronized void stopped() {
+        ScheduledFuture<?> job = keepAliveJob;
+        if (job != null) {
+            job.cancel(false);
+            keepAliveJob = null;
+        }
+        RtpDepacketizer depacketizer = this.depacketizer;
+        if (depacketizer != null) {
+            depacketizer.reset();
+        }
+        this.depacketizer = null;
+        boolean wasConnected = state != State.DISCONNECTED;
+        state = State.DISCONNECTED;
+        channel = null;
+        session = "";
+        authScheme = "";
+        authRetried = false;
+        videoChannel = -1;
+        if (wasConnected) {
+            for (RtspListener listener : listOfListeners) {
+                listener.rtspStopped();
+            }
+        }
     }
 
-    @Override
-    public void userEventTriggered(@Nullable ChannelHandlerContext ctx, @Nullable Object evt) throws Exception {
+    private class RtspClientHandler extends ChannelDuplexHandler {
+        @Override
+        public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
+            try {
+                if (msg instanceof RtspInterleavedDecoder.InterleavedFrame) {
+                    RtspInterleavedDecoder.InterleavedFrame frame = (RtspInterleavedDecoder.InterleavedFrame) msg;
+                    for (RtspListener listener : listOfListeners) {
+                        listener.rtpReceived(frame.channel, frame.content());
+                    }
+                    RtpDepacketizer depacketizer = RtspHandler.this.depacketizer;
+                    if (frame.channel == videoChannel && depacketizer != null) {
+                        depacketizer.rtpPacket(frame.content());
+                    }
+                } else if (msg instanceof FullHttpResponse) {
+                    processResponse((FullHttpResponse) msg);
+                }
+            } finally {
+                ReferenceCountUtil.release(msg);
+            }
+        }
+
+        @Override
+        public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+            logger.debug("RTSP connection to {} has closed.", url);
+            stopped();
+            super.channelInactive(ctx);
+        }
+
+        @Override
+        public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
+            logger.debug("RTSP connection to {} had an error:{}", url, cause.toString());
+            ctx.close();
+        }
 
+        @Override
+        public void userEventTriggered(ChannelHandlerContext ctx, Object evt) throws Exception {
+            if (evt instanceof IdleStateEvent && ((IdleStateEvent) evt).state() == IdleState.READER_IDLE) {
+                logger.debug("RTSP stream {} sent nothing for {} seconds, closing it.", url, READ_IDLE_SECONDS);
+                ctx.close();
+            }
+        }
     }
 }
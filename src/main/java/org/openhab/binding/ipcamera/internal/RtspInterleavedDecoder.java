@@ -0,0 +1,164 @@
+/**
+ * Copyright (c) 2010-2019 Contributors to the openHAB project
+ *
+ * See the NOTICE file(s) distributed with this work for additional
+ * information.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+
+package org.openhab.binding.ipcamera.internal;
+
+import java.util.List;
+
+import org.eclipse.jdt.annotation.NonNullByDefault;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.DefaultByteBufHolder;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.ByteToMessageDecoder;
+import io.netty.handler.codec.TooLongFrameException;
+import io.netty.util.CharsetUtil;
+
+/**
+ * The {@link RtspInterleavedDecoder} class is responsible for splitting a RTSP over TCP connection into the RTP packets
+ * that start with a '$' and the RTSP text messages. Each RTSP message is passed on whole so the RtspDecoder that
+ * follows never sees any RTP data. Bytes that start neither a RTP packet nor a RTSP message are skipped to the next '$'
+ * or line, so a connection that loses its place carries on from the next packet or message.
+ *
+ * @author Matthew Skinner - Initial contribution
+ */
+
+@NonNullByDefault
+public class RtspInterleavedDecoder extends ByteToMessageDecoder {
+    private static final int MAX_HEADER_BYTES = 8192;
+    // No RTSP method is longer than this, see RFC 2326 section 6.1
+    private static final int MAX_METHOD_LENGTH = 16;
+    private static final int NOT_A_START = 0, IS_A_START = 1, NEED_MORE = 2;
+    // set when the bytes that arrived were not what was expected, until the next '$' or line.
+    private boolean skipping = false;
+
+    /**
+     * A RTP or RTCP packet and the interleaved channel number it arrived on. The holder owns the packet so it must be
+     * released, or passed on to something that releases it.
+     */
+    public static class InterleavedFrame extends DefaultByteBufHolder {
+        public final int channel;
+
+        public InterleavedFrame(int channel, ByteBuf packet) {
+            super(packet);
+            this.channel = channel;
+        }
+    }
+
+    @Override
+    protected void decode(ChannelHandlerContext ctx, ByteBuf in, List<Object> out) throws Exception {
+        while (in.isReadable()) {
+            if (skipping && (!skipToNextStart(in) || !in.isReadable())) {
+                return;
+            }
+            int start = in.readerIndex();
+            if (in.getByte(start) == '$') {
+                if (in.readableBytes() < 5) {
+                    return;
+                }
+                int channel = in.getUnsignedByte(start + 1);
+                int length = in.getUnsignedShort(start + 2);
+                if (length == 0 || (in.getByte(start + 4) & 0xC0) != 0x80) {
+                    // not RTP or RTCP version 2, so this '$' was not the start of a packet.
+                    in.skipBytes(1);
+                    skipping = true;
+                    continue;
+                }
+                if (in.readableBytes() < 4 + length) {
+                    return;
+                }
+                in.skipBytes(4);
+                out.add(new InterleavedFrame(channel, in.readRetainedSlice(length)));
+                continue;
+            }
+            int messageStart = isMessageStart(in, start);
+            if (messageStart == NEED_MORE) {
+                return;
+            } else if (messageStart == NOT_A_START) {
+                skipping = in.readByte() != '\n';
+                continue;
+            }
+            int headerEnd = findHeaderEnd(in, start);
+            if (headerEnd < 0) {
+                if (in.readableBytes() > MAX_HEADER_BYTES) {
+                    throw new TooLongFrameException("RTSP header is larger than " + MAX_HEADER_BYTES + " bytes");
+                }
+                return;
+            }
+            int total = headerEnd - start + getContentLength(in, start, headerEnd);
+            if (in.readableBytes() < total) {
+                return;
+            }
+            out.add(in.readRetainedSlice(total));
+        }
+    }
+
+    // Packets start with a '$' and messages at the start of a line, so nothing before either of those is kept.
+    private boolean skipToNextStart(ByteBuf in) {
+        int end = in.writerIndex();
+        for (int i = in.readerIndex(); i < end; i++) {
+            byte value = in.getByte(i);
+            if (value == '$' || value == '\n') {
+                in.readerIndex((value == '$') ? i : i + 1);
+                skipping = false;
+                return true;
+            }
+        }
+        in.readerIndex(end);
+        return false;
+    }
+
+    // A RTSP reply starts with "RTSP/" and a request with its method, which is in capitals, and a space.
+    private int isMessageStart(ByteBuf in, int start) {
+        int available = Math.min(in.readableBytes(), MAX_METHOD_LENGTH + 1);
+        for (int i = 0; i < available; i++) {
+            byte value = in.getByte(start + i);
+            if (value == ' ') {
+                return (i > 0) ? IS_A_START : NOT_A_START;
+            } else if (value == '/') {
+                return (i == 4 && in.toString(start, 4, CharsetUtil.US_ASCII).equals("RTSP")) ? IS_A_START
+                        : NOT_A_START;
+            } else if ((value < 'A' || value > 'Z') && value != '_') {
+                return NOT_A_START;
+            }
+        }
+        return (available > MAX_METHOD_LENGTH) ? NOT_A_START : NEED_MORE;
+    }
+
+    // Returns the index just after the blank line that ends the header, or -1 if it has not arrived yet.
+    private int findHeaderEnd(ByteBuf in, int start) {
+        int end = in.writerIndex();
+        for (int i = start; i + 3 < end; i++) {
+            if (in.getByte(i) == '\r' && in.getByte(i + 1) == '\n' && in.getByte(i + 2) == '\r'
+                    && in.getByte(i + 3) == '\n') {
+                return i + 4;
+            }
+        }
+        return -1;
+    }
+
+    private int getContentLength(ByteBuf in, int start, int headerEnd) {
+        String header = in.toString(start, headerEnd - start, CharsetUtil.US_ASCII);
+        for (String line : header.split("\r\n")) {
+            int colon = line.indexOf(':');
+            if (colon > 0 && "content-length".equalsIgnoreCase(line.substring(0, colon).trim())) {
+                try {
+                    return Integer.parseInt(line.substring(colon + 1).trim());
+                } catch (NumberFormatException e) {
+                    return 0;
+                }
+            }
+        }
+        return 0;
+    }
+}
@@ -0,0 +1,477 @@
+/**
+ * Copyright (c) 2010-2019 Contributors to the openHAB project
+ *
+ * See the NOTICE file(s) distributed with this work for additional
+ * information.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+
+package org.openhab.binding.ipcamera.internal;
+
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.eclipse.jdt.annotation.NonNullByDefault;
+import org.eclipse.jdt.annotation.Nullable;
+import org.openhab.binding.ipcamera.handler.IpCameraHandler;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.WriteBufferWaterMark;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.handler.codec.http.DefaultFullHttpResponse;
+import io.netty.handler.codec.http.FullHttpRequest;
+import io.netty.handler.codec.http.FullHttpResponse;
+import io.netty.handler.codec.http.HttpMethod;
+import io.netty.handler.codec.http.HttpObjectAggregator;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.handler.codec.rtsp.RtspDecoder;
+import io.netty.handler.codec.rtsp.RtspEncoder;
+import io.netty.handler.codec.rtsp.RtspHeaderNames;
+import io.netty.handler.codec.rtsp.RtspMethods;
+import io.netty.handler.codec.rtsp.RtspResponseStatuses;
+import io.netty.handler.codec.rtsp.RtspVersions;
+import io.netty.handler.timeout.IdleState;
+import io.netty.handler.timeout.IdleStateEvent;
+import io.netty.handler.timeout.IdleStateHandler;
+import io.netty.util.ReferenceCountUtil;
+
+/**
+ * The {@link RtspServer} class is responsible for serving a cameras RTSP stream to any number of clients while only
+ * ever using one RTSP session on the camera. The RTP packets from the camera are passed on untouched to each client
+ * that is playing, and the session with the camera is closed when the last client leaves. Clients must use RTP over
+ * TCP, which VLC, ffmpeg, Frigate and most NVRs can be set to.
+ *
+ * @author Matthew Skinner - Initial contribution
+ */
+
+@NonNullByDefault
+public class RtspServer implements RtspHandler.RtspListener {
+    private static final int SESSION_TIMEOUT = 60;
+    private static final int DESCRIBE_RETRY_MS = 250;
+    private static final int DESCRIBE_TIMEOUT_MS = 10000;
+    private final Logger logger = LoggerFactory.getLogger(getClass());
+    private final IpCameraHandler ipCameraHandler;
+    private final RtspHandler upstream;
+    private final int port;
+    private final Random random = new Random();
+    private final CopyOnWriteArrayList<Client> listOfPlayingClients = new CopyOnWriteArrayList<Client>();
+    private final LongAdder droppedPackets = new LongAdder();
+    private final CopyOnWriteArrayList<Channel> listOfChannels = new CopyOnWriteArrayList<Channel>();
+    private @Nullable EventLoopGroup serverLoopGroup;
+
+    /**
+     * One RTSP session from a client. The tracks array holds the interleaved channel the client asked for, for each
+     * media in the cameras SDP, or -1 if the client did not SETUP that track.
+     */
+    private static class Client {
+        final Channel channel;
+        // RTP is written from the RtspEncoder onwards so the encoder never sees the raw packets.
+        final ChannelHandlerContext encoderContext;
+        final String session;
+        int[] tracks = new int[0];
+        volatile boolean waitingForKeyFrame = true;
+
+        Client(Channel channel, ChannelHandlerContext encoderContext, String session) {
+            this.channel = channel;
+            this.encoderContext = encoderContext;
+            this.session = session;
+        }
+    }
+
+    public RtspServer(IpCameraHandler ipCameraHandler, RtspHandler upstream, int port) {
+        this.ipCameraHandler = ipCameraHandler;
+        this.upstream = upstream;
+        this.port = port;
+    }
+
+    public int getPort() {
+        return port;
+    }
+
+    public int getClientCount() {
+        return listOfPlayingClients.size();
+    }
+
+    public long getDroppedPackets() {
+        return droppedPackets.sum();
+    }
+
+    public void start() throws InterruptedException {
+        if (serverLoopGroup != null) {
+            return;
+        }
+        EventLoopGroup group = new NioEventLoopGroup();
+        ServerBootstrap bootstrap = new ServerBootstrap();
+        bootstrap.group(group);
+        bootstrap.channel(NioServerSocketChannel.class);
+        bootstrap.localAddress(new InetSocketAddress("0.0.0.0", port));
+        bootstrap.childOption(ChannelOption.TCP_NODELAY, true);
+        // A client that can not keep up stops being sent packets long before it could use up the heap.
+        bootstrap.childOption(ChannelOption.WRITE_BUFFER_WATER_MARK, new WriteBufferWaterMark(256 * 1024, 1024 * 1024));
+        bootstrap.childHandler(new ChannelInitializer<SocketChannel>() {
+            @Override
+            protected void initChannel(SocketChannel socketChannel) throws Exception {
+                socketChannel.pipeline().addLast("idleStateHandler", new IdleStateHandler(SESSION_TIMEOUT + 10, 0, 0));
+                socketChannel.pipeline().addLast("interleavedDecoder", new RtspInterleavedDecoder());
+                socketChannel.pipeline().addLast("rtspDecoder", new RtspDecoder());
+                socketChannel.pipeline().addLast("rtspEncoder", new RtspEncoder());
+                socketChannel.pipeline().addLast("aggregator", new HttpObjectAggregator(8192));
+                socketChannel.pipeline().addLast("rtspServerHandler", new RtspServerHandler());
+            }
+        });
+        try {
+            bootstrap.bind().sync();
+        } catch (Exception e) {
+            // also catches the port already being in use, which Netty throws without declaring it.
+            group.shutdownGracefully();
+            throw e;
+        }
+        serverLoopGroup = group;
+        upstream.addListener(this);
+    }
+
+    public void stop() {
+        upstream.removeListener(this);
+        for (Channel channel : listOfChannels) {
+            channel.close();
+        }
+        if (!listOfPlayingClients.isEmpty()) {
+            listOfPlayingClients.clear();
+            upstream.stop();
+        }
+        EventLoopGroup group = serverLoopGroup;
+        if (group != null) {
+            group.shutdownGracefully(1, 4, TimeUnit.SECONDS);
+            serverLoopGroup = null;
+        }
+    }
+
+    @Override
+    public void sdpReceived(SdpInfo sdpInfo) {
+    }
+
+    @Override
+    public void rtpReceived(int channel, ByteBuf packet) {
+        if (listOfPlayingClients.isEmpty()) {
+            return;
+        }
+        SdpInfo sdpInfo = upstream.getSdpInfo();
+        if (sdpInfo == null) {
+            return;
+        }
+        int track = -1;
+        boolean isRtcp = false;
+        for (int i = 0; i < sdpInfo.listOfMedia.size(); i++) {
+            int interleaved = sdpInfo.listOfMedia.get(i).interleaved;
+            if (interleaved >= 0 && (interleaved == channel || interleaved + 1 == channel)) {
+                track = i;
+                isRtcp = interleaved + 1 == channel;
+                break;
+            }
+        }
+        if (track < 0) {
+            return;
+        }
+        SdpInfo.Media media = sdpInfo.listOfMedia.get(track);
+        boolean isVideo = "video".equals(media.type);
+        boolean keyFrame = isVideo && !isRtcp && RtpDepacketizer.startsKeyFrame(packet, media.isH265());
+        for (Client client : listOfPlayingClients) {
+            if (track >= client.tracks.length || client.tracks[track] < 0) {
+                continue;
+            }
+            if (!client.channel.isWritable()) {
+                // Dropping part of a picture breaks every picture after it, so start again from the next key frame.
+                client.waitingForKeyFrame = true;
+                droppedPackets.increment();
+                continue;
+            }
+            if (isVideo && !isRtcp && client.waitingForKeyFrame) {
+                if (!keyFrame) {
+                    continue;
+                }
+                client.waitingForKeyFrame = false;
+            }
+            byte[] header = new byte[] { '$', (byte) (client.tracks[track] + (isRtcp ? 1 : 0)),
+                    (byte) (packet.readableBytes() >> 8), (byte) packet.readableBytes() };
+            client.encoderContext.writeAndFlush(Unpooled.wrappedBuffer(Unpooled.wrappedBuffer(header),
+                    packet.retainedDuplicate()), client.encoderContext.voidPromise());
+        }
+    }
+
+    @Override
+    public void accessUnitReceived(List<byte[]> nalUnits, long timestamp, boolean keyFrame) {
+    }
+
+    @Override
+    public void rtspStopped() {
+        if (!listOfPlayingClients.isEmpty()) {
+            logger.debug("RTSP stream from the camera stopped, closing {} clients of the RTSP server.",
+                    listOfPlayingClients.size());
+        }
+        // The clients reconnect and get a new session with the camera.
+        for (Client client : listOfPlayingClients) {
+            client.channel.close();
+        }
+        listOfPlayingClients.clear();
+    }
+
+    /**
+     * Makes a SDP with the same media as the cameras, but with each track controlled by this server.
+     */
+    private String createSdp(SdpInfo sdpInfo) {
+        StringBuilder result = new StringBuilder(sdpInfo.sdp.length() + 64);
+        int mediaIndex = -1;
+        boolean keep = true;
+        for (String rawLine : sdpInfo.sdp.split("\n")) {
+            String line = rawLine.trim();
+            if (line.isEmpty() || line.startsWith("a=control:")) {
+                continue;
+            }
+            if (line.startsWith("m=")) {
+                if (mediaIndex == -1) {
+                    result.append("a=control:*\r\n");
+                }
+                mediaIndex++;
+                keep = line.startsWith("m=video") || line.startsWith("m=audio");
+                if (keep) {
+                    result.append("m=").append(line.substring(2).replaceFirst(" \\d+ ", " 0 ")).append("\r\n");
+                    result.append("a=control:trackID=").append(mediaIndex).append("\r\n");
+                }
+                continue;
+            }
+            if (keep) {
+                result.append(line).append("\r\n");
+            }
+        }
+        return result.toString();
+    }
+
+    private static int readTrack(String uri) {
+        int index = uri.lastIndexOf("trackID=");
+        if (index < 0) {
+            return -1;
+        }
+        try {
+            return Integer.parseInt(uri.substring(index + 8).replace("/", ""));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    // Returns the first channel of a "RTP/AVP/TCP;unicast;interleaved=0-1" transport, or -1 if it is not RTP over TCP.
+    private static int readInterleaved(@Nullable String transport) {
+        if (transport == null || !transport.toUpperCase().contains("RTP/AVP/TCP")) {
+            return -1;
+        }
+        for (String field : transport.split(";")) {
+            if (field.trim().startsWith("interleaved=")) {
+                String value = field.trim().substring(12);
+                int dash = value.indexOf('-');
+                try {
+                    return Integer.parseInt((dash > 0) ? value.substring(0, dash) : value);
+                } catch (NumberFormatException e) {
+                    return -1;
+                }
+            }
+        }
+        return -1;
+    }
+
+    private class RtspServerHandler extends ChannelInboundHandlerAdapter {
+        private @Nullable Client client;
+
+        @Override
+        public void channelActive(ChannelHandlerContext ctx) throws Exception {
+            String whiteList = ipCameraHandler.getWhiteList();
+            String requestIP = "(" + ((InetSocketAddress) ctx.channel().remoteAddress()).getAddress().getHostAddress()
+                    + ")";
+            if (!whiteList.contains(requestIP) && !whiteList.equals("DISABLE")) {
+                logger.warn("The RTSP connection from {} was not in the whitelist and will be closed.", requestIP);
+                ctx.close();
+                return;
+            }
+            listOfChannels.add(ctx.channel());
+            super.channelActive(ctx);
+        }
+
+        @Override
+        public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
+            try {
+                // RTCP receiver reports from the client are not needed, the camera already knows the stream is used.
+                if (msg instanceof FullHttpRequest) {
+                    processRequest(ctx, (FullHttpRequest) msg);
+                }
+            } finally {
+                ReferenceCountUtil.release(msg);
+            }
+        }
+
+        private void processRequest(ChannelHandlerContext ctx, FullHttpRequest request) {
+            HttpMethod method = request.method();
+            String cseq = request.headers().get(RtspHeaderNames.CSEQ, "0");
+            logger.debug("RTSP server recieved request \t{}:{}", method, request.uri());
+            if (RtspMethods.OPTIONS.equals(method)) {
+                FullHttpResponse response = createResponse(RtspResponseStatuses.OK, cseq);
+                response.headers().set(RtspHeaderNames.PUBLIC,
+                        "OPTIONS, DESCRIBE, SETUP, PLAY, TEARDOWN, GET_PARAMETER");
+                ctx.writeAndFlush(response);
+            } else if (RtspMethods.DESCRIBE.equals(method)) {
+                sendDescribe(ctx, cseq, request.uri(), 0);
+            } else if (RtspMethods.SETUP.equals(method)) {
+                setup(ctx, request, cseq);
+            } else if (RtspMethods.PLAY.equals(method)) {
+                play(ctx, cseq);
+            } else if (RtspMethods.GET_PARAMETER.equals(method)) {
+                ctx.writeAndFlush(createResponse(RtspResponseStatuses.OK, cseq));
+            } else if (RtspMethods.TEARDOWN.equals(method)) {
+                ctx.writeAndFlush(createResponse(RtspResponseStatuses.OK, cseq))
+                        .addListener(ChannelFutureListener.CLOSE);
+            } else {
+                ctx.writeAndFlush(createResponse(RtspResponseStatuses.METHOD_NOT_ALLOWED, cseq));
+            }
+        }
+
+        private FullHttpResponse createResponse(HttpResponseStatus status, String cseq) {
+            FullHttpResponse response = new DefaultFullHttpResponse(RtspVersions.RTSP_1_0, status);
+            response.headers().set(RtspHeaderNames.CSEQ, cseq);
+            response.headers().set(RtspHeaderNames.SERVER, "openHAB IpCamera");
+            Client localClient = client;
+            if (localClient != null) {
+                response.headers().set(RtspHeaderNames.SESSION, localClient.session + ";timeout=" + SESSION_TIMEOUT);
+            }
+            return response;
+        }
+
+        // The cameras SDP may not be known yet, so ask the camera for it and wait for the reply.
+        private void sendDescribe(ChannelHandlerContext ctx, String cseq, String uri, int attempt) {
+            SdpInfo sdpInfo = upstream.getSdpInfo();
+            if (sdpInfo == null) {
+                if (attempt == 0) {
+                    upstream.describe();
+                }
+                if (attempt * DESCRIBE_RETRY_MS < DESCRIBE_TIMEOUT_MS && ctx.channel().isActive()) {
+                    ctx.executor().schedule(() -> sendDescribe(ctx, cseq, uri, attempt + 1), DESCRIBE_RETRY_MS,
+                            TimeUnit.MILLISECONDS);
+                } else {
+                    logger.debug("RTSP server could not get the SDP from the camera in time.");
+                    ctx.writeAndFlush(createResponse(RtspResponseStatuses.SERVICE_UNAVAILABLE, cseq));
+                }
+                return;
+            }
+            byte[] sdp = createSdp(sdpInfo).getBytes(StandardCharsets.UTF_8);
+            FullHttpResponse response = createResponse(RtspResponseStatuses.OK, cseq);
+            response.headers().set(RtspHeaderNames.CONTENT_TYPE, "application/sdp");
+            response.headers().set(RtspHeaderNames.CONTENT_BASE, uri.endsWith("/") ? uri : uri + "/");
+            response.headers().set(RtspHeaderNames.CONTENT_LENGTH, sdp.length);
+            response.content().writeBytes(sdp);
+            ctx.writeAndFlush(response);
+        }
+
+        private void setup(ChannelHandlerContext ctx, FullHttpRequest request, String cseq) {
+            SdpInfo sdpInfo = upstream.getSdpInfo();
+            if (sdpInfo == null) {
+                ctx.writeAndFlush(createResponse(RtspResponseStatuses.SERVICE_UNAVAILABLE, cseq));
+                return;
+            }
+            int track = readTrack(request.uri());
+            if (track < 0 && sdpInfo.getVideo() != null) {
+                track = sdpInfo.listOfMedia.indexOf(sdpInfo.getVideo());
+            }
+            if (track < 0 || track >= sdpInfo.listOfMedia.size()) {
+                ctx.writeAndFlush(createResponse(RtspResponseStatuses.NOT_FOUND, cseq));
+                return;
+            }
+            String transport = request.headers().get(RtspHeaderNames.TRANSPORT);
+            int interleaved = readInterleaved(transport);
+            if (interleaved < 0) {
+                logger.debug("RTSP server only supports RTP over TCP, the client asked for {}", transport);
+                ctx.writeAndFlush(createResponse(RtspResponseStatuses.UNSUPPORTED_TRANSPORT, cseq));
+                return;
+            }
+            Client localClient = client;
+            if (localClient == null) {
+                ChannelHandlerContext encoderContext = ctx.pipeline().context(RtspEncoder.class);
+                localClient = new Client(ctx.channel(), encoderContext,
+                        Long.toHexString(random.nextLong() & Long.MAX_VALUE));
+                client = localClient;
+            }
+            if (localClient.tracks.length < sdpInfo.listOfMedia.size()) {
+                int oldLength = localClient.tracks.length;
+                localClient.tracks = Arrays.copyOf(localClient.tracks, sdpInfo.listOfMedia.size());
+                Arrays.fill(localClient.tracks, oldLength, localClient.tracks.length, -1);
+            }
+            localClient.tracks[track] = interleaved;
+            FullHttpResponse response = createResponse(RtspResponseStatuses.OK, cseq);
+            response.headers().set(RtspHeaderNames.TRANSPORT,
+                    "RTP/AVP/TCP;unicast;interleaved=" + interleaved + "-" + (interleaved + 1));
+            ctx.writeAndFlush(response);
+        }
+
+        private void play(ChannelHandlerContext ctx, String cseq) {
+            Client localClient = client;
+            if (localClient == null) {
+                ctx.writeAndFlush(createResponse(RtspResponseStatuses.SESSION_NOT_FOUND, cseq));
+                return;
+            }
+            FullHttpResponse response = createResponse(RtspResponseStatuses.OK, cseq);
+            response.headers().set(RtspHeaderNames.RANGE, "npt=0.000-");
+            ctx.writeAndFlush(response);
+            localClient.waitingForKeyFrame = true;
+            listOfPlayingClients.addIfAbsent(localClient);
+            if (!upstream.isPlaying()) {
+                upstream.start();
+            }
+            logger.debug("RTSP server now has {} clients playing the stream.", listOfPlayingClients.size());
+        }
+
+        @Override
+        public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+            listOfChannels.remove(ctx.channel());
+            Client localClient = client;
+            if (localClient != null && listOfPlayingClients.remove(localClient) && listOfPlayingClients.isEmpty()) {
+                logger.debug("Last client of the RTSP server has left, closing the cameras RTSP session.");
+                upstream.stop();
+            }
+            client = null;
+            super.channelInactive(ctx);
+        }
+
+        @Override
+        public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
+            logger.debug("RTSP server connection had an error:{}", cause.toString());
+            ctx.close();
+        }
+
+        @Override
+        public void userEventTriggered(ChannelHandlerContext ctx, Object evt) throws Exception {
+            if (evt instanceof IdleStateEvent && ((IdleStateEvent) evt).state() == IdleState.READER_IDLE) {
+                logger.debug("RTSP server client sent nothing for {} seconds, closing it.", SESSION_TIMEOUT + 10);
+                ctx.close();
+            }
+        }
+    }
+}
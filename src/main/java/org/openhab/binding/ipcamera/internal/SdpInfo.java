@@ -0,0 +1,342 @@
+/**
+ * Copyright (c) 2010-2019 Contributors to the openHAB project
+ *
+ * See the NOTICE file(s) distributed with this work for additional
+ * information.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+
+package org.openhab.binding.ipcamera.internal;
+
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+
+import org.eclipse.jdt.annotation.NonNullByDefault;
+import org.eclipse.jdt.annotation.Nullable;
+
+/**
+ * The {@link SdpInfo} class is responsible for reading the SDP that a camera replies with to a RTSP DESCRIBE, so the
+ * binding knows what codecs a stream uses and which URL to SETUP for each track.
+ *
+ * @author Matthew Skinner - Initial contribution
+ */
+
+@NonNullByDefault
+public class SdpInfo {
+    public final String sdp;
+    public final List<Media> listOfMedia = new ArrayList<Media>(2);
+
+    public static class Media {
+        public String type = "";// video, audio or application
+        public int payloadType = -1;
+        public String codec = "";// H264, H265, PCMA, MPEG4-GENERIC...
+        public int clockRate = 90000;
+        public int channels = 1;
+        public String control = "";
+        public String fmtp = "";
+        // The SPS and PPS (plus VPS for H265) without start codes.
+        public List<byte[]> parameterSets = new ArrayList<byte[]>(3);
+        public int width = 0;
+        public int height = 0;
+        // profile_idc from the H264 SPS, 66 is baseline, 77 main and 100 high.
+        public int profile = 0;
+        // The RTP channel the camera sends this track on once it has been SETUP, RTCP uses the next channel.
+        public int interleaved = -1;
+
+        public boolean isH264() {
+            return "H264".equalsIgnoreCase(codec);
+        }
+
+        public boolean isH265() {
+            return "H265".equalsIgnoreCase(codec) || "HEVC".equalsIgnoreCase(codec);
+        }
+
+        @Override
+        public String toString() {
+            String result = type + ":" + codec + "/" + clockRate;
+            if (profile > 0) {
+                result += " profile " + profile;
+            }
+            if (width > 0) {
+                result += " " + width + "x" + height;
+            }
+            return result;
+        }
+    }
+
+    private SdpInfo(String sdp) {
+        this.sdp = sdp;
+    }
+
+    /**
+     * @param baseUrl the Content-Base of the DESCRIBE reply, or the URL that was described if there was none.
+     */
+    public static SdpInfo parse(String sdp, String baseUrl) {
+        SdpInfo sdpInfo = new SdpInfo(sdp);
+        Media media = null;
+        for (String rawLine : sdp.split("\n")) {
+            String line = rawLine.trim();
+            if (line.length() < 2 || line.charAt(1) != '=') {
+                continue;
+            }
+            String value = line.substring(2);
+            if (line.startsWith("m=")) {
+                media = new Media();
+                String[] fields = value.split(" ");
+                media.type = fields[0];
+                if (fields.length > 3) {
+                    media.payloadType = parseInt(fields[3], -1);
+                }
+                sdpInfo.listOfMedia.add(media);
+            } else if (media != null && line.startsWith("a=")) {
+                if (value.startsWith("rtpmap:")) {
+                    // a=rtpmap:96 H264/90000
+                    int space = value.indexOf(' ');
+                    if (space > 0) {
+                        String[] codec = value.substring(space + 1).split("/");
+                        media.codec = codec[0];
+                        if (codec.length > 1) {
+                            media.clockRate = parseInt(codec[1], 90000);
+                        }
+                        if (codec.length > 2) {
+                            media.channels = parseInt(codec[2], 1);
+                        }
+                    }
+                } else if (value.startsWith("fmtp:")) {
+                    int space = value.indexOf(' ');
+                    if (space > 0) {
+                        media.fmtp = value.substring(space + 1);
+                    }
+                } else if (value.startsWith("control:")) {
+                    media.control = resolveControl(baseUrl, value.substring(8).trim());
+                }
+            }
+        }
+        for (Media found : sdpInfo.listOfMedia) {
+            if (found.control.isEmpty()) {
+                found.control = baseUrl;
+            }
+            readParameterSets(found);
+        }
+        return sdpInfo;
+    }
+
+    public @Nullable Media getVideo() {
+        for (Media media : listOfMedia) {
+            if ("video".equals(media.type)) {
+                return media;
+            }
+        }
+        return null;
+    }
+
+    public @Nullable Media getAudio() {
+        for (Media media : listOfMedia) {
+            if ("audio".equals(media.type)) {
+                return media;
+            }
+        }
+        return null;
+    }
+
+    private static String resolveControl(String baseUrl, String control) {
+        if (control.isEmpty() || control.equals("*")) {
+            return baseUrl;
+        }
+        if (control.toLowerCase().startsWith("rtsp://")) {
+            return control;
+        }
+        if (baseUrl.endsWith("/")) {
+            return baseUrl + control;
+        }
+        return baseUrl + "/" + control;
+    }
+
+    private static int parseInt(String value, int fallback) {
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            return fallback;
+        }
+    }
+
+    private static @Nullable String getFmtpValue(String fmtp, String name) {
+        for (String parameter : fmtp.split(";")) {
+            String trimmed = parameter.trim();
+            if (trimmed.startsWith(name + "=")) {
+                return trimmed.substring(name.length() + 1);
+            }
+        }
+        return null;
+    }
+
+    private static void readParameterSets(Media media) {
+        String[] names;
+        if (media.isH264()) {
+            names = new String[] { "sprop-parameter-sets" };
+        } else if (media.isH265()) {
+            names = new String[] { "sprop-vps", "sprop-sps", "sprop-pps" };
+        } else {
+            return;
+        }
+        for (String name : names) {
+            String value = getFmtpValue(media.fmtp, name);
+            if (value == null) {
+                continue;
+            }
+            for (String base64 : value.split(",")) {
+                try {
+                    media.parameterSets.add(Base64.getDecoder().decode(base64.trim()));
+                } catch (IllegalArgumentException e) {
+                    // some cameras send a broken sprop, the SPS will come in band instead.
+                }
+            }
+        }
+        if (media.isH264()) {
+            for (byte[] nal : media.parameterSets) {
+                if (nal.length > 4 && (nal[0] & 0x1F) == 7) {
+                    readH264Sps(media, nal);
+                    break;
+                }
+            }
+        }
+    }
+
+    // Reads the size of the picture from a H264 SPS, see ITU-T H.264 section 7.3.2.1.1
+    static void readH264Sps(Media media, byte[] sps) {
+        try {
+            BitReader reader = new BitReader(sps, 1);
+            int profile = reader.readBits(8);
+            media.profile = profile;
+            reader.readBits(16);// constraint flags and level
+            reader.readUE();// seq_parameter_set_id
+            int chromaFormat = 1;
+            if (profile == 100 || profile == 110 || profile == 122 || profile == 244 || profile == 44
+                    || profile == 83 || profile == 86 || profile == 118 || profile == 128 || profile == 138
+                    || profile == 139 || profile == 134 || profile == 135) {
+                chromaFormat = reader.readUE();
+                if (chromaFormat == 3) {
+                    reader.readBits(1);// separate_colour_plane_flag
+                }
+                reader.readUE();// bit_depth_luma
+                reader.readUE();// bit_depth_chroma
+                reader.readBits(1);// qpprime_y_zero_transform_bypass_flag
+                if (reader.readBits(1) == 1) {
+                    int lists = (chromaFormat != 3) ? 8 : 12;
+                    for (int i = 0; i < lists; i++) {
+                        if (reader.readBits(1) == 1) {
+                            skipScalingList(reader, i < 6 ? 16 : 64);
+                        }
+                    }
+                }
+            }
+            reader.readUE();// log2_max_frame_num
+            int pocType = reader.readUE();
+            if (pocType == 0) {
+                reader.readUE();
+            } else if (pocType == 1) {
+                reader.readBits(1);
+                reader.readSE();
+                reader.readSE();
+                int cycle = reader.readUE();
+                for (int i = 0; i < cycle; i++) {
+                    reader.readSE();
+                }
+            }
+            reader.readUE();// max_num_ref_frames
+            reader.readBits(1);// gaps_in_frame_num_allowed
+            int widthInMbs = reader.readUE() + 1;
+            int heightInMapUnits = reader.readUE() + 1;
+            int frameMbsOnly = reader.readBits(1);
+            if (frameMbsOnly == 0) {
+                reader.readBits(1);// mb_adaptive_frame_field_flag
+            }
+            reader.readBits(1);// direct_8x8_inference_flag
+            int cropLeft = 0, cropRight = 0, cropTop = 0, cropBottom = 0;
+            if (reader.readBits(1) == 1) {
+                cropLeft = reader.readUE();
+                cropRight = reader.readUE();
+                cropTop = reader.readUE();
+                cropBottom = reader.readUE();
+            }
+            int cropUnitX = (chromaFormat == 1 || chromaFormat == 2) ? 2 : 1;
+            int cropUnitY = ((chromaFormat == 1) ? 2 : 1) * (2 - frameMbsOnly);
+            media.width = widthInMbs * 16 - (cropLeft + cropRight) * cropUnitX;
+            media.height = (2 - frameMbsOnly) * heightInMapUnits * 16 - (cropTop + cropBottom) * cropUnitY;
+        } catch (IndexOutOfBoundsException e) {
+            media.width = 0;
+            media.height = 0;
+        }
+    }
+
+    private static void skipScalingList(BitReader reader, int size) {
+        int lastScale = 8, nextScale = 8;
+        for (int j = 0; j < size; j++) {
+            if (nextScale != 0) {
+                nextScale = (lastScale + reader.readSE() + 256) % 256;
+            }
+            lastScale = (nextScale == 0) ? lastScale : nextScale;
+        }
+    }
+
+    /**
+     * Reads the exp-Golomb coded fields of a NAL unit, skipping the emulation prevention bytes.
+     */
+    private static class BitReader {
+        private final byte[] data;
+        private int byteIndex;
+        private int bitIndex = 0;
+        private int zeros = 0;
+
+        BitReader(byte[] data, int offset) {
+            this.data = data;
+            this.byteIndex = offset;
+        }
+
+        private int readBit() {
+            if (bitIndex == 0) {
+                // 0x000003 means the 03 was added so the data never looks like a start code.
+                if (zeros >= 2 && (data[byteIndex] & 0xFF) == 3) {
+                    byteIndex++;
+                    zeros = 0;
+                }
+                zeros = (data[byteIndex] == 0) ? zeros + 1 : 0;
+            }
+            int bit = (data[byteIndex] >> (7 - bitIndex)) & 1;
+            if (++bitIndex == 8) {
+                bitIndex = 0;
+                byteIndex++;
+            }
+            return bit;
+        }
+
+        int readBits(int count) {
+            int result = 0;
+            for (int i = 0; i < count; i++) {
+                result = (result << 1) | readBit();
+            }
+            return result;
+        }
+
+        int readUE() {
+            int leadingZeros = 0;
+            while (readBit() == 0) {
+                if (++leadingZeros > 31) {
+                    throw new IndexOutOfBoundsException("Bad exp-Golomb code");
+                }
+            }
+            return (1 << leadingZeros) - 1 + readBits(leadingZeros);
+        }
+
+        int readSE() {
+            int value = readUE();
+            return ((value & 1) == 1) ? (value + 1) / 2 : -(value / 2);
+        }
+    }
+}
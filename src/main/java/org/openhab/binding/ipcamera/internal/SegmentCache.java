@@ -0,0 +1,132 @@
+/**
+ * Copyright (c) 2010-2019 Contributors to the openHAB project
+ *
+ * See the NOTICE file(s) distributed with this work for additional
+ * information.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+
+package org.openhab.binding.ipcamera.internal;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Paths;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+import org.eclipse.jdt.annotation.NonNullByDefault;
+import org.eclipse.jdt.annotation.Nullable;
+
+/**
+ * The {@link SegmentCache} class is responsible for keeping the newest HLS playlist and its segments in memory, so
+ * that each file ffmpeg creates is read from disk once no matter how many viewers are watching. The least recently
+ * used files are dropped when the cache grows past its size limit.
+ *
+ * @author Matthew Skinner - Initial contribution
+ */
+
+@NonNullByDefault
+public class SegmentCache {
+    public static final long DEFAULT_MAX_BYTES = 16 * 1024 * 1024;
+    private final long maxBytes;
+    private long cachedBytes = 0;
+    // access order so the eldest entry is always the least recently used.
+    private final LinkedHashMap<String, byte[]> cache = new LinkedHashMap<String, byte[]>(16, 0.75f, true);
+
+    public SegmentCache(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    public synchronized byte @Nullable [] get(String name) {
+        return cache.get(name);
+    }
+
+    public synchronized boolean contains(String name) {
+        return cache.containsKey(name);
+    }
+
+    public synchronized void put(String name, byte[] data) {
+        byte[] old = cache.put(name, data);
+        if (old != null) {
+            cachedBytes -= old.length;
+        }
+        cachedBytes += data.length;
+        Iterator<Map.Entry<String, byte[]>> iterator = cache.entrySet().iterator();
+        while (cachedBytes > maxBytes && cache.size() > 1 && iterator.hasNext()) {
+            Map.Entry<String, byte[]> eldest = iterator.next();
+            if (!eldest.getKey().equals(name)) {
+                cachedBytes -= eldest.getValue().length;
+                iterator.remove();
+            }
+        }
+    }
+
+    public synchronized void remove(String name) {
+        byte[] old = cache.remove(name);
+        if (old != null) {
+            cachedBytes -= old.length;
+        }
+    }
+
+    public synchronized void clear() {
+        cache.clear();
+        cachedBytes = 0;
+    }
+
+    public synchronized long getCachedBytes() {
+        return cachedBytes;
+    }
+
+    /**
+     * Reads a playlist that ffmpeg has just rewritten, loads any new segments it lists and forgets segments that are
+     * no longer listed. The playlist is only replaced after all of its segments are cached so a viewer never gets a
+     * playlist that points at a segment the cache does not have.
+     *
+     * @return the playlist that was read.
+     */
+    public byte[] refreshHlsPlaylist(String folder, String playlistName) throws IOException {
+        byte[] playlist = Files.readAllBytes(Paths.get(folder + playlistName));
+        Set<String> listedFiles = new HashSet<String>();
+        listedFiles.add(playlistName);
+        for (String line : new String(playlist, StandardCharsets.UTF_8).split("\n")) {
+            String segment = line.trim();
+            if (segment.isEmpty() || segment.startsWith("#")) {
+                continue;
+            }
+            int query = segment.indexOf('?');
+            if (query > 0) {
+                segment = segment.substring(0, query);
+            }
+            listedFiles.add(segment);
+            if (!contains(segment)) {
+                try {
+                    put(segment, Files.readAllBytes(Paths.get(folder + segment)));
+                } catch (NoSuchFileException e) {
+                    // ffmpeg has already deleted it, it will not be served from the cache.
+                }
+            }
+        }
+        synchronized (this) {
+            Iterator<Map.Entry<String, byte[]>> iterator = cache.entrySet().iterator();
+            while (iterator.hasNext()) {
+                Map.Entry<String, byte[]> entry = iterator.next();
+                if (!listedFiles.contains(entry.getKey())) {
+                    cachedBytes -= entry.getValue().length;
+                    iterator.remove();
+                }
+            }
+            put(playlistName, playlist);
+        }
+        return playlist;
+    }
+}
@@ -0,0 +1,143 @@
+/**
+ * Copyright (c) 2010-2019 Contributors to the openHAB project
+ *
+ * See the NOTICE file(s) distributed with this work for additional
+ * information.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+
+package org.openhab.binding.ipcamera.internal;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.eclipse.jdt.annotation.NonNullByDefault;
+import org.openhab.binding.ipcamera.handler.IpCameraHandler;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.CompositeByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.http.DefaultHttpResponse;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpHeaderValues;
+import io.netty.handler.codec.http.HttpResponse;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.handler.codec.http.HttpVersion;
+import io.netty.handler.codec.http.LastHttpContent;
+import io.netty.handler.codec.http.QueryStringDecoder;
+
+/**
+ * The {@link SnapshotBundle} class is responsible for /snapshots, which sends the snapshot of many cameras in one
+ * response so a dashboard needs one request instead of one per camera. With fresh=true every camera is asked for a
+ * new snapshot at the same time and the reply is sent once they have all answered, or after {@link #MAX_WAIT_MS}
+ * with the last snapshot of any camera that is slower than that.
+ *
+ * The reply is multipart/mixed with a part for each camera, or with format=binary a bundle where all numbers are big
+ * endian: an int with the number of cameras, then for each camera a short with the length of its UTF-8 id, the id,
+ * a long with its snapshot version, an int with the length of the JPEG and the JPEG. Each part of the multipart reply
+ * also says if its snapshot was taken for this request in an X-Fresh header.
+ *
+ * @author Matthew Skinner - Initial contribution
+ */
+
+@NonNullByDefault
+public class SnapshotBundle {
+    public static final String BOUNDARY = "ipcameraSnapshot";
+    public static final int MAX_WAIT_MS = 5000;
+
+    /**
+     * @param cameras the cameras in the order they are sent.
+     * @param decoder the request, which is checked for fresh=true and format=binary.
+     */
+    public static void send(ChannelHandlerContext ctx, List<IpCameraHandler> cameras, QueryStringDecoder decoder) {
+        boolean binary = "binary".equals(getParameter(decoder, "format"));
+        if (!"true".equals(getParameter(decoder, "fresh"))) {
+            List<byte[]> snapshots = new ArrayList<>(cameras.size());
+            for (IpCameraHandler camera : cameras) {
+                snapshots.add(camera.currentSnapshot);
+            }
+            write(ctx, cameras, snapshots, new boolean[cameras.size()], binary);
+            return;
+        }
+        List<CompletableFuture<byte[]>> futures = new ArrayList<>(cameras.size());
+        // a camera that can not take a new snapshot hands back its last one straight away, which is not fresh.
+        boolean[] waiting = new boolean[cameras.size()];
+        for (int i = 0; i < cameras.size(); i++) {
+            CompletableFuture<byte[]> future = cameras.get(i).getNextSnapshot();
+            waiting[i] = !future.isDone();
+            futures.add(future);
+        }
+        AtomicBoolean sent = new AtomicBoolean(false);
+        Runnable sendReady = () -> {
+            if (sent.compareAndSet(false, true)) {
+                List<byte[]> snapshots = new ArrayList<>(cameras.size());
+                boolean[] fresh = new boolean[cameras.size()];
+                for (int i = 0; i < cameras.size(); i++) {
+                    // a camera that is too slow is given up on, its last snapshot is sent instead.
+                    fresh[i] = !futures.get(i).complete(cameras.get(i).currentSnapshot) && waiting[i];
+                    snapshots.add(futures.get(i).join());
+                }
+                write(ctx, cameras, snapshots, fresh, binary);
+            }
+        };
+        ctx.executor().schedule(sendReady, MAX_WAIT_MS, TimeUnit.MILLISECONDS);
+        CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[futures.size()]))
+                .whenComplete((done, exception) -> ctx.executor().execute(sendReady));
+    }
+
+    private static String getParameter(QueryStringDecoder decoder, String name) {
+        List<String> values = decoder.parameters().get(name);
+        return (values == null || values.isEmpty()) ? "" : values.get(0);
+    }
+
+    private static void write(ChannelHandlerContext ctx, List<IpCameraHandler> cameras, List<byte[]> snapshots,
+            boolean[] fresh, boolean binary) {
+        CompositeByteBuf body = Unpooled.compositeBuffer(cameras.size() * 3 + 2);
+        if (binary) {
+            body.addComponent(true, Unpooled.buffer(4).writeInt(cameras.size()));
+        }
+        for (int i = 0; i < cameras.size(); i++) {
+            String id = cameras.get(i).getThing().getUID().getId();
+            long version = cameras.get(i).getSnapshotVersion();
+            byte[] jpg = snapshots.get(i);
+            ByteBuf header;
+            if (binary) {
+                byte[] idBytes = id.getBytes(StandardCharsets.UTF_8);
+                header = Unpooled.buffer(2 + idBytes.length + 12);
+                header.writeShort(idBytes.length).writeBytes(idBytes).writeLong(version).writeInt(jpg.length);
+            } else {
+                header = Unpooled.copiedBuffer("--" + BOUNDARY + "\r\nContent-Type: image/jpeg\r\nContent-Length: "
+                        + jpg.length + "\r\nContent-Location: " + id + "\r\nX-Snapshot-Version: " + version
+                        + "\r\nX-Fresh: " + fresh[i] + "\r\n\r\n", StandardCharsets.UTF_8);
+            }
+            body.addComponent(true, header);
+            body.addComponent(true, Unpooled.wrappedBuffer(jpg));
+            if (!binary) {
+                body.addComponent(true, Unpooled.copiedBuffer("\r\n", StandardCharsets.UTF_8));
+            }
+        }
+        if (!binary) {
+            body.addComponent(true, Unpooled.copiedBuffer("--" + BOUNDARY + "--\r\n", StandardCharsets.UTF_8));
+        }
+        HttpResponse response = new DefaultHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.OK);
+        response.headers().add(HttpHeaderNames.CONTENT_TYPE,
+                binary ? "application/octet-stream" : "multipart/mixed; boundary=" + BOUNDARY);
+        response.headers().set(HttpHeaderNames.CACHE_CONTROL, HttpHeaderValues.NO_CACHE);
+        response.headers().add(HttpHeaderNames.CONTENT_LENGTH, body.readableBytes());
+        response.headers().add("Access-Control-Allow-Origin", "*");
+        response.headers().add("Access-Control-Expose-Headers", "*");
+        ctx.write(response);
+        ctx.write(body);
+        ctx.writeAndFlush(LastHttpContent.EMPTY_LAST_CONTENT);
+    }
+}
@@ -0,0 +1,146 @@
+/**
+ * Copyright (c) 2010-2019 Contributors to the openHAB project
+ *
+ * See the NOTICE file(s) distributed with this work for additional
+ * information.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+
+package org.openhab.binding.ipcamera.internal;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiConsumer;
+
+import org.eclipse.jdt.annotation.NonNullByDefault;
+import org.eclipse.smarthome.core.library.types.OnOffType;
+import org.eclipse.smarthome.core.types.State;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The {@link StateDispatcher} class is responsible for passing the channel updates of one camera to openHAB without
+ * using the threads that read from the camera. openHAB can be slow to accept an update while persistence and rules
+ * run, and if that happened on a Netty thread every camera sharing it would stop being read.
+ *
+ * Updates are passed on in the order they were made, by one task at a time. If a channel already has an update
+ * waiting, the new state replaces it, as only the latest matters. ON and OFF changes are the exception and are all
+ * kept, so a short alarm is not lost. At most {@link #MAX_QUEUED} updates wait, after which the oldest are dropped.
+ *
+ * @author Matthew Skinner - Initial contribution
+ */
+
+@NonNullByDefault
+public class StateDispatcher {
+    public static final int MAX_QUEUED = 256;
+    // How many updates one task sends before letting other things use the thread.
+    private static final int BATCH_SIZE = 64;
+    private final Logger logger = LoggerFactory.getLogger(getClass());
+    private final Executor executor;
+    private final BiConsumer<String, State> sink;
+    private final ArrayDeque<Update> queue = new ArrayDeque<>();
+    // The newest update of each channel that has not been sent yet, so it can be replaced.
+    private final Map<String, Update> waiting = new HashMap<>();
+    private final LongAdder coalesced = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+    private boolean running = false;
+
+    private static class Update {
+        final String channel;
+        State state;
+
+        Update(String channel, State state) {
+            this.channel = channel;
+            this.state = state;
+        }
+    }
+
+    public StateDispatcher(Executor executor, BiConsumer<String, State> sink) {
+        this.executor = executor;
+        this.sink = sink;
+    }
+
+    public void update(String channel, State state) {
+        synchronized (this) {
+            Update update = waiting.get(channel);
+            if (update != null && (!(state instanceof OnOffType) || state.equals(update.state))) {
+                update.state = state;
+                coalesced.increment();
+                return;
+            }
+            if (queue.size() >= MAX_QUEUED) {
+                Update oldest = queue.removeFirst();
+                if (waiting.get(oldest.channel) == oldest) {
+                    waiting.remove(oldest.channel);
+                }
+                dropped.increment();
+                logger.debug("Too many channel updates are waiting for openHAB, dropped the one for {}",
+                        oldest.channel);
+            }
+            update = new Update(channel, state);
+            queue.addLast(update);
+            waiting.put(channel, update);
+            if (running) {
+                return;
+            }
+            running = true;
+        }
+        submit();
+    }
+
+    private void submit() {
+        try {
+            executor.execute(this::send);
+        } catch (RejectedExecutionException e) {
+            // openHAB is shutting down, nothing is listening for the updates any more.
+            synchronized (this) {
+                queue.clear();
+                waiting.clear();
+                running = false;
+            }
+        }
+    }
+
+    private void send() {
+        for (int sent = 0; sent < BATCH_SIZE; sent++) {
+            Update update;
+            synchronized (this) {
+                update = queue.pollFirst();
+                if (update == null) {
+                    running = false;
+                    return;
+                }
+                if (waiting.get(update.channel) == update) {
+                    waiting.remove(update.channel);
+                }
+            }
+            try {
+                sink.accept(update.channel, update.state);
+            } catch (RuntimeException e) {
+                logger.warn("Updating the channel {} failed:{}", update.channel, e.toString());
+            }
+        }
+        submit();
+    }
+
+    public synchronized int getQueueDepth() {
+        return queue.size();
+    }
+
+    public long getCoalesced() {
+        return coalesced.sum();
+    }
+
+    public long getDropped() {
+        return dropped.sum();
+    }
+}
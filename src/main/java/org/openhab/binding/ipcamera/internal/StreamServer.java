@@ -0,0 +1,255 @@
+/**
+ * Copyright (c) 2010-2019 Contributors to the openHAB project
+ *
+ * See the NOTICE file(s) distributed with this work for additional
+ * information.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+
+package org.openhab.binding.ipcamera.internal;
+
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+import org.eclipse.jdt.annotation.NonNullByDefault;
+import org.eclipse.jdt.annotation.Nullable;
+import org.openhab.binding.ipcamera.handler.IpCameraHandler;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.channel.ChannelHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.handler.codec.http.HttpRequest;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.handler.codec.http.QueryStringDecoder;
+import io.netty.handler.ssl.SslContext;
+import io.netty.util.ReferenceCountUtil;
+
+/**
+ * The {@link StreamServer} class is responsible for one HTTP server that is shared by every camera and group, so only
+ * one port and one set of threads are needed. A request for /camera/{thingUID}/ipcamera.m3u8 has the start of its
+ * path removed and is passed to the same handler a camera's own SERVER_PORT would use. Clients can use HTTP/2, and
+ * TLS when the binding has a certificate. /metrics and /snapshots are answered here for every camera at once.
+ *
+ * @author Matthew Skinner - Initial contribution
+ */
+
+@NonNullByDefault
+public class StreamServer {
+    public static final String ROUTE_PREFIX = "/camera/";
+    private static final String HANDLER_NAME = "streamServerHandler";
+    private final Logger logger = LoggerFactory.getLogger(getClass());
+    // Thing UID or Thing ID to a maker of the handler for that thing.
+    private final Map<String, Supplier<ChannelHandler>> routes = new ConcurrentHashMap<>();
+    private @Nullable EventLoopGroup serverLoopGroup;
+    private int port = -1;
+    private @Nullable SslContext sslContext;
+    private volatile @Nullable Function<String, String> metricsSource;
+    private volatile @Nullable CameraRegistry cameraRegistry;
+
+    public boolean isRunning() {
+        return serverLoopGroup != null;
+    }
+
+    public int getPort() {
+        return port;
+    }
+
+    /**
+     * @param sslContext null to serve plain HTTP, which can still be upgraded to HTTP/2 (h2c). The running server is
+     *            only restarted for a different SslContext, so pass the same one while its certificate is unchanged.
+     */
+    public synchronized void start(int port, @Nullable SslContext sslContext) throws InterruptedException {
+        if (serverLoopGroup != null) {
+            if (this.port == port && this.sslContext == sslContext) {
+                return;
+            }
+            stop();
+        }
+        if (port == -1) {
+            return;
+        }
+        EventLoopGroup group = new NioEventLoopGroup();
+        ServerBootstrap bootstrap = new ServerBootstrap();
+        bootstrap.group(group);
+        bootstrap.channel(NioServerSocketChannel.class);
+        bootstrap.localAddress(new InetSocketAddress("0.0.0.0", port));
+        // With HTTP/2 every stream gets its own router, so one connection can ask for many cameras at once.
+        bootstrap.childHandler(new StreamServerInitializer(() -> new StreamServerRouter(), sslContext));
+        try {
+            bootstrap.bind().sync();
+        } catch (Exception e) {
+            // also catches the port already being in use, which Netty throws without declaring it.
+            group.shutdownGracefully();
+            throw e;
+        }
+        serverLoopGroup = group;
+        this.port = port;
+        this.sslContext = sslContext;
+        logger.info("IpCamera shared file server has started on port {} for all NIC's, TLS is {}.", port,
+                (sslContext == null) ? "off" : "on");
+    }
+
+    public synchronized void stop() {
+        EventLoopGroup group = serverLoopGroup;
+        if (group != null) {
+            group.shutdownGracefully(1, 8, TimeUnit.SECONDS);
+            serverLoopGroup = null;
+        }
+        port = -1;
+        sslContext = null;
+    }
+
+    /**
+     * @param route the Thing UID, or the Thing ID on its own, which is the {thingUID} part of the path.
+     */
+    public void addRoute(String route, Supplier<ChannelHandler> handlerMaker) {
+        routes.put(route, handlerMaker);
+    }
+
+    public void removeRoute(String route) {
+        routes.remove(route);
+    }
+
+    /**
+     * @param metricsSource makes the Prometheus text for every camera whose whitelist has the address it is given, or
+     *            "" if there are none. It is served at /metrics outside of the routes.
+     */
+    public void setMetricsSource(@Nullable Function<String, String> metricsSource) {
+        this.metricsSource = metricsSource;
+    }
+
+    /**
+     * @param cameraRegistry the cameras that /snapshots can send, outside of the routes.
+     */
+    public void setCameraRegistry(@Nullable CameraRegistry cameraRegistry) {
+        this.cameraRegistry = cameraRegistry;
+    }
+
+    /**
+     * Sends the cameras listed in cameras=001,002 or every online camera if there is no list, leaving out any whose
+     * whitelist does not have the address that asked.
+     */
+    private void sendSnapshots(ChannelHandlerContext ctx, CameraRegistry registry, QueryStringDecoder decoder) {
+        String requestIP = getRequestIP(ctx);
+        List<IpCameraHandler> cameras = new ArrayList<>();
+        List<String> listed = decoder.parameters().get("cameras");
+        if (listed == null || listed.isEmpty()) {
+            cameras.addAll(registry.getOnlineCameras());
+        } else {
+            for (String uid : listed.get(0).split(",")) {
+                IpCameraHandler handler = registry.getOnlineCamera(uid.trim());
+                if (handler != null) {
+                    cameras.add(handler);
+                }
+            }
+        }
+        cameras.removeIf(handler -> !handler.isWhiteListed(requestIP));
+        if (cameras.isEmpty()) {
+            StreamServerUtils.sendStatus(ctx, HttpResponseStatus.NOT_FOUND);
+            return;
+        }
+        SnapshotBundle.send(ctx, cameras, decoder);
+    }
+
+    private void sendMetrics(ChannelHandlerContext ctx, Function<String, String> source) {
+        String requestIP = getRequestIP(ctx);
+        String metrics = source.apply(requestIP);
+        if (metrics.isEmpty()) {
+            logger.warn("The request for /metrics made from {} was not in any cameras whitelist.", requestIP);
+            StreamServerUtils.sendStatus(ctx, HttpResponseStatus.NOT_FOUND);
+            return;
+        }
+        StreamServerUtils.sendBytes(ctx, metrics.getBytes(StandardCharsets.UTF_8), PrometheusWriter.CONTENT_TYPE);
+    }
+
+    private static String getRequestIP(ChannelHandlerContext ctx) {
+        return "(" + ((InetSocketAddress) ctx.channel().remoteAddress()).getAddress().getHostAddress() + ")";
+    }
+
+    /**
+     * Looks up which thing a request is for and puts that things handler after itself in the pipeline. The handler is
+     * kept while a keep-alive connection asks for the same thing, and swapped if it asks for a different one.
+     */
+    private class StreamServerRouter extends ChannelInboundHandlerAdapter {
+        private String currentRoute = "";
+
+        @Override
+        public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
+            if (msg instanceof HttpRequest) {
+                HttpRequest request = (HttpRequest) msg;
+                String uri = request.uri();
+                String route = "";
+                String path = "/";
+                if (uri.startsWith(ROUTE_PREFIX)) {
+                    int slash = uri.indexOf('/', ROUTE_PREFIX.length());
+                    int routeEnd = (slash < 0) ? uri.length() : slash;
+                    route = QueryStringDecoder.decodeComponent(uri.substring(ROUTE_PREFIX.length(), routeEnd));
+                    path = (slash < 0) ? "/" : uri.substring(slash);
+                }
+                Function<String, String> localMetricsSource = metricsSource;
+                CameraRegistry localCameraRegistry = cameraRegistry;
+                QueryStringDecoder decoder = new QueryStringDecoder(uri);
+                if (route.isEmpty() && localCameraRegistry != null && "/snapshots".equals(decoder.path())) {
+                    ReferenceCountUtil.release(msg);
+                    if (ctx.pipeline().get(HANDLER_NAME) != null) {
+                        ctx.pipeline().remove(HANDLER_NAME);
+                    }
+                    currentRoute = "";
+                    sendSnapshots(ctx, localCameraRegistry, decoder);
+                    return;
+                }
+                if (route.isEmpty() && localMetricsSource != null && "/metrics".equals(decoder.path())) {
+                    ReferenceCountUtil.release(msg);
+                    if (ctx.pipeline().get(HANDLER_NAME) != null) {
+                        ctx.pipeline().remove(HANDLER_NAME);
+                    }
+                    currentRoute = "";
+                    sendMetrics(ctx, localMetricsSource);
+                    return;
+                }
+                Supplier<ChannelHandler> handlerMaker = routes.get(route);
+                if (handlerMaker == null) {
+                    logger.debug("Shared stream server has no camera or group for the request {}", uri);
+                    ReferenceCountUtil.release(msg);
+                    if (ctx.pipeline().get(HANDLER_NAME) != null) {
+                        ctx.pipeline().remove(HANDLER_NAME);
+                    }
+                    currentRoute = "";
+                    StreamServerUtils.sendStatus(ctx, HttpResponseStatus.NOT_FOUND);
+                    return;
+                }
+                if (!route.equals(currentRoute)) {
+                    if (ctx.pipeline().get(HANDLER_NAME) != null) {
+                        ctx.pipeline().remove(HANDLER_NAME);
+                    }
+                    ctx.pipeline().addLast(HANDLER_NAME, handlerMaker.get());
+                    currentRoute = route;
+                }
+                request.setUri(path);
+            } else if (currentRoute.isEmpty()) {
+                // the body of a request that had no route.
+                ReferenceCountUtil.release(msg);
+                return;
+            }
+            ctx.fireChannelRead(msg);
+        }
+    }
+}
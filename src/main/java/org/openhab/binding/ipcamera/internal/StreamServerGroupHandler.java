@@ -16,10 +16,11 @@ package org.openhab.binding.ipcamera.internal;
 import java.io.File;
 import java.io.IOException;
 import java.net.InetSocketAddress;
-import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 
 import org.eclipse.jdt.annotation.Nullable;
 import org.openhab.binding.ipcamera.handler.IpCameraGroupHandler;
+import org.openhab.binding.ipcamera.handler.IpCameraHandler;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -35,7 +36,8 @@ import io.netty.handler.codec.http.HttpRequest;
 import io.netty.handler.codec.http.HttpResponse;
 import io.netty.handler.codec.http.HttpResponseStatus;
 import io.netty.handler.codec.http.HttpVersion;
-import io.netty.handler.stream.ChunkedFile;
+import io.netty.handler.codec.http.LastHttpContent;
+import io.netty.handler.codec.http.QueryStringDecoder;
 import io.netty.handler.timeout.IdleState;
 import io.netty.handler.timeout.IdleStateEvent;
 import io.netty.util.ReferenceCountUtil;
@@ -53,6 +55,7 @@ public class StreamServerGroupHandler extends ChannelInboundHandlerAdapter {
     private IpCameraGroupHandler ipCameraGroupHandler;
     private boolean handlingMjpeg = false; // used to remove ctx from group when handler is removed.
     private boolean handlingSnapshotStream = false; // used to remove ctx from group when handler is removed.
+    private boolean handlingMosaic = false; // used to remove ctx from group when handler is removed.
     byte[] incomingJpeg = null;
     String whiteList = "";
     int recievedBytes = 0;
@@ -68,14 +71,6 @@ public class StreamServerGroupHandler extends ChannelInboundHandlerAdapter {
     public void handlerAdded(@Nullable ChannelHandlerContext ctx) {
     }
 
-    private String resolveIndexToPath(String uri) {
-        if (!uri.substring(1, 2).equals("i")) {
-            return ipCameraGroupHandler.getOutputFolder(Integer.parseInt(uri.substring(1, 2)));
-        }
-        return "notFound";
-        // example is /1ipcameraxx.ts
-    }
-
     @Override
     public void channelRead(@Nullable ChannelHandlerContext ctx, @Nullable Object msg) throws Exception {
 
@@ -96,9 +91,8 @@ public class StreamServerGroupHandler extends ChannelInboundHandlerAdapter {
                     switch (httpRequest.uri()) {
                         case "/ipcamera.m3u8":
                             if (ipCameraGroupHandler.hlsTurnedOn) {
-                                String debugMe = ipCameraGroupHandler.getPlayList();
-                                logger.info("playlist is:{}", debugMe);
-                                sendString(ctx, debugMe, "application/x-mpegurl");
+                                StreamServerUtils.sendBytes(ctx, ipCameraGroupHandler.getPlayList(),
+                                        "application/x-mpegurl");
                             } else {
                                 logger.warn("HLS requires the groups startStream channel to be turned on first.");
                             }
@@ -106,33 +100,40 @@ public class StreamServerGroupHandler extends ChannelInboundHandlerAdapter {
                         case "/ipcamera.jpg":
                             sendSnapshotImage(ctx, "image/jpg");
                             break;
+                        case "/mosaic.jpg":
+                            sendMosaic(ctx);
+                            break;
+                        case "/mosaic.mjpeg":
+                            ipCameraGroupHandler.setupMosaicStreaming(true, ctx);
+                            handlingMosaic = true;
+                            break;
                         case "/snapshots.mjpeg":
-                            logger.warn("snapshots.mjpeg is not yet implemented, use ipcamera.jpg or HLS.");
+                            logger.warn("snapshots.mjpeg is not yet implemented, use mosaic.mjpeg or HLS.");
                             // ipCameraGroupHandler.setupSnapshotStreaming(true, ctx, false);
                             // handlingSnapshotStream = true;
                             break;
                         case "/ipcamera.mjpeg":
-                            logger.warn("ipcamera.mjpeg is not yet implemented, use ipcamera.jpg or HLS.");
-                            // ipCameraGroupHandler.setupMjpegStreaming(true, ctx);
-                            // handlingMjpeg = true;
+                            ipCameraGroupHandler.setupMjpegStreaming(true, ctx);
+                            handlingMjpeg = true;
                             break;
                         case "/autofps.mjpeg":
-                            logger.warn("autofps.mjpeg is not yet implemented, use ipcamera.jpg or HLS.");
+                            logger.warn("autofps.mjpeg is not yet implemented, use mosaic.mjpeg or HLS.");
                             // ipCameraGroupHandler.setupSnapshotStreaming(true, ctx, true);
                             // handlingSnapshotStream = true;
                             break;
                         default:
-                            if (httpRequest.uri().contains(".ts")) {
-                                // String path = resolveIndexToPath(httpRequest.uri());
-                                sendFile(ctx, resolveIndexToPath(httpRequest.uri()) + httpRequest.uri().substring(2),
-                                        "video/MP2T");
+                            QueryStringDecoder decoder = new QueryStringDecoder(httpRequest.uri());
+                            if ("/snapshots".equals(decoder.path())) {
+                                SnapshotBundle.send(ctx, new ArrayList<>(ipCameraGroupHandler.cameraOrder), decoder);
+                            } else if (httpRequest.uri().contains(".ts")) {
+                                sendSegment(ctx, httpRequest);
                             } else if (httpRequest.uri().contains(".jpg")) {
                                 // Allow access to the preroll and postroll jpg files
-                                sendFile(ctx, httpRequest.uri(), "image/jpg");
+                                sendFile(ctx, httpRequest.uri(), "image/jpg", httpRequest);
                             } else if (httpRequest.uri().contains(".m4s")) {
-                                sendFile(ctx, httpRequest.uri(), "video/mp4");
+                                sendFile(ctx, httpRequest.uri(), "video/mp4", httpRequest);
                             } else if (httpRequest.uri().contains(".mp4")) {
-                                sendFile(ctx, httpRequest.uri(), "video/mp4");
+                                sendFile(ctx, httpRequest.uri(), "video/mp4", httpRequest);
                             }
                     }
                 }
@@ -143,36 +144,67 @@ public class StreamServerGroupHandler extends ChannelInboundHandlerAdapter {
     }
 
     private void sendSnapshotImage(ChannelHandlerContext ctx, String contentType) throws IOException {
+        IpCameraHandler camera = ipCameraGroupHandler.getCamera(ipCameraGroupHandler.cameraIndex);
+        if (camera == null) {
+            StreamServerUtils.sendStatus(ctx, HttpResponseStatus.SERVICE_UNAVAILABLE);
+            return;
+        }
         HttpResponse response = new DefaultHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.OK);
-        ByteBuf snapshotData = Unpooled
-                .copiedBuffer(ipCameraGroupHandler.cameraOrder.get(ipCameraGroupHandler.cameraIndex).currentSnapshot);
+        ByteBuf snapshotData = Unpooled.copiedBuffer(camera.currentSnapshot);
         response.headers().add(HttpHeaderNames.CONTENT_TYPE, contentType);
         response.headers().set(HttpHeaderNames.CACHE_CONTROL, HttpHeaderValues.NO_CACHE);
-        response.headers().set(HttpHeaderNames.CONNECTION, HttpHeaderValues.CLOSE);
         response.headers().add(HttpHeaderNames.CONTENT_LENGTH, snapshotData.readableBytes());
         response.headers().add("Access-Control-Allow-Origin", "*");
         response.headers().add("Access-Control-Expose-Headers", "*");
         ctx.channel().write(response);
         ctx.channel().write(snapshotData);
-        ByteBuf footerBbuf = Unpooled.copiedBuffer("\r\n", 0, 2, StandardCharsets.UTF_8);
-        ctx.channel().writeAndFlush(footerBbuf);
+        ctx.channel().writeAndFlush(LastHttpContent.EMPTY_LAST_CONTENT);
+    }
+
+    private void sendMosaic(ChannelHandlerContext ctx) {
+        ipCameraGroupHandler.getMosaic().whenComplete((jpg, exception) -> {
+            if (jpg == null || jpg.length == 0) {
+                logger.debug("The mosaic could not be made:{}", exception);
+                StreamServerUtils.sendStatus(ctx, HttpResponseStatus.SERVICE_UNAVAILABLE);
+            } else {
+                StreamServerUtils.sendBytes(ctx, jpg, "image/jpeg");
+            }
+        });
+    }
+
+    private void sendSegment(ChannelHandlerContext ctx, HttpRequest httpRequest) throws IOException {
+        String uri = httpRequest.uri();
+        // example is /2ipcameraxx.ts where 2 is the place in the group's config of the camera the segment belongs to.
+        int nameStart = uri.indexOf("ipcamera");
+        int index = -1;
+        if (nameStart > 1) {
+            try {
+                index = Integer.parseInt(uri.substring(1, nameStart));
+            } catch (NumberFormatException e) {
+                index = -1;
+            }
+        }
+        IpCameraHandler camera = (index < 0) ? null : ipCameraGroupHandler.getMember(index);
+        if (camera == null) {
+            StreamServerUtils.sendStatus(ctx, HttpResponseStatus.NOT_FOUND);
+            return;
+        }
+        String name = uri.substring(nameStart);
+        byte[] cached = camera.segmentCache.get(name);
+        if (cached != null) {
+            StreamServerUtils.sendBytes(ctx, cached, "video/MP2T", httpRequest.headers().get(HttpHeaderNames.RANGE),
+                    StreamServerUtils.FINISHED_SEGMENT);
+            return;
+        }
+        sendFile(ctx, ipCameraGroupHandler.getOutputFolder(camera) + name, "video/MP2T", httpRequest);
     }
 
-    private void sendFile(ChannelHandlerContext ctx, String fileUri, String contentType) throws IOException {
+    private void sendFile(ChannelHandlerContext ctx, String fileUri, String contentType, HttpRequest httpRequest)
+            throws IOException {
         logger.debug("file is :{}", fileUri);
-        File file = new File(fileUri);
-        ChunkedFile chunkedFile = new ChunkedFile(file);
-        ByteBuf footerBbuf = Unpooled.copiedBuffer("\r\n", 0, 2, StandardCharsets.UTF_8);
-        HttpResponse response = new DefaultHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.OK);
-        response.headers().add(HttpHeaderNames.CONTENT_TYPE, contentType);
-        response.headers().set(HttpHeaderNames.CACHE_CONTROL, HttpHeaderValues.NO_CACHE);
-        response.headers().set(HttpHeaderNames.CONNECTION, HttpHeaderValues.CLOSE);
-        response.headers().add(HttpHeaderNames.CONTENT_LENGTH, chunkedFile.length());
-        response.headers().add("Access-Control-Allow-Origin", "*");
-        response.headers().add("Access-Control-Expose-Headers", "*");
-        ctx.channel().write(response);
-        ctx.channel().write(chunkedFile);
-        ctx.channel().writeAndFlush(footerBbuf);
+        String range = httpRequest.headers().get(HttpHeaderNames.RANGE);
+        StreamServerUtils.sendFile(ctx, new File(fileUri), contentType, range,
+                StreamServerUtils.getCacheControl(fileUri));
     }
 
     /*
@@ -185,21 +217,6 @@ public class StreamServerGroupHandler extends ChannelInboundHandlerAdapter {
      * }
      */
 
-    private void sendString(ChannelHandlerContext ctx, String contents, String contentType) throws IOException {
-        ByteBuf contentsBbuf = Unpooled.copiedBuffer(contents, 0, contents.length(), StandardCharsets.UTF_8);
-        HttpResponse response = new DefaultHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.OK);
-        response.headers().add(HttpHeaderNames.CONTENT_TYPE, contentType);
-        response.headers().set(HttpHeaderNames.CACHE_CONTROL, HttpHeaderValues.NO_CACHE);
-        response.headers().set(HttpHeaderNames.CONNECTION, HttpHeaderValues.CLOSE);
-        response.headers().add(HttpHeaderNames.CONTENT_LENGTH, contentsBbuf.readableBytes());
-        response.headers().add("Access-Control-Allow-Origin", "*");
-        response.headers().add("Access-Control-Expose-Headers", "*");
-        ByteBuf footerBbuf = Unpooled.copiedBuffer("\r\n", 0, 2, StandardCharsets.UTF_8);
-        ctx.channel().write(response);
-        ctx.channel().write(contentsBbuf);
-        ctx.channel().writeAndFlush(footerBbuf);
-    }
-
     @Override
     public void channelReadComplete(@Nullable ChannelHandlerContext ctx) throws Exception {
     }
@@ -234,5 +251,11 @@ public class StreamServerGroupHandler extends ChannelInboundHandlerAdapter {
 
     @Override
     public void handlerRemoved(@Nullable ChannelHandlerContext ctx) {
+        if (handlingMosaic) {
+            ipCameraGroupHandler.setupMosaicStreaming(false, ctx);
+        }
+        if (handlingMjpeg) {
+            ipCameraGroupHandler.setupMjpegStreaming(false, ctx);
+        }
     }
 }
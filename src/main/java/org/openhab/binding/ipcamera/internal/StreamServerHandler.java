@@ -19,7 +19,9 @@ import java.io.File;
 import java.io.IOException;
 import java.net.InetSocketAddress;
 import java.nio.charset.StandardCharsets;
+import java.util.List;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.eclipse.jdt.annotation.Nullable;
 import org.openhab.binding.ipcamera.handler.IpCameraHandler;
@@ -39,7 +41,7 @@ import io.netty.handler.codec.http.HttpResponse;
 import io.netty.handler.codec.http.HttpResponseStatus;
 import io.netty.handler.codec.http.HttpVersion;
 import io.netty.handler.codec.http.LastHttpContent;
-import io.netty.handler.stream.ChunkedFile;
+import io.netty.handler.codec.http.QueryStringDecoder;
 import io.netty.handler.timeout.IdleState;
 import io.netty.handler.timeout.IdleStateEvent;
 import io.netty.util.ReferenceCountUtil;
@@ -52,10 +54,12 @@ import io.netty.util.ReferenceCountUtil;
  */
 
 public class StreamServerHandler extends ChannelInboundHandlerAdapter {
+    private static final int INTERNAL_PLAYLIST_RETRY_MS = 250;
     private final Logger logger = LoggerFactory.getLogger(getClass());
     private IpCameraHandler ipCameraHandler;
     private boolean handlingMjpeg = false; // used to remove ctx from group when handler is removed.
     private boolean handlingSnapshotStream = false; // used to remove ctx from group when handler is removed.
+    private boolean handlingEvents = false; // used to remove ctx from group when handler is removed.
     byte[] incomingJpeg = null;
     String whiteList = "";
     int recievedBytes = 0;
@@ -69,6 +73,11 @@ public class StreamServerHandler extends ChannelInboundHandlerAdapter {
 
     @Override
     public void handlerAdded(@Nullable ChannelHandlerContext ctx) {
+        // the shared server swaps handlers when a connection asks for another camera, so replace any old counter.
+        if (ctx.pipeline().get(CameraMetrics.BYTES_OUT_HANDLER) != null) {
+            ctx.pipeline().remove(CameraMetrics.BYTES_OUT_HANDLER);
+        }
+        ctx.pipeline().addBefore(ctx.name(), CameraMetrics.BYTES_OUT_HANDLER, ipCameraHandler.metrics.bytesOutCounter);
     }
 
     @Override
@@ -88,31 +97,51 @@ public class StreamServerHandler extends ChannelInboundHandlerAdapter {
                     logger.warn("The request made from {} was not in the whitelist and will be ignored.", requestIP);
                     return;
                 } else if ("GET".equalsIgnoreCase(httpRequest.method().toString())) {
-                    switch (httpRequest.uri()) {
+                    QueryStringDecoder queryStringDecoder = new QueryStringDecoder(httpRequest.uri());
+                    String viewer = requestIP + httpRequest.headers().get(HttpHeaderNames.USER_AGENT, "");
+                    LowLatencyHls lowLatencyHls = ipCameraHandler.lowLatencyHls;
+                    Ffmpeg localHLS = ipCameraHandler.ffmpegHLS;
+                    if (localHLS != null && isHlsRequest(queryStringDecoder.path())) {
+                        localHLS.addViewer(viewer);
+                    }
+                    if (lowLatencyHls != null && queryStringDecoder.path().startsWith("/ll")) {
+                        sendLowLatencyMedia(ctx, queryStringDecoder.path().substring(1), lowLatencyHls);
+                        return;
+                    }
+                    switch (queryStringDecoder.path()) {
                         case "/ipcamera.m3u8":
                             if (ipCameraHandler.ffmpegHLS != null) {
                                 if (!ipCameraHandler.ffmpegHLS.getIsAlive()) {
-                                    ipCameraHandler.ffmpegHLS.setKeepAlive(60);
                                     ipCameraHandler.ffmpegHLS.startConverting();
                                 }
                             } else {
                                 ipCameraHandler.setupFfmpegFormat("HLS");
                             }
-                            ipCameraHandler.ffmpegHLS.setKeepAlive(60);
-                            sendFile(ctx, httpRequest.uri(), "application/x-mpegurl");
+                            if (ipCameraHandler.ffmpegHLS == null) {
+                                break;
+                            }
+                            ipCameraHandler.ffmpegHLS.addViewer(viewer);
+                            lowLatencyHls = ipCameraHandler.lowLatencyHls;
+                            if (lowLatencyHls != null) {
+                                sendLowLatencyPlaylist(ctx, queryStringDecoder, lowLatencyHls);
+                            } else if ("INTERNAL".equals(ipCameraHandler.hlsMode)) {
+                                sendInternalPlaylist(ctx, 0);
+                            } else {
+                                sendFile(ctx, httpRequest, "application/x-mpegurl");
+                            }
                             break;
                         case "/ipcamera.mpd":
                             // ipCameraHandler.setupFfmpegFormat("DASH");
                             // ipCameraHandler.ffmpegDASH.setKeepAlive(60);// setup must come first
-                            sendFile(ctx, httpRequest.uri(), "application/dash+xml");
+                            sendFile(ctx, httpRequest, "application/dash+xml");
                             break;
                         case "/ipcamera.gif":
-                            sendFile(ctx, httpRequest.uri(), "image/gif");
+                            sendFile(ctx, httpRequest, "image/gif");
                             break;
                         case "/ipcamera.jpg":
                             if (!ipCameraHandler.updateImageEvents.contentEquals("1")) {
                                 if (ipCameraHandler.snapshotUri != null) {
-                                    ipCameraHandler.sendHttpGET(ipCameraHandler.snapshotUri);
+                                    ipCameraHandler.requestSnapshot();
                                 }
                                 if (ipCameraHandler.currentSnapshot.length == 1) {// no jpg received from camera.
                                     logger.debug("No jpg in ram to send");
@@ -129,6 +158,24 @@ public class StreamServerHandler extends ChannelInboundHandlerAdapter {
                             ipCameraHandler.setupMjpegStreaming(true, ctx);
                             handlingMjpeg = true;
                             break;
+                        case "/metrics":
+                            PrometheusWriter writer = new PrometheusWriter();
+                            ipCameraHandler.writeMetrics(writer);
+                            StreamServerUtils.sendBytes(ctx, writer.toString().getBytes(StandardCharsets.UTF_8),
+                                    PrometheusWriter.CONTENT_TYPE);
+                            break;
+                        case "/events":
+                            String lastEventId = httpRequest.headers().get("Last-Event-ID");
+                            if (lastEventId == null) {// EventSource polyfills that can not set headers use this
+                                List<String> values = queryStringDecoder.parameters().get("lastEventId");
+                                lastEventId = (values == null || values.isEmpty()) ? null : values.get(0);
+                            }
+                            ipCameraHandler.eventStream.addClient(ctx, lastEventId);
+                            handlingEvents = true;
+                            break;
+                        case "/ipcamera.ws":
+                            WebSocketHandler.upgrade(ctx, httpRequest, ipCameraHandler, requestIP);
+                            break;
                         case "/autofps.mjpeg":
                             ipCameraHandler.setupSnapshotStreaming(true, ctx, true);
                             handlingSnapshotStream = true;
@@ -138,17 +185,19 @@ public class StreamServerHandler extends ChannelInboundHandlerAdapter {
                             instar.alarmTriggered(httpRequest.uri().toString());
                             break;
                         case "/ipcamera0.ts":
-                            TimeUnit.SECONDS.sleep(6);
+                            if (!ipCameraHandler.segmentCache.contains("ipcamera0.ts")) {
+                                TimeUnit.SECONDS.sleep(6);
+                            }
                         default:
                             if (httpRequest.uri().contains(".ts")) {
-                                sendFile(ctx, httpRequest.uri(), "video/MP2T");
+                                sendFile(ctx, httpRequest, "video/MP2T");
                             } else if (httpRequest.uri().contains(".jpg")) {
                                 // Allow access to the preroll and postroll jpg files
-                                sendFile(ctx, httpRequest.uri(), "image/jpg");
+                                sendFile(ctx, httpRequest, "image/jpg");
                             } else if (httpRequest.uri().contains(".m4s")) {
-                                sendFile(ctx, httpRequest.uri(), "video/mp4");
+                                sendFile(ctx, httpRequest, "video/mp4");
                             } else if (httpRequest.uri().contains(".mp4")) {
-                                sendFile(ctx, httpRequest.uri(), "video/mp4");
+                                sendFile(ctx, httpRequest, "video/mp4");
                             }
                     }
                 } else if ("POST".equalsIgnoreCase(httpRequest.method().toString())) {
@@ -186,6 +235,7 @@ public class StreamServerHandler extends ChannelInboundHandlerAdapter {
                     } else {
                         if (recievedBytes > 1000) {
                             ipCameraHandler.sendMjpegFrame(incomingJpeg, ipCameraHandler.mjpegChannelGroup);
+                            ipCameraHandler.liveFrameReceived(incomingJpeg);
                         }
                     }
                     incomingJpeg = null;
@@ -202,30 +252,137 @@ public class StreamServerHandler extends ChannelInboundHandlerAdapter {
         ByteBuf snapshotData = Unpooled.copiedBuffer(ipCameraHandler.currentSnapshot);
         response.headers().add(HttpHeaderNames.CONTENT_TYPE, contentType);
         response.headers().set(HttpHeaderNames.CACHE_CONTROL, HttpHeaderValues.NO_CACHE);
-        response.headers().set(HttpHeaderNames.CONNECTION, HttpHeaderValues.CLOSE);
         response.headers().add(HttpHeaderNames.CONTENT_LENGTH, snapshotData.readableBytes());
         response.headers().add("Access-Control-Allow-Origin", "*");
         response.headers().add("Access-Control-Expose-Headers", "*");
         ctx.channel().write(response);
         ctx.channel().write(snapshotData);
-        ByteBuf footerBbuf = Unpooled.copiedBuffer("\r\n", 0, 2, StandardCharsets.UTF_8);
-        ctx.channel().writeAndFlush(footerBbuf);
+        ctx.channel().writeAndFlush(LastHttpContent.EMPTY_LAST_CONTENT);
+    }
+
+    private boolean isHlsRequest(String path) {
+        return path.endsWith(".m3u8") || path.endsWith(".ts") || path.endsWith(".m4s") || path.startsWith("/ll");
     }
 
-    private void sendFile(ChannelHandlerContext ctx, String fileUri, String contentType) throws IOException {
+    private int getIntParameter(QueryStringDecoder queryStringDecoder, String name) {
+        List<String> values = queryStringDecoder.parameters().get(name);
+        if (values == null || values.isEmpty()) {
+            return -1;
+        }
+        try {
+            return Integer.parseInt(values.get(0));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Runs ready once the part exists, or timedOut if ffmpeg has not created it in time. Only one of them is run.
+     */
+    private void waitForPart(ChannelHandlerContext ctx, LowLatencyHls lowLatencyHls, int msn, int part,
+            Runnable ready, Runnable timedOut) {
+        AtomicBoolean answered = new AtomicBoolean(false);
+        Runnable readyOnce = () -> {
+            if (answered.compareAndSet(false, true)) {
+                ready.run();
+            }
+        };
+        if (!lowLatencyHls.whenAvailable(msn, part, readyOnce)) {
+            ctx.executor().schedule(() -> {
+                lowLatencyHls.removeWaiter(readyOnce);
+                if (answered.compareAndSet(false, true)) {
+                    timedOut.run();
+                }
+            }, lowLatencyHls.getBlockingTimeoutMs(), TimeUnit.MILLISECONDS);
+        }
+    }
+
+    // The first segment takes a few seconds to be made, so hold the request until the playlist exists.
+    private void sendInternalPlaylist(ChannelHandlerContext ctx, int attempt) {
+        byte[] playlist = ipCameraHandler.segmentCache.get(TsSegmenter.PLAYLIST_NAME);
+        if (playlist != null) {
+            StreamServerUtils.sendBytes(ctx, playlist, "application/x-mpegurl");
+        } else if (attempt * INTERNAL_PLAYLIST_RETRY_MS > 12000 || !ctx.channel().isActive()) {
+            StreamServerUtils.sendStatus(ctx, HttpResponseStatus.SERVICE_UNAVAILABLE);
+        } else {
+            ctx.executor().schedule(() -> sendInternalPlaylist(ctx, attempt + 1), INTERNAL_PLAYLIST_RETRY_MS,
+                    TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void sendLowLatencyPlaylist(ChannelHandlerContext ctx, QueryStringDecoder queryStringDecoder,
+            LowLatencyHls lowLatencyHls) {
+        // A blocking reload names the segment and part the player wants to be listed before we reply.
+        int msn = getIntParameter(queryStringDecoder, "_HLS_msn");
+        int part = msn < 0 ? -1 : getIntParameter(queryStringDecoder, "_HLS_part");
+        if (msn > lowLatencyHls.getNextMsn() + 2) {
+            StreamServerUtils.sendStatus(ctx, HttpResponseStatus.BAD_REQUEST);
+            return;
+        }
+        Runnable sendPlaylist = () -> {
+            String playlist = lowLatencyHls.getPlaylist();
+            if (playlist == null) {
+                StreamServerUtils.sendStatus(ctx, HttpResponseStatus.SERVICE_UNAVAILABLE);
+            } else {
+                StreamServerUtils.sendBytes(ctx, playlist.getBytes(StandardCharsets.UTF_8),
+                        "application/vnd.apple.mpegurl");
+            }
+        };
+        waitForPart(ctx, lowLatencyHls, msn, part, sendPlaylist, sendPlaylist);
+    }
+
+    private void sendLowLatencyMedia(ChannelHandlerContext ctx, String name, LowLatencyHls lowLatencyHls) {
+        if (LowLatencyHls.INIT_NAME.equals(name)) {
+            waitForPart(ctx, lowLatencyHls, -1, -1, () -> {
+                byte[] init = lowLatencyHls.getInit();
+                if (init == null) {
+                    StreamServerUtils.sendStatus(ctx, HttpResponseStatus.NOT_FOUND);
+                } else {
+                    StreamServerUtils.sendBytes(ctx, init, "video/mp4");
+                }
+            }, () -> StreamServerUtils.sendStatus(ctx, HttpResponseStatus.NOT_FOUND));
+            return;
+        }
+        // names are llseg<msn>.m4s and llpart<msn>.<part>.m4s
+        int msn, part = -1;
+        try {
+            if (name.startsWith("llpart") && name.endsWith(".m4s")) {
+                String[] numbers = name.substring(6, name.length() - 4).split("\\.");
+                msn = Integer.parseInt(numbers[0]);
+                part = Integer.parseInt(numbers[1]);
+            } else if (name.startsWith("llseg") && name.endsWith(".m4s")) {
+                msn = Integer.parseInt(name.substring(5, name.length() - 4));
+            } else {
+                StreamServerUtils.sendStatus(ctx, HttpResponseStatus.NOT_FOUND);
+                return;
+            }
+        } catch (NumberFormatException | ArrayIndexOutOfBoundsException e) {
+            StreamServerUtils.sendStatus(ctx, HttpResponseStatus.NOT_FOUND);
+            return;
+        }
+        final int requestedMsn = msn, requestedPart = part;
+        // The preload hint lets players ask for the next part before it exists, so hold the request until it does.
+        waitForPart(ctx, lowLatencyHls, msn, part, () -> {
+            byte[] media = requestedPart < 0 ? lowLatencyHls.getSegment(requestedMsn)
+                    : lowLatencyHls.getPart(requestedMsn, requestedPart);
+            if (media == null) {
+                StreamServerUtils.sendStatus(ctx, HttpResponseStatus.NOT_FOUND);
+            } else {
+                StreamServerUtils.sendBytes(ctx, media, "video/mp4", null, StreamServerUtils.FINISHED_SEGMENT);
+            }
+        }, () -> StreamServerUtils.sendStatus(ctx, HttpResponseStatus.NOT_FOUND));
+    }
+
+    private void sendFile(ChannelHandlerContext ctx, HttpRequest httpRequest, String contentType) throws IOException {
+        String fileUri = httpRequest.uri();
+        String range = httpRequest.headers().get(HttpHeaderNames.RANGE);
+        byte[] cached = ipCameraHandler.segmentCache.get(fileUri.substring(1));
+        if (cached != null) {
+            StreamServerUtils.sendBytes(ctx, cached, contentType, range, StreamServerUtils.getCacheControl(fileUri));
+            return;
+        }
         File file = new File(ipCameraHandler.config.get(CONFIG_FFMPEG_OUTPUT).toString() + fileUri);
-        ChunkedFile chunkedFile = new ChunkedFile(file);
-        HttpResponse response = new DefaultHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.OK);
-        response.headers().add(HttpHeaderNames.CONTENT_TYPE, contentType);
-        response.headers().set(HttpHeaderNames.CACHE_CONTROL, HttpHeaderValues.NO_CACHE);
-        response.headers().set(HttpHeaderNames.CONNECTION, HttpHeaderValues.KEEP_ALIVE);
-        response.headers().add(HttpHeaderNames.CONTENT_LENGTH, chunkedFile.length());
-        response.headers().add("Access-Control-Allow-Origin", "*");
-        response.headers().add("Access-Control-Expose-Headers", "*");
-        ctx.channel().write(response);
-        ctx.channel().write(chunkedFile);
-        ByteBuf footerBbuf = Unpooled.copiedBuffer("\r\n", 0, 2, StandardCharsets.UTF_8);
-        ctx.channel().writeAndFlush(footerBbuf);
+        StreamServerUtils.sendFile(ctx, file, contentType, range, StreamServerUtils.getCacheControl(fileUri));
     }
 
     @Override
@@ -254,6 +411,10 @@ public class StreamServerHandler extends ChannelInboundHandlerAdapter {
         if (evt instanceof IdleStateEvent) {
             IdleStateEvent e = (IdleStateEvent) evt;
             if (e.state() == IdleState.WRITER_IDLE) {
+                if (handlingEvents) {
+                    EventStream.sendKeepAlive(ctx);
+                    return;
+                }
                 // logger.debug("Stream server is going to close an idle channel.");
                 ctx.close();
             }
@@ -263,6 +424,10 @@ public class StreamServerHandler extends ChannelInboundHandlerAdapter {
     @Override
     public void handlerRemoved(@Nullable ChannelHandlerContext ctx) {
         // logger.debug("Closing a StreamServerHandler.");
+        if (handlingEvents) {
+            handlingEvents = false;
+            ipCameraHandler.eventStream.removeClient(ctx);
+        }
         if (handlingMjpeg) {
             ipCameraHandler.setupMjpegStreaming(false, ctx);
         } else if (handlingSnapshotStream) {
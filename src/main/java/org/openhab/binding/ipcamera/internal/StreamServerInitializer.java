@@ -0,0 +1,197 @@
+/**
+ * Copyright (c) 2010-2019 Contributors to the openHAB project
+ *
+ * See the NOTICE file(s) distributed with this work for additional
+ * information.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+
+package org.openhab.binding.ipcamera.internal;
+
+import java.io.File;
+import java.util.List;
+import java.util.function.Supplier;
+
+import javax.net.ssl.SSLException;
+
+import org.eclipse.jdt.annotation.NonNullByDefault;
+import org.eclipse.jdt.annotation.Nullable;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.ChannelPipeline;
+import io.netty.channel.SimpleChannelInboundHandler;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.handler.codec.MessageToMessageEncoder;
+import io.netty.handler.codec.http.DefaultHttpContent;
+import io.netty.handler.codec.http.HttpMessage;
+import io.netty.handler.codec.http.HttpServerCodec;
+import io.netty.handler.codec.http.HttpServerKeepAliveHandler;
+import io.netty.handler.codec.http.HttpServerUpgradeHandler;
+import io.netty.handler.codec.http2.CleartextHttp2ServerUpgradeHandler;
+import io.netty.handler.codec.http2.Http2CodecUtil;
+import io.netty.handler.codec.http2.Http2FrameCodecBuilder;
+import io.netty.handler.codec.http2.Http2MultiplexHandler;
+import io.netty.handler.codec.http2.Http2SecurityUtil;
+import io.netty.handler.codec.http2.Http2ServerUpgradeCodec;
+import io.netty.handler.codec.http2.Http2StreamFrameToHttpObjectCodec;
+import io.netty.handler.ssl.ApplicationProtocolConfig;
+import io.netty.handler.ssl.ApplicationProtocolNames;
+import io.netty.handler.ssl.ApplicationProtocolNegotiationHandler;
+import io.netty.handler.ssl.SslContext;
+import io.netty.handler.ssl.SslContextBuilder;
+import io.netty.handler.ssl.SupportedCipherSuiteFilter;
+import io.netty.handler.stream.ChunkedWriteHandler;
+import io.netty.handler.timeout.IdleStateHandler;
+import io.netty.util.AsciiString;
+import io.netty.util.ReferenceCountUtil;
+
+/**
+ * The {@link StreamServerInitializer} class is responsible for setting up each connection to a stream server so it
+ * can use HTTP/1.1 or HTTP/2. Plain connections can start with HTTP/2 straight away or upgrade to it (h2c), and TLS
+ * connections pick it with ALPN. With HTTP/2 each request is its own child channel with its own handler, so a player
+ * can fetch the playlist and several segments at once over one connection.
+ *
+ * @author Matthew Skinner - Initial contribution
+ */
+
+@NonNullByDefault
+public class StreamServerInitializer extends ChannelInitializer<SocketChannel> {
+    private static final int MAX_UPGRADE_REQUEST_BYTES = 65536;
+    // The handlers close a connection, or send a keepalive on /events, when nothing has been written for this long.
+    private static final int WRITER_IDLE_SECONDS = 25;
+    private final Supplier<ChannelHandler> handlerMaker;
+    private final @Nullable SslContext sslContext;
+
+    /**
+     * @param handlerMaker makes the handler that answers the requests, one is made for each HTTP/1.1 connection or
+     *            HTTP/2 stream.
+     * @param sslContext null unless the server uses TLS.
+     */
+    public StreamServerInitializer(Supplier<ChannelHandler> handlerMaker, @Nullable SslContext sslContext) {
+        this.handlerMaker = handlerMaker;
+        this.sslContext = sslContext;
+    }
+
+    /**
+     * Creates a TLS context that offers HTTP/2 and HTTP/1.1 to clients with ALPN.
+     */
+    public static SslContext createSslContext(File certificate, File privateKey) throws SSLException {
+        return SslContextBuilder.forServer(certificate, privateKey)
+                .ciphers(Http2SecurityUtil.CIPHERS, SupportedCipherSuiteFilter.INSTANCE)
+                .applicationProtocolConfig(new ApplicationProtocolConfig(ApplicationProtocolConfig.Protocol.ALPN,
+                        ApplicationProtocolConfig.SelectorFailureBehavior.NO_ADVERTISE,
+                        ApplicationProtocolConfig.SelectedListenerFailureBehavior.ACCEPT,
+                        ApplicationProtocolNames.HTTP_2, ApplicationProtocolNames.HTTP_1_1))
+                .build();
+    }
+
+    @Override
+    protected void initChannel(SocketChannel socketChannel) throws Exception {
+        ChannelPipeline pipeline = socketChannel.pipeline();
+        pipeline.addLast("idleStateHandler", new IdleStateHandler(0, WRITER_IDLE_SECONDS, 0));
+        SslContext localSslContext = sslContext;
+        if (localSslContext != null) {
+            pipeline.addLast("sslHandler", localSslContext.newHandler(socketChannel.alloc()));
+            pipeline.addLast("alpnHandler", new AlpnHandler());
+            return;
+        }
+        HttpServerCodec sourceCodec = new HttpServerCodec();
+        HttpServerUpgradeHandler upgradeHandler = new HttpServerUpgradeHandler(sourceCodec, protocol -> {
+            if (AsciiString.contentEquals(Http2CodecUtil.HTTP_UPGRADE_PROTOCOL_NAME, protocol)) {
+                return new Http2ServerUpgradeCodec(Http2FrameCodecBuilder.forServer().build(),
+                        new Http2MultiplexHandler(new StreamInitializer()));
+            }
+            return null;
+        }, MAX_UPGRADE_REQUEST_BYTES);
+        pipeline.addLast("h2cHandler",
+                new CleartextHttp2ServerUpgradeHandler(sourceCodec, upgradeHandler, new ChannelInitializer<Channel>() {
+                    @Override
+                    protected void initChannel(Channel channel) throws Exception {
+                        addHttp2(channel.pipeline());
+                    }
+                }));
+        pipeline.addLast("http1Setup", new Http1Setup());
+    }
+
+    private void addHttp2(ChannelPipeline pipeline) {
+        pipeline.addLast("http2FrameCodec", Http2FrameCodecBuilder.forServer().build());
+        pipeline.addLast("http2Multiplex", new Http2MultiplexHandler(new StreamInitializer()));
+    }
+
+    // The handlers after the HttpServerCodec when a connection stays on HTTP/1.1.
+    private void addHttp1(ChannelPipeline pipeline) {
+        pipeline.addLast("keepAliveHandler", new HttpServerKeepAliveHandler());
+        pipeline.addLast("ChunkedWriteHandler", new ChunkedWriteHandler());
+        pipeline.addLast("requestHandler", handlerMaker.get());
+    }
+
+    /**
+     * Waits for the first HTTP/1.1 request, which only comes if the client did not change to HTTP/2, then puts the
+     * normal handlers in its place.
+     */
+    private class Http1Setup extends SimpleChannelInboundHandler<HttpMessage> {
+        Http1Setup() {
+            super(false);
+        }
+
+        @Override
+        protected void channelRead0(ChannelHandlerContext ctx, HttpMessage msg) throws Exception {
+            ChannelPipeline pipeline = ctx.pipeline();
+            addHttp1(pipeline);
+            pipeline.remove(this);
+            ctx.fireChannelRead(msg);
+        }
+    }
+
+    private class AlpnHandler extends ApplicationProtocolNegotiationHandler {
+        AlpnHandler() {
+            super(ApplicationProtocolNames.HTTP_1_1);
+        }
+
+        @Override
+        protected void configurePipeline(ChannelHandlerContext ctx, String protocol) throws Exception {
+            if (ApplicationProtocolNames.HTTP_2.equals(protocol)) {
+                addHttp2(ctx.pipeline());
+            } else {
+                ctx.pipeline().addLast("HttpServerCodec", new HttpServerCodec());
+                addHttp1(ctx.pipeline());
+            }
+        }
+    }
+
+    /**
+     * Each HTTP/2 stream is turned back into HTTP/1.1 objects so the same handlers answer it. The idle events of the
+     * connection never reach the handlers of its streams, so each stream has its own IdleStateHandler.
+     */
+    private class StreamInitializer extends ChannelInitializer<Channel> {
+        @Override
+        protected void initChannel(Channel channel) throws Exception {
+            ChannelPipeline pipeline = channel.pipeline();
+            pipeline.addLast("idleStateHandler", new IdleStateHandler(0, WRITER_IDLE_SECONDS, 0));
+            pipeline.addLast("http2ToHttp", new Http2StreamFrameToHttpObjectCodec(true));
+            pipeline.addLast("rawContent", new RawContentEncoder());
+            pipeline.addLast("ChunkedWriteHandler", new ChunkedWriteHandler());
+            pipeline.addLast("requestHandler", handlerMaker.get());
+        }
+    }
+
+    /**
+     * The MJPEG streams write plain buffers after the response, which HTTP/1.1 sends as they are. On HTTP/2 they need
+     * to be wrapped as content so they become DATA frames.
+     */
+    private static class RawContentEncoder extends MessageToMessageEncoder<ByteBuf> {
+        @Override
+        protected void encode(ChannelHandlerContext ctx, ByteBuf msg, List<Object> out) throws Exception {
+            out.add(new DefaultHttpContent(ReferenceCountUtil.retain(msg)));
+        }
+    }
+}
@@ -0,0 +1,230 @@
+/**
+ * Copyright (c) 2010-2019 Contributors to the openHAB project
+ *
+ * See the NOTICE file(s) distributed with this work for additional
+ * information.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+
+package org.openhab.binding.ipcamera.internal;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+
+import org.eclipse.jdt.annotation.NonNullByDefault;
+import org.eclipse.jdt.annotation.Nullable;
+
+import io.netty.buffer.Unpooled;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.DefaultFileRegion;
+import io.netty.channel.group.ChannelGroup;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.handler.codec.http.DefaultHttpResponse;
+import io.netty.handler.codec.http.HttpChunkedInput;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpHeaderValues;
+import io.netty.handler.codec.http.HttpResponse;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.handler.codec.http.HttpVersion;
+import io.netty.handler.codec.http.LastHttpContent;
+import io.netty.handler.ssl.SslHandler;
+import io.netty.handler.stream.ChunkedFile;
+
+/**
+ * The {@link StreamServerUtils} class is responsible for writing files and cached bytes back to the clients of the
+ * stream servers.
+ *
+ * @author Matthew Skinner - Initial contribution
+ */
+
+@NonNullByDefault
+public class StreamServerUtils {
+    public static final String NO_CACHE = "no-cache";
+    /*
+     * A finished segment never changes while its stream is running, but the numbering starts again at 0 each time
+     * ffmpeg restarts, so it is only cached for about as long as the segment could still be listed in a playlist.
+     */
+    public static final String FINISHED_SEGMENT = "public, max-age=60";
+    public static final String MJPEG_BOUNDARY = "thisMjpegStream";
+    private static final byte[] MJPEG_FOOTER = "\r\n".getBytes(StandardCharsets.UTF_8);
+
+    /**
+     * Segments can be cached by players and proxies, everything else such as the live playlist and the snapshots
+     * changes under the same name so is not.
+     */
+    public static String getCacheControl(String name) {
+        int query = name.indexOf('?');
+        String path = (query < 0) ? name : name.substring(0, query);
+        if (path.endsWith(".ts") || path.endsWith(".m4s")) {
+            return FINISHED_SEGMENT;
+        }
+        return NO_CACHE;
+    }
+
+    private static HttpResponse createResponse(HttpResponseStatus status, String contentType, long length,
+            String cacheControl) {
+        HttpResponse response = new DefaultHttpResponse(HttpVersion.HTTP_1_1, status);
+        response.headers().add(HttpHeaderNames.CONTENT_TYPE, contentType);
+        response.headers().set(HttpHeaderNames.CACHE_CONTROL, cacheControl);
+        response.headers().add(HttpHeaderNames.CONTENT_LENGTH, length);
+        response.headers().add("Access-Control-Allow-Origin", "*");
+        response.headers().add("Access-Control-Expose-Headers", "*");
+        return response;
+    }
+
+    /**
+     * Reads a single "bytes=" range, see RFC 7233. Returns null if the whole content should be sent, which includes
+     * ranges that can not be read or ask for more than one part, or an empty array if the range is outside the content.
+     */
+    static long @Nullable [] parseRange(@Nullable String range, long length) {
+        if (range == null || !range.startsWith("bytes=") || range.contains(",")) {
+            return null;
+        }
+        String spec = range.substring(6).trim();
+        int dash = spec.indexOf('-');
+        if (dash < 0) {
+            return null;
+        }
+        try {
+            long start, end;
+            if (dash == 0) {// the last N bytes
+                long suffix = Long.parseLong(spec.substring(1));
+                if (suffix <= 0) {
+                    return new long[0];
+                }
+                start = Math.max(0, length - suffix);
+                end = length - 1;
+            } else {
+                start = Long.parseLong(spec.substring(0, dash));
+                end = (dash == spec.length() - 1) ? length - 1
+                        : Math.min(Long.parseLong(spec.substring(dash + 1)), length - 1);
+            }
+            if (start >= length) {
+                return new long[0];
+            }
+            if (start > end) {
+                return null;
+            }
+            return new long[] { start, end };
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private static void sendRangeNotSatisfiable(ChannelHandlerContext ctx, long length) {
+        HttpResponse response = new DefaultHttpResponse(HttpVersion.HTTP_1_1,
+                HttpResponseStatus.REQUESTED_RANGE_NOT_SATISFIABLE);
+        response.headers().add(HttpHeaderNames.CONTENT_RANGE, "bytes */" + length);
+        response.headers().add(HttpHeaderNames.CONTENT_LENGTH, 0);
+        response.headers().add("Access-Control-Allow-Origin", "*");
+        ctx.write(response);
+        ctx.writeAndFlush(LastHttpContent.EMPTY_LAST_CONTENT);
+    }
+
+    // Creates a 200 for the whole content, or a 206 with a Content-Range when a part was asked for.
+    private static HttpResponse createRangeResponse(long @Nullable [] part, String contentType, long length,
+            String cacheControl) {
+        HttpResponse response;
+        if (part == null) {
+            response = createResponse(HttpResponseStatus.OK, contentType, length, cacheControl);
+        } else {
+            response = createResponse(HttpResponseStatus.PARTIAL_CONTENT, contentType, part[1] - part[0] + 1,
+                    cacheControl);
+            response.headers().add(HttpHeaderNames.CONTENT_RANGE, "bytes " + part[0] + "-" + part[1] + "/" + length);
+        }
+        response.headers().add(HttpHeaderNames.ACCEPT_RANGES, HttpHeaderValues.BYTES);
+        return response;
+    }
+
+    public static void sendFile(ChannelHandlerContext ctx, File file, String contentType) throws IOException {
+        sendFile(ctx, file, contentType, null, getCacheControl(file.getName()));
+    }
+
+    /**
+     * Sends a file using sendfile when the connection is plain TCP so the file never passes through user space. TLS
+     * needs the bytes to encrypt them so it falls back to reading the file in chunks.
+     *
+     * @param range the Range header of the request, so players can seek inside recordings.
+     */
+    public static void sendFile(ChannelHandlerContext ctx, File file, String contentType, @Nullable String range,
+            String cacheControl) throws IOException {
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+        long length = randomAccessFile.length();
+        long[] part = parseRange(range, length);
+        if (part != null && part.length == 0) {
+            randomAccessFile.close();
+            sendRangeNotSatisfiable(ctx, length);
+            return;
+        }
+        long offset = (part == null) ? 0 : part[0];
+        long count = (part == null) ? length : part[1] - part[0] + 1;
+        ctx.write(createRangeResponse(part, contentType, length, cacheControl));
+        // a file region can only go straight to a plain socket, not into TLS or a HTTP/2 stream.
+        if (ctx.channel() instanceof SocketChannel && ctx.pipeline().get(SslHandler.class) == null) {
+            ctx.write(new DefaultFileRegion(randomAccessFile.getChannel(), offset, count));
+            ctx.writeAndFlush(LastHttpContent.EMPTY_LAST_CONTENT);
+        } else {
+            // HttpChunkedInput ends the response with its own LastHttpContent.
+            ctx.writeAndFlush(new HttpChunkedInput(new ChunkedFile(randomAccessFile, offset, count, 8192)));
+        }
+    }
+
+    public static void sendStatus(ChannelHandlerContext ctx, HttpResponseStatus status) {
+        HttpResponse response = new DefaultHttpResponse(HttpVersion.HTTP_1_1, status);
+        response.headers().add(HttpHeaderNames.CONTENT_LENGTH, 0);
+        response.headers().add("Access-Control-Allow-Origin", "*");
+        ctx.write(response);
+        ctx.writeAndFlush(LastHttpContent.EMPTY_LAST_CONTENT);
+    }
+
+    /**
+     * Sends bytes that are held in memory, the array is wrapped and not copied so it must not be changed afterwards.
+     */
+    public static void sendBytes(ChannelHandlerContext ctx, byte[] data, String contentType) {
+        sendBytes(ctx, data, contentType, null, NO_CACHE);
+    }
+
+    public static void sendBytes(ChannelHandlerContext ctx, byte[] data, String contentType, @Nullable String range,
+            String cacheControl) {
+        long[] part = parseRange(range, data.length);
+        if (part != null && part.length == 0) {
+            sendRangeNotSatisfiable(ctx, data.length);
+            return;
+        }
+        int offset = (part == null) ? 0 : (int) part[0];
+        int count = (part == null) ? data.length : (int) (part[1] - part[0] + 1);
+        ctx.write(createRangeResponse(part, contentType, data.length, cacheControl));
+        ctx.write(Unpooled.wrappedBuffer(data, offset, count));
+        ctx.writeAndFlush(LastHttpContent.EMPTY_LAST_CONTENT);
+    }
+
+    /**
+     * Starts a multipart response that never ends, each JPEG is then sent with {@link #sendMjpegFrame}.
+     */
+    public static void sendMjpegFirstPacket(ChannelHandlerContext ctx) {
+        HttpResponse response = new DefaultHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.OK);
+        response.headers().add(HttpHeaderNames.CONTENT_TYPE, "multipart/x-mixed-replace; boundary=" + MJPEG_BOUNDARY);
+        response.headers().set(HttpHeaderNames.CACHE_CONTROL, HttpHeaderValues.NO_CACHE);
+        response.headers().set(HttpHeaderNames.CONNECTION, HttpHeaderValues.CLOSE);
+        response.headers().add("Access-Control-Allow-Origin", "*");
+        response.headers().add("Access-Control-Expose-Headers", "*");
+        ctx.channel().writeAndFlush(response);
+    }
+
+    /**
+     * Sends the part with its header and footer as one write, so frames sent from different threads, such as the
+     * cameras of a group, can never be mixed up on a channel. The JPEG is not copied so it must not be changed after.
+     */
+    public static void sendMjpegFrame(byte[] jpg, ChannelGroup channelGroup) {
+        String header = "--" + MJPEG_BOUNDARY + "\r\n" + "content-type: image/jpeg" + "\r\n" + "content-length: "
+                + jpg.length + "\r\n" + "\r\n";
+        channelGroup.writeAndFlush(Unpooled.wrappedBuffer(header.getBytes(StandardCharsets.UTF_8), jpg, MJPEG_FOOTER));
+    }
+}
@@ -0,0 +1,289 @@
+/**
+ * Copyright (c) 2010-2019 Contributors to the openHAB project
+ *
+ * See the NOTICE file(s) distributed with this work for additional
+ * information.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+
+package org.openhab.binding.ipcamera.internal;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.function.Consumer;
+
+import org.eclipse.jdt.annotation.NonNullByDefault;
+import org.eclipse.jdt.annotation.Nullable;
+
+/**
+ * The {@link TsSegmenter} class is responsible for muxing H264 access units into MPEG-TS segments that always start
+ * on a key frame, and keeping the newest segments and their HLS playlist in a {@link SegmentCache}. The files use the
+ * same names ffmpeg would give them so they are served the same way, only nothing is written to disk.
+ *
+ * @author Matthew Skinner - Initial contribution
+ */
+
+@NonNullByDefault
+public class TsSegmenter implements RtpDepacketizer.AccessUnitListener {
+    public static final double SEGMENT_TARGET_SECONDS = 2.0;
+    public static final String PLAYLIST_NAME = "ipcamera.m3u8";
+    private static final int SEGMENTS_IN_PLAYLIST = 6;
+    private static final int PACKET_SIZE = 188;
+    private static final int PMT_PID = 0x1000;
+    private static final int VIDEO_PID = 0x100;
+    private static final int STREAM_TYPE_H264 = 0x1B;
+    // PTS is written this far ahead of the PCR so players have time to decode, 100ms at 90kHz.
+    private static final long PTS_OFFSET = 9000;
+    private static final byte[] ACCESS_UNIT_DELIMITER = new byte[] { 0, 0, 0, 1, 0x09, (byte) 0xF0 };
+    private static final int[] CRC_TABLE = new int[256];
+
+    static {
+        for (int i = 0; i < 256; i++) {
+            int crc = i << 24;
+            for (int j = 0; j < 8; j++) {
+                crc = ((crc & 0x80000000) != 0) ? (crc << 1) ^ 0x04C11DB7 : crc << 1;
+            }
+            CRC_TABLE[i] = crc;
+        }
+    }
+
+    private final SegmentCache segmentCache;
+    private @Nullable Consumer<HlsPlaylist> playlistListener = null;
+    private final LinkedList<Segment> listedSegments = new LinkedList<Segment>();
+    private ByteArrayOutputStream current = new ByteArrayOutputStream(1024 * 1024);
+    private int nextSequence = 0;
+    // Set by clear(), the first segment after it does not follow on from the one before.
+    private boolean discontinuity = false;
+    private long segmentStart = -1;
+    private int targetDuration = (int) Math.ceil(SEGMENT_TARGET_SECONDS);
+    private byte @Nullable [] sps = null;
+    private byte @Nullable [] pps = null;
+    private int patCounter = 0, pmtCounter = 0, videoCounter = 0;
+    private final byte[] packet = new byte[PACKET_SIZE];
+
+    private static class Segment {
+        final int sequence;
+        final double duration;
+        final boolean discontinuity;
+
+        Segment(int sequence, double duration, boolean discontinuity) {
+            this.sequence = sequence;
+            this.duration = duration;
+            this.discontinuity = discontinuity;
+        }
+    }
+
+    public TsSegmenter(SegmentCache segmentCache) {
+        this.segmentCache = segmentCache;
+    }
+
+    /**
+     * The listener is given each new playlist as it is added to the cache.
+     */
+    public void setPlaylistListener(Consumer<HlsPlaylist> playlistListener) {
+        this.playlistListener = playlistListener;
+    }
+
+    public static String segmentName(int sequence) {
+        return "ipcamera" + sequence + ".ts";
+    }
+
+    @Override
+    public synchronized void accessUnit(List<byte[]> nalUnits, long timestamp, boolean keyFrame) {
+        boolean hasSps = false, hasPps = false;
+        for (byte[] nalUnit : nalUnits) {
+            int type = nalUnit[0] & 0x1F;
+            if (type == 7) {
+                sps = nalUnit;
+                hasSps = true;
+            } else if (type == 8) {
+                pps = nalUnit;
+                hasPps = true;
+            }
+        }
+        if (segmentStart < 0) {
+            if (!keyFrame) {
+                return;// a segment has to be playable on its own
+            }
+            startSegment(timestamp);
+        } else if (keyFrame && (timestamp - segmentStart) / 90000.0 >= SEGMENT_TARGET_SECONDS) {
+            finishSegment(timestamp);
+            startSegment(timestamp);
+        }
+        ByteArrayOutputStream pes = new ByteArrayOutputStream(64000);
+        writePesHeader(pes, timestamp + PTS_OFFSET);
+        pes.write(ACCESS_UNIT_DELIMITER, 0, ACCESS_UNIT_DELIMITER.length);
+        byte[] localSps = sps, localPps = pps;
+        if (keyFrame && !hasSps && localSps != null) {
+            writeNalUnit(pes, localSps);
+        }
+        if (keyFrame && !hasPps && localPps != null) {
+            writeNalUnit(pes, localPps);
+        }
+        for (byte[] nalUnit : nalUnits) {
+            writeNalUnit(pes, nalUnit);
+        }
+        writePackets(VIDEO_PID, pes.toByteArray(), timestamp, keyFrame);
+    }
+
+    private void writeNalUnit(ByteArrayOutputStream pes, byte[] nalUnit) {
+        pes.write(RtpDepacketizer.START_CODE, 0, RtpDepacketizer.START_CODE.length);
+        pes.write(nalUnit, 0, nalUnit.length);
+    }
+
+    private void startSegment(long timestamp) {
+        segmentStart = timestamp;
+        current = new ByteArrayOutputStream(1024 * 1024);
+        writePsi(0, patCounter++, createPat());
+        writePsi(PMT_PID, pmtCounter++, createPmt());
+    }
+
+    private void finishSegment(long timestamp) {
+        double duration = (timestamp - segmentStart) / 90000.0;
+        int sequence = nextSequence++;
+        segmentCache.put(segmentName(sequence), current.toByteArray());
+        listedSegments.add(new Segment(sequence, duration, discontinuity));
+        discontinuity = false;
+        // The target duration is not allowed to go down once a player has seen it.
+        targetDuration = Math.max(targetDuration, (int) Math.ceil(duration));
+        while (listedSegments.size() > SEGMENTS_IN_PLAYLIST) {
+            segmentCache.remove(segmentName(listedSegments.removeFirst().sequence));
+        }
+        HlsPlaylist playlist = createPlaylist();
+        segmentCache.put(PLAYLIST_NAME, playlist.toBytes());
+        Consumer<HlsPlaylist> localListener = playlistListener;
+        if (localListener != null) {
+            localListener.accept(playlist);
+        }
+    }
+
+    private HlsPlaylist createPlaylist() {
+        List<HlsPlaylist.Segment> segments = new ArrayList<>(listedSegments.size());
+        for (Segment segment : listedSegments) {
+            segments.add(new HlsPlaylist.Segment(segment.sequence, segment.duration, segmentName(segment.sequence),
+                    segment.discontinuity));
+        }
+        return new HlsPlaylist(targetDuration, listedSegments.getFirst().sequence, segments);
+    }
+
+    /**
+     * Forgets the segment that was being made and the finished ones, which are no longer in the cache. The sequence
+     * numbers keep going up and the next segment is marked as a discontinuity, so a player that was watching can
+     * carry on.
+     */
+    public synchronized void clear() {
+        segmentStart = -1;
+        current = new ByteArrayOutputStream(1024 * 1024);
+        discontinuity = discontinuity || !listedSegments.isEmpty();
+        listedSegments.clear();
+    }
+
+    private byte[] createPat() {
+        byte[] section = new byte[] { 0x00, (byte) 0xB0, 0x0D, 0x00, 0x01, (byte) 0xC1, 0x00, 0x00, 0x00, 0x01,
+                (byte) (0xE0 | (PMT_PID >> 8)), (byte) PMT_PID, 0, 0, 0, 0 };
+        addCrc(section);
+        return section;
+    }
+
+    private byte[] createPmt() {
+        byte[] section = new byte[] { 0x02, (byte) 0xB0, 0x12, 0x00, 0x01, (byte) 0xC1, 0x00, 0x00,
+                (byte) (0xE0 | (VIDEO_PID >> 8)), (byte) VIDEO_PID, (byte) 0xF0, 0x00, STREAM_TYPE_H264,
+                (byte) (0xE0 | (VIDEO_PID >> 8)), (byte) VIDEO_PID, (byte) 0xF0, 0x00, 0, 0, 0, 0 };
+        addCrc(section);
+        return section;
+    }
+
+    // The last 4 bytes of the section are replaced with the MPEG-2 CRC32 of the bytes before them.
+    private void addCrc(byte[] section) {
+        int crc = 0xFFFFFFFF;
+        for (int i = 0; i < section.length - 4; i++) {
+            crc = (crc << 8) ^ CRC_TABLE[((crc >>> 24) ^ section[i]) & 0xFF];
+        }
+        section[section.length - 4] = (byte) (crc >>> 24);
+        section[section.length - 3] = (byte) (crc >>> 16);
+        section[section.length - 2] = (byte) (crc >>> 8);
+        section[section.length - 1] = (byte) crc;
+    }
+
+    private void writePsi(int pid, int counter, byte[] section) {
+        packet[0] = 0x47;
+        packet[1] = (byte) (0x40 | (pid >> 8));
+        packet[2] = (byte) pid;
+        packet[3] = (byte) (0x10 | (counter & 0x0F));
+        packet[4] = 0;// pointer field
+        System.arraycopy(section, 0, packet, 5, section.length);
+        for (int i = 5 + section.length; i < PACKET_SIZE; i++) {
+            packet[i] = (byte) 0xFF;
+        }
+        current.write(packet, 0, PACKET_SIZE);
+    }
+
+    private void writePesHeader(ByteArrayOutputStream pes, long pts) {
+        pes.write(0);
+        pes.write(0);
+        pes.write(1);
+        pes.write(0xE0);// video stream 0
+        pes.write(0);// a length of 0 is allowed for video and means the PES ends when the next one starts.
+        pes.write(0);
+        pes.write(0x80);
+        pes.write(0x80);// PTS only
+        pes.write(5);
+        pes.write(0x21 | (int) ((pts >> 29) & 0x0E));
+        pes.write((int) (pts >> 22));
+        pes.write(0x01 | (int) ((pts >> 14) & 0xFE));
+        pes.write((int) (pts >> 7));
+        pes.write(0x01 | (int) ((pts << 1) & 0xFE));
+    }
+
+    private void writePackets(int pid, byte[] pes, long pcr, boolean randomAccess) {
+        int offset = 0;
+        boolean first = true;
+        while (offset < pes.length) {
+            // The first packet of each PES carries the PCR, plus a flag on key frames so players know they can start.
+            int adaptationMin = first ? 8 : 0;
+            int payload = Math.min(PACKET_SIZE - 4 - adaptationMin, pes.length - offset);
+            int adaptation = PACKET_SIZE - 4 - payload;
+            packet[0] = 0x47;
+            packet[1] = (byte) ((first ? 0x40 : 0) | (pid >> 8));
+            packet[2] = (byte) pid;
+            packet[3] = (byte) ((adaptation > 0 ? 0x30 : 0x10) | (videoCounter++ & 0x0F));
+            int position = 4;
+            if (adaptation > 0) {
+                packet[position++] = (byte) (adaptation - 1);
+                if (adaptation > 1) {
+                    int flags = 0;
+                    if (first) {
+                        flags |= 0x10;
+                        if (randomAccess) {
+                            flags |= 0x40;
+                        }
+                    }
+                    packet[position++] = (byte) flags;
+                    if (first) {
+                        long base = pcr & 0x1FFFFFFFFL;
+                        packet[position++] = (byte) (base >> 25);
+                        packet[position++] = (byte) (base >> 17);
+                        packet[position++] = (byte) (base >> 9);
+                        packet[position++] = (byte) (base >> 1);
+                        packet[position++] = (byte) (((base & 1) << 7) | 0x7E);
+                        packet[position++] = 0;
+                    }
+                    while (position < 4 + adaptation) {
+                        packet[position++] = (byte) 0xFF;
+                    }
+                }
+            }
+            System.arraycopy(pes, offset, packet, position, payload);
+            offset += payload;
+            current.write(packet, 0, PACKET_SIZE);
+            first = false;
+        }
+    }
+}
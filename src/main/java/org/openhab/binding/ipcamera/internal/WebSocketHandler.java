@@ -0,0 +1,199 @@
+/**
+ * Copyright (c) 2010-2019 Contributors to the openHAB project
+ *
+ * See the NOTICE file(s) distributed with this work for additional
+ * information.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+
+package org.openhab.binding.ipcamera.internal;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.eclipse.jdt.annotation.NonNullByDefault;
+import org.eclipse.jdt.annotation.Nullable;
+import org.openhab.binding.ipcamera.handler.IpCameraHandler;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpRequest;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.handler.codec.http.HttpServerCodec;
+import io.netty.handler.codec.http.websocketx.CloseWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.PingWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.PongWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.TextWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.WebSocketServerHandshaker;
+import io.netty.handler.codec.http.websocketx.WebSocketServerHandshakerFactory;
+import io.netty.handler.timeout.IdleState;
+import io.netty.handler.timeout.IdleStateEvent;
+import io.netty.util.ReferenceCountUtil;
+
+/**
+ * The {@link WebSocketHandler} class is responsible for a /ipcamera.ws connection after the upgrade. The socket starts
+ * subscribed to the camera it was opened on as stream 0, and text messages can add other cameras on the same socket:
+ * <ul>
+ * <li>"subscribe ThingID 3" sends that cameras frames with 3 as the stream id.</li>
+ * <li>"unsubscribe ThingID" stops them.</li>
+ * <li>"ping" is answered with "pong" and the time of the last frame of each subscribed camera, so a page can tell a
+ * stalled camera from a quiet one.</li>
+ * </ul>
+ *
+ * @author Matthew Skinner - Initial contribution
+ */
+
+@NonNullByDefault
+public class WebSocketHandler extends ChannelInboundHandlerAdapter {
+    public static final int MAX_STREAMS = 256;
+    private final Logger logger = LoggerFactory.getLogger(getClass());
+    private final IpCameraHandler ipCameraHandler;
+    private final String requestIP;
+    // Thing ID to the camera this socket is subscribed to.
+    private final Map<String, IpCameraHandler> subscriptions = new HashMap<>();
+
+    private WebSocketHandler(IpCameraHandler ipCameraHandler, String requestIP) {
+        this.ipCameraHandler = ipCameraHandler;
+        this.requestIP = requestIP;
+    }
+
+    /**
+     * Answers the upgrade request and, if it worked, puts a {@link WebSocketHandler} in place of the HTTP handler.
+     */
+    public static void upgrade(ChannelHandlerContext ctx, HttpRequest httpRequest, IpCameraHandler ipCameraHandler,
+            String requestIP) {
+        if (ctx.pipeline().get(HttpServerCodec.class) == null) {
+            // HTTP/2 streams can not be upgraded, browsers open a HTTP/1.1 connection for WebSockets.
+            StreamServerUtils.sendStatus(ctx, HttpResponseStatus.BAD_REQUEST);
+            return;
+        }
+        String location = "ws://" + httpRequest.headers().get(HttpHeaderNames.HOST, "") + httpRequest.uri();
+        WebSocketServerHandshaker handshaker = new WebSocketServerHandshakerFactory(location, null, true)
+                .newHandshaker(httpRequest);
+        if (handshaker == null) {
+            WebSocketServerHandshakerFactory.sendUnsupportedVersionResponse(ctx.channel());
+            return;
+        }
+        WebSocketHandler webSocketHandler = new WebSocketHandler(ipCameraHandler, requestIP);
+        handshaker.handshake(ctx.channel(), httpRequest).addListener(future -> {
+            if (future.isSuccess()) {
+                ctx.pipeline().replace(ctx.handler(), "webSocketHandler", webSocketHandler);
+            } else {
+                ctx.close();
+            }
+        });
+    }
+
+    @Override
+    public void handlerAdded(@Nullable ChannelHandlerContext ctx) {
+        subscribe(ctx, ipCameraHandler, 0);
+    }
+
+    @Override
+    public void channelRead(@Nullable ChannelHandlerContext ctx, @Nullable Object msg) throws Exception {
+        try {
+            if (msg instanceof TextWebSocketFrame) {
+                command(ctx, ((TextWebSocketFrame) msg).text().trim());
+            } else if (msg instanceof PingWebSocketFrame) {
+                ctx.writeAndFlush(new PongWebSocketFrame(((PingWebSocketFrame) msg).content().retain()));
+            } else if (msg instanceof CloseWebSocketFrame) {
+                ctx.writeAndFlush(((CloseWebSocketFrame) msg).retain()).addListener(future -> ctx.close());
+            }
+        } finally {
+            ReferenceCountUtil.release(msg);
+        }
+    }
+
+    private void command(ChannelHandlerContext ctx, String text) {
+        String[] words = text.split("\\s+");
+        switch (words[0]) {
+            case "subscribe":
+                IpCameraHandler camera = (words.length > 1) ? findCamera(words[1]) : null;
+                int streamId = -1;
+                try {
+                    streamId = (words.length > 2) ? Integer.parseInt(words[2]) : -1;
+                } catch (NumberFormatException e) {
+                }
+                if (camera == null) {
+                    ctx.writeAndFlush(new TextWebSocketFrame("error unknown camera " + text));
+                } else if (streamId < 0 || streamId >= MAX_STREAMS) {
+                    ctx.writeAndFlush(new TextWebSocketFrame("error stream id must be 0 to 255 " + text));
+                } else {
+                    subscribe(ctx, camera, streamId);
+                }
+                break;
+            case "unsubscribe":
+                IpCameraHandler subscribed = (words.length > 1) ? subscriptions.remove(words[1]) : null;
+                if (subscribed != null) {
+                    subscribed.webSocketStreamer.unsubscribe(ctx.channel());
+                    ctx.writeAndFlush(new TextWebSocketFrame("unsubscribed " + words[1]));
+                }
+                break;
+            case "ping":
+                StringBuilder pong = new StringBuilder("pong");
+                for (Map.Entry<String, IpCameraHandler> subscription : subscriptions.entrySet()) {
+                    pong.append(' ').append(subscription.getKey()).append('=')
+                            .append(subscription.getValue().webSocketStreamer.getLastFrameTime());
+                }
+                ctx.writeAndFlush(new TextWebSocketFrame(pong.toString()));
+                break;
+            default:
+                ctx.writeAndFlush(new TextWebSocketFrame("error unknown command " + text));
+        }
+    }
+
+    private void subscribe(ChannelHandlerContext ctx, IpCameraHandler camera, int streamId) {
+        String thingId = camera.getThing().getUID().getId();
+        subscriptions.put(thingId, camera);
+        camera.webSocketStreamer.subscribe(ctx.channel(), streamId);
+        ctx.writeAndFlush(new TextWebSocketFrame("subscribed " + thingId + " " + streamId));
+        // Ask for a fresh snapshot so the page does not stay blank until the next poll.
+        if (!camera.snapshotUri.isEmpty()) {
+            camera.requestSnapshot();
+        }
+    }
+
+    private @Nullable IpCameraHandler findCamera(String thingId) {
+        IpCameraHandler handler = ipCameraHandler.getCameraRegistry().getOnlineCamera(thingId);
+        if (handler == null) {
+            return null;
+        }
+        // each camera has its own whitelist, the socket was only checked against the first one.
+        String whiteList = handler.getWhiteList();
+        if (whiteList.contains(requestIP) || whiteList.equals("DISABLE")) {
+            return handler;
+        }
+        logger.warn("The WebSocket from {} is not in the whitelist of {}.", requestIP, thingId);
+        return null;
+    }
+
+    @Override
+    public void userEventTriggered(@Nullable ChannelHandlerContext ctx, @Nullable Object evt) throws Exception {
+        if (evt instanceof IdleStateEvent && ((IdleStateEvent) evt).state() == IdleState.WRITER_IDLE) {
+            // no frames for a while, a ping keeps proxies from closing the socket.
+            ctx.writeAndFlush(new PingWebSocketFrame());
+        }
+    }
+
+    @Override
+    public void exceptionCaught(@Nullable ChannelHandlerContext ctx, @Nullable Throwable cause) throws Exception {
+        logger.debug("WebSocket from {} closed: {}", requestIP, cause.toString());
+        ctx.close();
+    }
+
+    @Override
+    public void handlerRemoved(@Nullable ChannelHandlerContext ctx) {
+        for (IpCameraHandler camera : subscriptions.values()) {
+            camera.webSocketStreamer.unsubscribe(ctx.channel());
+        }
+        subscriptions.clear();
+    }
+}
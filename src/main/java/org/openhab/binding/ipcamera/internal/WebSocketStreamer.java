@@ -0,0 +1,116 @@
+/**
+ * Copyright (c) 2010-2019 Contributors to the openHAB project
+ *
+ * See the NOTICE file(s) distributed with this work for additional
+ * information.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+
+package org.openhab.binding.ipcamera.internal;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.eclipse.jdt.annotation.NonNullByDefault;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.Channel;
+import io.netty.handler.codec.http.websocketx.BinaryWebSocketFrame;
+
+/**
+ * The {@link WebSocketStreamer} class is responsible for sending the JPEGs of one camera to every WebSocket that has
+ * subscribed to it. Each JPEG is wrapped once and shared by all sockets, only the small header in front of it is made
+ * for each socket. A socket that still has the last frame waiting to be sent skips frames until it catches up.
+ *
+ * Each binary message is a 16 byte header followed by the JPEG. All numbers are big endian.
+ * <ul>
+ * <li>byte 0: header version, currently 1.</li>
+ * <li>byte 1: the stream id the client picked when it subscribed.</li>
+ * <li>bytes 2-3: the length of the header, so newer versions can add to it.</li>
+ * <li>bytes 4-7: the sequence number of the frame, which goes up by one for each frame the camera makes, so a gap
+ * shows frames were skipped.</li>
+ * <li>bytes 8-15: the time the frame was received, in milliseconds since 1970.</li>
+ * </ul>
+ *
+ * @author Matthew Skinner - Initial contribution
+ */
+
+@NonNullByDefault
+public class WebSocketStreamer {
+    public static final int HEADER_VERSION = 1;
+    public static final int HEADER_LENGTH = 16;
+    private final Logger logger = LoggerFactory.getLogger(getClass());
+    // socket to the stream id it asked for.
+    private final Map<Channel, Integer> subscribers = new ConcurrentHashMap<>();
+    private int sequence = 0;
+    private volatile long lastFrameTime = 0;
+    private final LongAdder droppedFrames = new LongAdder();
+
+    public void subscribe(Channel channel, int streamId) {
+        subscribers.put(channel, streamId);
+    }
+
+    public void unsubscribe(Channel channel) {
+        subscribers.remove(channel);
+    }
+
+    public boolean hasClients() {
+        return !subscribers.isEmpty();
+    }
+
+    public int getClientCount() {
+        return subscribers.size();
+    }
+
+    public long getDroppedFrames() {
+        return droppedFrames.sum();
+    }
+
+    /**
+     * @return when the last frame was sent, in milliseconds since 1970, or 0 if there has not been one.
+     */
+    public long getLastFrameTime() {
+        return lastFrameTime;
+    }
+
+    public void sendFrame(byte[] jpg) {
+        if (subscribers.isEmpty() || jpg.length < 2) {
+            return;
+        }
+        int frameSequence;
+        synchronized (this) {
+            frameSequence = sequence++;
+        }
+        long now = System.currentTimeMillis();
+        lastFrameTime = now;
+        ByteBuf image = Unpooled.wrappedBuffer(jpg);
+        for (Map.Entry<Channel, Integer> subscriber : subscribers.entrySet()) {
+            Channel channel = subscriber.getKey();
+            if (!channel.isActive()) {
+                subscribers.remove(channel);
+            } else if (!channel.isWritable()) {
+                droppedFrames.increment();
+                logger.trace("WebSocket {} is too slow, skipping frame {}", channel.remoteAddress(), frameSequence);
+            } else {
+                ByteBuf header = Unpooled.buffer(HEADER_LENGTH, HEADER_LENGTH);
+                header.writeByte(HEADER_VERSION);
+                header.writeByte(subscriber.getValue());
+                header.writeShort(HEADER_LENGTH);
+                header.writeInt(frameSequence);
+                header.writeLong(now);
+                channel.writeAndFlush(
+                        new BinaryWebSocketFrame(Unpooled.wrappedBuffer(header, image.retainedDuplicate())));
+            }
+        }
+        image.release();
+    }
+}
@@ -0,0 +1,105 @@
+/**
+ * Copyright (c) 2010-2019 Contributors to the openHAB project
+ *
+ * See the NOTICE file(s) distributed with this work for additional
+ * information.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+
+package org.openhab.binding.ipcamera.internal;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.eclipse.jdt.annotation.NonNullByDefault;
+import org.junit.Test;
+
+/**
+ * Tests for {@link AnnexBReader}.
+ *
+ * @author Matthew Skinner - Initial contribution
+ */
+
+@NonNullByDefault
+public class AnnexBReaderTest {
+    // the zero that a 4 byte start code leaves on the end of the PPS is not part of it.
+    private static final List<String> EXPECTED = Arrays.asList("67420028 68ce 658884000301 key", "419a02 ",
+            "419a03 ");
+    private final List<String> accessUnits = new ArrayList<>();
+    private final AnnexBReader reader = new AnnexBReader();
+
+    {
+        reader.addListener((nalUnits, timestamp, keyFrame) -> {
+            StringBuilder description = new StringBuilder();
+            for (byte[] nalUnit : nalUnits) {
+                for (byte value : nalUnit) {
+                    description.append(String.format("%02x", value & 0xFF));
+                }
+                description.append(' ');
+            }
+            accessUnits.add(description.append(keyFrame ? "key" : "").toString());
+        });
+    }
+
+    private static byte[] bytes(int... values) {
+        byte[] bytes = new byte[values.length];
+        for (int i = 0; i < values.length; i++) {
+            bytes[i] = (byte) values[i];
+        }
+        return bytes;
+    }
+
+    // junk from before the stream was joined, a key frame, two more pictures and the start of the next.
+    private static byte[] stream() {
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        for (byte[] part : Arrays.asList(bytes(0xAB, 0x00, 0xCD), bytes(0, 0, 0, 1, 0x67, 0x42, 0x00, 0x28),
+                bytes(0, 0, 1, 0x68, 0xCE), bytes(0, 0, 0, 1, 0x65, 0x88, 0x84, 0x00, 0x03, 0x01),
+                bytes(0, 0, 0, 1, 0x41, 0x9A, 0x02), bytes(0, 0, 1, 0x41, 0x9A, 0x03), bytes(0, 0, 0, 1, 0x09, 0xF0),
+                bytes(0, 0, 0, 1, 0x67))) {
+            stream.write(part, 0, part.length);
+        }
+        return stream.toByteArray();
+    }
+
+    private void feed(byte[] data) {
+        reader.ffmpegOutput(data, data.length);
+    }
+
+    @Test
+    public void splitsTheStreamIntoPicturesInReadsOfAnySize() {
+        byte[] stream = stream();
+        for (int chunk : new int[] { 1, 2, 3, 5, stream.length }) {
+            AnnexBReader split = new AnnexBReader();
+            List<String> found = new ArrayList<>();
+            split.addListener((nalUnits, timestamp, keyFrame) -> found.add(nalUnits.size() + (keyFrame ? "k" : "")));
+            for (int offset = 0; offset < stream.length; offset += chunk) {
+                byte[] read = Arrays.copyOfRange(stream, offset, Math.min(stream.length, offset + chunk));
+                // ffmpeg's buffer is bigger than what it read, only the length is used.
+                byte[] padded = Arrays.copyOf(read, read.length + 4);
+                split.ffmpegOutput(padded, read.length);
+            }
+            assertEquals("chunks of " + chunk, Arrays.asList("3k", "1", "1"), found);
+        }
+        feed(stream);
+        assertEquals(EXPECTED, accessUnits);
+    }
+
+    @Test
+    public void startsCleanAfterFfmpegStopsPartWayThroughAPicture() {
+        byte[] stream = stream();
+        feed(Arrays.copyOf(stream, 24));
+        reader.ffmpegStopped();
+        accessUnits.clear();
+        feed(stream);
+        assertEquals(EXPECTED, accessUnits);
+    }
+}
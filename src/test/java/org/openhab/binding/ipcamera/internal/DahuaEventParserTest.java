@@ -0,0 +1,97 @@
+/**
+ * Copyright (c) 2010-2019 Contributors to the openHAB project
+ *
+ * See the NOTICE file(s) distributed with this work for additional
+ * information.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+
+package org.openhab.binding.ipcamera.internal;
+
+import static org.junit.Assert.*;
+
+import java.util.List;
+
+import org.eclipse.jdt.annotation.NonNullByDefault;
+import org.junit.Test;
+
+/**
+ * Tests for {@link DahuaEventParser}.
+ *
+ * @author Matthew Skinner - Initial contribution
+ */
+
+@NonNullByDefault
+public class DahuaEventParserTest {
+    private static final String HEADERS = "--myboundary\r\nContent-Type: text/plain\r\nContent-Length:39\r\n\r\n";
+
+    @Test
+    public void readsAnEventLine() {
+        List<DahuaEventParser.Event> events = new DahuaEventParser()
+                .feed(HEADERS + "Code=VideoMotion;action=Start;index=0\r\n");
+        assertEquals(1, events.size());
+        assertEquals("VideoMotion", events.get(0).code);
+        assertTrue(events.get(0).start);
+        assertEquals(0, events.get(0).index);
+    }
+
+    @Test
+    public void keepsALineThatIsSplitBetweenChunks() {
+        DahuaEventParser parser = new DahuaEventParser();
+        assertTrue(parser.feed(HEADERS + "Code=VideoMo").isEmpty());
+        assertTrue(parser.feed("tion;action=Stop;ind").isEmpty());
+        List<DahuaEventParser.Event> events = parser.feed("ex=12\r\n");
+        assertEquals(1, events.size());
+        assertEquals("VideoMotion", events.get(0).code);
+        assertFalse(events.get(0).start);
+        assertEquals(12, events.get(0).index);
+    }
+
+    @Test
+    public void readsEveryEventInAChunk() {
+        List<DahuaEventParser.Event> events = new DahuaEventParser()
+                .feed(HEADERS + "Code=VideoMotion;action=Start;index=0\r\n\r\n" + HEADERS
+                        + "Code=AudioMutation;action=Start;index=2\r\n\r\n");
+        assertEquals(2, events.size());
+        assertEquals("VideoMotion", events.get(0).code);
+        assertEquals("AudioMutation", events.get(1).code);
+        assertEquals(2, events.get(1).index);
+    }
+
+    @Test
+    public void skipsTheJsonInTheData() {
+        DahuaEventParser parser = new DahuaEventParser();
+        String data = "{\n   \"Code=\" : \"a;b\",\n   \"Name\" : \"Rule1\"\n}";
+        List<DahuaEventParser.Event> events = parser
+                .feed(HEADERS + "Code=CrossLineDetection;action=Start;index=1;data=" + data + "\r\n");
+        assertEquals(1, events.size());
+        assertEquals("CrossLineDetection", events.get(0).code);
+        assertEquals(1, events.get(0).index);
+    }
+
+    @Test
+    public void ignoresLinesThatAreNotStartOrStop() {
+        DahuaEventParser parser = new DahuaEventParser();
+        assertTrue(parser.feed("Code=NTPAdjustTime;action=Pulse;index=0\r\n").isEmpty());
+        assertTrue(parser.feed("Code=VideoMotion;action=Start;index=x\r\n").isEmpty());
+        assertTrue(parser.feed("Code=VideoMotion;action=Start\r\n").isEmpty());
+        assertTrue(parser.feed("Heartbeat\r\n").isEmpty());
+    }
+
+    @Test
+    public void dropsALineThatNeverEnds() {
+        DahuaEventParser parser = new DahuaEventParser();
+        StringBuilder longLine = new StringBuilder("Code=VideoMotion;action=Start;index=0;data=");
+        for (int i = 0; i < 5000; i++) {
+            longLine.append('x');
+        }
+        assertTrue(parser.feed(longLine.toString()).isEmpty());
+        assertTrue(parser.feed("\r\n").isEmpty());
+        assertEquals(1, parser.feed("Code=VideoMotion;action=Stop;index=0\r\n").size());
+    }
+}
@@ -0,0 +1,100 @@
+/**
+ * Copyright (c) 2010-2019 Contributors to the openHAB project
+ *
+ * See the NOTICE file(s) distributed with this work for additional
+ * information.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+
+package org.openhab.binding.ipcamera.internal;
+
+import java.util.Locale;
+
+import org.eclipse.jdt.annotation.NonNullByDefault;
+
+/**
+ * The {@link EventMatcherBenchmark} class is responsible for timing {@link EventMatcher} against the chain of
+ * String.contains() calls the brand handlers used before it, with the Amcrest and Foscam tables on replies of a few
+ * sizes. It is not run with the tests, run its main method from the IDE or with java -cp on the test classes. The
+ * numbers are only a guide, as the JIT is given a short warm up and nothing else.
+ *
+ * @author Matthew Skinner - Initial contribution
+ */
+
+@NonNullByDefault
+public class EventMatcherBenchmark {
+    private static final String[] AMCREST_PATTERNS = { "Error: No Events", "channels[0]=0",
+            "table.MotionDetect[0].Enable=false", "table.MotionDetect[0].Enable=true",
+            "table.AudioDetect[0].MutationDetect=true", "table.AudioDetect[0].MutationDetect=false",
+            "table.AudioDetect[0].MutationThreold=" };
+    private static final String[] FOSCAM_PATTERNS = { "<motionDetectAlarm>0</motionDetectAlarm>",
+            "<motionDetectAlarm>1</motionDetectAlarm>", "<motionDetectAlarm>2</motionDetectAlarm>",
+            "<soundAlarm>0</soundAlarm>", "<soundAlarm>1</soundAlarm>", "<soundAlarm>2</soundAlarm>",
+            "<sensitivity>0</sensitivity>", "<sensitivity>1</sensitivity>", "<sensitivity>2</sensitivity>",
+            "<infraLedState>0</infraLedState>", "<infraLedState>1</infraLedState>", "</CGI_Result>",
+            "/cgi-bin/CGIProxy.fcgi?cmd=getDevState&usr=" };
+    private static final int WARM_UP = 20000;
+    private static final int RUNS = 200000;
+
+    public static void main(String[] args) {
+        for (int lines : new int[] { 1, 20, 200 }) {
+            StringBuilder reply = new StringBuilder();
+            for (int i = 0; i < lines; i++) {
+                reply.append("table.MotionDetect[0].EventHandler.TimeSection[").append(i)
+                        .append("][0]=1 00:00:00-23:59:59\r\n");
+            }
+            reply.append("table.MotionDetect[0].Enable=true\r\n");
+            run("Amcrest getConfig", AMCREST_PATTERNS, reply.toString());
+        }
+        for (int lines : new int[] { 1, 20, 200 }) {
+            StringBuilder reply = new StringBuilder("<CGI_Result>\n<result>0</result>\n");
+            for (int i = 0; i < lines; i++) {
+                reply.append("<IOAlarm>0</IOAlarm>\n<humanDetectAlarm>0</humanDetectAlarm>\n");
+            }
+            run("Foscam getDevState", FOSCAM_PATTERNS, reply
+                    .append("<motionDetectAlarm>1</motionDetectAlarm>\n<soundAlarm>0</soundAlarm>\n</CGI_Result>\n")
+                    .toString());
+        }
+    }
+
+    private static void run(String name, String[] patterns, String reply) {
+        EventMatcher.Builder<Integer> builder = new EventMatcher.Builder<>();
+        for (int i = 0; i < patterns.length; i++) {
+            builder.add(patterns[i], i);
+        }
+        EventMatcher<Integer> matcher = builder.build();
+        long sink = 0;
+        for (int i = 0; i < WARM_UP; i++) {
+            sink += containsChain(patterns, reply) + matcher.match(reply).size();
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < RUNS; i++) {
+            sink += containsChain(patterns, reply);
+        }
+        long containsNs = System.nanoTime() - start;
+        start = System.nanoTime();
+        for (int i = 0; i < RUNS; i++) {
+            sink += matcher.match(reply).size();
+        }
+        long matcherNs = System.nanoTime() - start;
+        // sink is printed so the JIT can not drop the work.
+        System.out.println(String.format(Locale.ROOT,
+                "%-18s %6d chars: contains() %9.1f ns, EventMatcher %9.1f ns, %.2fx (%d)", name, reply.length(),
+                (double) containsNs / RUNS, (double) matcherNs / RUNS, (double) containsNs / matcherNs, sink));
+    }
+
+    private static int containsChain(String[] patterns, String reply) {
+        int found = 0;
+        for (String pattern : patterns) {
+            if (reply.contains(pattern)) {
+                found++;
+            }
+        }
+        return found;
+    }
+}
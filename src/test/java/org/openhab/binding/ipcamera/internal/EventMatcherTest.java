@@ -0,0 +1,111 @@
+/**
+ * Copyright (c) 2010-2019 Contributors to the openHAB project
+ *
+ * See the NOTICE file(s) distributed with this work for additional
+ * information.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+
+package org.openhab.binding.ipcamera.internal;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.eclipse.jdt.annotation.NonNullByDefault;
+import org.junit.Test;
+
+/**
+ * Tests for {@link EventMatcher}.
+ *
+ * @author Matthew Skinner - Initial contribution
+ */
+
+@NonNullByDefault
+public class EventMatcherTest {
+
+    private static EventMatcher<String> build(String... patterns) {
+        EventMatcher.Builder<String> builder = new EventMatcher.Builder<>();
+        for (String pattern : patterns) {
+            builder.add(pattern, pattern);
+        }
+        return builder.build();
+    }
+
+    @Test
+    public void findsPatternsInTheOrderTheyWereAdded() {
+        EventMatcher<String> matcher = build("he", "she", "his", "hers");
+        assertEquals(Arrays.asList("he", "she", "hers"), matcher.match("ushers"));
+    }
+
+    @Test
+    public void findsPatternsThatEndInsideOthers() {
+        EventMatcher<String> matcher = build("abc", "bc", "c", "abd");
+        assertEquals(Arrays.asList("abc", "bc", "c"), matcher.match("xxabcxx"));
+    }
+
+    @Test
+    public void reportsEachPatternOnce() {
+        EventMatcher<String> matcher = build("index=0", "Start");
+        assertEquals(Arrays.asList("index=0", "Start"),
+                matcher.match("Start;index=0\r\nStart;index=0\r\nStart;index=0\r\n"));
+    }
+
+    @Test
+    public void returnsNothingWhenNoPatternIsFound() {
+        EventMatcher<String> matcher = build("table.MotionDetect[0].Enable=true");
+        assertEquals(Collections.emptyList(), matcher.match("table.MotionDetect[0].Enable=false"));
+        assertEquals(Collections.emptyList(), matcher.match(""));
+    }
+
+    @Test
+    public void matchesCharactersOutsideAscii() {
+        EventMatcher<String> matcher = build("temp\u00e9rature=", "=\u00e9");
+        assertEquals(Arrays.asList("temp\u00e9rature=", "=\u00e9"), matcher.match("la temp\u00e9rature=\u00e9"));
+    }
+
+    @Test
+    public void searchesOnceForPatternsThatStartTheSameWay() {
+        EventMatcher<String> matcher = build("Error: No Events", "channels[0]=0", "table.MotionDetect[0].Enable=false",
+                "table.MotionDetect[0].Enable=true", "table.AudioDetect[0].MutationDetect=true",
+                "table.AudioDetect[0].MutationDetect=false", "table.AudioDetect[0].MutationThreold=");
+        assertEquals(4, matcher.getGroupCount());
+        // a shared start found where the rest of the pattern is not does not stop the search.
+        assertEquals(Arrays.asList("table.MotionDetect[0].Enable=true"),
+                matcher.match("table.MotionDetect[0].Enable=1\r\ntable.MotionDetect[0].Enable=true\r\n"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsAnEmptyPattern() {
+        build("");
+    }
+
+    @Test
+    public void agreesWithContainsForBrandReplies() {
+        String[] patterns = { "Error: No Events", "channels[0]=0", "table.MotionDetect[0].Enable=false",
+                "table.MotionDetect[0].Enable=true", "table.AudioDetect[0].MutationDetect=true",
+                "table.AudioDetect[0].MutationDetect=false", "table.AudioDetect[0].MutationThreold=" };
+        EventMatcher<String> matcher = build(patterns);
+        String[] replies = { "Error\r\nError: No Events\r\n", "channels[0]=0\r\n",
+                "table.MotionDetect[0].Enable=true\r\ntable.MotionDetect[0].EventHandler.Dejitter=5\r\n",
+                "table.AudioDetect[0].MutationDetect=false\r\ntable.AudioDetect[0].MutationThreold=50\r\n",
+                "table.MotionDetect[0].Enable=falsetable.MotionDetect[0].Enable=true", "OK\r\n" };
+        for (String reply : replies) {
+            List<String> expected = new ArrayList<>();
+            for (String pattern : patterns) {
+                if (reply.contains(pattern)) {
+                    expected.add(pattern);
+                }
+            }
+            assertEquals(reply, expected, matcher.match(reply));
+        }
+    }
+}
@@ -0,0 +1,137 @@
+/**
+ * Copyright (c) 2010-2019 Contributors to the openHAB project
+ *
+ * See the NOTICE file(s) distributed with this work for additional
+ * information.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+
+package org.openhab.binding.ipcamera.internal;
+
+import static org.junit.Assert.*;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.eclipse.jdt.annotation.NonNullByDefault;
+import org.junit.Test;
+
+/**
+ * Tests for {@link GroupPlaylist}.
+ *
+ * @author Matthew Skinner - Initial contribution
+ */
+
+@NonNullByDefault
+public class GroupPlaylistTest {
+
+    // a camera playlist with segments of 2 seconds, numbered from first.
+    private static HlsPlaylist playlist(long first, int count) {
+        List<HlsPlaylist.Segment> segments = new ArrayList<>();
+        for (long sequence = first; sequence < first + count; sequence++) {
+            segments.add(new HlsPlaylist.Segment(sequence, 2, "ipcamera" + sequence + ".ts", false));
+        }
+        return new HlsPlaylist(2, first, segments);
+    }
+
+    private static String text(GroupPlaylist groupPlaylist) {
+        return new String(groupPlaylist.getBytes(), StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void addsTheNewestSegmentsWithThePrefix() {
+        GroupPlaylist groupPlaylist = new GroupPlaylist();
+        assertTrue(groupPlaylist.isEmpty());
+        groupPlaylist.add("0", playlist(10, 3), 4);
+        assertFalse(groupPlaylist.isEmpty());
+        String text = text(groupPlaylist);
+        assertFalse(text.contains("0ipcamera10.ts"));
+        assertTrue(text.contains("#EXTINF:2.000,\n0ipcamera11.ts\n#EXTINF:2.000,\n0ipcamera12.ts\n"));
+        assertTrue(text.contains("#EXT-X-MEDIA-SEQUENCE:0\n"));
+        assertFalse(text.contains("#EXT-X-DISCONTINUITY\n"));
+    }
+
+    @Test
+    public void doesNotAddASegmentTwice() {
+        GroupPlaylist groupPlaylist = new GroupPlaylist();
+        groupPlaylist.add("0", playlist(10, 3), 2);
+        byte[] first = groupPlaylist.getBytes();
+        groupPlaylist.add("0", playlist(10, 3), 2);
+        assertSame(first, groupPlaylist.getBytes());
+        groupPlaylist.add("0", playlist(11, 3), 4);
+        String text = text(groupPlaylist);
+        assertEquals(text.indexOf("0ipcamera12.ts"), text.lastIndexOf("0ipcamera12.ts"));
+        assertTrue(text.contains("0ipcamera12.ts\n#EXTINF:2.000,\n0ipcamera13.ts\n"));
+    }
+
+    @Test
+    public void marksTheChangeToAnotherCamera() {
+        GroupPlaylist groupPlaylist = new GroupPlaylist();
+        groupPlaylist.add("0", playlist(10, 3), 2);
+        groupPlaylist.add("1", playlist(5, 2), 2);
+        assertTrue(text(groupPlaylist)
+                .contains("0ipcamera12.ts\n#EXT-X-DISCONTINUITY\n#EXTINF:2.000,\n1ipcamera6.ts\n"));
+    }
+
+    @Test
+    public void marksAGapInOneCamerasSegments() {
+        GroupPlaylist groupPlaylist = new GroupPlaylist();
+        groupPlaylist.add("0", playlist(10, 3), 2);
+        groupPlaylist.add("0", playlist(20, 3), 2);
+        assertTrue(text(groupPlaylist)
+                .contains("0ipcamera12.ts\n#EXT-X-DISCONTINUITY\n#EXTINF:2.000,\n0ipcamera22.ts\n"));
+    }
+
+    @Test
+    public void carriesOnAfterACamerasFfmpegRestartsFromZero() {
+        GroupPlaylist groupPlaylist = new GroupPlaylist();
+        groupPlaylist.add("0", playlist(500, 3), 2);
+        groupPlaylist.add("0", playlist(0, 3), 2);
+        assertTrue(text(groupPlaylist)
+                .contains("0ipcamera502.ts\n#EXT-X-DISCONTINUITY\n#EXTINF:2.000,\n0ipcamera2.ts\n"));
+        groupPlaylist.add("0", playlist(1, 3), 2);
+        assertTrue(text(groupPlaylist).contains("0ipcamera2.ts\n#EXTINF:2.000,\n0ipcamera3.ts\n"));
+    }
+
+    @Test
+    public void marksARestartWhenOnlyTheMediaSequenceGoesBack() {
+        GroupPlaylist groupPlaylist = new GroupPlaylist();
+        groupPlaylist.add("0", playlist(10, 3), 2);
+        // numbered on from before, but the playlist itself starts again.
+        groupPlaylist.add("0", playlist(0, 14), 2);
+        assertTrue(text(groupPlaylist)
+                .contains("0ipcamera12.ts\n#EXT-X-DISCONTINUITY\n#EXTINF:2.000,\n0ipcamera13.ts\n"));
+    }
+
+    @Test
+    public void slidesTheWindowAndKeepsCountingTheSequences() {
+        GroupPlaylist groupPlaylist = new GroupPlaylist();
+        groupPlaylist.add("0", playlist(10, 1), 2);
+        for (int camera = 1; camera <= GroupPlaylist.MIN_SEGMENTS; camera++) {
+            groupPlaylist.add(Integer.toString(camera), playlist(10, 1), 2);
+        }
+        String text = text(groupPlaylist);
+        assertFalse(text.contains("0ipcamera10.ts"));
+        assertTrue(text.contains("#EXT-X-MEDIA-SEQUENCE:1\n"));
+        // the segment that is now first lost its discontinuity tag to the count.
+        assertTrue(text.contains("#EXT-X-DISCONTINUITY-SEQUENCE:1\n#EXTINF:2.000,\n1ipcamera10.ts\n"));
+        groupPlaylist.clear();
+        assertTrue(groupPlaylist.isEmpty());
+        groupPlaylist.add("0", playlist(11, 1), 2);
+        assertTrue(text(groupPlaylist).contains("#EXT-X-MEDIA-SEQUENCE:" + (GroupPlaylist.MIN_SEGMENTS + 1) + "\n"));
+    }
+
+    @Test
+    public void isWantedOnceItHasBeenAskedFor() {
+        GroupPlaylist groupPlaylist = new GroupPlaylist();
+        assertFalse(groupPlaylist.isWanted());
+        groupPlaylist.getBytes();
+        assertTrue(groupPlaylist.isWanted());
+    }
+}
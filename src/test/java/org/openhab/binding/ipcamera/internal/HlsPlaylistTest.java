@@ -0,0 +1,92 @@
+/**
+ * Copyright (c) 2010-2019 Contributors to the openHAB project
+ *
+ * See the NOTICE file(s) distributed with this work for additional
+ * information.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+
+package org.openhab.binding.ipcamera.internal;
+
+import static org.junit.Assert.*;
+
+import java.nio.charset.StandardCharsets;
+
+import org.eclipse.jdt.annotation.NonNullByDefault;
+import org.junit.Test;
+
+/**
+ * Tests for {@link HlsPlaylist}.
+ *
+ * @author Matthew Skinner - Initial contribution
+ */
+
+@NonNullByDefault
+public class HlsPlaylistTest {
+    private static final String FFMPEG_PLAYLIST = "#EXTM3U\n#EXT-X-VERSION:3\n#EXT-X-TARGETDURATION:3\n"
+            + "#EXT-X-MEDIA-SEQUENCE:41\n#EXTINF:2.000000,\nipcamera41.ts\n#EXTINF:2.500000,\nipcamera42.ts\n"
+            + "#EXT-X-DISCONTINUITY\n#EXTINF:1.960000,\nipcamera43.ts\n";
+
+    private static HlsPlaylist parse(String text) {
+        return HlsPlaylist.parse(text.getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void readsTheSegments() {
+        HlsPlaylist playlist = parse(FFMPEG_PLAYLIST);
+        assertEquals(3, playlist.targetDuration);
+        assertEquals(41, playlist.mediaSequence);
+        assertEquals(3, playlist.segments.size());
+        assertEquals(41, playlist.segments.get(0).sequence);
+        assertEquals("ipcamera41.ts", playlist.segments.get(0).uri);
+        assertEquals(2.5, playlist.segments.get(1).duration, 0.0001);
+        assertFalse(playlist.segments.get(1).discontinuity);
+        assertTrue(playlist.segments.get(2).discontinuity);
+        HlsPlaylist.Segment last = playlist.getLast();
+        assertNotNull(last);
+        assertEquals(43, last.sequence);
+    }
+
+    @Test
+    public void readsWindowsLineEnds() {
+        HlsPlaylist playlist = parse(FFMPEG_PLAYLIST.replace("\n", "\r\n"));
+        assertEquals(3, playlist.segments.size());
+        assertEquals("ipcamera43.ts", playlist.segments.get(2).uri);
+    }
+
+    @Test
+    public void skipsALineFfmpegIsStillWriting() {
+        HlsPlaylist playlist = parse("#EXTM3U\n#EXT-X-TARGETDURATION:\n#EXT-X-MEDIA-SEQUENCE:7\n#EXTINF:2.0,\n"
+                + "ipcamera7.ts\n#EXTINF:");
+        assertEquals(1, playlist.targetDuration);
+        assertEquals(1, playlist.segments.size());
+        assertEquals(7, playlist.segments.get(0).sequence);
+    }
+
+    @Test
+    public void hasNoLastSegmentWhenEmpty() {
+        HlsPlaylist playlist = parse("#EXTM3U\n#EXT-X-TARGETDURATION:2\n");
+        assertTrue(playlist.segments.isEmpty());
+        assertNull(playlist.getLast());
+    }
+
+    @Test
+    public void writesWhatItReads() {
+        HlsPlaylist playlist = parse(FFMPEG_PLAYLIST);
+        HlsPlaylist again = HlsPlaylist.parse(playlist.toBytes());
+        assertEquals(playlist.targetDuration, again.targetDuration);
+        assertEquals(playlist.mediaSequence, again.mediaSequence);
+        assertEquals(playlist.segments.size(), again.segments.size());
+        for (int i = 0; i < playlist.segments.size(); i++) {
+            assertEquals(playlist.segments.get(i).sequence, again.segments.get(i).sequence);
+            assertEquals(playlist.segments.get(i).duration, again.segments.get(i).duration, 0.0001);
+            assertEquals(playlist.segments.get(i).uri, again.segments.get(i).uri);
+            assertEquals(playlist.segments.get(i).discontinuity, again.segments.get(i).discontinuity);
+        }
+    }
+}
@@ -0,0 +1,123 @@
+/**
+ * Copyright (c) 2010-2019 Contributors to the openHAB project
+ *
+ * See the NOTICE file(s) distributed with this work for additional
+ * information.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+
+package org.openhab.binding.ipcamera.internal;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.eclipse.jdt.annotation.NonNullByDefault;
+import org.junit.Test;
+import org.xmlpull.v1.XmlPullParserException;
+
+/**
+ * Tests for {@link IsapiParser}.
+ *
+ * @author Matthew Skinner - Initial contribution
+ */
+
+@NonNullByDefault
+public class IsapiParserTest {
+    private static final String ALERT = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\r\n"
+            + "<EventNotificationAlert version=\"2.0\" xmlns=\"http://www.hikvision.com/ver20/XMLSchema\">\r\n"
+            + "<ipAddress>192.168.1.64</ipAddress>\r\n<portNo>80</portNo>\r\n<protocol>HTTP</protocol>\r\n"
+            + "<channelID>1</channelID>\r\n<dateTime>2020-02-01T10:00:00+08:00</dateTime>\r\n"
+            + "<activePostCount>1</activePostCount>\r\n<eventType>linedetection</eventType>\r\n"
+            + "<eventState>active</eventState>\r\n<eventDescription>linedetection alarm</eventDescription>\r\n"
+            + "<DetectionRegionList>\r\n<DetectionRegionEntry>\r\n<regionID>1</regionID>\r\n"
+            + "<sensitivityLevel>50</sensitivityLevel>\r\n</DetectionRegionEntry>\r\n<DetectionRegionEntry>\r\n"
+            + "<regionID>3</regionID>\r\n</DetectionRegionEntry>\r\n</DetectionRegionList>\r\n"
+            + "</EventNotificationAlert>\r\n";
+
+    @Test
+    public void readsAnAlert() throws Exception {
+        List<IsapiParser.Alert> alerts = new IsapiParser().feed("--boundary\r\nContent-Type: application/xml\r\n\r\n"
+                + ALERT);
+        assertEquals(1, alerts.size());
+        IsapiParser.Alert alert = alerts.get(0);
+        assertEquals("1", alert.channelID);
+        assertEquals("linedetection", alert.eventType);
+        assertEquals("active", alert.eventState);
+        assertEquals("2020-02-01T10:00:00+08:00", alert.dateTime);
+        assertEquals(Arrays.asList("1", "3"), alert.regionIDs);
+    }
+
+    @Test
+    public void readsAnAlertSentOneCharacterAtATime() throws Exception {
+        IsapiParser parser = new IsapiParser();
+        List<IsapiParser.Alert> alerts = new ArrayList<>();
+        for (int i = 0; i < ALERT.length(); i++) {
+            alerts.addAll(parser.feed(ALERT.substring(i, i + 1)));
+            if (alerts.isEmpty() && i > ALERT.indexOf("<Event") + 30) {
+                assertTrue(parser.isInAlert());
+            }
+        }
+        assertEquals(1, alerts.size());
+        assertEquals("linedetection", alerts.get(0).eventType);
+        assertFalse(parser.isInAlert());
+    }
+
+    @Test
+    public void readsEveryAlertInAChunk() throws Exception {
+        String videoLoss = ALERT.replace("linedetection", "videoloss").replace("<channelID>1</channelID>",
+                "<dynChannelID>2</dynChannelID>");
+        List<IsapiParser.Alert> alerts = new IsapiParser().feed(ALERT + "--boundary\r\n\r\n" + videoLoss);
+        assertEquals(2, alerts.size());
+        assertEquals("linedetection", alerts.get(0).eventType);
+        assertEquals("videoloss", alerts.get(1).eventType);
+        assertEquals("2", alerts.get(1).channelID);
+    }
+
+    @Test
+    public void dropsAnAlertThatNeverEnds() throws Exception {
+        IsapiParser parser = new IsapiParser();
+        StringBuilder large = new StringBuilder("<EventNotificationAlert><eventDescription>");
+        for (int i = 0; i < 70000; i++) {
+            large.append('x');
+        }
+        try {
+            parser.feed(large.toString());
+            fail("The alert should be too large.");
+        } catch (XmlPullParserException e) {
+            // expected, the parser can be used again.
+        }
+        assertFalse(parser.isInAlert());
+        assertEquals(1, parser.feed(ALERT).size());
+    }
+
+    @Test
+    public void readsAReply() {
+        IsapiParser.Reply reply = IsapiParser.parseReply("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+                + "<MotionDetection version=\"2.0\" xmlns=\"http://www.hikvision.com/ver20/XMLSchema\">\n"
+                + "  <enabled>true</enabled>\n  <enableHighlight>false</enableHighlight>\n"
+                + "  <MotionDetectionLayout>\n    <enabled>false</enabled>\n  </MotionDetectionLayout>\n"
+                + "</MotionDetection>\n");
+        assertNotNull(reply);
+        assertEquals("MotionDetection", reply.root);
+        assertEquals("true", reply.get("enabled"));
+        assertEquals("false", reply.get("enableHighlight"));
+        assertEquals("", reply.get("missing"));
+    }
+
+    @Test
+    public void readsOnlyXmlAsAReply() {
+        assertTrue(IsapiParser.isXml("  \r\n<ResponseStatus/>"));
+        assertFalse(IsapiParser.isXml("Error: No Events"));
+        assertFalse(IsapiParser.isXml(""));
+        assertNull(IsapiParser.parseReply("Error: No Events"));
+        assertNull(IsapiParser.parseReply(""));
+    }
+}
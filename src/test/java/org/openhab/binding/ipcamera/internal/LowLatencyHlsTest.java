@@ -0,0 +1,180 @@
+/**
+ * Copyright (c) 2010-2019 Contributors to the openHAB project
+ *
+ * See the NOTICE file(s) distributed with this work for additional
+ * information.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+
+package org.openhab.binding.ipcamera.internal;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import org.eclipse.jdt.annotation.NonNullByDefault;
+import org.junit.Test;
+
+/**
+ * Tests for {@link LowLatencyHls}.
+ *
+ * @author Matthew Skinner - Initial contribution
+ */
+
+@NonNullByDefault
+public class LowLatencyHlsTest {
+    private static final int TIMESCALE = 90000;
+    private static final int NON_SYNC = 0x00010000;
+
+    private static byte[] box(String type, byte[]... children) {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        for (byte[] child : children) {
+            body.write(child, 0, child.length);
+        }
+        return ByteBuffer.allocate(8 + body.size()).putInt(8 + body.size())
+                .put(type.getBytes(StandardCharsets.US_ASCII)).put(body.toByteArray()).array();
+    }
+
+    // a full box with version 0, the flags and then each field as 32 bits.
+    private static byte[] fullBox(String type, int flags, int... fields) {
+        ByteBuffer body = ByteBuffer.allocate(4 + fields.length * 4).putInt(flags);
+        for (int field : fields) {
+            body.putInt(field);
+        }
+        return box(type, body.array());
+    }
+
+    private static byte[] join(byte[]... parts) {
+        ByteArrayOutputStream joined = new ByteArrayOutputStream();
+        for (byte[] part : parts) {
+            joined.write(part, 0, part.length);
+        }
+        return joined.toByteArray();
+    }
+
+    // ftyp and moov for one video track with the id 1.
+    private static byte[] init() {
+        byte[] hdlr = fullBox("hdlr", 0, 0, 0x76696465, 0, 0, 0); // pre_defined, 'vide'
+        byte[] mdia = box("mdia", fullBox("mdhd", 0, 0, 0, TIMESCALE, 0, 0), hdlr);
+        byte[] trak = box("trak", fullBox("tkhd", 3, 0, 0, 1, 0, 0), mdia);
+        byte[] mvex = box("mvex", fullBox("trex", 0, 1, 1, 0, 0, 0));
+        return join(box("ftyp", "isom".getBytes(StandardCharsets.US_ASCII), new byte[4]), box("moov", trak, mvex));
+    }
+
+    // a moof and mdat with one sample of the duration, which is a key frame when independent.
+    private static byte[] part(double seconds, boolean independent) {
+        byte[] tfhd = fullBox("tfhd", 0x020000, 1);
+        // data offset, first sample flags and a duration for each sample.
+        byte[] trun = fullBox("trun", 0x000105, 1, 0, independent ? 0 : NON_SYNC, (int) (seconds * TIMESCALE));
+        byte[] moof = box("moof", fullBox("mfhd", 0, 1), box("traf", tfhd, trun));
+        return join(moof, box("mdat", new byte[] { 1, 2, 3, 4 }));
+    }
+
+    private static void feed(LowLatencyHls lowLatencyHls, byte[] data) {
+        lowLatencyHls.ffmpegOutput(data, data.length);
+    }
+
+    // four parts of 0.5 seconds, the first a key frame, make one 2 second segment.
+    private static byte[] segment() {
+        return join(part(0.5, true), part(0.5, false), part(0.5, false), part(0.5, false));
+    }
+
+    @Test
+    public void groupsPartsIntoSegmentsThatStartOnAKeyFrame() {
+        LowLatencyHls lowLatencyHls = new LowLatencyHls();
+        assertNull(lowLatencyHls.getPlaylist());
+        feed(lowLatencyHls, init());
+        feed(lowLatencyHls, part(0.5, false));
+        assertNull(lowLatencyHls.getPlaylist());
+        feed(lowLatencyHls, join(segment(), part(0.5, true)));
+        String playlist = lowLatencyHls.getPlaylist();
+        assertNotNull(playlist);
+        assertTrue(playlist.contains("#EXT-X-PART:DURATION=0.50000,URI=\"llpart0.0.m4s\",INDEPENDENT=YES\n"
+                + "#EXT-X-PART:DURATION=0.50000,URI=\"llpart0.1.m4s\"\n"));
+        assertTrue(playlist
+                .contains("#EXTINF:2.00000,\nllseg0.m4s\n#EXT-X-PART:DURATION=0.50000,URI=\"llpart1.0.m4s\""));
+        assertTrue(playlist.endsWith("#EXT-X-PRELOAD-HINT:TYPE=PART,URI=\"llpart1.1.m4s\"\n"));
+        assertTrue(lowLatencyHls.isAvailable(0, -1));
+        assertFalse(lowLatencyHls.isAvailable(1, -1));
+        assertNotNull(lowLatencyHls.getSegment(0));
+        assertNull(lowLatencyHls.getSegment(1));
+        assertArrayEquals(part(0.5, true), lowLatencyHls.getPart(1, 0));
+    }
+
+    @Test
+    public void readsBoxesThatAreSplitBetweenReads() {
+        byte[] stream = join(init(), segment(), part(0.5, true));
+        LowLatencyHls whole = new LowLatencyHls();
+        feed(whole, stream);
+        for (int chunk : new int[] { 1, 3, 7, 100 }) {
+            LowLatencyHls split = new LowLatencyHls();
+            for (int offset = 0; offset < stream.length; offset += chunk) {
+                feed(split, Arrays.copyOfRange(stream, offset, Math.min(stream.length, offset + chunk)));
+            }
+            assertEquals("chunks of " + chunk, whole.getPlaylist(), split.getPlaylist());
+            assertArrayEquals(whole.getInit(), split.getInit());
+        }
+    }
+
+    @Test
+    public void findsTheNextPartAfterCorruptData() {
+        LowLatencyHls lowLatencyHls = new LowLatencyHls();
+        feed(lowLatencyHls, join(init(), segment()));
+        byte[] corrupt = new byte[300];
+        Arrays.fill(corrupt, (byte) 0xA5);
+        // a moof cut short by the corrupt data is dropped, the parts after it are used.
+        byte[] cutShort = Arrays.copyOf(part(0.5, true), 20);
+        byte[] after = join(part(0.5, true), part(0.5, false));
+        feed(lowLatencyHls, join(cutShort, corrupt, Arrays.copyOf(after, 50)));
+        feed(lowLatencyHls, Arrays.copyOfRange(after, 50, after.length));
+        String playlist = lowLatencyHls.getPlaylist();
+        assertNotNull(playlist);
+        assertTrue(playlist.contains("llseg0.m4s"));
+        assertTrue(playlist.contains("URI=\"llpart1.1.m4s\"\n#EXT-X-PRELOAD-HINT:TYPE=PART,URI=\"llpart1.2.m4s\""));
+    }
+
+    @Test
+    public void startsAgainAfterFfmpegExitsPartWayThroughABox() {
+        LowLatencyHls lowLatencyHls = new LowLatencyHls();
+        feed(lowLatencyHls, join(init(), segment()));
+        byte[] unfinished = part(0.5, true);
+        feed(lowLatencyHls, Arrays.copyOf(unfinished, unfinished.length - 3));
+        lowLatencyHls.ffmpegStopped();
+        assertNull(lowLatencyHls.getPlaylist());
+        // the restarted process sends a new init, its parts carry on with the next sequence number.
+        feed(lowLatencyHls, join(init(), part(0.5, true), part(0.5, false)));
+        String playlist = lowLatencyHls.getPlaylist();
+        assertNotNull(playlist);
+        assertTrue(playlist.contains("#EXT-X-MEDIA-SEQUENCE:1\n"));
+        assertTrue(playlist.contains("URI=\"llpart1.1.m4s\"\n#EXT-X-PRELOAD-HINT:TYPE=PART,URI=\"llpart1.2.m4s\""));
+    }
+
+    @Test
+    public void keepsThePartTargetWhenAPartIsLonger() {
+        LowLatencyHls lowLatencyHls = new LowLatencyHls();
+        feed(lowLatencyHls, join(init(), part(0.5, true), part(0.9, false)));
+        String playlist = lowLatencyHls.getPlaylist();
+        assertNotNull(playlist);
+        assertTrue(playlist.contains("#EXT-X-PART-INF:PART-TARGET=0.50000\n"));
+        assertTrue(playlist.contains("PART-HOLD-BACK=1.50000\n"));
+    }
+
+    @Test
+    public void runsAWaitingRequestOnceItsPartArrives() {
+        LowLatencyHls lowLatencyHls = new LowLatencyHls();
+        feed(lowLatencyHls, join(init(), part(0.5, true)));
+        boolean[] ran = new boolean[1];
+        assertFalse(lowLatencyHls.whenAvailable(0, 1, () -> ran[0] = true));
+        assertFalse(ran[0]);
+        feed(lowLatencyHls, part(0.5, false));
+        assertTrue(ran[0]);
+    }
+}
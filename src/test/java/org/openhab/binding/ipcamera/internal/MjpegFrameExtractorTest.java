@@ -0,0 +1,126 @@
+/**
+ * Copyright (c) 2010-2019 Contributors to the openHAB project
+ *
+ * See the NOTICE file(s) distributed with this work for additional
+ * information.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+
+package org.openhab.binding.ipcamera.internal;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import org.eclipse.jdt.annotation.NonNullByDefault;
+import org.eclipse.jdt.annotation.Nullable;
+import org.junit.Test;
+
+import io.netty.buffer.Unpooled;
+
+/**
+ * Tests for {@link MjpegFrameExtractor}.
+ *
+ * @author Matthew Skinner - Initial contribution
+ */
+
+@NonNullByDefault
+public class MjpegFrameExtractorTest {
+
+    private static byte[] join(byte[]... parts) {
+        ByteArrayOutputStream joined = new ByteArrayOutputStream();
+        for (byte[] part : parts) {
+            joined.write(part, 0, part.length);
+        }
+        return joined.toByteArray();
+    }
+
+    private static byte[] bytes(int... values) {
+        byte[] bytes = new byte[values.length];
+        for (int i = 0; i < values.length; i++) {
+            bytes[i] = (byte) values[i];
+        }
+        return bytes;
+    }
+
+    // a marker and its segment, the length counts its own two bytes.
+    private static byte[] segment(int marker, byte[] data) {
+        int length = data.length + 2;
+        return join(bytes(0xFF, marker, length >> 8, length & 0xFF), data);
+    }
+
+    // a picture with an EXIF thumbnail, a table with a 0xFF at the end and data with stuffed and restart markers.
+    private static byte[] jpeg(int seed) {
+        byte[] thumbnail = join(bytes(0xFF, 0xD8), segment(0xDB, bytes(0, 1, 2)), segment(0xDA, bytes(1, 1, 0)),
+                bytes(9, 8, 0xFF, 0x00, 7, 0xFF, 0xD9));
+        byte[] exif = join("Exif".getBytes(StandardCharsets.US_ASCII), bytes(0, 0), thumbnail);
+        return join(bytes(0xFF, 0xD8), segment(0xE1, exif), segment(0xDB, bytes(seed, 2, 0xFF)),
+                segment(0xC0, bytes(8, 0, 16, 0, 16, 1)), segment(0xDA, bytes(1, 1, 0)),
+                bytes(seed, 0xFF, 0x00, 0x55, 0xFF, 0xD0, 0x66, 0xFF, 0xFF, 0x00, 0x77), bytes(0xFF, 0xD9));
+    }
+
+    private static byte[] part(byte[] jpeg) {
+        byte[] headers = ("--boundary\r\nContent-Type: image/jpeg\r\nContent-Length: " + jpeg.length + "\r\n\r\n")
+                .getBytes(StandardCharsets.US_ASCII);
+        return join(headers, jpeg, "\r\n".getBytes(StandardCharsets.US_ASCII));
+    }
+
+    private static byte @Nullable [] add(MjpegFrameExtractor extractor, byte[] data) {
+        return extractor.add(Unpooled.wrappedBuffer(data));
+    }
+
+    @Test
+    public void keepsThePictureAfterAnExifThumbnail() {
+        MjpegFrameExtractor extractor = new MjpegFrameExtractor();
+        assertArrayEquals(jpeg(1), add(extractor, part(jpeg(1))));
+    }
+
+    @Test
+    public void readsPicturesThatAreSplitBetweenReads() {
+        byte[] stream = join(part(jpeg(1)), part(jpeg(2)));
+        for (int chunk : new int[] { 1, 2, 5, 100 }) {
+            MjpegFrameExtractor extractor = new MjpegFrameExtractor();
+            int found = 0;
+            for (int offset = 0; offset < stream.length; offset += chunk) {
+                byte[] chunkData = Arrays.copyOfRange(stream, offset, Math.min(stream.length, offset + chunk));
+                byte[] jpg = add(extractor, chunkData);
+                if (jpg != null) {
+                    found++;
+                    assertArrayEquals("chunks of " + chunk, jpeg(found), jpg);
+                }
+            }
+            assertEquals("chunks of " + chunk, 2, found);
+        }
+    }
+
+    @Test
+    public void returnsTheNewestPictureWhenTwoEndInOneRead() {
+        MjpegFrameExtractor extractor = new MjpegFrameExtractor();
+        assertArrayEquals(jpeg(2), add(extractor, join(part(jpeg(1)), part(jpeg(2)))));
+        byte[] third = part(jpeg(3));
+        // the start of the next picture in the same read is kept for the next one.
+        assertArrayEquals(jpeg(2), add(extractor, join(part(jpeg(2)), Arrays.copyOf(third, 80))));
+        assertArrayEquals(jpeg(3), add(extractor, Arrays.copyOfRange(third, 80, third.length)));
+    }
+
+    @Test
+    public void findsTheNextPictureAfterCorruptData() {
+        MjpegFrameExtractor extractor = new MjpegFrameExtractor();
+        // a picture cut short in its data, then one where a segment is missing its marker.
+        byte[] cutShort = Arrays.copyOf(jpeg(1), jpeg(1).length - 6);
+        byte[] noMarker = join(bytes(0xFF, 0xD8), bytes(0x12, 0x34), jpeg(1));
+        assertNull(add(extractor, cutShort));
+        assertArrayEquals(jpeg(2), add(extractor, part(jpeg(2))));
+        assertArrayEquals(jpeg(1), add(extractor, noMarker));
+        extractor.reset();
+        assertNull(add(extractor, Arrays.copyOfRange(jpeg(3), 1, 30)));
+        assertArrayEquals(jpeg(3), add(extractor, part(jpeg(3))));
+    }
+}
@@ -0,0 +1,118 @@
+/**
+ * Copyright (c) 2010-2019 Contributors to the openHAB project
+ *
+ * See the NOTICE file(s) distributed with this work for additional
+ * information.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+
+package org.openhab.binding.ipcamera.internal;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.eclipse.jdt.annotation.NonNullByDefault;
+import org.junit.Test;
+
+import io.netty.buffer.Unpooled;
+
+/**
+ * Tests for {@link RtpDepacketizer}.
+ *
+ * @author Matthew Skinner - Initial contribution
+ */
+
+@NonNullByDefault
+public class RtpDepacketizerTest {
+    private final List<String> accessUnits = new ArrayList<>();
+    private final RtpDepacketizer depacketizer = new RtpDepacketizer(false,
+            (nalUnits, timestamp, keyFrame) -> accessUnits.add(describe(nalUnits, timestamp, keyFrame)));
+
+    // the hex of each NAL unit, then the timestamp and if it was a key frame.
+    private static String describe(List<byte[]> nalUnits, long timestamp, boolean keyFrame) {
+        StringBuilder description = new StringBuilder();
+        for (byte[] nalUnit : nalUnits) {
+            for (byte value : nalUnit) {
+                description.append(String.format("%02x", value & 0xFF));
+            }
+            description.append(' ');
+        }
+        return description.append('@').append(timestamp).append(keyFrame ? " key" : "").toString();
+    }
+
+    private static byte[] rtp(int sequence, long timestamp, boolean marker, int... payload) {
+        byte[] packet = new byte[12 + payload.length];
+        packet[0] = (byte) 0x80;
+        packet[1] = (byte) ((marker ? 0x80 : 0) | 96);
+        packet[2] = (byte) (sequence >> 8);
+        packet[3] = (byte) sequence;
+        packet[4] = (byte) (timestamp >> 24);
+        packet[5] = (byte) (timestamp >> 16);
+        packet[6] = (byte) (timestamp >> 8);
+        packet[7] = (byte) timestamp;
+        for (int i = 0; i < payload.length; i++) {
+            packet[12 + i] = (byte) payload[i];
+        }
+        return packet;
+    }
+
+    private void send(byte[] packet) {
+        depacketizer.rtpPacket(Unpooled.wrappedBuffer(packet));
+    }
+
+    @Test
+    public void joinsANalUnitThatIsSplitOverPackets() {
+        // an IDR slice in three FU-A fragments: start, middle and end.
+        send(rtp(1, 3000, false, 0x7C, 0x85, 0x88, 0x01));
+        send(rtp(2, 3000, false, 0x7C, 0x05, 0x02));
+        send(rtp(3, 3000, true, 0x7C, 0x45, 0x03, 0x04));
+        assertEquals(Arrays.asList("658801020304 @3000 key"), accessUnits);
+    }
+
+    @Test
+    public void readsSingleAndAggregatedNalUnits() {
+        // a STAP-A with a SPS and a PPS, then a slice of the same picture.
+        send(rtp(10, 9000, false, 0x18, 0x00, 0x02, 0x67, 0x42, 0x00, 0x01, 0x68));
+        send(rtp(11, 9000, true, 0x41, 0x9A));
+        // a new timestamp finishes a picture even when its marker was lost.
+        send(rtp(12, 12000, false, 0x41, 0x9B));
+        send(rtp(13, 15000, true, 0x41, 0x9C));
+        assertEquals(Arrays.asList("6742 68 419a @9000", "419b @12000", "419c @15000"), accessUnits);
+        assertTrue(RtpDepacketizer.startsKeyFrame(Unpooled.wrappedBuffer(
+                rtp(10, 9000, false, 0x18, 0x00, 0x02, 0x67, 0x42, 0x00, 0x01, 0x68)), false));
+        assertFalse(RtpDepacketizer.startsKeyFrame(Unpooled.wrappedBuffer(rtp(11, 9000, true, 0x41, 0x9A, 1, 2)),
+                false));
+    }
+
+    @Test
+    public void dropsANalUnitThatLostAFragmentAndCarriesOn() {
+        send(rtp(1, 3000, false, 0x7C, 0x85, 0x01));
+        // packet 2, the middle of the NAL, never arrives.
+        send(rtp(3, 3000, true, 0x7C, 0x45, 0x03));
+        // an end without a start, then a fragment of a NAL that started before the stream was joined.
+        send(rtp(4, 6000, false, 0x7C, 0x01, 0x05));
+        send(rtp(5, 6000, true, 0x7C, 0x41, 0x06));
+        send(rtp(6, 9000, false, 0x7C, 0x81, 0x07));
+        send(rtp(7, 9000, true, 0x7C, 0x41, 0x08));
+        assertEquals(Arrays.asList("610708 @9000"), accessUnits);
+    }
+
+    @Test
+    public void ignoresPacketsThatAreNotRtp() {
+        send(new byte[] { 0x00, 0x60, 0, 1, 0, 0, 0, 0, 0, 0, 0, 0, 0x41, 0x01 });
+        send(new byte[] { (byte) 0x80, (byte) 0xE0, 0, 2 });
+        // a STAP-A that says its NAL unit is longer than the packet.
+        send(rtp(3, 3000, true, 0x18, 0x00, 0x09, 0x41, 0x01));
+        assertTrue(accessUnits.isEmpty());
+        send(rtp(4, 6000, true, 0x41, 0x02));
+        assertEquals(Arrays.asList("4102 @6000"), accessUnits);
+    }
+}
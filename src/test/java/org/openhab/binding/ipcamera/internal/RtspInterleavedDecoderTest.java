@@ -0,0 +1,118 @@
+/**
+ * Copyright (c) 2010-2019 Contributors to the openHAB project
+ *
+ * See the NOTICE file(s) distributed with this work for additional
+ * information.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+
+package org.openhab.binding.ipcamera.internal;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.eclipse.jdt.annotation.NonNullByDefault;
+import org.junit.Test;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.util.CharsetUtil;
+
+/**
+ * Tests for {@link RtspInterleavedDecoder}.
+ *
+ * @author Matthew Skinner - Initial contribution
+ */
+
+@NonNullByDefault
+public class RtspInterleavedDecoderTest {
+    private static final String REPLY = "RTSP/1.0 200 OK\r\nCSeq: 3\r\nContent-Length: 5\r\n\r\nv=0\r\n";
+    private static final String REQUEST = "GET_PARAMETER rtsp://camera/ RTSP/1.0\r\nCSeq: 9\r\n\r\n";
+
+    private static byte[] join(byte[]... parts) {
+        ByteArrayOutputStream joined = new ByteArrayOutputStream();
+        for (byte[] part : parts) {
+            joined.write(part, 0, part.length);
+        }
+        return joined.toByteArray();
+    }
+
+    private static byte[] ascii(String text) {
+        return text.getBytes(StandardCharsets.US_ASCII);
+    }
+
+    // an interleaved RTP packet with a 12 byte header and the payload.
+    private static byte[] rtp(int channel, int sequence, int... payload) {
+        int length = 12 + payload.length;
+        byte[] packet = new byte[4 + length];
+        byte[] header = new byte[] { '$', (byte) channel, (byte) (length >> 8), (byte) length, (byte) 0x80, 96,
+                (byte) (sequence >> 8), (byte) sequence, 0, 0, 0, 0, 0, 0, 0, 1 };
+        System.arraycopy(header, 0, packet, 0, header.length);
+        for (int i = 0; i < payload.length; i++) {
+            packet[header.length + i] = (byte) payload[i];
+        }
+        return packet;
+    }
+
+    // each message as text, or the channel and the hex of a RTP packet.
+    private static List<String> decode(byte[] stream, int chunk) {
+        EmbeddedChannel channel = new EmbeddedChannel(new RtspInterleavedDecoder());
+        for (int offset = 0; offset < stream.length; offset += chunk) {
+            byte[] read = Arrays.copyOfRange(stream, offset, Math.min(stream.length, offset + chunk));
+            channel.writeInbound(Unpooled.wrappedBuffer(read));
+        }
+        List<String> messages = new ArrayList<>();
+        Object message;
+        while ((message = channel.readInbound()) != null) {
+            if (message instanceof RtspInterleavedDecoder.InterleavedFrame) {
+                RtspInterleavedDecoder.InterleavedFrame frame = (RtspInterleavedDecoder.InterleavedFrame) message;
+                messages.add(frame.channel + ":" + ByteBufUtil.hexDump(frame.content()));
+                frame.release();
+            } else {
+                ByteBuf text = (ByteBuf) message;
+                messages.add(text.toString(CharsetUtil.US_ASCII));
+                text.release();
+            }
+        }
+        channel.finishAndReleaseAll();
+        return messages;
+    }
+
+    @Test
+    public void splitsPacketsFromMessagesInReadsOfAnySize() {
+        byte[] stream = join(rtp(0, 1, 0x65, 1, 2), ascii(REPLY), rtp(1, 2), ascii(REQUEST),
+                rtp(0, 3, '$', '\r', '\n'));
+        List<String> whole = decode(stream, stream.length);
+        assertEquals(5, whole.size());
+        assertEquals("0:" + ByteBufUtil.hexDump(Arrays.copyOfRange(rtp(0, 1, 0x65, 1, 2), 4, 19)), whole.get(0));
+        assertEquals(REPLY, whole.get(1));
+        assertEquals(REQUEST, whole.get(3));
+        for (int chunk : new int[] { 1, 2, 3, 7 }) {
+            assertEquals("chunks of " + chunk, whole, decode(stream, chunk));
+        }
+    }
+
+    @Test
+    public void skipsBytesThatStartNeitherAPacketNorAMessage() {
+        byte[] good = join(rtp(0, 1, 0x41), ascii(REPLY), rtp(0, 2, 0x41));
+        List<String> expected = decode(good, good.length);
+        // a '$' without a RTP version 2 header, then text that is not RTSP.
+        byte[] junk = ascii("$\u0000\u0010\u0000junk\r\n\r\nrtsp/1.0 200 OK\r\nLONG_WORD_THAT_IS_NO_METHOD OPTIONS ");
+        byte[] stream = join(junk, good);
+        for (int chunk : new int[] { 1, 5, stream.length }) {
+            assertEquals("chunks of " + chunk, expected, decode(stream, chunk));
+        }
+    }
+}
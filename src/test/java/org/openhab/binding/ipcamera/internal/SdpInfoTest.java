@@ -0,0 +1,131 @@
+/**
+ * Copyright (c) 2010-2019 Contributors to the openHAB project
+ *
+ * See the NOTICE file(s) distributed with this work for additional
+ * information.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+
+package org.openhab.binding.ipcamera.internal;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.Base64;
+
+import org.eclipse.jdt.annotation.NonNullByDefault;
+import org.junit.Test;
+
+/**
+ * Tests for {@link SdpInfo}.
+ *
+ * @author Matthew Skinner - Initial contribution
+ */
+
+@NonNullByDefault
+public class SdpInfoTest {
+    private static final byte[] PPS = new byte[] { 0x68, (byte) 0xCE, 0x3C, (byte) 0x80 };
+
+    // writes the fields of a SPS as a string of bits, then packs them into bytes.
+    private static class BitWriter {
+        private final StringBuilder bits = new StringBuilder();
+
+        BitWriter bits(int value, int count) {
+            for (int i = count - 1; i >= 0; i--) {
+                bits.append((value >> i) & 1);
+            }
+            return this;
+        }
+
+        BitWriter ue(int value) {
+            int length = 32 - Integer.numberOfLeadingZeros(value + 1);
+            return bits(0, length - 1).bits(value + 1, length);
+        }
+
+        byte[] toBytes() {
+            bits.append('1');// rbsp_stop_one_bit
+            while (bits.length() % 8 != 0) {
+                bits.append('0');
+            }
+            byte[] bytes = new byte[bits.length() / 8];
+            for (int i = 0; i < bytes.length; i++) {
+                bytes[i] = (byte) Integer.parseInt(bits.substring(i * 8, i * 8 + 8), 2);
+            }
+            return bytes;
+        }
+    }
+
+    // a baseline SPS for 1920x1080, which is 1088 lines of macroblocks cropped by 8.
+    private static byte[] sps() {
+        BitWriter writer = new BitWriter().bits(0x67, 8).bits(66, 8).bits(0x0028, 16);
+        writer.ue(0).ue(0).ue(0).ue(0).ue(1).bits(0, 1);// id, frame_num, poc type and lsb, refs, gaps
+        writer.ue(119).ue(67).bits(1, 1).bits(1, 1);// size in macroblocks, frame_mbs_only and direct_8x8
+        writer.bits(1, 1).ue(0).ue(0).ue(0).ue(4).bits(0, 1);// cropping and no VUI
+        return writer.toBytes();
+    }
+
+    private static String sdp(String sprop) {
+        return "v=0\r\no=- 1 1 IN IP4 192.168.1.2\r\ns=Media Presentation\r\nt=0 0\r\na=control:*\r\n"
+                + "m=video 0 RTP/AVP 96\r\na=rtpmap:96 H264/90000\r\n"
+                + "a=fmtp:96 packetization-mode=1;profile-level-id=420028;sprop-parameter-sets=" + sprop + "\r\n"
+                + "a=control:trackID=1\r\nm=audio 0 RTP/AVP 8\r\na=rtpmap:8 PCMA/8000/1\r\n"
+                + "a=control:rtsp://192.168.1.2:554/audio\r\n";
+    }
+
+    @Test
+    public void readsTheTracksAndThePictureSize() {
+        Base64.Encoder base64 = Base64.getEncoder();
+        String sprop = base64.encodeToString(sps()) + "," + base64.encodeToString(PPS);
+        SdpInfo sdpInfo = SdpInfo.parse(sdp(sprop), "rtsp://192.168.1.2:554/live/");
+        assertEquals(2, sdpInfo.listOfMedia.size());
+        SdpInfo.Media video = sdpInfo.getVideo();
+        assertNotNull(video);
+        assertTrue(video.isH264());
+        assertEquals(96, video.payloadType);
+        assertEquals("rtsp://192.168.1.2:554/live/trackID=1", video.control);
+        assertEquals(2, video.parameterSets.size());
+        assertArrayEquals(PPS, video.parameterSets.get(1));
+        assertEquals(66, video.profile);
+        assertEquals(1920, video.width);
+        assertEquals(1080, video.height);
+        SdpInfo.Media audio = sdpInfo.getAudio();
+        assertNotNull(audio);
+        assertEquals("PCMA", audio.codec);
+        assertEquals(8000, audio.clockRate);
+        assertEquals("rtsp://192.168.1.2:554/audio", audio.control);
+    }
+
+    @Test
+    public void readsTheSameWithOnlyNewLines() {
+        String sprop = Base64.getEncoder().encodeToString(sps());
+        SdpInfo.Media withReturns = SdpInfo.parse(sdp(sprop), "rtsp://camera").getVideo();
+        SdpInfo.Media withNewLines = SdpInfo.parse(sdp(sprop).replace("\r\n", "\n"), "rtsp://camera").getVideo();
+        assertNotNull(withReturns);
+        assertNotNull(withNewLines);
+        assertEquals(withReturns.toString(), withNewLines.toString());
+        assertEquals(withReturns.control, withNewLines.control);
+    }
+
+    @Test
+    public void carriesOnPastLinesAndParameterSetsThatAreBroken() {
+        byte[] cutShort = Arrays.copyOf(sps(), 5);
+        String sprop = "not*base64," + Base64.getEncoder().encodeToString(cutShort);
+        String broken = "junk\r\n=\r\nm\r\n" + sdp(sprop).replace("a=rtpmap:8 PCMA/8000/1", "a=rtpmap:8 PCMA/rate");
+        SdpInfo sdpInfo = SdpInfo.parse(broken, "rtsp://camera/");
+        SdpInfo.Media video = sdpInfo.getVideo();
+        assertNotNull(video);
+        // the SPS is used as far as it goes, a picture size is not made up from it.
+        assertEquals(1, video.parameterSets.size());
+        assertEquals(0, video.width);
+        assertEquals(0, video.height);
+        SdpInfo.Media audio = sdpInfo.getAudio();
+        assertNotNull(audio);
+        assertEquals("PCMA", audio.codec);
+        assertEquals(90000, audio.clockRate);
+    }
+}
@@ -0,0 +1,93 @@
+/**
+ * Copyright (c) 2010-2019 Contributors to the openHAB project
+ *
+ * See the NOTICE file(s) distributed with this work for additional
+ * information.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+
+package org.openhab.binding.ipcamera.internal;
+
+import static org.junit.Assert.*;
+
+import java.nio.charset.StandardCharsets;
+
+import org.eclipse.jdt.annotation.NonNullByDefault;
+import org.junit.Test;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.channel.group.ChannelGroup;
+import io.netty.channel.group.DefaultChannelGroup;
+import io.netty.util.concurrent.ImmediateEventExecutor;
+
+/**
+ * Tests for the Range header and MJPEG support of {@link StreamServerUtils}.
+ *
+ * @author Matthew Skinner - Initial contribution
+ */
+
+@NonNullByDefault
+public class StreamServerUtilsTest {
+
+    @Test
+    public void readsAStartAndEnd() {
+        assertArrayEquals(new long[] { 0, 99 }, StreamServerUtils.parseRange("bytes=0-99", 1000));
+        assertArrayEquals(new long[] { 100, 100 }, StreamServerUtils.parseRange("bytes=100-100", 1000));
+    }
+
+    @Test
+    public void readsAnOpenEnd() {
+        assertArrayEquals(new long[] { 500, 999 }, StreamServerUtils.parseRange("bytes=500-", 1000));
+    }
+
+    @Test
+    public void readsTheLastBytes() {
+        assertArrayEquals(new long[] { 900, 999 }, StreamServerUtils.parseRange("bytes=-100", 1000));
+        assertArrayEquals(new long[] { 0, 999 }, StreamServerUtils.parseRange("bytes=-2000", 1000));
+    }
+
+    @Test
+    public void stopsAtTheEndOfTheContent() {
+        assertArrayEquals(new long[] { 0, 999 }, StreamServerUtils.parseRange("bytes=0-5000", 1000));
+    }
+
+    @Test
+    public void cannotBeSatisfiedOutsideTheContent() {
+        assertArrayEquals(new long[0], StreamServerUtils.parseRange("bytes=1000-", 1000));
+        assertArrayEquals(new long[0], StreamServerUtils.parseRange("bytes=2000-3000", 1000));
+        assertArrayEquals(new long[0], StreamServerUtils.parseRange("bytes=-0", 1000));
+    }
+
+    @Test
+    public void sendsTheWholeContentForRangesItCanNotUse() {
+        assertNull(StreamServerUtils.parseRange(null, 1000));
+        assertNull(StreamServerUtils.parseRange("items=0-99", 1000));
+        assertNull(StreamServerUtils.parseRange("bytes=0-1,5-6", 1000));
+        assertNull(StreamServerUtils.parseRange("bytes=5", 1000));
+        assertNull(StreamServerUtils.parseRange("bytes=a-b", 1000));
+        assertNull(StreamServerUtils.parseRange("bytes=500-100", 1000));
+    }
+
+    @Test
+    public void sendsEachMjpegFrameAsOneWrite() {
+        EmbeddedChannel channel = new EmbeddedChannel();
+        ChannelGroup channelGroup = new DefaultChannelGroup(ImmediateEventExecutor.INSTANCE);
+        channelGroup.add(channel);
+        StreamServerUtils.sendMjpegFrame(new byte[] { 1, 2, 3 }, channelGroup);
+        StreamServerUtils.sendMjpegFrame(new byte[] { 4 }, channelGroup);
+        for (String jpg : new String[] { "\u0001\u0002\u0003", "\u0004" }) {
+            ByteBuf part = channel.readOutbound();
+            assertEquals("--" + StreamServerUtils.MJPEG_BOUNDARY + "\r\ncontent-type: image/jpeg\r\ncontent-length: "
+                    + jpg.length() + "\r\n\r\n" + jpg + "\r\n", part.toString(StandardCharsets.UTF_8));
+            part.release();
+        }
+        assertNull(channel.readOutbound());
+        channel.finishAndReleaseAll();
+    }
+}
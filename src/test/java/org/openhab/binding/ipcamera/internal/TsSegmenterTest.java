@@ -0,0 +1,171 @@
+/**
+ * Copyright (c) 2010-2019 Contributors to the openHAB project
+ *
+ * See the NOTICE file(s) distributed with this work for additional
+ * information.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which is available at
+ * http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+
+package org.openhab.binding.ipcamera.internal;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.eclipse.jdt.annotation.NonNullByDefault;
+import org.junit.Test;
+
+/**
+ * Tests for {@link TsSegmenter}.
+ *
+ * @author Matthew Skinner - Initial contribution
+ */
+
+@NonNullByDefault
+public class TsSegmenterTest {
+    private static final byte[] SPS = new byte[] { 0x67, 0x42, 0x00, 0x28 };
+    private static final byte[] PPS = new byte[] { 0x68, (byte) 0xCE };
+    // 0.1 seconds at 90kHz.
+    private static final long FRAME = 9000;
+    private final SegmentCache segmentCache = new SegmentCache(SegmentCache.DEFAULT_MAX_BYTES);
+    private final TsSegmenter segmenter = new TsSegmenter(segmentCache);
+    private final List<HlsPlaylist> playlists = new ArrayList<>();
+
+    {
+        segmenter.setPlaylistListener(playlists::add);
+    }
+
+    private static byte[] slice(int type, int size) {
+        byte[] slice = new byte[size];
+        Arrays.fill(slice, (byte) 0x5A);
+        slice[0] = (byte) type;
+        return slice;
+    }
+
+    private void keyFrame(long timestamp, byte[] idr) {
+        segmenter.accessUnit(Arrays.asList(SPS, PPS, idr), timestamp, true);
+    }
+
+    private void picture(long timestamp) {
+        segmenter.accessUnit(Arrays.asList(slice(0x41, 50)), timestamp, false);
+    }
+
+    // a key frame every second, for the given number of seconds.
+    private void play(long start, int seconds) {
+        for (int frame = 0; frame < seconds * 10; frame++) {
+            long timestamp = start + frame * FRAME;
+            if (frame % 10 == 0) {
+                keyFrame(timestamp, slice(0x65, 50));
+            } else {
+                picture(timestamp);
+            }
+        }
+    }
+
+    private byte[] segment(int sequence) {
+        byte[] segment = segmentCache.get(TsSegmenter.segmentName(sequence));
+        assertNotNull(segment);
+        return segment;
+    }
+
+    private static int pid(byte[] segment, int packet) {
+        return ((segment[packet * 188 + 1] & 0x1F) << 8) | (segment[packet * 188 + 2] & 0xFF);
+    }
+
+    // the payload of every packet of the video PID, joined back into the PES packets.
+    private static byte[] videoPayload(byte[] segment) {
+        ByteArrayOutputStream payload = new ByteArrayOutputStream();
+        for (int start = 0; start < segment.length; start += 188) {
+            if (pid(segment, start / 188) != 0x100) {
+                continue;
+            }
+            int offset = start + 4;
+            if ((segment[start + 3] & 0x20) != 0) {
+                offset += 1 + (segment[start + 4] & 0xFF);
+            }
+            payload.write(segment, offset, start + 188 - offset);
+        }
+        return payload.toByteArray();
+    }
+
+    private static int indexOf(byte[] data, byte[] wanted) {
+        for (int i = 0; i + wanted.length <= data.length; i++) {
+            if (Arrays.equals(Arrays.copyOfRange(data, i, i + wanted.length), wanted)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    @Test
+    public void startsEachSegmentOnAKeyFrameWithThePatAndPmt() {
+        // pictures from before the first key frame can not be decoded, so they are left out.
+        picture(0);
+        play(FRAME, 5);
+        assertEquals(2, playlists.size());
+        HlsPlaylist playlist = playlists.get(1);
+        assertEquals(0, playlist.mediaSequence);
+        assertEquals(2.0, playlist.segments.get(1).duration, 0.0001);
+        byte[] segment = segment(1);
+        assertEquals(0, segment.length % 188);
+        for (int packet = 0; packet < segment.length / 188; packet++) {
+            assertEquals(0x47, segment[packet * 188]);
+        }
+        assertEquals(0, pid(segment, 0));
+        assertEquals(0x1000, pid(segment, 1));
+        assertEquals(0x100, pid(segment, 2));
+        // the first video packet starts the PES and says a player can start from it.
+        assertEquals(0x40, segment[2 * 188 + 1] & 0x40);
+        assertEquals(0x40, segment[2 * 188 + 5] & 0x40);
+        assertNotNull(segmentCache.get(TsSegmenter.PLAYLIST_NAME));
+    }
+
+    @Test
+    public void splitsALargePictureOverPacketsWithCountersThatFollowOn() {
+        byte[] idr = slice(0x65, 1000);
+        keyFrame(0, idr);
+        play(FRAME * 10, 2);
+        byte[] segment = segment(0);
+        byte[] payload = videoPayload(segment);
+        int found = indexOf(payload, idr);
+        assertTrue(found > 0);
+        assertArrayEquals(RtpDepacketizer.START_CODE, Arrays.copyOfRange(payload, found - 4, found));
+        int expected = -1;
+        for (int packet = 0; packet < segment.length / 188; packet++) {
+            if (pid(segment, packet) == 0x100) {
+                int counter = segment[packet * 188 + 3] & 0x0F;
+                if (expected >= 0) {
+                    assertEquals(expected, counter);
+                }
+                expected = (counter + 1) & 0x0F;
+            }
+        }
+    }
+
+    @Test
+    public void marksTheFirstSegmentAfterAClearAndKeepsCounting() {
+        play(0, 3);
+        assertEquals(1, playlists.size());
+        segmenter.clear();
+        // a picture that is not a key frame can not start the new segment.
+        picture(100 * FRAME);
+        play(101 * FRAME, 5);
+        HlsPlaylist playlist = playlists.get(playlists.size() - 1);
+        assertEquals(1, playlist.mediaSequence);
+        assertTrue(playlist.segments.get(0).discontinuity);
+        assertFalse(playlist.segments.get(1).discontinuity);
+        // the segment starts with the key frame, not the picture before it.
+        byte[] payload = videoPayload(segment(1));
+        assertTrue(indexOf(payload, SPS) >= 0);
+        assertTrue(indexOf(payload, SPS) < indexOf(payload, slice(0x65, 50)));
+        assertEquals(-1, indexOf(Arrays.copyOf(payload, indexOf(payload, SPS)), new byte[] { 0x41, 0x5A }));
+    }
+}